@@ -76,6 +76,31 @@ public abstract class AbstractGeometry extends AbstractTransformable implements
         return delta;
     }
 
+    /**
+     * Find the part that contains the given distance in a table of running lengths.
+     * <p/>
+     * Part i spans the distances offsets[i] to offsets[i + 1]. This returns the first part that ends at or after
+     * the given distance, using a binary search. Distances beyond the end return the last part.
+     *
+     * @param offsets the running lengths, starting at 0. This has count + 1 entries.
+     * @param count   the number of parts. Should be at least 1.
+     * @param absT    the absolute distance.
+     * @return the index of the part.
+     */
+    static int offsetIndex(double[] offsets, int count, double absT) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (absT <= offsets[mid + 1]) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
     public abstract Point pointAt(double t);
 
     public abstract IGeometry clone();
@@ -8,6 +8,7 @@ public abstract class AbstractGrob implements Grob {
     private TransformDelegate transformDelegate = DefaultTransformDelegate.getDefaultDelegate();
     private Transform transform;
     private AffineTransform savedTransform;
+    private boolean rasterCached;
 
     //// Constructors ////
 
@@ -17,6 +18,7 @@ public abstract class AbstractGrob implements Grob {
 
     protected AbstractGrob(AbstractGrob g) {
         this.transform = g.transform == null ? new Transform() : g.transform.clone();
+        this.rasterCached = g.rasterCached;
     }
 
     //// Transformations ////
@@ -78,17 +80,79 @@ public abstract class AbstractGrob implements Grob {
 
     //// Graphics context ////
 
+    /**
+     * Save the transformation of the graphics context in the grob.
+     *
+     * @param g the graphics context.
+     * @deprecated the grob can only be drawn on one graphics context at a time. Use
+     *             {@link #concatenateTransform(Graphics2D)} and {@link #restoreTransform(Graphics2D, AffineTransform)}.
+     */
+    @Deprecated
     protected void saveTransform(Graphics2D g) {
         assert (savedTransform == null);
         savedTransform = new AffineTransform(g.getTransform());
     }
 
+    /**
+     * Restore the transformation that was saved in the grob.
+     *
+     * @param g the graphics context.
+     * @deprecated use {@link #restoreTransform(Graphics2D, AffineTransform)}.
+     */
+    @Deprecated
     protected void restoreTransform(Graphics2D g) {
         assert (savedTransform != null);
-        g.setTransform(savedTransform);
+        restoreTransform(g, savedTransform);
         savedTransform = null;
     }
 
+    /**
+     * Add the transformation of the grob to the transformation of the graphics context.
+     * <p/>
+     * The caller keeps the previous transformation, not the grob, so the same grob can be drawn on several graphics
+     * contexts at once.
+     *
+     * @param g the graphics context.
+     * @return the previous transformation, to restore after drawing.
+     */
+    protected AffineTransform concatenateTransform(Graphics2D g) {
+        AffineTransform savedTransform = g.getTransform();
+        AffineTransform trans = g.getTransform();
+        trans.concatenate(transform.getAffineTransform());
+        g.setTransform(trans);
+        return savedTransform;
+    }
+
+    protected void restoreTransform(Graphics2D g, AffineTransform savedTransform) {
+        g.setTransform(savedTransform);
+    }
+
+    /**
+     * Returns true if the grob is drawn from an image in the shared raster cache.
+     *
+     * @return true if the raster cache is on.
+     * @see #setRasterCached(boolean)
+     */
+    public boolean isRasterCached() {
+        return rasterCached;
+    }
+
+    /**
+     * Turn the raster cache on or off.
+     * <p/>
+     * With the raster cache on, text is rendered into an image once, and the image is copied to the graphics
+     * context as long as only the translation changes. Images are always drawn directly.
+     *
+     * @param rasterCached true to turn the raster cache on.
+     * @see RasterCache
+     */
+    public void setRasterCached(boolean rasterCached) {
+        this.rasterCached = rasterCached;
+        if (!rasterCached) {
+            RasterCache.getShared().invalidate(this);
+        }
+    }
+
     public TransformDelegate getTransformDelegate() {
         return transformDelegate;
     }
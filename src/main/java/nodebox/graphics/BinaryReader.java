@@ -0,0 +1,333 @@
+package nodebox.graphics;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import static nodebox.graphics.BinaryWriter.*;
+
+/**
+ * Reads canvases, geometry and paths that were written by a BinaryWriter.
+ * <p/>
+ * The reader works on a byte buffer and decodes the points straight out of it. Reading a file maps it into memory,
+ * so it is never copied into an intermediate array:
+ * <pre>
+ * Canvas canvas = (Canvas) BinaryReader.read(file);
+ * </pre>
+ * All points of a path are decoded into one block of memory, like Path.pack() does, so reading many small
+ * contours doesn't allocate arrays for each of them.
+ *
+ * @see BinaryWriter
+ */
+public class BinaryReader {
+
+    private final ByteBuffer buffer;
+    private double scale;
+    private boolean exact;
+    // The rounded coordinates of the last point read in the current path.
+    private long lastX, lastY;
+
+    /**
+     * Create a reader for the given buffer. The data is read from the position of the buffer, but the position
+     * itself doesn't change.
+     *
+     * @param buffer the buffer, for example a mapped file.
+     */
+    public BinaryReader(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public BinaryReader(byte[] data) {
+        this(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Read the canvas, geometry or path in the file.
+     *
+     * @param file the file, as written by a BinaryWriter.
+     * @return a Canvas, Geometry or Path.
+     * @throws IOException if the file can't be read or is not in the right format.
+     */
+    public static Object read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer mapped;
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The file " + file + " is too large to read.");
+            }
+            // The mapping stays valid after the file is closed.
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        return new BinaryReader(mapped).read();
+    }
+
+    /**
+     * Read the record after the header.
+     *
+     * @return a Canvas, Geometry or Path.
+     * @throws IOException if the data is not in the right format.
+     */
+    public Object read() throws IOException {
+        try {
+            readHeader();
+            int tag = getByte();
+            switch (tag) {
+                case CANVAS:
+                    return readCanvas();
+                case GEOMETRY:
+                    return readGeometry();
+                case PATH:
+                    return readPath();
+                default:
+                    throw new IOException("Unknown record type " + tag + ".");
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("The data ends before the end of the record.", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("The data contains an invalid value.", e);
+        }
+    }
+
+    //// Records ////
+
+    private void readHeader() throws IOException {
+        for (byte b : MAGIC) {
+            if (buffer.get() != b) throw new IOException("The data is not in the NodeBox binary format.");
+        }
+        int version = getByte();
+        if (version != VERSION) throw new IOException("Unsupported version " + version + ".");
+        int precision = getByte();
+        if (precision == EXACT_MARKER) {
+            exact = true;
+            scale = 1;
+        } else if (precision <= MAX_PRECISION) {
+            exact = false;
+            scale = Math.pow(10, precision);
+        } else {
+            throw new IOException("Unsupported precision " + precision + ".");
+        }
+    }
+
+    private Canvas readCanvas() throws IOException {
+        Canvas canvas = new Canvas();
+        canvas.setOffsetX(buffer.getDouble());
+        canvas.setOffsetY(buffer.getDouble());
+        double width = buffer.getDouble();
+        double height = buffer.getDouble();
+        canvas.setSize(width, height);
+        canvas.setBackground(readColor());
+        int itemCount = getCount();
+        for (int i = 0; i < itemCount; i++) {
+            canvas.add(readItem());
+        }
+        return canvas;
+    }
+
+    private Grob readItem() throws IOException {
+        int tag = getByte();
+        switch (tag) {
+            case PATH:
+                return readPath();
+            case GEOMETRY:
+                return readGeometry();
+            case TEXT:
+                return readText();
+            case IMAGE:
+                return readImage();
+            default:
+                throw new IOException("Unknown item type " + tag + ".");
+        }
+    }
+
+    private Geometry readGeometry() throws IOException {
+        Geometry geometry = new Geometry();
+        int pathCount = getCount();
+        for (int i = 0; i < pathCount; i++) {
+            geometry.add(readPath());
+        }
+        return geometry;
+    }
+
+    private Path readPath() throws IOException {
+        Path p = new Path();
+        int flags = getByte();
+        p.setFillColor(readColor());
+        p.setStrokeColor(readColor());
+        if ((flags & HAS_STROKE_STYLE) != 0) {
+            p.setStrokeStyle(readStrokeStyle());
+        }
+        p.setRasterCached((flags & RASTER_CACHED) != 0);
+        int contourCount = getCount();
+        int pointCount = getCount();
+        double[] coords = new double[pointCount * 2];
+        byte[] types = new byte[pointCount];
+        int offset = 0;
+        lastX = 0;
+        lastY = 0;
+        for (int i = 0; i < contourCount; i++) {
+            long header = getVarint();
+            long n = header >>> 1;
+            if (n > pointCount - offset) throw new IOException("A contour has more points than its path.");
+            int size = (int) n;
+            readContour(coords, types, offset, size);
+            p.add(new Contour(new PointBuffer(coords, types, offset, size), (header & 1) != 0));
+            offset += size;
+        }
+        if (offset != pointCount) throw new IOException("A path has fewer points than its point count.");
+        return p;
+    }
+
+    private void readContour(double[] coords, byte[] types, int offset, int n) {
+        for (int i = 0; i < n; i += 4) {
+            int packed = buffer.get();
+            for (int j = 0; j < 4 && i + j < n; j++) {
+                types[offset + i + j] = (byte) ((packed >> (j * 2)) & 3);
+            }
+        }
+        if (exact) {
+            buffer.asDoubleBuffer().get(coords, offset * 2, n * 2);
+            buffer.position(buffer.position() + n * 16);
+        } else {
+            long x = lastX, y = lastY;
+            double scale = this.scale;
+            for (int i = offset * 2, end = (offset + n) * 2; i < end; i += 2) {
+                x += unzigzag(getVarint());
+                y += unzigzag(getVarint());
+                coords[i] = x / scale;
+                coords[i + 1] = y / scale;
+            }
+            lastX = x;
+            lastY = y;
+        }
+    }
+
+    private Text readText() throws IOException {
+        String s = readString();
+        double x = buffer.getDouble();
+        double y = buffer.getDouble();
+        double width = buffer.getDouble();
+        double height = buffer.getDouble();
+        Text t = new Text(s, x, y, width, height);
+        t.setFontName(readString());
+        t.setFontSize(buffer.getDouble());
+        t.setLineHeight(buffer.getDouble());
+        t.setAlign(getEnum(Text.Align.values()));
+        t.setFillColor(readColor());
+        t.setTransform(readTransform());
+        return t;
+    }
+
+    private Image readImage() throws IOException {
+        double x = buffer.getDouble();
+        double y = buffer.getDouble();
+        double scaleFactor = buffer.getDouble();
+        double alpha = buffer.getDouble();
+        Transform transform = readTransform();
+        BufferedImage awtImage = ImageIO.read(new ByteArrayInputStream(readBytes()));
+        if (awtImage == null) throw new IOException("An image can't be decoded.");
+        Image img = new Image(awtImage);
+        img.setX(x);
+        img.setY(y);
+        if (scaleFactor != 1) {
+            img.setWidth(awtImage.getWidth() * scaleFactor);
+        }
+        img.setAlpha(alpha);
+        img.setTransform(transform);
+        return img;
+    }
+
+    //// Values ////
+
+    private Color readColor() {
+        if (buffer.get() == 0) return null;
+        if (exact) {
+            return new Color(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+        }
+        int r = buffer.get() & 0xFF;
+        int g = buffer.get() & 0xFF;
+        int b = buffer.get() & 0xFF;
+        int a = buffer.get() & 0xFF;
+        return new Color(r / 255.0, g / 255.0, b / 255.0, a / 255.0);
+    }
+
+    private StrokeStyle readStrokeStyle() throws IOException {
+        double width = buffer.getDouble();
+        StrokeStyle.Cap cap = getEnum(StrokeStyle.Cap.values());
+        StrokeStyle.Join join = getEnum(StrokeStyle.Join.values());
+        double miterLimit = buffer.getDouble();
+        int dashCount = getCount();
+        double[] dashes = null;
+        if (dashCount > 0) {
+            dashes = new double[dashCount];
+            for (int i = 0; i < dashCount; i++) {
+                dashes[i] = buffer.getDouble();
+            }
+        }
+        return new StrokeStyle(width, cap, join, miterLimit, dashes);
+    }
+
+    private Transform readTransform() {
+        double[] m = new double[6];
+        for (int i = 0; i < 6; i++) {
+            m[i] = buffer.getDouble();
+        }
+        return new Transform(m[0], m[1], m[2], m[3], m[4], m[5]);
+    }
+
+    private String readString() throws IOException {
+        return new String(readBytes(), UTF_8);
+    }
+
+    private byte[] readBytes() throws IOException {
+        int length = getCount();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private <E extends Enum<E>> E getEnum(E[] values) throws IOException {
+        int ordinal = getByte();
+        if (ordinal >= values.length) throw new IOException("Unknown value " + ordinal + ".");
+        return values[ordinal];
+    }
+
+    //// Buffer ////
+
+    private int getByte() {
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * Read a count, which can't be larger than the data that is left.
+     */
+    private int getCount() throws IOException {
+        long count = getVarint();
+        if (count > buffer.remaining()) throw new IOException("A count is larger than the data.");
+        return (int) count;
+    }
+
+    private long getVarint() {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+        throw new IllegalArgumentException("A number is longer than ten bytes.");
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+}
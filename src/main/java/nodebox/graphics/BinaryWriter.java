@@ -0,0 +1,400 @@
+package nodebox.graphics;
+
+import javax.imageio.ImageIO;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Writes canvases, geometry and paths in a compact binary format, to cache them between runs.
+ * <p/>
+ * A file starts with a header: the magic bytes "NBGB", a version byte and a precision byte. Then follows one
+ * record, which starts with a tag byte that says if it is a canvas, geometry, path, text or image.
+ * <ul>
+ * <li>A canvas has its offset and size, its background and a count of the item records that follow.</li>
+ * <li>A geometry has a count of the path records that follow, without tags.</li>
+ * <li>A path has flags, its fill and stroke color, its stroke style if it isn't the default, and its contours.</li>
+ * <li>A contour has its point count and closed flag in one number, then the point types, four to a byte, then
+ * the coordinates of its points.</li>
+ * <li>Text and images have their attributes and their transform. Images are stored as PNG data.</li>
+ * </ul>
+ * Counts are unsigned variable-length numbers of seven bits per byte. A color is a byte that says if there is a
+ * color, followed by four bytes, RGBA, or four doubles with EXACT precision. Other numbers are little-endian
+ * doubles.
+ * <p/>
+ * With a precision, coordinates are rounded to that number of digits after the decimal point. Every coordinate is
+ * then stored as the difference with the same coordinate of the point before it in the path, zigzag-encoded as a
+ * variable-length number. Neighbouring points are close together, so most points take two to four bytes. With
+ * EXACT precision, coordinates and colors are stored as doubles and read back unchanged.
+ * <p/>
+ * The writer encodes into a reused buffer that is written out whenever it is full, so it doesn't build the whole
+ * file in memory. Use a BinaryReader to read the file back.
+ *
+ * @see BinaryReader
+ */
+public class BinaryWriter {
+
+    /**
+     * The precision for storing coordinates as doubles, without rounding.
+     */
+    public static final int EXACT = -1;
+    /**
+     * The default number of digits after the decimal point.
+     */
+    public static final int DEFAULT_PRECISION = 4;
+    public static final int MAX_PRECISION = 9;
+
+    static final byte[] MAGIC = {'N', 'B', 'G', 'B'};
+    static final int VERSION = 1;
+    static final int EXACT_MARKER = 0xFF;
+
+    static final int CANVAS = 1;
+    static final int GEOMETRY = 2;
+    static final int PATH = 3;
+    static final int TEXT = 4;
+    static final int IMAGE = 5;
+
+    static final int HAS_STROKE_STYLE = 1;
+    static final int RASTER_CACHED = 2;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Rounded coordinates stay below this, so their differences can't overflow and they convert back exactly.
+    private static final double MAX_ROUNDED = 1L << 52;
+
+    private final OutputStream out;
+    private final int precision;
+    private final double scale;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    // The rounded coordinates of the last point written in the current path.
+    private long lastX, lastY;
+
+    public BinaryWriter(OutputStream out) {
+        this(out, DEFAULT_PRECISION);
+    }
+
+    /**
+     * Create a writer that rounds coordinates to the given number of digits after the decimal point.
+     *
+     * @param out       the stream to write to. It doesn't need to be buffered.
+     * @param precision the number of digits, between 0 and MAX_PRECISION, or EXACT.
+     */
+    public BinaryWriter(OutputStream out, int precision) {
+        checkArgument(precision == EXACT || (precision >= 0 && precision <= MAX_PRECISION),
+                "Precision needs to be between 0 and %s, or EXACT.", MAX_PRECISION);
+        this.out = out;
+        this.precision = precision;
+        this.scale = precision == EXACT ? 1 : Math.pow(10, precision);
+    }
+
+    /**
+     * Write the canvas to a file.
+     *
+     * @param canvas the canvas.
+     * @param file   the file to write to.
+     * @throws IOException if the file can't be written.
+     */
+    public static void write(Canvas canvas, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            new BinaryWriter(out).write(canvas);
+        } finally {
+            out.close();
+        }
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Write the canvas with all of its items.
+     *
+     * @param canvas the canvas.
+     * @throws IOException if the stream can't be written.
+     * @throws IllegalArgumentException if a coordinate is too large for the precision, an image has no pixels or an
+     *                                  item can't be written.
+     */
+    public void write(Canvas canvas) throws IOException {
+        writeHeader();
+        writeCanvas(canvas);
+        flush();
+    }
+
+    public void write(Geometry geometry) throws IOException {
+        writeHeader();
+        putByte(GEOMETRY);
+        writeGeometry(geometry);
+        flush();
+    }
+
+    public void write(Path path) throws IOException {
+        writeHeader();
+        putByte(PATH);
+        writePath(path);
+        flush();
+    }
+
+    //// Records ////
+
+    private void writeHeader() throws IOException {
+        // Drop what is left of a write that failed.
+        buffer.clear();
+        buffer.put(MAGIC);
+        buffer.put((byte) VERSION);
+        buffer.put((byte) (precision == EXACT ? EXACT_MARKER : precision));
+    }
+
+    private void writeCanvas(Canvas canvas) throws IOException {
+        putByte(CANVAS);
+        putDouble(canvas.getOffsetX());
+        putDouble(canvas.getOffsetY());
+        putDouble(canvas.getWidth());
+        putDouble(canvas.getHeight());
+        writeColor(canvas.getBackground());
+        List<Grob> items = canvas.getItems();
+        writeVarint(items.size());
+        for (Grob item : items) {
+            writeItem(item);
+        }
+    }
+
+    private void writeItem(Grob item) throws IOException {
+        if (item instanceof Path) {
+            putByte(PATH);
+            writePath((Path) item);
+        } else if (item instanceof Geometry) {
+            putByte(GEOMETRY);
+            writeGeometry((Geometry) item);
+        } else if (item instanceof Text) {
+            putByte(TEXT);
+            writeText((Text) item);
+        } else if (item instanceof Image) {
+            putByte(IMAGE);
+            writeImage((Image) item);
+        } else {
+            throw new IllegalArgumentException("Items of type " + item.getClass().getName() + " can't be written.");
+        }
+    }
+
+    private void writeGeometry(Geometry geometry) throws IOException {
+        List<Path> paths = geometry.getPaths();
+        writeVarint(paths.size());
+        for (Path p : paths) {
+            writePath(p);
+        }
+    }
+
+    private void writePath(Path p) throws IOException {
+        StrokeStyle style = p.getStrokeStyle();
+        boolean hasStyle = !style.equals(StrokeStyle.DEFAULT);
+        putByte((hasStyle ? HAS_STROKE_STYLE : 0) | (p.isRasterCached() ? RASTER_CACHED : 0));
+        writeColor(p.getFillColor());
+        writeColor(p.getStrokeColor());
+        if (hasStyle) writeStrokeStyle(style);
+        List<Contour> contours = p.getContours();
+        int pointCount = 0;
+        for (Contour c : contours) {
+            pointCount += c.getPointCount();
+        }
+        // The reader uses the total to put all points of the path in one block.
+        writeVarint(contours.size());
+        writeVarint(pointCount);
+        lastX = 0;
+        lastY = 0;
+        for (Contour c : contours) {
+            writeContour(c);
+        }
+    }
+
+    private void writeContour(Contour c) throws IOException {
+        PointBuffer points = c.getPointBuffer();
+        int n = points.size();
+        writeVarint(((long) n << 1) | (c.isClosed() ? 1 : 0));
+        for (int i = 0; i < n; i += 4) {
+            int packed = 0;
+            for (int j = 0; j < 4 && i + j < n; j++) {
+                int type = points.getType(i + j);
+                checkArgument(type >= 0 && type <= 3, "Point type %s can't be written.", type);
+                packed |= type << (j * 2);
+            }
+            putByte(packed);
+        }
+        if (precision == EXACT) {
+            for (int i = 0; i < n; i++) {
+                ensure(16);
+                buffer.putDouble(points.getX(i));
+                buffer.putDouble(points.getY(i));
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                long x = round(points.getX(i));
+                long y = round(points.getY(i));
+                ensure(20);
+                putVarint(zigzag(x - lastX));
+                putVarint(zigzag(y - lastY));
+                lastX = x;
+                lastY = y;
+            }
+        }
+    }
+
+    private void writeText(Text t) throws IOException {
+        writeString(t.getText());
+        putDouble(t.getBaseLineX());
+        putDouble(t.getBaseLineY());
+        putDouble(t.getWidth());
+        putDouble(t.getHeight());
+        writeString(t.getFontName());
+        putDouble(t.getFontSize());
+        putDouble(t.getLineHeight());
+        putByte(t.getAlign().ordinal());
+        writeColor(t.getFillColor());
+        writeTransform(t.getTransform());
+    }
+
+    private void writeImage(Image img) throws IOException {
+        if (img.getAwtImage() == null) {
+            throw new IllegalArgumentException("Images without pixels can't be written.");
+        }
+        putDouble(img.getX());
+        putDouble(img.getY());
+        putDouble(img.getScaleFactor());
+        putDouble(img.getAlpha());
+        writeTransform(img.getTransform());
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(img.getAwtImage(), "png", png);
+        writeBytes(png.toByteArray());
+    }
+
+    //// Values ////
+
+    /**
+     * Write a flag byte and the color as four bytes, or as four doubles with EXACT precision. Only a zero flag is
+     * written if the color is null.
+     */
+    private void writeColor(Color c) throws IOException {
+        if (c == null) {
+            putByte(0);
+            return;
+        }
+        if (precision == EXACT) {
+            ensure(33);
+            buffer.put((byte) 1);
+            buffer.putDouble(c.getRed());
+            buffer.putDouble(c.getGreen());
+            buffer.putDouble(c.getBlue());
+            buffer.putDouble(c.getAlpha());
+            return;
+        }
+        ensure(5);
+        buffer.put((byte) 1);
+        buffer.put((byte) Math.round(c.getRed() * 255));
+        buffer.put((byte) Math.round(c.getGreen() * 255));
+        buffer.put((byte) Math.round(c.getBlue() * 255));
+        buffer.put((byte) Math.round(c.getAlpha() * 255));
+    }
+
+    private void writeStrokeStyle(StrokeStyle style) throws IOException {
+        putDouble(style.getWidth());
+        putByte(style.getCap().ordinal());
+        putByte(style.getJoin().ordinal());
+        putDouble(style.getMiterLimit());
+        double[] dashes = style.getDashes();
+        if (dashes == null) {
+            writeVarint(0);
+        } else {
+            writeVarint(dashes.length);
+            for (double dash : dashes) {
+                putDouble(dash);
+            }
+        }
+    }
+
+    private void writeTransform(Transform t) throws IOException {
+        double[] matrix = new double[6];
+        t.getAffineTransform().getMatrix(matrix);
+        for (double v : matrix) {
+            putDouble(v);
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        writeBytes(s.getBytes(UTF_8));
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        writeVarint(bytes.length);
+        int offset = 0;
+        while (offset < bytes.length) {
+            ensure(1);
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private long round(double v) {
+        double scaled = v * scale;
+        // Also catches NaN.
+        if (!(Math.abs(scaled) < MAX_ROUNDED)) {
+            throw new IllegalArgumentException("The coordinate " + v + " can't be stored with precision "
+                    + precision + ". Use EXACT precision.");
+        }
+        return Math.round(scaled);
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    //// Buffer ////
+
+    private void putByte(int b) throws IOException {
+        ensure(1);
+        buffer.put((byte) b);
+    }
+
+    private void putDouble(double v) throws IOException {
+        ensure(8);
+        buffer.putDouble(v);
+    }
+
+    private void writeVarint(long v) throws IOException {
+        ensure(10);
+        putVarint(v);
+    }
+
+    /**
+     * Put the number in seven-bit groups, lowest group first. The buffer needs room for ten bytes.
+     */
+    private void putVarint(long v) {
+        while ((v & ~0x7FL) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+    private void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+}
@@ -18,23 +18,53 @@
  */
 package nodebox.graphics;
 
+import com.google.common.base.Objects;
+
 import javax.imageio.ImageIO;
 import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.FlatteningPathIterator;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class Canvas extends AbstractTransformable {
 
     public static final double DEFAULT_WIDTH = 1000;
     public static final double DEFAULT_HEIGHT = 1000;
 
+    /**
+     * The size in pixels of the tiles that asImage draws in parallel.
+     */
+    public static final int TILE_SIZE = 256;
+
+    private static final ForkJoinPool TILE_POOL = new ForkJoinPool();
+
+    /**
+     * The most paths that are drawn as one shape. Every path in a run is checked against the others.
+     */
+    private static final int MAX_BATCH_SIZE = 128;
+
     private Color background = new Color(1, 1, 1);
     private double offsetX, offsetY;
     private double width, height;
     private ArrayList<Grob> items = new ArrayList<Grob>();
+    private transient int culledCount;
+    private transient int drawnCount;
+    private final ItemBounds itemBounds = new ItemBounds();
 
     public Canvas() {
         this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
@@ -212,31 +242,750 @@ public class Canvas extends AbstractTransformable {
         // TODO: Implement
     }
 
+    /**
+     * Draw the canvas.
+     * <p/>
+     * Items that fall outside of the clip of the graphics context are skipped. To find them, the bounds of each
+     * item are converted to device space. These device bounds are cached for as long as the transformation of
+     * the graphics context and the bounds of the item don't change, which is cheap to check since paths,
+     * geometry and images cache their own bounds.
+     * <p/>
+     * Text is always drawn, since measuring it takes longer than drawing it.
+     *
+     * @param g the graphics context.
+     */
     public void draw(Graphics2D g) {
+        g.clip(getBounds().getRectangle2D());
+        Rectangle2D clip = getDeviceClip(g);
+        itemBounds.update(items, g.getTransform());
+        int drawn = drawItems(g, clip);
+        drawnCount = drawn;
+        culledCount = items.size() - drawn;
+    }
+
+    /**
+     * Draw the background and the items that are visible in the given device clip.
+     * <p/>
+     * Runs of paths with the same style that don't touch each other's pixels are drawn as one shape.
+     * <p/>
+     * The item bounds need to be up-to-date. This method doesn't change the canvas or its items, so it can run on
+     * several threads at once, each with its own graphics context.
+     *
+     * @return the number of drawn items.
+     */
+    private int drawItems(Graphics2D g, Rectangle2D clip) {
         if (background != null) {
             g.setColor(background.getAwtColor());
             g.fill(getBounds().getRectangle2D());
         }
-        g.clip(getBounds().getRectangle2D());
-        for (Grob grob : items) {
-            grob.draw(g);
+        // Level of detail simplifies every path on its own, so those paths are drawn one by one.
+        PathBatch batch = LevelOfDetail.get(g) == null ? new PathBatch() : null;
+        int itemCount = items.size();
+        int drawn = 0;
+        for (int i = 0; i < itemCount; i++) {
+            if (!itemBounds.isVisible(i, clip)) continue;
+            Grob item = items.get(i);
+            if (batch == null) {
+                item.draw(g);
+            } else if (!batch.add(item, i)) {
+                batch.draw(g);
+                if (!batch.add(item, i)) {
+                    item.draw(g);
+                }
+            }
+            drawn++;
         }
+        if (batch != null) {
+            batch.draw(g);
+        }
+        return drawn;
+    }
+
+    /**
+     * Returns the number of items that were skipped by the last call to draw, because they were outside of the clip.
+     *
+     * @return the number of culled items.
+     */
+    public int getCulledCount() {
+        return culledCount;
+    }
+
+    /**
+     * Returns the number of items that were drawn by the last call to draw.
+     *
+     * @return the number of drawn items.
+     */
+    public int getDrawnCount() {
+        return drawnCount;
+    }
+
+    /**
+     * Returns the clip of the graphics context in device space, limited to the bounds of the device.
+     */
+    private static Rectangle2D getDeviceClip(Graphics2D g) {
+        Rectangle2D clip = g.getTransform().createTransformedShape(g.getClip()).getBounds2D();
+        GraphicsConfiguration gc = g.getDeviceConfiguration();
+        if (gc != null) {
+            Rectangle2D.intersect(clip, gc.getBounds(), clip);
+        }
+        return clip;
+    }
+
+    /**
+     * Compile the canvas into a display list.
+     * <p/>
+     * Drawing the display list gives the same result as drawing the canvas, but does less work per item. Use it
+     * to draw the same canvas many times.
+     *
+     * @return a new display list.
+     */
+    public DisplayList compile() {
+        return DisplayList.compile(this);
     }
 
     public BufferedImage asImage() {
+        return asImage(false);
+    }
+
+    /**
+     * Render the canvas to an image.
+     * <p/>
+     * By default the canvas is drawn in one pass on the calling thread, like drawing it on a graphics context.
+     * <p/>
+     * In parallel mode the image is split into tiles of TILE_SIZE pixels, drawn on a fork/join pool. Each tile has
+     * its own graphics context, clipped to the tile, and only draws the items that touch the tile. All tiles write
+     * into the raster of the same image. The items are prepared for drawing before the tiles start, so the tiles
+     * don't change any shared state.
+     * <p/>
+     * The tiles don't always give the same pixels as one pass. Items inside one tile and shapes made of straight
+     * lines are the same. Java2D flattens curves that cross the clip again for every tile, so the antialiased edges
+     * of curves and text that cross a tile border can differ by a few levels per channel, along the whole curve.
+     *
+     * @param parallel true to draw in tiles in parallel.
+     * @return the rendered image.
+     */
+    public BufferedImage asImage(boolean parallel) {
+        Rect bounds = getBounds();
+        int width = (int) Math.round(bounds.getWidth());
+        int height = (int) Math.round(bounds.getHeight());
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        render(img, parallel);
+        return img;
+    }
+
+    /**
+     * Render the canvas to an image from the pool.
+     * <p/>
+     * Give the image back to the pool when you are done with it, so the next canvas of the same size can use it.
+     *
+     * @param pool the pool to take the image from.
+     * @return the rendered image.
+     * @see ImagePool
+     */
+    public BufferedImage asImage(ImagePool pool) {
+        Rect bounds = getBounds();
+        BufferedImage img = pool.acquire((int) Math.round(bounds.getWidth()), (int) Math.round(bounds.getHeight()));
+        return asImage(img, false);
+    }
+
+    /**
+     * Render the canvas into an existing image, such as the image of the previous frame.
+     * <p/>
+     * The image is cleared first. It needs to be the size of the canvas.
+     *
+     * @param img      the image to render into.
+     * @param parallel true to draw the tiles in parallel.
+     * @return the image.
+     * @see #asImage(boolean)
+     */
+    public BufferedImage asImage(BufferedImage img, boolean parallel) {
+        Rect bounds = getBounds();
+        if (img.getWidth() != (int) Math.round(bounds.getWidth())
+                || img.getHeight() != (int) Math.round(bounds.getHeight())) {
+            throw new IllegalArgumentException("The image is " + img.getWidth() + "x" + img.getHeight()
+                    + " but the canvas is " + Math.round(bounds.getWidth()) + "x" + Math.round(bounds.getHeight()) + ".");
+        }
+        clear(img);
+        render(img, parallel);
+        return img;
+    }
+
+    private void render(BufferedImage img, boolean parallel) {
+        if (parallel) {
+            int width = img.getWidth();
+            int height = img.getHeight();
+            prepareImage(width, height);
+            int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+            int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+            TILE_POOL.invoke(new TileTask(img, 0, columns * rows, columns));
+        } else {
+            Rect bounds = getBounds();
+            Graphics2D g = img.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.translate(-bounds.getX(), -bounds.getY());
+            draw(g);
+            g.dispose();
+        }
+        img.flush();
+    }
+
+    /**
+     * Make every pixel of the image transparent.
+     * <p/>
+     * The pixels of an image that has its own int array are filled directly, which is much faster than painting
+     * over them with the Clear composite.
+     */
+    private static void clear(BufferedImage img) {
+        WritableRaster raster = img.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        int type = img.getType();
+        if ((type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_ARGB_PRE)
+                && buffer instanceof DataBufferInt && buffer.getNumBanks() == 1
+                && buffer.getSize() == img.getWidth() * img.getHeight()
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0) {
+            Arrays.fill(((DataBufferInt) buffer).getData(), 0);
+        } else {
+            Graphics2D g = img.createGraphics();
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(0, 0, img.getWidth(), img.getHeight());
+            g.dispose();
+        }
+    }
+
+    /**
+     * Render the canvas with the software rasterizer instead of Java2D.
+     * <p/>
+     * Paths and geometry are filled by the rasterizer. Other items, such as text and images, are drawn with Java2D
+     * into the same pixels, in the same order.
+     *
+     * @return an image of TYPE_INT_ARGB_PRE.
+     * @see Rasterizer
+     */
+    public BufferedImage rasterize() {
+        Rect bounds = getBounds();
+        int width = (int) Math.round(bounds.getWidth());
+        int height = (int) Math.round(bounds.getHeight());
+        Rasterizer r = new Rasterizer(new int[width * height], width, height);
+        rasterize(r);
+        return r.createImage();
+    }
+
+    /**
+     * Render the canvas with the software rasterizer into a buffer of premultiplied ARGB pixels.
+     *
+     * @param pixels the buffer, with room for the width times the height of the canvas.
+     * @see #rasterize()
+     */
+    public void rasterize(int[] pixels) {
+        Rect bounds = getBounds();
+        rasterize(new Rasterizer(pixels, (int) Math.round(bounds.getWidth()), (int) Math.round(bounds.getHeight())));
+    }
+
+    private void rasterize(Rasterizer r) {
+        Rect bounds = getBounds();
+        AffineTransform t = AffineTransform.getTranslateInstance(-bounds.getX(), -bounds.getY());
+        Rectangle2D imageBounds = new Rectangle2D.Double(0, 0, r.getWidth(), r.getHeight());
+        r.setTransform(t);
+        r.clear(background);
+        itemBounds.update(items, t);
+        Graphics2D g = null;
+        int visible = 0;
+        for (int i = 0; i < items.size(); i++) {
+            if (!itemBounds.isVisible(i, imageBounds)) continue;
+            visible++;
+            Grob grob = items.get(i);
+            if (grob instanceof Path) {
+                r.draw((Path) grob);
+            } else if (grob instanceof Geometry) {
+                r.draw((Geometry) grob);
+            } else {
+                if (g == null) {
+                    g = r.createImage().createGraphics();
+                    g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                    g.transform(t);
+                }
+                grob.draw(g);
+            }
+        }
+        if (g != null) {
+            g.dispose();
+        }
+        drawnCount = visible;
+        culledCount = items.size() - visible;
+    }
+
+    /**
+     * Bring the item bounds up-to-date for drawing the canvas into an image of the given size, and prepare the
+     * items that are visible in it.
+     */
+    void prepareImage(int width, int height) {
+        Rect bounds = getBounds();
+        AffineTransform t = AffineTransform.getTranslateInstance(-bounds.getX(), -bounds.getY());
+        Rectangle2D imageBounds = new Rectangle2D.Double(0, 0, width, height);
+        itemBounds.update(items, t);
+        int visible = 0;
+        for (int i = 0; i < items.size(); i++) {
+            if (itemBounds.isVisible(i, imageBounds)) {
+                prepare(items.get(i));
+                visible++;
+            }
+        }
+        drawnCount = visible;
+        culledCount = items.size() - visible;
+    }
+
+    /**
+     * Get the box in the image that the item at the given index can draw in, as of the last call to prepareImage.
+     *
+     * @param index  the index of the item.
+     * @param box    receives minX, minY, maxX and maxY.
+     * @param offset the index in the box array to start at.
+     * @return false if the bounds of the item are not known. It is drawn in every region.
+     */
+    boolean getImageBounds(int index, double[] box, int offset) {
+        return itemBounds.getDeviceBounds(index, box, offset);
+    }
+
+    private void drawTile(BufferedImage img, int tile, int columns) {
+        int x = (tile % columns) * TILE_SIZE;
+        int y = (tile / columns) * TILE_SIZE;
+        drawRegion(img, x, y, Math.min(TILE_SIZE, img.getWidth() - x), Math.min(TILE_SIZE, img.getHeight() - y));
+    }
+
+    /**
+     * Draw the items that are visible in a region of the image. Call prepareImage first.
+     * <p/>
+     * The region is clipped, so the result depends on the regions the image is drawn in. An image that is always
+     * drawn in the same regions gets the same pixels.
+     */
+    void drawRegion(BufferedImage img, int x, int y, int width, int height) {
         Rect bounds = getBounds();
-        BufferedImage img = new BufferedImage((int) Math.round(bounds.getWidth()), (int) Math.round(bounds.getHeight()), BufferedImage.TYPE_INT_ARGB);
         Graphics2D g = img.createGraphics();
+        g.clipRect(x, y, width, height);
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         g.translate(-bounds.getX(), -bounds.getY());
-        draw(g);
-        img.flush();
-        return img;
+        g.clip(bounds.getRectangle2D());
+        drawItems(g, new Rectangle2D.Double(x, y, width, height));
+        g.dispose();
+    }
+
+    /**
+     * Build the cached state that drawing an item would build, so drawing doesn't change the item.
+     */
+    private static void prepare(Grob grob) {
+        if (grob instanceof Path) {
+            ((Path) grob).getGeneralPath();
+        } else if (grob instanceof Geometry) {
+            for (Path p : ((Geometry) grob).getPaths()) {
+                p.getGeneralPath();
+            }
+        }
+    }
+
+    /**
+     * Draws a range of tiles, splitting the range in two until it is a single tile.
+     */
+    @SuppressWarnings("serial")
+    private final class TileTask extends RecursiveAction {
+
+        private final BufferedImage img;
+        private final int firstTile, lastTile, columns;
+
+        private TileTask(BufferedImage img, int firstTile, int lastTile, int columns) {
+            this.img = img;
+            this.firstTile = firstTile;
+            this.lastTile = lastTile;
+            this.columns = columns;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastTile - firstTile > 1) {
+                int middle = (firstTile + lastTile) >>> 1;
+                invokeAll(new TileTask(img, firstTile, middle, columns), new TileTask(img, middle, lastTile, columns));
+            } else {
+                drawTile(img, firstTile, columns);
+            }
+        }
+
+    }
+
+    /**
+     * A run of consecutive paths with the same style, drawn with one fill and one stroke.
+     * <p/>
+     * Drawing the paths as one shape only gives the same pixels if no path touches a pixel of another path in the
+     * run. Overlapping paths would be blended once instead of twice, a path with the opposite orientation would
+     * punch a hole, and a stroke could end up under the fill of a later path. A path that touches the pixels of
+     * the run, or has another style, ends the run.
+     * <p/>
+     * Java2D fills a shape row by row over its whole bounding box, so a run that is spread out draws slower than
+     * its paths one by one. A path that would make the run cover much more than the paths do ends it as well.
+     * <p/>
+     * The run is itself the shape that is drawn. Its path iterator goes over the paths one after the other, so
+     * their points are not copied.
+     */
+    private final class PathBatch implements Shape {
+
+        private final Path[] paths = new Path[MAX_BATCH_SIZE];
+        // The pixels every path can touch, as minX, minY, maxX and maxY, exclusive of the maximum.
+        private final int[] pixelBounds = new int[MAX_BATCH_SIZE * 4];
+        private final double[] box = new double[4];
+        private int size;
+        // The pixels the run can touch, and the number of pixels its paths can touch.
+        private long minX, minY, maxX, maxY;
+        private long area;
+
+        /**
+         * Add the item at the given index to the run.
+         *
+         * @return false if the item can't be drawn with the paths in the run.
+         */
+        private boolean add(Grob item, int index) {
+            if (!(item instanceof Path) || size == MAX_BATCH_SIZE) return false;
+            Path path = (Path) item;
+            if (path.isRasterCached()) return false;
+            if (size > 0 && !hasSameStyle(paths[0], path)) return false;
+            if (!itemBounds.getDeviceBounds(index, box, 0)) return false;
+            // The device bounds are padded a pixel for antialiasing. The pixels of the shape don't need it.
+            if (!(box[0] <= box[2] && box[1] <= box[3])) return false;
+            int minX = (int) Math.floor(box[0] + 1);
+            int minY = (int) Math.floor(box[1] + 1);
+            int maxX = (int) Math.ceil(box[2] - 1);
+            int maxY = (int) Math.ceil(box[3] - 1);
+            long pathArea = (long) (maxX - minX) * (maxY - minY);
+            if (size > 0) {
+                long runArea = (Math.max(this.maxX, maxX) - Math.min(this.minX, minX))
+                        * (Math.max(this.maxY, maxY) - Math.min(this.minY, minY));
+                if (runArea > 2 * (area + pathArea)) return false;
+                for (int i = 0; i < size * 4; i += 4) {
+                    if (minX < pixelBounds[i + 2] && pixelBounds[i] < maxX
+                            && minY < pixelBounds[i + 3] && pixelBounds[i + 1] < maxY) return false;
+                }
+                this.minX = Math.min(this.minX, minX);
+                this.minY = Math.min(this.minY, minY);
+                this.maxX = Math.max(this.maxX, maxX);
+                this.maxY = Math.max(this.maxY, maxY);
+                area += pathArea;
+            } else {
+                this.minX = minX;
+                this.minY = minY;
+                this.maxX = maxX;
+                this.maxY = maxY;
+                area = pathArea;
+            }
+            int o = size * 4;
+            pixelBounds[o] = minX;
+            pixelBounds[o + 1] = minY;
+            pixelBounds[o + 2] = maxX;
+            pixelBounds[o + 3] = maxY;
+            paths[size++] = path;
+            return true;
+        }
+
+        /**
+         * Draw the paths in the run and start a new run.
+         */
+        private void draw(Graphics2D g) {
+            if (size == 1) {
+                paths[0].draw(g);
+            } else if (size > 1) {
+                paths[0].drawShape(g, this);
+            }
+            Arrays.fill(paths, 0, size, null);
+            size = 0;
+        }
+
+        public PathIterator getPathIterator(AffineTransform at) {
+            return new BatchIterator(paths, size, at);
+        }
+
+        public PathIterator getPathIterator(AffineTransform at, double flatness) {
+            return new FlatteningPathIterator(getPathIterator(at), flatness);
+        }
+
+        public Rectangle2D getBounds2D() {
+            Rectangle2D bounds = null;
+            for (int i = 0; i < size; i++) {
+                Rectangle2D r = paths[i].getBounds().getRectangle2D();
+                if (bounds == null) {
+                    bounds = r;
+                } else {
+                    bounds.add(r);
+                }
+            }
+            return bounds == null ? new Rectangle2D.Double() : bounds;
+        }
+
+        public Rectangle getBounds() {
+            return getBounds2D().getBounds();
+        }
+
+        // Java2D only iterates the shape to draw it. The other methods build the whole shape.
+
+        private Shape toShape() {
+            GeneralPath shape = new GeneralPath(GeneralPath.WIND_NON_ZERO);
+            shape.append(getPathIterator(null), false);
+            return shape;
+        }
+
+        public boolean contains(double x, double y) {
+            return toShape().contains(x, y);
+        }
+
+        public boolean contains(Point2D p) {
+            return toShape().contains(p);
+        }
+
+        public boolean intersects(double x, double y, double w, double h) {
+            return toShape().intersects(x, y, w, h);
+        }
+
+        public boolean intersects(Rectangle2D r) {
+            return toShape().intersects(r);
+        }
+
+        public boolean contains(double x, double y, double w, double h) {
+            return toShape().contains(x, y, w, h);
+        }
+
+        public boolean contains(Rectangle2D r) {
+            return toShape().contains(r);
+        }
+
     }
 
+    /**
+     * Goes over the segments of a number of paths, one path after the other.
+     */
+    private static final class BatchIterator implements PathIterator {
+
+        private final Path[] paths;
+        private final int size;
+        private final AffineTransform transform;
+        private int index;
+        private PathIterator current;
+
+        private BatchIterator(Path[] paths, int size, AffineTransform transform) {
+            this.paths = paths;
+            this.size = size;
+            this.transform = transform;
+            index = -1;
+            nextPath();
+        }
+
+        private void nextPath() {
+            do {
+                index++;
+                current = index < size ? paths[index].getGeneralPath().getPathIterator(transform) : null;
+            } while (current != null && current.isDone());
+        }
+
+        public int getWindingRule() {
+            return WIND_NON_ZERO;
+        }
+
+        public boolean isDone() {
+            return current == null;
+        }
+
+        public void next() {
+            current.next();
+            if (current.isDone()) {
+                nextPath();
+            }
+        }
+
+        public int currentSegment(float[] coords) {
+            return current.currentSegment(coords);
+        }
+
+        public int currentSegment(double[] coords) {
+            return current.currentSegment(coords);
+        }
+
+    }
+
+    private static boolean hasSameStyle(Path a, Path b) {
+        return Objects.equal(a.getFillColor(), b.getFillColor())
+                && Objects.equal(a.getStrokeColor(), b.getStrokeColor())
+                && (a.getStrokeColor() == null || a.getStrokeStyle().equals(b.getStrokeStyle()));
+    }
+
+    /**
+     * The device bounds of the items of a canvas, used to skip items that are outside of the clip.
+     */
+    private static final class ItemBounds {
+
+        private AffineTransform transform;
+        private Grob[] items = new Grob[0];
+        private Rect[] bounds = new Rect[0];
+        private AffineTransform[] imageTransforms = new AffineTransform[0];
+        private double[] margins = new double[0];
+        private double[] deviceBounds = new double[0];
+        private final double[] corners = new double[8];
+
+        /**
+         * Bring the device bounds of all items up-to-date for the given transformation.
+         * <p/>
+         * Strokes grow the shape by half their width, or more for miter joins and square caps. This margin is kept
+         * apart from the cached bounds, since the stroke can change without changing the bounds.
+         */
+        private void update(List<Grob> items, AffineTransform t) {
+            int itemCount = items.size();
+            if (!t.equals(transform)) {
+                transform = t;
+                this.items = new Grob[itemCount];
+                bounds = new Rect[itemCount];
+                imageTransforms = new AffineTransform[itemCount];
+                margins = new double[itemCount];
+                deviceBounds = new double[itemCount * 4];
+            } else if (this.items.length < itemCount) {
+                // Items were added. Keep the device bounds of the items we already have.
+                int capacity = Math.max(itemCount, this.items.length * 2);
+                this.items = Arrays.copyOf(this.items, capacity);
+                bounds = Arrays.copyOf(bounds, capacity);
+                imageTransforms = Arrays.copyOf(imageTransforms, capacity);
+                margins = Arrays.copyOf(margins, capacity);
+                deviceBounds = Arrays.copyOf(deviceBounds, capacity * 4);
+            }
+            for (int i = 0; i < itemCount; i++) {
+                update(i, items.get(i));
+            }
+        }
+
+        private void update(int index, Grob grob) {
+            Rect r;
+            double margin = 0;
+            AffineTransform imageTransform = null;
+            if (grob instanceof Path) {
+                Path p = (Path) grob;
+                r = p.getBounds();
+                margin = strokeMargin(p);
+            } else if (grob instanceof Geometry) {
+                Geometry geometry = (Geometry) grob;
+                r = geometry.getBounds();
+                for (Path p : geometry.getPaths()) {
+                    margin = Math.max(margin, strokeMargin(p));
+                }
+            } else if (grob instanceof Image) {
+                // The bounds of an image don't include its own transformation, which can change by itself.
+                r = grob.getBounds();
+                imageTransform = ((Image) grob).getTransform().getAffineTransform();
+            } else {
+                // Always draw this item.
+                items[index] = null;
+                bounds[index] = null;
+                return;
+            }
+            margins[index] = margin;
+            if (items[index] != grob || bounds[index] != r
+                    || (imageTransform != null && !imageTransform.equals(imageTransforms[index]))) {
+                AffineTransform t = transform;
+                if (imageTransform != null) {
+                    t = new AffineTransform(t);
+                    t.concatenate(imageTransform);
+                    imageTransforms[index] = new AffineTransform(imageTransform);
+                }
+                transformBounds(t, r, index * 4);
+                items[index] = grob;
+                bounds[index] = r;
+            }
+        }
+
+        /**
+         * Check if the item at the given index can be visible inside of the device clip.
+         * <p/>
+         * The stroke margin is padded, as well as one device pixel for antialiasing.
+         */
+        private boolean isVisible(int index, Rectangle2D clip) {
+            if (bounds[index] == null) return true;
+            double margin = margins[index];
+            // A margin of one unit becomes at most this wide in device space.
+            double marginX = margin * (Math.abs(transform.getScaleX()) + Math.abs(transform.getShearX())) + 1;
+            double marginY = margin * (Math.abs(transform.getShearY()) + Math.abs(transform.getScaleY())) + 1;
+            int o = index * 4;
+            return deviceBounds[o] - marginX <= clip.getMaxX()
+                    && deviceBounds[o + 1] - marginY <= clip.getMaxY()
+                    && deviceBounds[o + 2] + marginX >= clip.getMinX()
+                    && deviceBounds[o + 3] + marginY >= clip.getMinY();
+        }
+
+        private boolean getDeviceBounds(int index, double[] box, int offset) {
+            if (bounds[index] == null) return false;
+            double margin = margins[index];
+            double marginX = margin * (Math.abs(transform.getScaleX()) + Math.abs(transform.getShearX())) + 1;
+            double marginY = margin * (Math.abs(transform.getShearY()) + Math.abs(transform.getScaleY())) + 1;
+            int o = index * 4;
+            box[offset] = deviceBounds[o] - marginX;
+            box[offset + 1] = deviceBounds[o + 1] - marginY;
+            box[offset + 2] = deviceBounds[o + 2] + marginX;
+            box[offset + 3] = deviceBounds[o + 3] + marginY;
+            return true;
+        }
+
+        private static double strokeMargin(Path p) {
+            if (p.getStrokeColor() == null) return 0;
+            return p.getStrokeStyle().getExtent();
+        }
+
+        /**
+         * Transform the corners of the bounds and store the box around them in the device bounds.
+         */
+        private void transformBounds(AffineTransform t, Rect r, int offset) {
+            double[] c = corners;
+            c[0] = c[6] = r.getX();
+            c[1] = c[3] = r.getY();
+            c[2] = c[4] = r.getX() + r.getWidth();
+            c[5] = c[7] = r.getY() + r.getHeight();
+            t.transform(c, 0, c, 0, 4);
+            double minX = c[0], minY = c[1], maxX = c[0], maxY = c[1];
+            for (int i = 2; i < 8; i += 2) {
+                minX = Math.min(minX, c[i]);
+                minY = Math.min(minY, c[i + 1]);
+                maxX = Math.max(maxX, c[i]);
+                maxY = Math.max(maxY, c[i + 1]);
+            }
+            deviceBounds[offset] = minX;
+            deviceBounds[offset + 1] = minY;
+            deviceBounds[offset + 2] = maxX;
+            deviceBounds[offset + 3] = maxY;
+        }
+
+    }
+
+    /**
+     * Save the canvas to a file. The format is chosen by the extension of the file: PDF, SVG, or an image format.
+     * Images are written with ImageIO.
+     *
+     * @param file the file to write to.
+     */
     public void save(File file) {
+        save(file, null);
+    }
+
+    /**
+     * Save the canvas to a file, using the given encoder for PNG files.
+     * <p/>
+     * The encoder can compress large images on several cores, and its filter and compression level can be chosen.
+     *
+     * @param file       the file to write to.
+     * @param pngEncoder the encoder to use if the file is a PNG file, or null to use ImageIO.
+     */
+    public void save(File file, PNGEncoder pngEncoder) {
         if (file.getName().endsWith(".pdf")) {
             PDFRenderer.render(this, getBounds(), file);
+        } else if (file.getName().endsWith(".svg")) {
+            try {
+                SVGWriter.write(this, file);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not write SVG file " + file, e);
+            }
+        } else if (pngEncoder != null && "png".equals(getFileExtension(file))) {
+            try {
+                pngEncoder.write(asImage(), file);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not write image file " + file, e);
+            }
         } else {
             try {
                 ImageIO.write(asImage(), getFileExtension(file), file);
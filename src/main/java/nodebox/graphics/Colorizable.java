@@ -12,5 +12,7 @@ public interface Colorizable {
 
     void setStrokeWidth(double strokeWidth);
 
+    void setStrokeStyle(StrokeStyle strokeStyle);
+
     public Colorizable clone();
 }
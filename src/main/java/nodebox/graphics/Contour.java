@@ -3,38 +3,54 @@ package nodebox.graphics;
 import com.google.common.base.Function;
 
 import java.awt.*;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class Contour extends AbstractGeometry {
 
     private static final BasicStroke DEFAULT_STROKE = new BasicStroke(1);
-    private static final int SEGMENT_ACCURACY = 20;
 
-    private List<Point> points;
+    private PointBuffer points;
     private boolean closed;
-    private transient ArrayList<Double> segmentLengths;
+    private transient int segmentCount;
+    private transient double[] segmentOffsets;
+    private transient int[] segmentPoints;
+    private transient int indexedPointCount;
+    private transient boolean indexClosed;
     private transient double length = -1;
+    private transient PointBuffer flatPoints;
+    private transient double flatTolerance;
+    private transient int boundedPointCount;
+    private transient double minX = Double.POSITIVE_INFINITY;
+    private transient double minY = Double.POSITIVE_INFINITY;
+    private transient double maxX = Double.NEGATIVE_INFINITY;
+    private transient double maxY = Double.NEGATIVE_INFINITY;
+    private transient Rect bounds;
+    private transient AffineTransform pendingTransform;
 
     public Contour() {
-        points = new ArrayList<Point>();
+        points = new PointBuffer();
         closed = false;
     }
 
     public Contour(Contour other) {
-        points = new ArrayList<Point>(other.points.size());
-        for (Point p : other.points) {
-            points.add(p);
-        }
+        other.applyPendingTransform();
+        points = new PointBuffer(other.points);
         closed = other.closed;
     }
 
     public Contour(Iterable<Point> points, boolean closed) {
-        this.points = new ArrayList<Point>();
-        for (Point p : points) {
-            this.points.add(p);
-        }
+        this.points = new PointBuffer(points);
+        this.closed = closed;
+    }
+
+    /**
+     * Create a contour that uses the given buffer as its points. The buffer is not copied.
+     */
+    Contour(PointBuffer points, boolean closed) {
+        this.points = points;
         this.closed = closed;
     }
 
@@ -44,22 +60,50 @@ public class Contour extends AbstractGeometry {
         return points.size();
     }
 
+    /**
+     * Get the points for this contour.
+     * <p/>
+     * The returned list is a live view over the packed coordinates of the contour. Point objects are created
+     * on access; setting a point in the list will change the contour.
+     *
+     * @return a list of Points.
+     */
     public java.util.List<Point> getPoints() {
+        applyPendingTransform();
         return points;
     }
 
     void setPoints(List<Point> points) {
-        this.points = points;
+        this.points = new PointBuffer(points);
+        pendingTransform = null;
+        invalidate();
+    }
+
+    PointBuffer getPointBuffer() {
+        applyPendingTransform();
+        return points;
+    }
+
+    public GeometryCursor cursor() {
+        return new GeometryCursor(this);
     }
 
     public void addPoint(Point pt) {
-        points.add(pt);
-        invalidate();
+        applyPendingTransform();
+        points.add(pt.x, pt.y, pt.type);
+        pointsAdded();
     }
 
     public void addPoint(double x, double y) {
-        points.add(new Point(x, y));
-        invalidate();
+        applyPendingTransform();
+        points.add(x, y, Point.LINE_TO);
+        pointsAdded();
+    }
+
+    void addPoint(double x, double y, int type) {
+        applyPendingTransform();
+        points.add(x, y, type);
+        pointsAdded();
     }
 
     //// Close ////
@@ -70,12 +114,11 @@ public class Contour extends AbstractGeometry {
 
     public void setClosed(boolean closed) {
         this.closed = closed;
-        invalidate();
+        flatPoints = null;
     }
 
     public void close() {
-        this.closed = true;
-        invalidate();
+        setClosed(true);
     }
 
     //// Geometric queries ////
@@ -84,24 +127,124 @@ public class Contour extends AbstractGeometry {
         return points.isEmpty();
     }
 
+    /**
+     * Returns the bounding box of the contour.
+     * <p/>
+     * The bounds are tight: they contain the curves, not their control points. They are cached, and grow with
+     * the points that are added to the contour.
+     *
+     * @return the bounding box.
+     */
     public Rect getBounds() {
+        updateBounds();
         if (points.isEmpty()) {
             return new Rect();
         }
-        double minX = Double.MAX_VALUE;
-        double minY = Double.MAX_VALUE;
-        double maxX = Double.MIN_VALUE;
-        double maxY = Double.MIN_VALUE;
-        double px, py;
-        for (Point p : points) {
-            px = p.getX();
-            py = p.getY();
-            if (px < minX) minX = px;
-            if (py < minY) minY = py;
-            if (px > maxX) maxX = px;
-            if (py > maxY) maxY = py;
+        if (bounds == null) {
+            bounds = new Rect(minX, minY, maxX - minX, maxY - minY);
+        }
+        return bounds;
+    }
+
+    double getMinX() {
+        return minX;
+    }
+
+    double getMinY() {
+        return minY;
+    }
+
+    double getMaxX() {
+        return maxX;
+    }
+
+    double getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * Extend the bounds with the points added since the last update.
+     * <p/>
+     * Points are included as they are. A CURVE_TO point includes the whole curve: its extremes are where the
+     * derivative is zero, and are only calculated when one of the control points lies outside of the bounds.
+     */
+    void updateBounds() {
+        applyPendingTransform();
+        PointBuffer points = this.points;
+        int pointCount = points.size();
+        if (boundedPointCount == pointCount) return;
+        if (boundedPointCount > pointCount) {
+            resetBounds();
+        }
+        for (int pi = boundedPointCount; pi < pointCount; pi++) {
+            int type = points.getType(pi);
+            if (type == Point.CURVE_TO && pi >= 3) {
+                double x3 = points.getX(pi);
+                double y3 = points.getY(pi);
+                includePoint(x3, y3);
+                double x1 = points.getX(pi - 2);
+                double x2 = points.getX(pi - 1);
+                if (x1 < minX || x1 > maxX || x2 < minX || x2 > maxX) {
+                    includeCurveExtrema(true, points.getX(pi - 3), x1, x2, x3);
+                }
+                double y1 = points.getY(pi - 2);
+                double y2 = points.getY(pi - 1);
+                if (y1 < minY || y1 > maxY || y2 < minY || y2 > maxY) {
+                    includeCurveExtrema(false, points.getY(pi - 3), y1, y2, y3);
+                }
+            } else if (type != Point.CURVE_DATA || pi == 0) {
+                includePoint(points.getX(pi), points.getY(pi));
+            }
         }
-        return new Rect(minX, minY, maxX - minX, maxY - minY);
+        boundedPointCount = pointCount;
+        bounds = null;
+    }
+
+    private void includePoint(double x, double y) {
+        if (x < minX) minX = x;
+        if (y < minY) minY = y;
+        if (x > maxX) maxX = x;
+        if (y > maxY) maxY = y;
+    }
+
+    /**
+     * Include the extremes of one coordinate of a cubic curve.
+     * <p/>
+     * The derivative of the curve is 3 * (a * t^2 + b * t + c). Its roots are found with the numerically stable
+     * form of the quadratic formula, which also handles a = 0.
+     */
+    private void includeCurveExtrema(boolean horizontal, double p0, double p1, double p2, double p3) {
+        double a = -p0 + 3 * p1 - 3 * p2 + p3;
+        double b = 2 * (p0 - 2 * p1 + p2);
+        double c = p1 - p0;
+        double discriminant = b * b - 4 * a * c;
+        if (discriminant < 0) return;
+        double q = -0.5 * (b + (b < 0 ? -Math.sqrt(discriminant) : Math.sqrt(discriminant)));
+        if (q == 0) return;
+        includeCurveValue(horizontal, q / a, p0, p1, p2, p3);
+        includeCurveValue(horizontal, c / q, p0, p1, p2, p3);
+    }
+
+    private void includeCurveValue(boolean horizontal, double t, double p0, double p1, double p2, double p3) {
+        if (!(t > 0 && t < 1)) return;
+        double mt = 1 - t;
+        double v = mt * mt * mt * p0 + 3 * mt * mt * t * p1 + 3 * mt * t * t * p2 + t * t * t * p3;
+        if (horizontal) {
+            if (v < minX) minX = v;
+            if (v > maxX) maxX = v;
+        } else {
+            if (v < minY) minY = v;
+            if (v > maxY) maxY = v;
+        }
+    }
+
+    private void resetBounds() {
+        boundedPointCount = 0;
+        minX = Double.POSITIVE_INFINITY;
+        minY = Double.POSITIVE_INFINITY;
+        maxX = Double.NEGATIVE_INFINITY;
+        maxY = Double.NEGATIVE_INFINITY;
+        bounds = null;
     }
 
     /**
@@ -115,46 +258,101 @@ public class Contour extends AbstractGeometry {
      */
 
     public void invalidate() {
-        segmentLengths = null;
+        segmentOffsets = null;
+        flatPoints = null;
+        resetBounds();
+    }
+
+    /**
+     * Clear the caches that don't survive adding points.
+     * <p/>
+     * The bounds only grow, so they are kept. The length index is kept as well: it is extended with the new
+     * segments the next time it is used.
+     */
+    private void pointsAdded() {
+        flatPoints = null;
     }
 
+    /**
+     * Check if the length index covers all points and the closing segment.
+     *
+     * @return true if the index is up-to-date.
+     */
+    private boolean isLengthIndexed() {
+        return segmentOffsets != null && indexedPointCount == points.size() && indexClosed == (closed && !points.isEmpty());
+    }
+
+    /**
+     * Bring the length index of the contour up-to-date.
+     * <p/>
+     * The index keeps the cumulative length at the start of each segment, so segmentOffsets[i] is the distance
+     * along the contour to the start of segment i and segmentOffsets[segmentCount] is the total length. For each
+     * segment it also keeps the index of its end point, which is 0 for the closing segment.
+     * <p/>
+     * If points were added since the last update, only the new segments are measured. The closing segment is
+     * always the last one, so it is dropped and measured again. After an invalidate the index is built from scratch.
+     *
+     * @return the length of the contour.
+     */
     public double updateSegmentLengths() {
-        java.util.List<Point> points = getPoints();
-        segmentLengths = new ArrayList<Double>();
-        double totalLength = 0;
+        applyPendingTransform();
+        PointBuffer points = this.points;
+        int pointCount = points.size();
+        int startPoint;
+        if (segmentOffsets == null || indexedPointCount > pointCount) {
+            // There are at most as many segments as points, including the closing segment.
+            segmentOffsets = new double[pointCount + 1];
+            segmentPoints = new int[pointCount];
+            segmentCount = 0;
+            startPoint = 1;
+        } else {
+            if (indexClosed)
+                segmentCount--;
+            if (segmentPoints.length < pointCount) {
+                int capacity = Math.max(pointCount, segmentPoints.length * 2);
+                double[] newOffsets = new double[capacity + 1];
+                System.arraycopy(segmentOffsets, 0, newOffsets, 0, segmentCount + 1);
+                int[] newPoints = new int[capacity];
+                System.arraycopy(segmentPoints, 0, newPoints, 0, segmentCount);
+                segmentOffsets = newOffsets;
+                segmentPoints = newPoints;
+            }
+            startPoint = Math.max(1, indexedPointCount);
+        }
+        double[] offsets = segmentOffsets;
+        int[] segmentPoints = this.segmentPoints;
+        int segmentCount = this.segmentCount;
+        double totalLength = offsets[segmentCount];
 
         // We cannot form a line or curve with the first point.
         // Since the algorithm looks back at previous points, we
         // start looking from the first useful point, which is
         // the second (index of 1).
-        for (int pi = 1; pi < points.size(); pi++) {
-            Point pt = points.get(pi);
-            if (pt.isLineTo()) {
-                Point pt0 = points.get(pi - 1);
-                double length = Path.lineLength(pt0.x, pt0.y, pt.x, pt.y);
-                segmentLengths.add(length);
-                totalLength += length;
-            } else if (pt.isCurveTo()) {
-                Point pt0 = points.get(pi - 3);
-                Point c1 = points.get(pi - 2);
-                Point c2 = points.get(pi - 1);
-                double length = Path.curveLength(pt0.x, pt0.y,
-                        c1.x, c1.y,
-                        c2.x, c2.y,
-                        pt.x, pt.y, SEGMENT_ACCURACY);
-                segmentLengths.add(length);
-                totalLength += length;
+        for (int pi = startPoint; pi < pointCount; pi++) {
+            int type = points.getType(pi);
+            if (type == Point.LINE_TO) {
+                totalLength += Path.lineLength(points.getX(pi - 1), points.getY(pi - 1), points.getX(pi), points.getY(pi));
+            } else if (type == Point.CURVE_TO) {
+                totalLength += Path.curveLength(points.getX(pi - 3), points.getY(pi - 3),
+                        points.getX(pi - 2), points.getY(pi - 2),
+                        points.getX(pi - 1), points.getY(pi - 1),
+                        points.getX(pi), points.getY(pi));
+            } else {
+                continue;
             }
+            segmentPoints[segmentCount] = pi;
+            offsets[++segmentCount] = totalLength;
         }
         // If the path is closed, add the closing segment.
-        if (closed && !points.isEmpty()) {
-            Point pt0 = points.get(points.size() - 1);
-            Point pt1 = points.get(0);
-            double length = Path.lineLength(pt0.x, pt0.y, pt1.x, pt1.y);
-            segmentLengths.add(length);
-            totalLength += length;
+        if (closed && pointCount > 0) {
+            totalLength += Path.lineLength(points.getX(pointCount - 1), points.getY(pointCount - 1), points.getX(0), points.getY(0));
+            segmentPoints[segmentCount] = 0;
+            offsets[++segmentCount] = totalLength;
         }
 
+        this.segmentCount = segmentCount;
+        this.indexedPointCount = pointCount;
+        this.indexClosed = closed && pointCount > 0;
         this.length = totalLength;
         return totalLength;
     }
@@ -165,7 +363,7 @@ public class Contour extends AbstractGeometry {
      * @return the length of the contour
      */
     public double getLength() {
-        if (segmentLengths == null)
+        if (!isLengthIndexed())
             updateSegmentLengths();
         assert (length != -1);
         return length;
@@ -184,7 +382,7 @@ public class Contour extends AbstractGeometry {
      * @return coordinates for point at t.
      */
     public Point pointAt(double t) {
-        if (segmentLengths == null)
+        if (!isLengthIndexed())
             updateSegmentLengths();
 
         // Check if there is a path.
@@ -197,41 +395,73 @@ public class Contour extends AbstractGeometry {
 
         // Since t is relative, convert it to the absolute length.
         double absT = t * length;
-        // The resT is what remains of t after we traversed all segments.
-        double resT = t;
-
-        // Find the segment that contains t.
-        int segnum = -1;
-        for (Double seglength : segmentLengths) {
-            segnum++;
-            if (absT <= seglength || segnum == segmentLengths.size() - 1)
-                break;
-            absT -= seglength;
-            resT -= seglength / length;
+        return pointOnSegment(segmentAt(absT), absT);
+    }
+
+    /**
+     * Find the segment that contains the given distance along the contour.
+     * <p/>
+     * This is the first segment that ends at or after the given distance. Distances beyond the end of the contour
+     * return the last segment. The length index needs to be up-to-date.
+     *
+     * @param absT the absolute distance along the contour.
+     * @return the segment index.
+     */
+    int segmentAt(double absT) {
+        return offsetIndex(segmentOffsets, segmentCount, absT);
+    }
+
+    /**
+     * Find the segment that contains the given distance along the contour, searching forward from the given segment.
+     * <p/>
+     * Use this instead of segmentAt(absT) when the distances only go up: each segment is visited at most once.
+     *
+     * @param absT         the absolute distance along the contour.
+     * @param startSegment the segment to start searching from. The result is never before this segment.
+     * @return the segment index.
+     */
+    int segmentAt(double absT, int startSegment) {
+        double[] offsets = segmentOffsets;
+        int lastSegment = segmentCount - 1;
+        int segment = startSegment;
+        while (segment < lastSegment && absT > offsets[segment + 1]) {
+            segment++;
         }
-        resT /= (segmentLengths.get(segnum) / length);
+        return segment;
+    }
 
-        // Find the point index for the segment.
-        int pi = pointIndexForSegment(segnum + 1);
-        Point pt1 = points.get(pi);
+    /**
+     * Returns the point at the given distance along the contour, measured from the start of the contour.
+     * <p/>
+     * Distances outside of the segment extrapolate the segment. The length index needs to be up-to-date.
+     *
+     * @param segment the segment index.
+     * @param absT    the absolute distance along the contour.
+     * @return coordinates for the point.
+     */
+    Point pointOnSegment(int segment, double absT) {
+        double segmentStart = segmentOffsets[segment];
+        double segmentLength = segmentOffsets[segment + 1] - segmentStart;
+        double resT = segmentLength == 0 ? 0 : (absT - segmentStart) / segmentLength;
+
+        int pi = segmentPoints[segment];
+        int type = points.getType(pi);
+        double x1 = points.getX(pi);
+        double y1 = points.getY(pi);
         // If the path is closed, the point index is set to zero.
-        // Set the index to the last point to get the one-but-last point for pt0. 
+        // Set the index to the last point to get the one-but-last point for pt0.
         if (pi == 0) {
             pi = points.size();
         }
 
-        if (pt1.isLineTo()) {
-            Point pt0 = points.get(pi - 1);
-            return Path.linePoint(resT, pt0.x, pt0.y, pt1.x, pt1.y);
-        } else if (pt1.isCurveTo()) {
-            Point pt0 = points.get(pi - 3);
-            Point c1 = points.get(pi - 2);
-            Point c2 = points.get(pi - 1);
+        if (type == Point.LINE_TO) {
+            return Path.linePoint(resT, points.getX(pi - 1), points.getY(pi - 1), x1, y1);
+        } else if (type == Point.CURVE_TO) {
             return Path.curvePoint(resT,
-                    pt0.x, pt0.y,
-                    c1.x, c1.y,
-                    c2.x, c2.y,
-                    pt1.x, pt1.y);
+                    points.getX(pi - 3), points.getY(pi - 3),
+                    points.getX(pi - 2), points.getY(pi - 2),
+                    points.getX(pi - 1), points.getY(pi - 1),
+                    x1, y1);
         } else {
             throw new AssertionError("Incorrect point.");
         }
@@ -250,32 +480,6 @@ public class Contour extends AbstractGeometry {
         return pointAt(t);
     }
 
-    /**
-     * Calculate the point index for the segment number. Segments lie between points. The first point of the segment
-     * is returned. The point index will be a valid index, even if the segment number doesn't exist.
-     *
-     * @param segnum the segment index
-     * @return the index of the point.
-     */
-    private int pointIndexForSegment(int segnum) {
-        int pointIndex = 0;
-        for (Point pt : points) {
-            if (pt.isCurveTo() || pt.isLineTo()) {
-                if (segnum == 0) break;
-                segnum--;
-            }
-            pointIndex++;
-        }
-        int pointCount = points.size();
-        if (pointIndex < pointCount) {
-            return pointIndex;
-        } else if (closed) {
-            return 0;
-        } else {
-            return pointCount - 1;
-        }
-    }
-
     //// Geometric operations ////
 
     /**
@@ -287,25 +491,7 @@ public class Contour extends AbstractGeometry {
     public Point[] makePoints(int amount) {
         // If the contour is empty, pointAt will fail. Return an empty array.
         if (points.isEmpty()) return new Point[0];
-        Point[] points = new Point[amount];
-        double delta = 1;
-        if (closed) {
-            if (amount > 0) {
-                delta = 1.0 / amount;
-            }
-        } else {
-            // The delta value is divided by amount - 1, because we also want the last point (t=1.0)
-            // If I wouldn't use amount - 1, I fall one point short of the end.
-            // E.g. if amount = 4, I want point at t 0.0, 0.33, 0.66 and 1.0,
-            // if amount = 2, I want point at t 0.0 and t 1.0
-            if (amount > 2) {
-                delta = 1.0 / (amount - 1.0);
-            }
-        }
-        for (int i = 0; i < amount; i++) {
-            points[i] = pointAt(delta * i);
-        }
-        return points;
+        return new LengthCursor(this).makePoints(amount, pointDelta(amount, closed));
     }
 
     /**
@@ -371,12 +557,93 @@ public class Contour extends AbstractGeometry {
         }
     }
 
+    /**
+     * Get the points of the contour with all curves replaced by lines.
+     * <p/>
+     * The lines stay within FLATTEN_TOLERANCE of the curves.
+     *
+     * @return a read-only list of points.
+     * @see #getFlattenedPoints(double)
+     */
+    public List<Point> getFlattenedPoints() {
+        return getFlattenedPoints(Path.FLATTEN_TOLERANCE);
+    }
+
+    /**
+     * Get the points of the contour with all curves replaced by lines.
+     * <p/>
+     * The result is cached until the contour is invalidated, so asking for the same tolerance again is free.
+     *
+     * @param tolerance the maximum distance between the curves and the lines.
+     * @return a read-only list of points.
+     */
+    public List<Point> getFlattenedPoints(double tolerance) {
+        return Collections.unmodifiableList(getFlattenedBuffer(tolerance));
+    }
+
+    PointBuffer getFlattenedBuffer(double tolerance) {
+        if (tolerance <= 0) {
+            throw new IllegalArgumentException("Tolerance must be greater than zero.");
+        }
+        if (flatPoints == null || flatTolerance != tolerance) {
+            flatPoints = buildFlattenedBuffer(tolerance);
+            flatTolerance = tolerance;
+        }
+        return flatPoints;
+    }
+
+    private PointBuffer buildFlattenedBuffer(double tolerance) {
+        applyPendingTransform();
+        PointBuffer points = this.points;
+        int pointCount = points.size();
+        PointBuffer flat = new PointBuffer(pointCount);
+        for (int pi = 0; pi < pointCount; pi++) {
+            int type = points.getType(pi);
+            if (type == Point.CURVE_TO && pi >= 3) {
+                Path.flattenCurve(flat, points.getX(pi - 3), points.getY(pi - 3),
+                        points.getX(pi - 2), points.getY(pi - 2),
+                        points.getX(pi - 1), points.getY(pi - 1),
+                        points.getX(pi), points.getY(pi), tolerance);
+            } else if (type == Point.CURVE_TO) {
+                flat.add(points.getX(pi), points.getY(pi), Point.LINE_TO);
+            } else if (type != Point.CURVE_DATA) {
+                flat.add(points.getX(pi), points.getY(pi), type);
+            }
+        }
+        flat.trimToSize();
+        return flat;
+    }
+
+    /**
+     * Replace all curves by lines that stay within FLATTEN_TOLERANCE of the curve.
+     */
     public void flatten() {
-        throw new UnsupportedOperationException();
+        flatten(Path.FLATTEN_TOLERANCE);
     }
 
-    public IGeometry flattened() {
-        throw new UnsupportedOperationException();
+    /**
+     * Replace all curves by lines that stay within the given tolerance of the curve.
+     *
+     * @param tolerance the maximum distance between the curves and the lines.
+     */
+    public void flatten(double tolerance) {
+        PointBuffer flat = getFlattenedBuffer(tolerance);
+        points = new PointBuffer(flat);
+        invalidate();
+        // The flattened contour is its own flattened version.
+        flatPoints = flat;
+        flatTolerance = tolerance;
+    }
+
+    public Contour flattened() {
+        return flattened(Path.FLATTEN_TOLERANCE);
+    }
+
+    public Contour flattened(double tolerance) {
+        Contour c = new Contour();
+        c.points = new PointBuffer(getFlattenedBuffer(tolerance));
+        c.closed = closed;
+        return c;
     }
 
     //// Graphics ////
@@ -399,30 +666,55 @@ public class Contour extends AbstractGeometry {
     /* package private */
 
     void _extendPath(GeneralPath gp) {
-        if (points.size() == 0) return;
-        Point pt = points.get(0);
-        Point ctrl1, ctrl2;
-        gp.moveTo(pt.x, pt.y);
-        int pointCount = getPointCount();
-        for (int i = 1; i < pointCount; i++) {
-            pt = points.get(i);
-            if (pt.isLineTo()) {
-                gp.lineTo(pt.x, pt.y);
-            } else if (pt.isCurveTo()) {
-                ctrl1 = points.get(i - 2);
-                ctrl2 = points.get(i - 1);
-                gp.curveTo(ctrl1.x, ctrl1.y, ctrl2.x, ctrl2.y, pt.x, pt.y);
-            }
-        }
-        if (closed)
-            gp.closePath();
+        new GeometryCursor(this).extendPath(gp);
     }
 
+    /**
+     * Transform the points of the contour in place.
+     * <p/>
+     * Pending transformations are applied in the same pass.
+     *
+     * @param t the transformation.
+     */
     public void transform(Transform t) {
-        this.points = t.map(getPoints());
+        deferTransform(t);
+        applyPendingTransform();
+    }
+
+    /**
+     * Transform the contour, but only change the points when they are needed.
+     * <p/>
+     * The transformation is combined with the transformations that are already pending. They are applied in one
+     * pass when the points are read, measured or drawn, or when a point is added. This makes a chain of
+     * transformations on a large contour as cheap as a single one.
+     *
+     * @param t the transformation.
+     */
+    public void deferTransform(Transform t) {
+        if (pendingTransform == null) {
+            pendingTransform = new AffineTransform(t.getAffineTransform());
+        } else {
+            pendingTransform.preConcatenate(t.getAffineTransform());
+        }
         invalidate();
     }
 
+    /**
+     * Check if the contour has transformations that are not applied to its points yet.
+     *
+     * @return true if there is a pending transformation.
+     */
+    public boolean hasPendingTransform() {
+        return pendingTransform != null;
+    }
+
+    private void applyPendingTransform() {
+        if (pendingTransform == null) return;
+        AffineTransform t = pendingTransform;
+        pendingTransform = null;
+        points.transform(t);
+    }
+
     //// Conversions ////
 
     public Path toPath() {
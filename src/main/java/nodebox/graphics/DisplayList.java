@@ -0,0 +1,373 @@
+package nodebox.graphics;
+
+import java.awt.*;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A compiled, immutable list of drawing operations.
+ * <p/>
+ * Create a display list with Canvas.compile(). All the work that drawing a canvas does before it reaches Java2D
+ * is done once: the AWT shapes are copied out of the paths, colors and strokes are converted and shared, text is
+ * laid out and the bounds of every operation are measured. Drawing the display list only culls the operations
+ * against the clip and sends the rest to the graphics context, setting the color, stroke and composite only
+ * when they change.
+ * <p/>
+ * Operations are culled the same way as Canvas.draw culls the items: text is always drawn. Grobs that use the
+ * raster cache are kept as a copy that draws itself. Each path keeps a copy as well, which draws the path when
+ * the graphics context asks for a level of detail.
+ * <p/>
+ * The display list doesn't change when the canvas changes. Compile the canvas again to see the changes. A display
+ * list can be drawn on several graphics contexts at once.
+ */
+public final class DisplayList {
+
+    private static final int FILL = 0;
+    private static final int STROKE = 1;
+    private static final int IMAGE = 2;
+    private static final int TEXT = 3;
+    private static final int GROB = 4;
+
+    private final Rect bounds;
+    private final java.awt.Color background;
+    private final int size;
+    private final int[] kinds;
+    private final Object[] shapes;
+    private final java.awt.Color[] paints;
+    private final Stroke[] strokes;
+    private final Composite[] composites;
+    private final AffineTransform[] transforms;
+    private final Path[] sources;
+    private final double[] itemBounds;
+
+    private DisplayList(Compiler c) {
+        bounds = c.bounds;
+        background = c.background;
+        size = c.kinds.size();
+        kinds = new int[size];
+        itemBounds = new double[size * 4];
+        for (int i = 0; i < size; i++) {
+            kinds[i] = c.kinds.get(i);
+        }
+        for (int i = 0; i < size * 4; i++) {
+            itemBounds[i] = c.itemBounds.get(i);
+        }
+        shapes = c.shapes.toArray();
+        paints = c.paints.toArray(new java.awt.Color[size]);
+        strokes = c.strokes.toArray(new Stroke[size]);
+        composites = c.composites.toArray(new Composite[size]);
+        transforms = c.transforms.toArray(new AffineTransform[size]);
+        sources = c.sources.toArray(new Path[size]);
+    }
+
+    /**
+     * Compile the items of the canvas.
+     *
+     * @param canvas the canvas to compile.
+     * @return a new display list.
+     */
+    static DisplayList compile(Canvas canvas) {
+        Compiler c = new Compiler(canvas);
+        for (Grob grob : canvas.getItems()) {
+            c.add(grob);
+        }
+        return new DisplayList(c);
+    }
+
+    /**
+     * Returns the number of drawing operations.
+     * <p/>
+     * A path that has both a fill and a stroke is two operations.
+     *
+     * @return the number of operations.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the bounds of the compiled canvas.
+     *
+     * @return the canvas bounds.
+     */
+    public Rect getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Draw the display list. The result is the same as drawing the canvas it was compiled from.
+     * <p/>
+     * With a level of detail set on the graphics context, paths are simplified by their copy, which draws the fill
+     * and the stroke at once.
+     *
+     * @param g the graphics context.
+     * @see LevelOfDetail#KEY
+     */
+    public void draw(Graphics2D g) {
+        Rectangle2D canvasRect = bounds.getRectangle2D();
+        g.clip(canvasRect);
+        if (background != null) {
+            g.setColor(background);
+            g.fill(canvasRect);
+        }
+        Rectangle2D clip = getUserClip(g);
+        java.awt.Color currentPaint = background;
+        Stroke currentStroke = g.getStroke();
+        Composite defaultComposite = g.getComposite();
+        boolean detailed = LevelOfDetail.get(g) != null;
+        Path drawnSource = null;
+        for (int i = 0; i < size; i++) {
+            int o = i * 4;
+            if (clip != null && (itemBounds[o] > clip.getMaxX() || itemBounds[o + 1] > clip.getMaxY()
+                    || itemBounds[o + 2] < clip.getMinX() || itemBounds[o + 3] < clip.getMinY())) {
+                continue;
+            }
+            if (detailed && sources[i] != null) {
+                // The fill and the stroke of a path are next to each other. Draw the path only once.
+                if (sources[i] != drawnSource) {
+                    sources[i].draw(g);
+                    drawnSource = sources[i];
+                    currentPaint = null;
+                    currentStroke = g.getStroke();
+                }
+                continue;
+            }
+            java.awt.Color paint = paints[i];
+            if (paint != null && paint != currentPaint) {
+                g.setColor(paint);
+                currentPaint = paint;
+            }
+            switch (kinds[i]) {
+                case FILL:
+                    g.fill((Shape) shapes[i]);
+                    break;
+                case STROKE:
+                    Stroke stroke = strokes[i];
+                    if (stroke != currentStroke) {
+                        g.setStroke(stroke);
+                        currentStroke = stroke;
+                    }
+                    try {
+                        g.draw((Shape) shapes[i]);
+                    } catch (Exception e) {
+                        // Invalid transformations can cause the pen to not display. See Path.draw.
+                    }
+                    break;
+                case IMAGE:
+                    AffineTransform savedTransform = setupTransform(g, transforms[i]);
+                    ImageRun image = (ImageRun) shapes[i];
+                    g.setComposite(composites[i]);
+                    g.drawRenderedImage(image.image, image.transform);
+                    g.setComposite(defaultComposite);
+                    g.setTransform(savedTransform);
+                    break;
+                case TEXT:
+                    savedTransform = setupTransform(g, transforms[i]);
+                    TextRun text = (TextRun) shapes[i];
+                    for (int j = 0; j < text.layouts.length; j++) {
+                        text.layouts[j].draw(g, text.positions[j * 2], text.positions[j * 2 + 1]);
+                    }
+                    g.setTransform(savedTransform);
+                    break;
+                case GROB:
+                    ((Grob) shapes[i]).draw(g);
+                    // The grob can change any state of the graphics context.
+                    currentPaint = null;
+                    currentStroke = g.getStroke();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Concatenate the transformation the same way as the grobs do when they draw.
+     *
+     * @return the previous transformation.
+     */
+    private static AffineTransform setupTransform(Graphics2D g, AffineTransform t) {
+        AffineTransform savedTransform = g.getTransform();
+        AffineTransform trans = g.getTransform();
+        trans.concatenate(t);
+        g.setTransform(trans);
+        return savedTransform;
+    }
+
+    /**
+     * Returns the clip in user space, grown by a device pixel for antialiasing.
+     *
+     * @return the clip bounds, or null if the clip can't be converted to user space.
+     */
+    private static Rectangle2D getUserClip(Graphics2D g) {
+        AffineTransform t = g.getTransform();
+        Rectangle2D deviceClip = t.createTransformedShape(g.getClip()).getBounds2D();
+        GraphicsConfiguration gc = g.getDeviceConfiguration();
+        if (gc != null) {
+            Rectangle2D.intersect(deviceClip, gc.getBounds(), deviceClip);
+        }
+        deviceClip.setRect(deviceClip.getX() - 1, deviceClip.getY() - 1,
+                deviceClip.getWidth() + 2, deviceClip.getHeight() + 2);
+        try {
+            return t.createInverse().createTransformedShape(deviceClip).getBounds2D();
+        } catch (NoninvertibleTransformException e) {
+            return null;
+        }
+    }
+
+    private static final class ImageRun {
+        private final BufferedImage image;
+        private final AffineTransform transform;
+
+        private ImageRun(BufferedImage image, AffineTransform transform) {
+            this.image = image;
+            this.transform = transform;
+        }
+    }
+
+    private static final class TextRun {
+        private final TextLayout[] layouts;
+        private final float[] positions;
+
+        private TextRun(TextLayout[] layouts, float[] positions) {
+            this.layouts = layouts;
+            this.positions = positions;
+        }
+    }
+
+    /**
+     * Collects the operations while compiling.
+     */
+    private static final class Compiler {
+
+        private final Rect bounds;
+        private final java.awt.Color background;
+        private final ArrayList<Integer> kinds = new ArrayList<Integer>();
+        private final ArrayList<Object> shapes = new ArrayList<Object>();
+        private final ArrayList<java.awt.Color> paints = new ArrayList<java.awt.Color>();
+        private final ArrayList<Stroke> strokes = new ArrayList<Stroke>();
+        private final ArrayList<Composite> composites = new ArrayList<Composite>();
+        private final ArrayList<AffineTransform> transforms = new ArrayList<AffineTransform>();
+        private final ArrayList<Path> sources = new ArrayList<Path>();
+        private final ArrayList<Double> itemBounds = new ArrayList<Double>();
+        private final HashMap<java.awt.Color, java.awt.Color> sharedPaints = new HashMap<java.awt.Color, java.awt.Color>();
+
+        private Compiler(Canvas canvas) {
+            bounds = canvas.getBounds();
+            background = canvas.getBackground() == null ? null : paint(canvas.getBackground());
+        }
+
+        private void add(Grob grob) {
+            if (grob instanceof Path) {
+                addPath((Path) grob);
+            } else if (grob instanceof Geometry) {
+                for (Path p : ((Geometry) grob).getPaths()) {
+                    addPath(p);
+                }
+            } else if (grob instanceof Image) {
+                addImage((Image) grob);
+            } else if (grob instanceof Text && ((Text) grob).isRasterCached()) {
+                // The raster cache keeps the image of the text itself.
+                add(GROB, grob.clone(), null, null, null, null, null, null, 0);
+            } else if (grob instanceof Text) {
+                addText((Text) grob);
+            } else {
+                // We don't know what this grob draws. Keep a copy and let it draw itself.
+                add(GROB, grob.clone(), null, null, null, null, null, null, 0);
+            }
+        }
+
+        private void addPath(Path p) {
+            Color fill = p.getFillColor();
+            Color stroke = p.getStrokeColor();
+            StrokeStyle style = p.getStrokeStyle();
+            boolean stroked = stroke != null && style.getWidth() > 0;
+            if (fill == null && !stroked) return;
+            if (p.isRasterCached()) {
+                // The raster cache keeps the image of the path itself.
+                double margin = stroke == null ? 0 : style.getExtent();
+                add(GROB, p.clone(), null, null, null, null, null, p.getBounds(), margin);
+                return;
+            }
+            // The cached AWT path of the Path can change, so we keep a copy.
+            GeneralPath shape = new GeneralPath(p.getGeneralPath());
+            Path source = p.clone();
+            Rect r = p.getBounds();
+            if (fill != null) {
+                add(FILL, shape, paint(fill), null, null, null, source, r, 0);
+            }
+            if (stroked) {
+                add(STROKE, shape, paint(stroke), style.getAwtStroke(), null, null, source, r, style.getExtent());
+            }
+        }
+
+        private void addImage(Image image) {
+            if (image.getAwtImage() == null) return;
+            AffineTransform t = image.getTransform().getAffineTransform();
+            AffineTransform imageTransform = image.getImageTransform();
+            BufferedImage img = image.getAwtImage();
+            AffineTransform full = new AffineTransform(t);
+            full.concatenate(imageTransform);
+            Rect r = new Rect(full.createTransformedShape(new Rectangle(img.getWidth(), img.getHeight())).getBounds2D());
+            add(IMAGE, new ImageRun(img, imageTransform), null, null, image.getComposite(), t, null, r, 0);
+        }
+
+        private void addText(Text text) {
+            if (text.getFillColor() == null) return;
+            List<TextLayout> layouts = new ArrayList<TextLayout>();
+            List<Float> positions = new ArrayList<Float>();
+            text.layout(layouts, positions);
+            if (layouts.isEmpty()) return;
+            float[] xy = new float[positions.size()];
+            for (int i = 0; i < xy.length; i++) {
+                xy[i] = positions.get(i);
+            }
+            TextRun run = new TextRun(layouts.toArray(new TextLayout[layouts.size()]), xy);
+            // Text is drawn in the current color, like Text.draw does. Like Canvas.draw, we don't cull text.
+            add(TEXT, run, null, null, null, text.getTransform().getAffineTransform(), null, null, 0);
+        }
+
+        private void add(int kind, Object shape, java.awt.Color paint, Stroke stroke, Composite composite,
+                         AffineTransform transform, Path source, Rect r, double margin) {
+            kinds.add(kind);
+            shapes.add(shape);
+            paints.add(paint);
+            strokes.add(stroke);
+            composites.add(composite);
+            transforms.add(transform == null ? null : new AffineTransform(transform));
+            sources.add(source);
+            if (r == null) {
+                // Always draw this operation.
+                itemBounds.add(Double.NEGATIVE_INFINITY);
+                itemBounds.add(Double.NEGATIVE_INFINITY);
+                itemBounds.add(Double.POSITIVE_INFINITY);
+                itemBounds.add(Double.POSITIVE_INFINITY);
+            } else {
+                itemBounds.add(r.getX() - margin);
+                itemBounds.add(r.getY() - margin);
+                itemBounds.add(r.getX() + r.getWidth() + margin);
+                itemBounds.add(r.getY() + r.getHeight() + margin);
+            }
+        }
+
+        /**
+         * Convert the color, and share AWT colors with the same value so we can compare them by identity.
+         */
+        private java.awt.Color paint(Color c) {
+            java.awt.Color awtColor = c.getAwtColor();
+            java.awt.Color shared = sharedPaints.get(awtColor);
+            if (shared == null) {
+                sharedPaints.put(awtColor, awtColor);
+                shared = awtColor;
+            }
+            return shared;
+        }
+
+    }
+
+}
@@ -11,8 +11,9 @@ public class Geometry extends AbstractGeometry implements Colorizable {
     private ArrayList<Path> paths;
     private Path currentPath;
     private boolean lengthDirty = true;
-    private ArrayList<Double> pathLengths;
-    private double groupLength;
+    private double[] pathOffsets;
+    private Rect bounds;
+    private boolean deferTransforms = false;
 
     public Geometry() {
         paths = new ArrayList<Path>();
@@ -99,6 +100,21 @@ public class Geometry extends AbstractGeometry implements Colorizable {
         invalidate(false);
     }
 
+    /**
+     * Pack the points of all paths into one shared block of memory.
+     *
+     * @see Path#pack()
+     */
+    public void pack() {
+        ArrayList<PointBuffer> buffers = new ArrayList<PointBuffer>();
+        for (Path path : paths) {
+            for (Contour c : path.getContours()) {
+                buffers.add(c.getPointBuffer());
+            }
+        }
+        PointBuffer.pack(buffers);
+    }
+
     /**
      * Check if the last path in this group is closed.
      * <p/>
@@ -142,6 +158,12 @@ public class Geometry extends AbstractGeometry implements Colorizable {
         }
     }
 
+    public void setStrokeStyle(StrokeStyle strokeStyle) {
+        for (Path path : paths) {
+            path.setStrokeStyle(strokeStyle);
+        }
+    }
+
     //// Point operations ////
 
     public int getPointCount() {
@@ -160,13 +182,23 @@ public class Geometry extends AbstractGeometry implements Colorizable {
      * @return a list of Points.
      */
     public java.util.List<Point> getPoints() {
-        ArrayList<Point> points = new ArrayList<Point>();
+        ArrayList<Point> points = new ArrayList<Point>(getPointCount());
         for (Path path : paths) {
-            points.addAll(path.getPoints());
+            for (Contour c : path.getContours()) {
+                points.addAll(c.getPoints());
+            }
         }
         return points;
     }
 
+    public GeometryCursor cursor() {
+        ArrayList<Contour> contours = new ArrayList<Contour>();
+        for (Path path : paths) {
+            contours.addAll(path.getContours());
+        }
+        return new GeometryCursor(contours);
+    }
+
     public void addPoint(Point pt) {
         ensureCurrentPath();
         currentPath.addPoint(pt);
@@ -214,21 +246,33 @@ public class Geometry extends AbstractGeometry implements Colorizable {
 
     /**
      * Returns the bounding box of all elements in the group.
+     * <p/>
+     * This is the union of the bounds of the paths, which are cached. The same Rect object is returned as long as
+     * the bounds don't change.
      *
      * @return a bounding box that contains all elements in the group.
      */
     public Rect getBounds() {
-        if (isEmpty()) return new Rect();
-        Rect r = null;
-        for (Grob g : paths) {
-            if (r == null) {
-                r = g.getBounds();
-            }
-            if (!g.isEmpty()) {
-                r = r.united(g.getBounds());
-            }
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (Path p : paths) {
+            if (p.isEmpty()) continue;
+            Rect r = p.getBounds();
+            if (r.x < minX) minX = r.x;
+            if (r.y < minY) minY = r.y;
+            if (r.x + r.width > maxX) maxX = r.x + r.width;
+            if (r.y + r.height > maxY) maxY = r.y + r.height;
+        }
+        if (minX > maxX) {
+            return new Rect();
+        }
+        if (bounds == null || bounds.x != minX || bounds.y != minY
+                || bounds.width != maxX - minX || bounds.height != maxY - minY) {
+            bounds = new Rect(minX, minY, maxX - minX, maxY - minY);
         }
-        return r != null ? r : new Rect();
+        return bounds;
     }
 
     //// Geometric math ////
@@ -242,18 +286,21 @@ public class Geometry extends AbstractGeometry implements Colorizable {
         if (lengthDirty) {
             updatePathLengths();
         }
-        return groupLength;
+        return pathOffsets[paths.size()];
     }
 
+    /**
+     * Build the running lengths of the paths, used to find the path at a given distance.
+     */
     private void updatePathLengths() {
-        pathLengths = new ArrayList<Double>(paths.size());
-        groupLength = 0;
-        double length;
-        for (Path p : paths) {
-            length = p.getLength();
-            pathLengths.add(length);
-            groupLength += length;
+        int pathCount = paths.size();
+        double[] offsets = new double[pathCount + 1];
+        double length = 0;
+        for (int i = 0; i < pathCount; i++) {
+            length += paths.get(i).getLength();
+            offsets[i + 1] = length;
         }
+        pathOffsets = offsets;
         lengthDirty = false;
     }
 
@@ -262,7 +309,7 @@ public class Geometry extends AbstractGeometry implements Colorizable {
      * <p/>
      * Gets the length of the group, based on the length
      * of each path in the group.
-     * Determines in what path t falls.
+     * Determines in what path t falls, using a binary search over the running path lengths.
      * Gets the point on that path.
      *
      * @param t relative coordinate of the point (between 0.0 and 1.0).
@@ -271,23 +318,15 @@ public class Geometry extends AbstractGeometry implements Colorizable {
      */
     public Point pointAt(double t) {
         double length = getLength();
+        int pathCount = paths.size();
+        if (pathCount == 0) return Point.ZERO;
         // Since t is relative, convert it to the absolute length.
         double absT = t * length;
-        // The resT is what remains of t after we traversed all segments.
-        double resT = t;
-        // Find the contour that contains t.
-        double cLength;
-        Path currentPath = null;
-        for (Path p : paths) {
-            currentPath = p;
-            cLength = p.getLength();
-            if (absT <= cLength) break;
-            absT -= cLength;
-            resT -= cLength / length;
-        }
-        if (currentPath == null) return Point.ZERO;
-        resT /= (currentPath.getLength() / length);
-        return currentPath.pointAt(resT);
+        int index = offsetIndex(pathOffsets, pathCount, absT);
+        double start = pathOffsets[index];
+        // Convert what remains of t to a position relative to the path.
+        double resT = (absT - start) / (pathOffsets[index + 1] - start);
+        return paths.get(index).pointAt(resT);
     }
 
 
@@ -347,15 +386,21 @@ public class Geometry extends AbstractGeometry implements Colorizable {
                     points.addAll(Arrays.asList(pointsFromContour));
                 }
             }
-            return (Point[]) points.toArray();
+            return points.toArray(new Point[points.size()]);
         } else {
             // Distribute all points evenly along the combined length of the contours.
             double delta = pointDelta(amount, isClosed());
-            Point[] points = new Point[amount];
-            for (int i = 0; i < amount; i++) {
-                points[i] = pointAt(delta * i);
+            ArrayList<Contour> contours = new ArrayList<Contour>();
+            for (Path p : paths) {
+                contours.addAll(p.getContours());
+            }
+            LengthCursor cursor = new LengthCursor(contours);
+            if (cursor.isEmpty()) {
+                Point[] points = new Point[amount];
+                Arrays.fill(points, Point.ZERO);
+                return points;
             }
-            return points;
+            return cursor.makePoints(amount, delta);
         }
     }
 
@@ -368,9 +413,8 @@ public class Geometry extends AbstractGeometry implements Colorizable {
             return g;
         } else {
             Geometry g = new Geometry();
-            double delta = pointDelta(amount, isClosed());
-            for (int i = 0; i < amount; i++) {
-                g.addPoint(pointAt(delta * i));
+            for (Point pt : makePoints(amount, false)) {
+                g.addPoint(pt);
             }
             if (isClosed() && g.paths.size() == 1) {
                 g.paths.get(0).close();
@@ -392,9 +436,23 @@ public class Geometry extends AbstractGeometry implements Colorizable {
 
     public void transform(Transform t) {
         for (Path path : paths) {
-            path.transform(t);
+            path.transform(t, deferTransforms || path.isDeferTransforms());
         }
-        invalidate(true);
+        invalidate(false);
+    }
+
+    public boolean isDeferTransforms() {
+        return deferTransforms;
+    }
+
+    /**
+     * Set whether transformations of this geometry are applied right away, or when the points are needed.
+     *
+     * @param deferTransforms true to defer transformations.
+     * @see Path#setDeferTransforms(boolean)
+     */
+    public void setDeferTransforms(boolean deferTransforms) {
+        this.deferTransforms = deferTransforms;
     }
 
     //// Drawing operations ////
@@ -406,11 +464,26 @@ public class Geometry extends AbstractGeometry implements Colorizable {
     }
 
     public void flatten() {
-        throw new UnsupportedOperationException();
+        flatten(Path.FLATTEN_TOLERANCE);
+    }
+
+    public void flatten(double tolerance) {
+        for (Path path : paths) {
+            path.flatten(tolerance);
+        }
+        invalidate(false);
     }
 
-    public IGeometry flattened() {
-        throw new UnsupportedOperationException();
+    public Geometry flattened() {
+        return flattened(Path.FLATTEN_TOLERANCE);
+    }
+
+    public Geometry flattened(double tolerance) {
+        Geometry g = new Geometry();
+        for (Path path : paths) {
+            g.add(path.flattened(tolerance));
+        }
+        return g;
     }
 
     //// Functional operations ////
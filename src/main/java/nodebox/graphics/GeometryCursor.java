@@ -0,0 +1,322 @@
+package nodebox.graphics;
+
+import java.awt.geom.GeneralPath;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks the segments of a geometry without creating objects.
+ * <p/>
+ * The cursor visits the contours in order. For each contour it gives a MOVETO to the first point, a LINETO or
+ * CURVETO for every segment and a CLOSE if the contour is closed. The coordinates of the current segment are
+ * available as primitive values:
+ * <pre>
+ * GeometryCursor cursor = path.cursor();
+ * while (cursor.next()) {
+ *     if (cursor.getCommand() == PathElement.CURVETO) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * The cursor also gives random access to the points by their index in the geometry, as if the points of all
+ * contours were in one list. A table of point counts finds the contour for an index in O(log n).
+ * <p/>
+ * The cursor sees the geometry as it was when the cursor was created. Ask for a new cursor after changing it.
+ */
+public final class GeometryCursor {
+
+    private final PointBuffer[] buffers;
+    private final boolean[] closed;
+    private final int[] pointOffsets;
+
+    private int contour;
+    private PointBuffer points;
+    private int index;
+    private int command;
+    private double startX, startY;
+    private double x1, y1, x2, y2;
+    private double x, y;
+
+    GeometryCursor(Contour c) {
+        this(Collections.singletonList(c));
+    }
+
+    GeometryCursor(List<Contour> contours) {
+        int contourCount = contours.size();
+        buffers = new PointBuffer[contourCount];
+        closed = new boolean[contourCount];
+        pointOffsets = new int[contourCount + 1];
+        for (int i = 0; i < contourCount; i++) {
+            Contour c = contours.get(i);
+            buffers[i] = c.getPointBuffer();
+            closed[i] = c.isClosed();
+            pointOffsets[i + 1] = pointOffsets[i] + buffers[i].size();
+        }
+        reset();
+    }
+
+    /**
+     * Go back to the start of the geometry.
+     */
+    public void reset() {
+        contour = -1;
+        points = null;
+        index = 0;
+        command = -1;
+    }
+
+    /**
+     * Position the cursor in the first contour, as if the segments up to the given point were already visited.
+     * <p/>
+     * The next segment is the one that ends at or after the given point. Seeking to the point count of the contour
+     * leaves only the closing segment, if any.
+     *
+     * @param pointIndex the index of the first point that wasn't visited.
+     */
+    void seek(int pointIndex) {
+        if (pointIndex == 0 || buffers.length == 0) {
+            reset();
+            return;
+        }
+        contour = 0;
+        points = buffers[0];
+        index = pointIndex - 1;
+        command = -1;
+        x = points.getX(index);
+        y = points.getY(index);
+    }
+
+    //// Segments ////
+
+    /**
+     * Advance to the next segment.
+     *
+     * @return false if there are no more segments.
+     */
+    public boolean next() {
+        while (true) {
+            if (points != null) {
+                int pointCount = points.size();
+                while (++index < pointCount) {
+                    int type = points.getType(index);
+                    if (type == Point.CURVE_TO && index >= 2) {
+                        setEnd(PathElement.CURVETO, index);
+                        x1 = points.getX(index - 2);
+                        y1 = points.getY(index - 2);
+                        x2 = points.getX(index - 1);
+                        y2 = points.getY(index - 1);
+                        return true;
+                    } else if (type != Point.CURVE_DATA) {
+                        setEnd(PathElement.LINETO, index);
+                        return true;
+                    }
+                }
+                if (index == pointCount && closed[contour]) {
+                    setEnd(PathElement.CLOSE, 0);
+                    return true;
+                }
+                points = null;
+            }
+            if (contour + 1 >= buffers.length) {
+                command = -1;
+                return false;
+            }
+            contour++;
+            if (!buffers[contour].isEmpty()) {
+                points = buffers[contour];
+                index = 0;
+                x = points.getX(0);
+                y = points.getY(0);
+                setEnd(PathElement.MOVETO, 0);
+                return true;
+            }
+        }
+    }
+
+    private void setEnd(int command, int pointIndex) {
+        this.command = command;
+        startX = x;
+        startY = y;
+        x = points.getX(pointIndex);
+        y = points.getY(pointIndex);
+    }
+
+    /**
+     * Returns the command of the current segment.
+     *
+     * @return one of PathElement.MOVETO, LINETO, CURVETO or CLOSE.
+     */
+    public int getCommand() {
+        return command;
+    }
+
+    /**
+     * Returns the index of the contour of the current segment.
+     *
+     * @return the contour index.
+     */
+    public int getContourIndex() {
+        return contour;
+    }
+
+    /**
+     * Returns the X coordinate where the current segment starts, which is where the previous one ended.
+     * For a MOVETO this is the same as the end point.
+     *
+     * @return the X coordinate.
+     */
+    public double getStartX() {
+        return startX;
+    }
+
+    public double getStartY() {
+        return startY;
+    }
+
+    /**
+     * Returns the X coordinate of the first control point. Only valid for a CURVETO.
+     *
+     * @return the X coordinate.
+     */
+    public double getControl1X() {
+        return x1;
+    }
+
+    public double getControl1Y() {
+        return y1;
+    }
+
+    public double getControl2X() {
+        return x2;
+    }
+
+    public double getControl2Y() {
+        return y2;
+    }
+
+    /**
+     * Returns the X coordinate of the end point of the current segment.
+     * For a CLOSE this is the first point of the contour.
+     *
+     * @return the X coordinate.
+     */
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    /**
+     * Add the remaining segments to the given AWT path.
+     *
+     * @param gp the path to extend.
+     */
+    void extendPath(GeneralPath gp) {
+        while (next()) {
+            switch (command) {
+                case PathElement.MOVETO:
+                    gp.moveTo(x, y);
+                    break;
+                case PathElement.LINETO:
+                    gp.lineTo(x, y);
+                    break;
+                case PathElement.CURVETO:
+                    gp.curveTo(x1, y1, x2, y2, x, y);
+                    break;
+                case PathElement.CLOSE:
+                    gp.closePath();
+                    break;
+            }
+        }
+    }
+
+    //// Points ////
+
+    /**
+     * Returns the number of points in all contours.
+     *
+     * @return the point count.
+     */
+    public int getPointCount() {
+        return pointOffsets[buffers.length];
+    }
+
+    public double getPointX(int index) {
+        int c = contourOfPoint(index);
+        return buffers[c].getX(index - pointOffsets[c]);
+    }
+
+    public double getPointY(int index) {
+        int c = contourOfPoint(index);
+        return buffers[c].getY(index - pointOffsets[c]);
+    }
+
+    /**
+     * Returns the type of the point at the given index.
+     *
+     * @param index the index of the point in the geometry.
+     * @return one of Point.LINE_TO, CURVE_TO or CURVE_DATA.
+     */
+    public int getPointType(int index) {
+        int c = contourOfPoint(index);
+        return buffers[c].getType(index - pointOffsets[c]);
+    }
+
+    public Point getPoint(int index) {
+        int c = contourOfPoint(index);
+        return buffers[c].get(index - pointOffsets[c]);
+    }
+
+    /**
+     * Returns an iterator over all points. The iterator doesn't support remove.
+     *
+     * @return a point iterator.
+     */
+    public Iterator<Point> pointIterator() {
+        return new Iterator<Point>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < getPointCount();
+            }
+
+            public Point next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return getPoint(next++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Find the contour that contains the point with the given index.
+     * <p/>
+     * This is the last contour that starts at or before the index, which skips over empty contours.
+     *
+     * @param index the index of the point in the geometry.
+     * @return the index of the contour.
+     */
+    private int contourOfPoint(int index) {
+        if (index < 0 || index >= getPointCount())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + getPointCount());
+        int lo = 0;
+        int hi = buffers.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (pointOffsets[mid] <= index) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+}
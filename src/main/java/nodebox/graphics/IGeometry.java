@@ -50,6 +50,13 @@ public interface IGeometry extends Grob {
      */
     public void extend(Point[] points);
 
+    /**
+     * Get a cursor that walks the segments and points of this geometry without creating objects.
+     *
+     * @return a new cursor, positioned before the first segment.
+     */
+    public GeometryCursor cursor();
+
     //// Geometric operations ////
 
     /**
@@ -14,6 +14,7 @@ public class Image extends AbstractGrob {
     private double x, y;
     private double desiredWidth, desiredHeight;
     private double alpha = 1;
+    private transient Rect bounds;
 
     private BufferedImage image;
     private static BufferedImage blankImage = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
@@ -86,6 +87,7 @@ public class Image extends AbstractGrob {
 
     public void setWidth(double width) {
         this.desiredWidth = width;
+        bounds = null;
     }
 
     public double getHeight() {
@@ -94,6 +96,7 @@ public class Image extends AbstractGrob {
 
     public void setHeight(double height) {
         this.desiredHeight = height;
+        bounds = null;
     }
 
     public double getX() {
@@ -102,6 +105,7 @@ public class Image extends AbstractGrob {
 
     public void setX(double x) {
         this.x = x;
+        bounds = null;
     }
 
     public double getY() {
@@ -110,6 +114,7 @@ public class Image extends AbstractGrob {
 
     public void setY(double y) {
         this.y = y;
+        bounds = null;
     }
 
     public double getAlpha() {
@@ -130,6 +135,10 @@ public class Image extends AbstractGrob {
 
     //// Transformations ////
 
+    /**
+     * @deprecated use {@link #concatenateTransform(Graphics2D)}.
+     */
+    @Deprecated
     protected void setupTransform(Graphics2D g) {
         saveTransform(g);
         AffineTransform trans = g.getTransform();
@@ -144,12 +153,22 @@ public class Image extends AbstractGrob {
         return image == null || image.getWidth() == 0 || image.getHeight() == 0;
     }
 
+    /**
+     * Returns the bounding box of the image, before its transformation.
+     * <p/>
+     * The same Rect object is returned until the position or the size of the image change.
+     *
+     * @return the bounding box.
+     */
     public Rect getBounds() {
         if (image == null) return new Rect();
-        double factor = getScaleFactor();
-        double finalWidth = image.getWidth() * factor;
-        double finalHeight = image.getHeight() * factor;
-        return new Rect(x - finalWidth / 2, y - finalHeight / 2, finalWidth, finalHeight);
+        if (bounds == null) {
+            double factor = getScaleFactor();
+            double finalWidth = image.getWidth() * factor;
+            double finalHeight = image.getHeight() * factor;
+            bounds = new Rect(x - finalWidth / 2, y - finalHeight / 2, finalWidth, finalHeight);
+        }
+        return bounds;
     }
 
     public double getScaleFactor() {
@@ -170,7 +189,18 @@ public class Image extends AbstractGrob {
     }
 
     public void draw(Graphics2D g) {
-        setupTransform(g);
+        AffineTransform savedTransform = concatenateTransform(g);
+        Composite oldComposite = g.getComposite();
+        g.setComposite(getComposite());
+        g.drawRenderedImage(image, getImageTransform());
+        g.setComposite(oldComposite);
+        restoreTransform(g, savedTransform);
+    }
+
+    /**
+     * Returns the transformation that places the image pixels, before the transformation of the image itself.
+     */
+    AffineTransform getImageTransform() {
         // You can only position an image using an affine transformation.
         // We use the transformation to translate the image to the specified
         // position, and scale it according to the given width and height.
@@ -185,13 +215,12 @@ public class Image extends AbstractGrob {
         // However, getScaleFactor return 1 if height/width are not set, in effect negating
         // the effect of the scale.
         imageTrans.scale(getScaleFactor());
+        return imageTrans.getAffineTransform();
+    }
+
+    Composite getComposite() {
         double a = clamp(alpha);
-        Composite composite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, (float) a);
-        Composite oldComposite = g.getComposite();
-        g.setComposite(composite);
-        g.drawRenderedImage(image, imageTrans.getAffineTransform());
-        g.setComposite(oldComposite);
-        restoreTransform(g);
+        return AlphaComposite.getInstance(AlphaComposite.SRC_OVER, (float) a);
     }
 
 
@@ -0,0 +1,148 @@
+package nodebox.graphics;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Keeps images that are no longer used, so they can be rendered into again instead of allocating new ones.
+ * <p/>
+ * Exporting many canvases of the same size allocates a large image for each of them. With a pool the image of the
+ * previous canvas is reused:
+ * <pre>
+ * BufferedImage img = canvas.asImage(pool);
+ * ImageIO.write(img, "png", file);
+ * pool.release(img);
+ * </pre>
+ * Images are kept by size. The pool is bounded by the memory its idle images use. When it is full, the images of
+ * the size that was used least recently are dropped first. Images that are in use don't count.
+ * <p/>
+ * The pool can be used from several threads.
+ */
+public final class ImagePool {
+
+    public static final long DEFAULT_MAXIMUM_BYTES = 64L * 1024 * 1024;
+
+    private final long maximumBytes;
+    // The idle images by size, with the least recently used size first.
+    private final LinkedHashMap<Long, ArrayDeque<BufferedImage>> images =
+            new LinkedHashMap<Long, ArrayDeque<BufferedImage>>(16, 0.75f, true);
+    private long pooledBytes;
+    private long allocationCount;
+
+    public ImagePool() {
+        this(DEFAULT_MAXIMUM_BYTES);
+    }
+
+    public ImagePool(long maximumBytes) {
+        checkArgument(maximumBytes >= 0, "Maximum bytes cannot be negative.");
+        this.maximumBytes = maximumBytes;
+    }
+
+    public long getMaximumBytes() {
+        return maximumBytes;
+    }
+
+    /**
+     * Returns the memory used by the idle images in the pool.
+     *
+     * @return the size in bytes.
+     */
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    /**
+     * Returns the number of images the pool had to allocate because there was no idle image of the right size.
+     *
+     * @return the allocation count.
+     */
+    public synchronized long getAllocationCount() {
+        return allocationCount;
+    }
+
+    /**
+     * Take an image of the given size out of the pool, or allocate one if there is none.
+     * <p/>
+     * The image is of TYPE_INT_ARGB. An image that was used before still has its old pixels.
+     *
+     * @param width  the width of the image.
+     * @param height the height of the image.
+     * @return an image of the given size.
+     */
+    public BufferedImage acquire(int width, int height) {
+        checkArgument(width > 0 && height > 0, "Width and height need to be positive.");
+        synchronized (this) {
+            ArrayDeque<BufferedImage> idle = images.get(key(width, height));
+            if (idle != null) {
+                BufferedImage img = idle.pollLast();
+                if (idle.isEmpty()) {
+                    images.remove(key(width, height));
+                }
+                pooledBytes -= byteSize(img);
+                return img;
+            }
+            allocationCount++;
+        }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Give an image back to the pool. Don't use the image afterwards.
+     * <p/>
+     * Images of another type than TYPE_INT_ARGB, and images that don't fit in the pool, are not kept.
+     *
+     * @param img the image, as returned by acquire.
+     */
+    public synchronized void release(BufferedImage img) {
+        if (img == null || img.getType() != BufferedImage.TYPE_INT_ARGB) return;
+        long size = byteSize(img);
+        if (size > maximumBytes) return;
+        Long key = key(img.getWidth(), img.getHeight());
+        ArrayDeque<BufferedImage> idle = images.get(key);
+        if (idle == null) {
+            idle = new ArrayDeque<BufferedImage>();
+            images.put(key, idle);
+        }
+        idle.addLast(img);
+        pooledBytes += size;
+        trim();
+    }
+
+    /**
+     * Drop all idle images.
+     */
+    public synchronized void clear() {
+        images.clear();
+        pooledBytes = 0;
+    }
+
+    /**
+     * Drop images until the pool fits, starting with the sizes that were used least recently.
+     */
+    private void trim() {
+        Iterator<Map.Entry<Long, ArrayDeque<BufferedImage>>> it = images.entrySet().iterator();
+        while (pooledBytes > maximumBytes && it.hasNext()) {
+            ArrayDeque<BufferedImage> idle = it.next().getValue();
+            while (pooledBytes > maximumBytes && !idle.isEmpty()) {
+                pooledBytes -= byteSize(idle.pollFirst());
+            }
+            if (idle.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    private static Long key(int width, int height) {
+        return ((long) width << 32) | height;
+    }
+
+    private static long byteSize(BufferedImage img) {
+        return (long) img.getWidth() * img.getHeight() * 4;
+    }
+
+}
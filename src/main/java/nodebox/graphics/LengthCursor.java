@@ -0,0 +1,99 @@
+package nodebox.graphics;
+
+import java.util.List;
+
+/**
+ * Walks a sequence of contours by increasing distance.
+ * <p/>
+ * The distance is measured along all contours, as if they were laid out one after the other. Asking for points
+ * at distances that only go up lets the cursor advance through the contours and their segments once, instead of
+ * searching from the start for every point. Sampling n points over m segments is O(n + m).
+ * <p/>
+ * Asking for a smaller distance than the previous one is allowed, but restarts the search from the beginning.
+ */
+final class LengthCursor {
+
+    private final Contour[] contours;
+    private final double[] offsets;
+    private int contour;
+    private int segment;
+    private double lastT;
+
+    LengthCursor(Contour c) {
+        this.contours = new Contour[]{c};
+        this.offsets = new double[]{0, c.getLength()};
+    }
+
+    LengthCursor(List<Contour> contours) {
+        int contourCount = contours.size();
+        this.contours = contours.toArray(new Contour[contourCount]);
+        this.offsets = new double[contourCount + 1];
+        double length = 0;
+        for (int i = 0; i < contourCount; i++) {
+            length += this.contours[i].getLength();
+            offsets[i + 1] = length;
+        }
+    }
+
+    public boolean isEmpty() {
+        return contours.length == 0;
+    }
+
+    /**
+     * Returns the combined length of all contours.
+     *
+     * @return the total length.
+     */
+    public double getLength() {
+        return offsets[contours.length];
+    }
+
+    /**
+     * Returns the point at the given distance.
+     * <p/>
+     * The distance is found in the first contour that ends at or after it. Distances outside of the range
+     * extrapolate the first or last segment.
+     *
+     * @param absT the absolute distance along the contours.
+     * @return coordinates for point at the given distance.
+     */
+    public Point pointAt(double absT) {
+        if (absT < lastT) {
+            contour = 0;
+            segment = 0;
+        }
+        lastT = absT;
+        int lastContour = contours.length - 1;
+        while (contour < lastContour && absT > offsets[contour + 1]) {
+            contour++;
+            segment = 0;
+        }
+        Contour c = contours[contour];
+        if (c.isEmpty())
+            throw new NodeBoxError("The path is empty.");
+        if (c.getLength() == 0)
+            return c.getPoints().get(0);
+        double localT = absT - offsets[contour];
+        segment = c.segmentAt(localT, segment);
+        return c.pointOnSegment(segment, localT);
+    }
+
+    /**
+     * Make points at evenly spaced relative positions.
+     * <p/>
+     * The first point is at t = 0, each next point is delta further.
+     *
+     * @param amount the number of points to create.
+     * @param delta  the relative distance between points.
+     * @return a list with "amount" points.
+     */
+    public Point[] makePoints(int amount, double delta) {
+        Point[] points = new Point[amount];
+        double length = getLength();
+        for (int i = 0; i < amount; i++) {
+            points[i] = pointAt(delta * i * length);
+        }
+        return points;
+    }
+
+}
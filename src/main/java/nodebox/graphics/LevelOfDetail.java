@@ -0,0 +1,258 @@
+package nodebox.graphics;
+
+import com.google.common.base.Objects;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Settings for drawing paths with less detail when they are small on the device.
+ * <p/>
+ * Level of detail is turned on with a rendering hint on the graphics context:
+ * <pre>
+ * g.setRenderingHint(LevelOfDetail.KEY, LevelOfDetail.DEFAULT);
+ * canvas.draw(g);
+ * </pre>
+ * When it is on, paths look at the transformation of the graphics context before they draw:
+ * <ul>
+ * <li>A path that is smaller than the minimum size in device pixels is drawn as a filled rectangle of one pixel,
+ * with the amount of ink the path would leave.</li>
+ * <li>Contours of a larger path that are smaller than the minimum size become rectangles.</li>
+ * <li>Curves are flattened into lines that stay within the flatness of the curve, in device pixels.</li>
+ * </ul>
+ * The simplified path is kept until the path changes or is drawn at a very different scale.
+ */
+public final class LevelOfDetail {
+
+    public static final RenderingHints.Key KEY = new Key();
+    public static final LevelOfDetail DEFAULT = new LevelOfDetail(1, 0.25);
+
+    private final double minimumSize;
+    private final double flatness;
+
+    /**
+     * Create new level of detail settings.
+     *
+     * @param minimumSize the size in device pixels under which a path or contour becomes a rectangle.
+     * @param flatness    how far, in device pixels, the lines of a flattened curve can be from the curve.
+     */
+    public LevelOfDetail(double minimumSize, double flatness) {
+        checkArgument(minimumSize >= 0, "Minimum size cannot be negative.");
+        checkArgument(flatness > 0, "Flatness needs to be positive.");
+        this.minimumSize = minimumSize;
+        this.flatness = flatness;
+    }
+
+    public double getMinimumSize() {
+        return minimumSize;
+    }
+
+    public double getFlatness() {
+        return flatness;
+    }
+
+    /**
+     * Returns the level of detail settings of the graphics context.
+     *
+     * @param g the graphics context.
+     * @return the settings, or null if level of detail is off.
+     */
+    static LevelOfDetail get(Graphics2D g) {
+        Object value = g.getRenderingHint(KEY);
+        return value instanceof LevelOfDetail ? (LevelOfDetail) value : null;
+    }
+
+    /**
+     * Returns how much the transformation can stretch a line, at most.
+     *
+     * @param t the transformation.
+     * @return the scale factor.
+     */
+    static double getScale(AffineTransform t) {
+        double sx = Math.hypot(t.getScaleX(), t.getShearY());
+        double sy = Math.hypot(t.getShearX(), t.getScaleY());
+        return Math.max(sx, sy);
+    }
+
+    /**
+     * Returns the level for the scale. A path simplified at a level can be drawn at any scale of that level.
+     *
+     * @param scale the scale factor of the transformation.
+     * @return the level, which is the power of two above the scale.
+     */
+    static int getLevel(double scale) {
+        if (scale <= 0 || Double.isNaN(scale)) return Integer.MIN_VALUE;
+        return Math.getExponent(scale) + 1;
+    }
+
+    /**
+     * Build the simplified shape of the contours for the given level.
+     *
+     * @param contours the contours of the path.
+     * @param level    the level, as returned by getLevel.
+     * @return a shape with only straight lines.
+     */
+    GeneralPath simplify(List<Contour> contours, int level) {
+        // Use the largest scale of the level, so contours are never smaller and curves never coarser than needed.
+        double scale = Math.scalb(1.0, level);
+        double minimumUserSize = minimumSize / scale;
+        double tolerance = flatness / scale;
+        GeneralPath gp = new GeneralPath(GeneralPath.WIND_NON_ZERO);
+        for (Contour c : contours) {
+            if (c.isEmpty()) continue;
+            c.updateBounds();
+            double width = c.getMaxX() - c.getMinX();
+            double height = c.getMaxY() - c.getMinY();
+            if (width < minimumUserSize && height < minimumUserSize) {
+                collapse(c, gp);
+            } else {
+                flatten(c, gp, tolerance);
+            }
+        }
+        return gp;
+    }
+
+    /**
+     * Returns how much of the bounds of the contours they cover, roughly.
+     * <p/>
+     * Contours of the same path often overlap. The union is estimated as if every contour covers a random part of
+     * the bounds. Holes are counted as covered.
+     *
+     * @param contours the contours.
+     * @param bounds   the bounds of the contours.
+     * @return the covered part, between 0 and 1.
+     */
+    static double coverage(List<Contour> contours, Rect bounds) {
+        double boundsArea = bounds.getWidth() * bounds.getHeight();
+        if (boundsArea <= 0) return 0;
+        double uncovered = 1;
+        for (Contour c : contours) {
+            if (c.isEmpty()) continue;
+            double part = Math.min(1, Math.abs(signedArea(c, 8)) / boundsArea);
+            uncovered *= 1 - part;
+        }
+        return 1 - uncovered;
+    }
+
+    /**
+     * Returns the area of the contour, with curves divided in the given number of lines.
+     * Open contours are measured as if they were closed.
+     *
+     * @return the area, which is negative if the contour turns the other way.
+     */
+    private static double signedArea(Contour c, int curveSegments) {
+        GeometryCursor cursor = c.cursor();
+        double twiceArea = 0;
+        double firstX = 0, firstY = 0, lastX = 0, lastY = 0;
+        while (cursor.next()) {
+            double x = cursor.getX(), y = cursor.getY();
+            switch (cursor.getCommand()) {
+                case PathElement.MOVETO:
+                    firstX = x;
+                    firstY = y;
+                    break;
+                case PathElement.CURVETO:
+                    double x0 = cursor.getStartX(), y0 = cursor.getStartY();
+                    double px = x0, py = y0;
+                    for (int i = 1; i < curveSegments; i++) {
+                        double t = (double) i / curveSegments;
+                        double mt = 1 - t;
+                        double a = mt * mt * mt, b = 3 * mt * mt * t, cc = 3 * mt * t * t, d = t * t * t;
+                        double qx = a * x0 + b * cursor.getControl1X() + cc * cursor.getControl2X() + d * x;
+                        double qy = a * y0 + b * cursor.getControl1Y() + cc * cursor.getControl2Y() + d * y;
+                        twiceArea += px * qy - qx * py;
+                        px = qx;
+                        py = qy;
+                    }
+                    twiceArea += px * y - x * py;
+                    break;
+                default:
+                    twiceArea += cursor.getStartX() * y - x * cursor.getStartY();
+                    break;
+            }
+            lastX = x;
+            lastY = y;
+        }
+        if (!c.isClosed()) {
+            twiceArea += lastX * firstY - firstX * lastY;
+        }
+        return twiceArea / 2;
+    }
+
+    /**
+     * Add the bounds of the contour as a rectangle that turns the same way as the contour, so holes stay holes.
+     */
+    private static void collapse(Contour c, GeneralPath gp) {
+        double area = signedArea(c, 1);
+        float minX = (float) c.getMinX(), minY = (float) c.getMinY();
+        float maxX = (float) c.getMaxX(), maxY = (float) c.getMaxY();
+        gp.moveTo(minX, minY);
+        if (area >= 0) {
+            gp.lineTo(maxX, minY);
+            gp.lineTo(maxX, maxY);
+            gp.lineTo(minX, maxY);
+        } else {
+            gp.lineTo(minX, maxY);
+            gp.lineTo(maxX, maxY);
+            gp.lineTo(maxX, minY);
+        }
+        gp.closePath();
+    }
+
+    /**
+     * Add the contour with its curves replaced by lines that stay within the tolerance.
+     * <p/>
+     * The contour caches the lines for the tolerance, and every scale of a level has the same tolerance.
+     */
+    private static void flatten(Contour c, GeneralPath gp, double tolerance) {
+        PointBuffer flat = c.getFlattenedBuffer(tolerance);
+        gp.moveTo(flat.getX(0), flat.getY(0));
+        for (int i = 1; i < flat.size(); i++) {
+            gp.lineTo(flat.getX(i), flat.getY(i));
+        }
+        if (c.isClosed()) {
+            gp.closePath();
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof LevelOfDetail)) return false;
+        LevelOfDetail other = (LevelOfDetail) o;
+        return minimumSize == other.minimumSize && flatness == other.flatness;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(minimumSize, flatness);
+    }
+
+    @Override
+    public String toString() {
+        return "LevelOfDetail(" + minimumSize + ", " + flatness + ")";
+    }
+
+    private static final class Key extends RenderingHints.Key {
+
+        private Key() {
+            super(0);
+        }
+
+        @Override
+        public boolean isCompatibleValue(Object value) {
+            return value == null || value instanceof LevelOfDetail;
+        }
+
+        @Override
+        public String toString() {
+            return "Level of detail";
+        }
+
+    }
+
+}
@@ -1,18 +1,9 @@
 package nodebox.graphics;
 
 import com.itextpdf.awt.DefaultFontMapper;
-import com.itextpdf.awt.PdfGraphics2D;
-import com.itextpdf.text.Document;
-import com.itextpdf.text.DocumentException;
-import com.itextpdf.text.Rectangle;
-import com.itextpdf.text.pdf.PdfContentByte;
-import com.itextpdf.text.pdf.PdfWriter;
 
-import java.awt.*;
 import java.awt.geom.Rectangle2D;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 
 public class PDFRenderer {
 
@@ -51,28 +42,17 @@ public class PDFRenderer {
     }
 
     public static void render(Drawable drawable, Rectangle2D bounds, File file) {
-        initialize();
-        Rectangle size = new Rectangle((float) bounds.getWidth(), (float) bounds.getHeight());
-        Document document = new Document(size);
-        FileOutputStream fos;
-        try {
-            fos = new FileOutputStream(file);
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException("The file " + file + "could not be created", e);
-        }
-        PdfWriter writer;
+        PDFSession session = new PDFSession(file);
         try {
-            writer = PdfWriter.getInstance(document, fos);
-        } catch (DocumentException e) {
-            throw new RuntimeException("An error occurred while creating a PdfWriter object.", e);
+            session.addPage(drawable, bounds);
+        } finally {
+            session.close();
         }
-        document.open();
-        PdfContentByte contentByte = writer.getDirectContent();
-        Graphics2D g = new PdfGraphics2D(contentByte, (float) bounds.getWidth(), (float) bounds.getHeight(), fontMapper);
-        g.translate(-bounds.getX(), -bounds.getY());
-        drawable.draw(g);
-        g.dispose();
-        document.close();
+    }
+
+    static DefaultFontMapper getFontMapper() {
+        initialize();
+        return fontMapper;
     }
 
 }
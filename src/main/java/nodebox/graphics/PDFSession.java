@@ -0,0 +1,127 @@
+package nodebox.graphics;
+
+import com.itextpdf.awt.PdfGraphics2D;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.pdf.PdfWriter;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.io.*;
+
+/**
+ * Writes drawables as the pages of one PDF document, one page at a time.
+ * <p/>
+ * Every page is written out to the stream as soon as the next page is added, so the memory a session uses
+ * doesn't grow with the number of pages. Use it to export an animation as a PDF book:
+ * <pre>
+ * PDFSession session = new PDFSession(file);
+ * try {
+ *     for (Canvas frame : frames) {
+ *         session.addPage(frame);
+ *     }
+ * } finally {
+ *     session.close();
+ * }
+ * </pre>
+ * Every page can have its own size. A session without pages writes a document with one empty page.
+ */
+public class PDFSession implements Closeable {
+
+    private final Document document;
+    private final PdfWriter writer;
+    private int pageCount;
+    private boolean closed;
+
+    /**
+     * Create a session that writes to the given file.
+     *
+     * @param file the PDF file.
+     */
+    public PDFSession(File file) {
+        this(openFile(file));
+    }
+
+    /**
+     * Create a session that writes to the given stream. The stream is closed with the session.
+     *
+     * @param out the stream. It doesn't need to be buffered, the PDF writer buffers it.
+     */
+    public PDFSession(OutputStream out) {
+        PDFRenderer.initialize();
+        document = new Document();
+        try {
+            writer = PdfWriter.getInstance(document, out);
+        } catch (DocumentException e) {
+            throw new RuntimeException("An error occurred while creating a PdfWriter object.", e);
+        }
+    }
+
+    private static OutputStream openFile(File file) {
+        try {
+            return new FileOutputStream(file);
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException("The file " + file + " could not be created", e);
+        }
+    }
+
+    /**
+     * Returns the number of pages that were added.
+     *
+     * @return the page count.
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Add the canvas as a page of its own size.
+     *
+     * @param canvas the canvas.
+     */
+    public void addPage(Canvas canvas) {
+        Rect bounds = canvas.getBounds();
+        addPage(canvas, new Rectangle2D.Double(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight()));
+    }
+
+    /**
+     * Add a page that shows the given area of the drawable.
+     *
+     * @param drawable the drawable.
+     * @param bounds   the area of the drawable that fills the page.
+     */
+    public void addPage(Drawable drawable, Rectangle2D bounds) {
+        if (closed) throw new IllegalStateException("The PDF session is closed.");
+        // The size is used by the next page that starts, so the previous page is finished after setting it.
+        document.setPageSize(new Rectangle((float) bounds.getWidth(), (float) bounds.getHeight()));
+        if (document.isOpen()) {
+            document.newPage();
+            writer.flush();
+        } else {
+            document.open();
+        }
+        Graphics2D g = new PdfGraphics2D(writer.getDirectContent(), (float) bounds.getWidth(),
+                (float) bounds.getHeight(), PDFRenderer.getFontMapper());
+        g.translate(-bounds.getX(), -bounds.getY());
+        drawable.draw(g);
+        g.dispose();
+        // Keep pages that don't draw anything.
+        writer.setPageEmpty(false);
+        pageCount++;
+    }
+
+    /**
+     * Finish the last page and the document, and close the stream.
+     */
+    public void close() {
+        if (closed) return;
+        closed = true;
+        if (!document.isOpen()) {
+            document.open();
+            writer.setPageEmpty(false);
+        }
+        document.close();
+    }
+
+}
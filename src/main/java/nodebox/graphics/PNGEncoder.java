@@ -0,0 +1,529 @@
+package nodebox.graphics;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Writes images as PNG files, compressing bands of rows in parallel.
+ * <p/>
+ * The rows of the image are split into bands of about a megabyte. Every band is filtered and deflated on its own,
+ * on a fork/join pool, and the bands are written out in order as soon as they are done. Together they form one
+ * zlib stream, like a PNG encoder that works on one thread would write:
+ * <ul>
+ * <li>Every band but the last ends with a sync flush, so it stops at a byte boundary and the next band can
+ * simply follow it.</li>
+ * <li>Every band but the first starts with the last 32 KB of the band before it as its dictionary, so matches
+ * can still refer back over the band boundary and the file is hardly larger.</li>
+ * <li>The checksums of the bands are combined into the checksum of the whole stream.</li>
+ * </ul>
+ * Every band is written as its own IDAT chunk. Images with alpha are written as RGBA, others as RGB, with eight
+ * bits per channel.
+ */
+public final class PNGEncoder {
+
+    /**
+     * The filter that is applied to each row before it is compressed.
+     */
+    public enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH,
+        /**
+         * Try all filters on every row and use the one with the smallest sum of absolute differences.
+         */
+        ADAPTIVE
+    }
+
+    /**
+     * The default filter. Paeth compresses rendered images about as well as trying every filter, at a fraction of
+     * the cost.
+     */
+    public static final Filter DEFAULT_FILTER = Filter.PAETH;
+    public static final int DEFAULT_LEVEL = 4;
+
+    private static final ForkJoinPool ENCODER_POOL = new ForkJoinPool();
+    private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+    private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+    private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+    private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+    private static final int BAND_BYTES = 1024 * 1024;
+    private static final int DICTIONARY_BYTES = 32 * 1024;
+    private static final int ADLER_BASE = 65521;
+
+    private final Filter filter;
+    private final int level;
+    private final boolean parallel;
+
+    public PNGEncoder() {
+        this(DEFAULT_FILTER, DEFAULT_LEVEL, true);
+    }
+
+    /**
+     * Create a new encoder.
+     *
+     * @param filter   the filter for every row.
+     * @param level    the compression level, between 0 (no compression) and 9 (best compression).
+     * @param parallel true to compress the bands in parallel.
+     */
+    public PNGEncoder(Filter filter, int level, boolean parallel) {
+        checkArgument(filter != null, "Filter cannot be null.");
+        checkArgument(level >= 0 && level <= 9, "Level needs to be between 0 and 9.");
+        this.filter = filter;
+        this.level = level;
+        this.parallel = parallel;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Write the image as a PNG file.
+     *
+     * @param img  the image.
+     * @param file the file to write to.
+     * @throws IOException if the file can't be written.
+     */
+    public void write(BufferedImage img, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            write(img, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the image in PNG format. The stream is not closed.
+     *
+     * @param img the image.
+     * @param out the stream. It doesn't need to be buffered, every chunk is written at once.
+     * @throws IOException if the stream can't be written.
+     */
+    public void write(BufferedImage img, OutputStream out) throws IOException {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        boolean alpha = img.getColorModel().hasAlpha();
+        int rowBytes = 1 + width * (alpha ? 4 : 3);
+        int bandRows = Math.max(1, BAND_BYTES / rowBytes);
+        List<Band> bands = new ArrayList<Band>();
+        for (int y = 0; y < height; y += bandRows) {
+            bands.add(new Band(img, alpha, y, Math.min(height, y + bandRows)));
+        }
+        List<Future<Band>> results = new ArrayList<Future<Band>>(bands.size());
+        for (Band band : bands) {
+            results.add(parallel ? ENCODER_POOL.submit(band) : null);
+        }
+
+        out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        headerData.writeByte(8);
+        headerData.writeByte(alpha ? 6 : 2);
+        // Deflate compression, adaptive filtering, no interlacing.
+        headerData.writeByte(0);
+        headerData.writeByte(0);
+        headerData.writeByte(0);
+        writeChunk(out, IHDR, header.toByteArray());
+
+        long adler = 1;
+        for (int i = 0; i < bands.size(); i++) {
+            Band band = parallel ? get(results.get(i)) : bands.get(i).call();
+            adler = combineAdler(adler, band.adler, band.length);
+            byte[] prefix = i == 0 ? zlibHeader() : new byte[0];
+            byte[] suffix = new byte[0];
+            if (i == bands.size() - 1) {
+                suffix = new byte[]{(byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler};
+            }
+            writeChunk(out, IDAT, prefix, band.compressed, suffix);
+        }
+        writeChunk(out, IEND);
+        out.flush();
+    }
+
+    private static Band get(Future<Band> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while encoding the image.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException("Could not encode the image.", cause);
+        }
+    }
+
+    /**
+     * Returns the two bytes that start the zlib stream: deflate with a 32 KB window, and a hint about the level.
+     */
+    private byte[] zlibHeader() {
+        int levelHint = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+        int header = (0x78 << 8) | (levelHint << 6);
+        header += 31 - header % 31;
+        return new byte[]{(byte) (header >>> 8), (byte) header};
+    }
+
+    /**
+     * Returns the checksum of two blocks of data, from the checksums of the blocks.
+     * <p/>
+     * This is adler32_combine from zlib.
+     *
+     * @param adler1  the checksum of the first block.
+     * @param adler2  the checksum of the second block.
+     * @param length2 the length of the second block.
+     * @return the checksum of the first block followed by the second.
+     */
+    static long combineAdler(long adler1, long adler2, long length2) {
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= ADLER_BASE * 2) sum2 -= ADLER_BASE * 2;
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(OutputStream out, byte[] type, byte[]... parts) throws IOException {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] chunk = new byte[length + 12];
+        writeInt(chunk, 0, length);
+        System.arraycopy(type, 0, chunk, 4, 4);
+        int offset = 8;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, chunk, offset, part.length);
+            offset += part.length;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(chunk, 4, length + 4);
+        writeInt(chunk, offset, (int) crc.getValue());
+        out.write(chunk);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int v) {
+        bytes[offset] = (byte) (v >>> 24);
+        bytes[offset + 1] = (byte) (v >>> 16);
+        bytes[offset + 2] = (byte) (v >>> 8);
+        bytes[offset + 3] = (byte) v;
+    }
+
+    //// Bands ////
+
+    /**
+     * A band of rows, which filters and compresses itself.
+     */
+    private final class Band implements Callable<Band> {
+
+        private final BufferedImage img;
+        private final boolean alpha;
+        private final int firstRow, lastRow;
+        private byte[] compressed;
+        private long adler;
+        private long length;
+
+        private Band(BufferedImage img, boolean alpha, int firstRow, int lastRow) {
+            this.img = img;
+            this.alpha = alpha;
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+        }
+
+        public Band call() {
+            RowFilter rows = new RowFilter(img, alpha, filter);
+            int rowBytes = rows.getRowBytes();
+            Deflater deflater = new Deflater(level, true);
+            try {
+                if (firstRow > 0) {
+                    // Filter the end of the band before again, to use as the dictionary.
+                    int dictionaryRows = Math.min(firstRow, (DICTIONARY_BYTES + rowBytes - 1) / rowBytes);
+                    byte[] dictionary = new byte[dictionaryRows * rowBytes];
+                    rows.filter(firstRow - dictionaryRows, firstRow, dictionary);
+                    int dictionaryLength = Math.min(DICTIONARY_BYTES, dictionary.length);
+                    deflater.setDictionary(dictionary, dictionary.length - dictionaryLength, dictionaryLength);
+                }
+                byte[] data = new byte[(lastRow - firstRow) * rowBytes];
+                rows.filter(firstRow, lastRow, data);
+                Adler32 checksum = new Adler32();
+                checksum.update(data);
+                adler = checksum.getValue();
+                length = data.length;
+                compressed = deflate(deflater, data, lastRow == img.getHeight());
+            } finally {
+                deflater.end();
+            }
+            return this;
+        }
+
+    }
+
+    /**
+     * Compress all data. The last band finishes the stream, the others end with a sync flush.
+     */
+    private static byte[] deflate(Deflater deflater, byte[] data, boolean last) {
+        deflater.setInput(data);
+        if (last) deflater.finish();
+        byte[] output = new byte[data.length / 4 + 64];
+        int size = 0;
+        while (true) {
+            if (size == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            int space = output.length - size;
+            if (last) {
+                size += deflater.deflate(output, size, space);
+                if (deflater.finished()) break;
+            } else {
+                int written = deflater.deflate(output, size, space, Deflater.SYNC_FLUSH);
+                size += written;
+                // A flush that doesn't fill the output is complete.
+                if (written < space) break;
+            }
+        }
+        return Arrays.copyOf(output, size);
+    }
+
+    /**
+     * Turns rows of the image into filtered PNG rows: a filter type byte followed by the filtered channel bytes.
+     * <p/>
+     * A row only depends on its own pixels and the pixels of the row above it, so any range of rows can be filtered
+     * on its own.
+     */
+    private static final class RowFilter {
+
+        private final BufferedImage img;
+        private final boolean alpha;
+        private final Filter filter;
+        private final int width, bpp, rowBytes;
+        // The pixels of a plain INT_ARGB or INT_RGB image, or null to go through getRGB.
+        private final int[] pixels;
+        private final int[] pixelRow;
+        private byte[] row, prior;
+        private final byte[][] candidates;
+
+        private RowFilter(BufferedImage img, boolean alpha, Filter filter) {
+            this.img = img;
+            this.alpha = alpha;
+            this.filter = filter;
+            width = img.getWidth();
+            bpp = alpha ? 4 : 3;
+            rowBytes = 1 + width * bpp;
+            pixels = directPixels(img);
+            pixelRow = pixels == null ? new int[width] : null;
+            row = new byte[width * bpp];
+            prior = new byte[width * bpp];
+            candidates = filter == Filter.ADAPTIVE ? new byte[5][width * bpp] : null;
+        }
+
+        private int getRowBytes() {
+            return rowBytes;
+        }
+
+        private static int[] directPixels(BufferedImage img) {
+            int type = img.getType();
+            if (type != BufferedImage.TYPE_INT_ARGB && type != BufferedImage.TYPE_INT_RGB) return null;
+            Raster raster = img.getRaster();
+            if (!(raster.getDataBuffer() instanceof DataBufferInt)) return null;
+            if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) return null;
+            SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            if (sm.getScanlineStride() != img.getWidth() || raster.getSampleModelTranslateX() != 0
+                    || raster.getSampleModelTranslateY() != 0 || raster.getDataBuffer().getOffset() != 0) {
+                return null;
+            }
+            return ((DataBufferInt) raster.getDataBuffer()).getData();
+        }
+
+        /**
+         * Filter the rows into the output, which needs room for all of them.
+         */
+        private void filter(int firstRow, int lastRow, byte[] output) {
+            if (firstRow > 0) {
+                readRow(firstRow - 1, prior);
+            } else {
+                Arrays.fill(prior, (byte) 0);
+            }
+            int offset = 0;
+            for (int y = firstRow; y < lastRow; y++) {
+                readRow(y, row);
+                if (filter == Filter.ADAPTIVE) {
+                    int best = filterAdaptive();
+                    output[offset] = (byte) best;
+                    System.arraycopy(candidates[best], 0, output, offset + 1, rowBytes - 1);
+                } else {
+                    output[offset] = (byte) filter.ordinal();
+                    filterRow(filter.ordinal(), output, offset + 1);
+                }
+                offset += rowBytes;
+                byte[] tmp = prior;
+                prior = row;
+                row = tmp;
+            }
+        }
+
+        private void readRow(int y, byte[] bytes) {
+            int[] source = pixels;
+            int start = y * width;
+            if (source == null) {
+                img.getRGB(0, y, width, 1, pixelRow, 0, width);
+                source = pixelRow;
+                start = 0;
+            }
+            int i = 0;
+            for (int x = 0; x < width; x++) {
+                int argb = source[start + x];
+                bytes[i++] = (byte) (argb >> 16);
+                bytes[i++] = (byte) (argb >> 8);
+                bytes[i++] = (byte) argb;
+                if (alpha) bytes[i++] = (byte) (argb >>> 24);
+            }
+        }
+
+        /**
+         * Filter the current row with all filters at once, into the candidates.
+         *
+         * @return the filter type with the smallest sum of absolute values.
+         */
+        private int filterAdaptive() {
+            byte[] raw = row, up = prior;
+            byte[] none = candidates[0], sub = candidates[1], upper = candidates[2], average = candidates[3],
+                    paeth = candidates[4];
+            int n = raw.length, bpp = Math.min(this.bpp, n);
+            long noneSum = 0, subSum = 0, upSum = 0, averageSum = 0, paethSum = 0;
+            // The first pixel has no pixel to its left. Sub is then the same as none, Average uses half the pixel
+            // above and Paeth the pixel above.
+            for (int i = 0; i < bpp; i++) {
+                byte x = raw[i];
+                int b = up[i] & 0xFF;
+                byte v2 = (byte) (x - b), v3 = (byte) (x - (b >>> 1));
+                none[i] = x;
+                sub[i] = x;
+                upper[i] = v2;
+                average[i] = v3;
+                paeth[i] = v2;
+                noneSum += Math.abs(x);
+                upSum += Math.abs(v2);
+                averageSum += Math.abs(v3);
+            }
+            subSum = noneSum;
+            paethSum = upSum;
+            for (int i = bpp; i < n; i++) {
+                byte x = raw[i];
+                int a = raw[i - bpp] & 0xFF;
+                int b = up[i] & 0xFF;
+                int c = up[i - bpp] & 0xFF;
+                byte v1 = (byte) (x - a), v2 = (byte) (x - b), v3 = (byte) (x - ((a + b) >>> 1));
+                byte v4 = (byte) (x - paeth(a, b, c));
+                none[i] = x;
+                sub[i] = v1;
+                upper[i] = v2;
+                average[i] = v3;
+                paeth[i] = v4;
+                noneSum += Math.abs(x);
+                subSum += Math.abs(v1);
+                upSum += Math.abs(v2);
+                averageSum += Math.abs(v3);
+                paethSum += Math.abs(v4);
+            }
+            int best = 0;
+            long bestSum = noneSum;
+            if (subSum < bestSum) {
+                best = 1;
+                bestSum = subSum;
+            }
+            if (upSum < bestSum) {
+                best = 2;
+                bestSum = upSum;
+            }
+            if (averageSum < bestSum) {
+                best = 3;
+                bestSum = averageSum;
+            }
+            if (paethSum < bestSum) {
+                best = 4;
+            }
+            return best;
+        }
+
+        /**
+         * Filter the current row with the given filter type.
+         */
+        private void filterRow(int type, byte[] out, int offset) {
+            byte[] raw = row, up = prior;
+            int n = raw.length, bpp = Math.min(this.bpp, n);
+            // The first pixel has no pixel to its left, the filters use zero for it.
+            switch (type) {
+                case 0:
+                    System.arraycopy(raw, 0, out, offset, n);
+                    return;
+                case 1:
+                    System.arraycopy(raw, 0, out, offset, bpp);
+                    for (int i = bpp; i < n; i++) {
+                        out[offset + i] = (byte) (raw[i] - raw[i - bpp]);
+                    }
+                    return;
+                case 2:
+                    for (int i = 0; i < n; i++) {
+                        out[offset + i] = (byte) (raw[i] - up[i]);
+                    }
+                    return;
+                case 3:
+                    for (int i = 0; i < bpp; i++) {
+                        out[offset + i] = (byte) (raw[i] - ((up[i] & 0xFF) >>> 1));
+                    }
+                    for (int i = bpp; i < n; i++) {
+                        out[offset + i] = (byte) (raw[i] - (((raw[i - bpp] & 0xFF) + (up[i] & 0xFF)) >>> 1));
+                    }
+                    return;
+                default:
+                    // With a and c zero, the Paeth predictor of the first pixel is the pixel above.
+                    for (int i = 0; i < bpp; i++) {
+                        out[offset + i] = (byte) (raw[i] - up[i]);
+                    }
+                    for (int i = bpp; i < n; i++) {
+                        int a = raw[i - bpp] & 0xFF, b = up[i] & 0xFF, c = up[i - bpp] & 0xFF;
+                        out[offset + i] = (byte) (raw[i] - paeth(a, b, c));
+                    }
+                    return;
+            }
+        }
+
+        /**
+         * Returns the neighbour that is closest to a + b - c.
+         */
+        private static int paeth(int a, int b, int c) {
+            int pa = Math.abs(b - c), pb = Math.abs(a - c), pc = Math.abs(a + b - c - c);
+            if (pa <= pb && pa <= pc) return a;
+            return pb <= pc ? b : c;
+        }
+
+    }
+
+}
@@ -5,9 +5,12 @@ import com.google.common.base.Function;
 import java.awt.*;
 import java.awt.geom.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * Base class for all geometric (vector) data.
  */
@@ -16,22 +19,63 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     // Simulate a quarter of a circle.
     private static final double ONE_MINUS_QUARTER = 1.0 - 0.552;
 
+    /**
+     * The maximum error of curve length calculations, relative to the length of the control polygon of the curve.
+     */
+    public static final double LENGTH_TOLERANCE = 0.001;
+
+    /**
+     * The default maximum distance between a curve and its flattened polyline.
+     */
+    public static final double FLATTEN_TOLERANCE = 0.25;
+
+    // Limits the subdivision of degenerate curves to 2^16 pieces.
+    private static final int MAX_LENGTH_DEPTH = 16;
+    private static final int MAX_FLATTEN_DEPTH = 16;
+    // Curves that need more line segments than this are split in halves before flattening.
+    private static final int MAX_UNIFORM_SEGMENTS = 8;
+    // Quadrature is not trusted on pieces where the speed changes by more than this factor times the square root
+    // of the relative tolerance, or by more than the minimum factor.
+    private static final double SPEED_RATIO_SCALE = 200;
+    private static final double MIN_SPEED_RATIO = 2;
+    // The points where the speed is lowest or highest are only found this precisely, since the pieces next to them
+    // are refined anyway.
+    private static final double EXTREMUM_PRECISION = 1e-3;
+    // The 5-point Gauss-Legendre rule, middle node first, and the 3-point rule that shares its middle node.
+    private static final double[] GAUSS_ABSCISSAE = {
+            0, -0.5384693101056831, 0.5384693101056831, -0.9061798459386640, 0.9061798459386640};
+    private static final double[] GAUSS_WEIGHTS = {
+            0.5688888888888889, 0.4786286704993665, 0.4786286704993665, 0.2369268850561891, 0.2369268850561891};
+    private static final double GAUSS3_ABSCISSA = 0.7745966692414834;
+    private static final double GAUSS3_MIDDLE_WEIGHT = 0.8888888888888888;
+    private static final double GAUSS3_OUTER_WEIGHT = 0.5555555555555556;
+
     private Color fillColor = null;
     private Color strokeColor = null;
-    private double strokeWidth = 1;
+    private StrokeStyle strokeStyle = StrokeStyle.DEFAULT;
+    private boolean rasterCached;
+    private boolean deferTransforms = false;
     private ArrayList<Contour> contours;
     private transient Contour currentContour = null;
     private transient boolean pathDirty = true;
-    private transient boolean lengthDirty = true;
     private transient java.awt.geom.GeneralPath awtPath;
+    private transient int awtContourCount;
+    private transient int awtPointCount;
+    private transient boolean awtClosed;
+    private transient GeneralPath lodPath;
+    private transient GeneralPath lodSource;
+    private transient LevelOfDetail lodSettings;
+    private transient int lodLevel, lodContourCount, lodPointCount;
+    private transient boolean lodClosed;
+    private transient double lodCoverage;
     private transient Rect bounds;
-    private transient ArrayList<Double> contourLengths;
-    private transient double pathLength = -1;
+    private transient double[] contourOffsets;
+    private transient int measuredContourCount;
 
     public Path() {
         fillColor = Color.BLACK;
         strokeColor = null;
-        strokeWidth = 1;
+        strokeStyle = StrokeStyle.DEFAULT;
         contours = new ArrayList<Contour>();
         currentContour = null;
     }
@@ -43,7 +87,8 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     public Path(Path other, boolean cloneContours) {
         fillColor = other.fillColor == null ? null : other.fillColor.clone();
         strokeColor = other.strokeColor == null ? null : other.strokeColor.clone();
-        strokeWidth = other.strokeWidth;
+        strokeStyle = other.strokeStyle;
+        rasterCached = other.rasterCached;
         if (cloneContours) {
             contours = new ArrayList<Contour>(other.contours.size());
             extend(other);
@@ -113,11 +158,25 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     }
 
     public double getStrokeWidth() {
-        return strokeWidth;
+        return strokeStyle.getWidth();
     }
 
     public void setStrokeWidth(double strokeWidth) {
-        this.strokeWidth = strokeWidth;
+        strokeStyle = strokeStyle.withWidth(strokeWidth);
+    }
+
+    public StrokeStyle getStrokeStyle() {
+        return strokeStyle;
+    }
+
+    /**
+     * Set the width, caps, joins and dashes of the stroke.
+     *
+     * @param strokeStyle the stroke style. Use StrokeStyle.DEFAULT for a plain stroke.
+     */
+    public void setStrokeStyle(StrokeStyle strokeStyle) {
+        checkArgument(strokeStyle != null, "Stroke style cannot be null.");
+        this.strokeStyle = strokeStyle;
     }
 
     //// Point operations ////
@@ -140,13 +199,17 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
      */
     public java.util.List<Point> getPoints() {
         if (contours.isEmpty()) return new ArrayList<Point>(0);
-        ArrayList<Point> points = new ArrayList<Point>();
+        ArrayList<Point> points = new ArrayList<Point>(getPointCount());
         for (Contour c : contours) {
             points.addAll(c.getPoints());
         }
         return points;
     }
 
+    public GeometryCursor cursor() {
+        return new GeometryCursor(contours);
+    }
+
     //// Primitives ////
 
     public void moveto(double x, double y) {
@@ -164,16 +227,17 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     public void curveto(double x1, double y1, double x2, double y2, double x3, double y3) {
         if (currentContour == null)
             throw new RuntimeException("Curveto without moveto first.");
-        addPoint(new Point(x1, y1, Point.CURVE_DATA));
-        addPoint(new Point(x2, y2, Point.CURVE_DATA));
-        addPoint(new Point(x3, y3, Point.CURVE_TO));
+        addPoint(x1, y1, Point.CURVE_DATA);
+        addPoint(x2, y2, Point.CURVE_DATA);
+        addPoint(x3, y3, Point.CURVE_TO);
     }
 
     public void close() {
-        if (currentContour != null)
+        if (currentContour != null) {
             currentContour.close();
+            contourAppended();
+        }
         currentContour = null;
-        invalidate(false);
     }
 
     /**
@@ -188,13 +252,19 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     public void addPoint(Point pt) {
         ensureCurrentContour();
         currentContour.addPoint(pt);
-        invalidate(false);
+        contourAppended();
     }
 
     public void addPoint(double x, double y) {
         ensureCurrentContour();
         currentContour.addPoint(x, y);
-        invalidate(false);
+        contourAppended();
+    }
+
+    private void addPoint(double x, double y, int type) {
+        ensureCurrentContour();
+        currentContour.addPoint(x, y, type);
+        contourAppended();
     }
 
     /**
@@ -208,6 +278,9 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
      * <p/>
      * Invalidating the cache is a lightweight operation; it doesn't recalculate anything. Only when querying the
      * new length will the values be recalculated.
+     * <p/>
+     * Adding points or contours through the Path methods doesn't invalidate the cache. The cached AWT path and the
+     * running lengths are extended with the new segments instead.
      */
     public void invalidate() {
         invalidate(true);
@@ -215,7 +288,7 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
 
     private void invalidate(boolean recursive) {
         pathDirty = true;
-        lengthDirty = true;
+        measuredContourCount = 0;
         if (recursive) {
             for (Contour c : contours) {
                 c.invalidate();
@@ -223,6 +296,21 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
         }
     }
 
+    /**
+     * Update the caches after the current contour has grown or was closed.
+     * <p/>
+     * Only the length of the current contour needs to be measured again. If the current contour is not the last
+     * one, the change is not an append, and the caches are invalidated.
+     */
+    private void contourAppended() {
+        int last = contours.size() - 1;
+        if (last < 0 || contours.get(last) != currentContour) {
+            invalidate(false);
+        } else if (measuredContourCount > last) {
+            measuredContourCount = last;
+        }
+    }
+
     /**
      * Ensure that there is a contour available.
      */
@@ -384,7 +472,6 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     public void add(Contour c) {
         contours.add(c);
         currentContour = c;
-        invalidate(false);
     }
 
     public int size() {
@@ -405,15 +492,29 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
         for (Contour c : p.contours) {
             contours.add(c.clone());
         }
-        invalidate(false);
+    }
+
+    /**
+     * Pack the points of all contours into one shared block of memory.
+     * <p/>
+     * The contours keep working as before, but their points now live in consecutive slices of a single array of
+     * interleaved coordinates and a single array of point types. This removes the per-contour overhead for paths
+     * with many small contours. A contour that grows or shrinks afterwards moves to its own storage again.
+     */
+    public void pack() {
+        ArrayList<PointBuffer> buffers = new ArrayList<PointBuffer>(contours.size());
+        for (Contour c : contours) {
+            buffers.add(c.getPointBuffer());
+        }
+        PointBuffer.pack(buffers);
     }
 
     public void extend(Shape s) {
         PathIterator pi = s.getPathIterator(new AffineTransform());
         double px = 0;
         double py = 0;
+        double[] points = new double[6];
         while (!pi.isDone()) {
-            double[] points = new double[6];
             int cmd = pi.currentSegment(points);
             if (cmd == PathIterator.SEG_MOVETO) {
                 px = points[0];
@@ -444,7 +545,6 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
             }
             pi.next();
         }
-        invalidate(false);
     }
 
     /**
@@ -519,16 +619,8 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     /**
      * Returns the length of the spline.
      * <p/>
-     * Integrates the estimated length of the cubic bezier spline
-     * defined by x0, y0, ... x3, y3, by adding the lengths of
-     * linear lines between points at t.
-     * <p/>
-     * The number of points is defined by n
-     * (n=10 would add the lengths of lines between 0.0 and 0.1,
-     * between 0.1 and 0.2, and so on).
-     * <p/>
-     * This will use a default accuracy of 20, which is fine for most cases, usually
-     * resulting in a deviation of less than 0.01.
+     * The result is within LENGTH_TOLERANCE times the length of the control polygon of the exact length, so small
+     * curves are as cheap to measure as large ones.
      *
      * @param x0 X start coordinate
      * @param y0 Y start coordinate
@@ -539,9 +631,146 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
      * @param x3 X end coordinate
      * @param y3 Y end coordinate
      * @return the length of the spline.
+     * @see #curveLength(double, double, double, double, double, double, double, double, double)
      */
     public static double curveLength(double x0, double y0, double x1, double y1, double x2, double y2, double x3, double y3) {
-        return curveLength(x0, y0, x1, y1, x2, y2, x3, y3, 20);
+        double chord = lineLength(x0, y0, x3, y3);
+        double polygon = lineLength(x0, y0, x1, y1) + lineLength(x1, y1, x2, y2) + lineLength(x2, y2, x3, y3);
+        return curveLength(x0, y0, x1, y1, x2, y2, x3, y3, chord, polygon, LENGTH_TOLERANCE * polygon);
+    }
+
+    /**
+     * Returns the length of the spline, within the given tolerance.
+     * <p/>
+     * The exact length of a cubic bezier spline always lies between the length of its chord (the line from start
+     * to end) and the length of its control polygon. If the two are less than the tolerance apart, their average is
+     * returned: this is exact within half the tolerance, and makes short or nearly straight splines cheap.
+     * <p/>
+     * Other splines are measured by integrating the speed along the curve with 5-point Gauss-Legendre quadrature.
+     * The curve is first split where its speed is lowest or highest: near a cusp the speed has a sharp dip that
+     * quadrature would miss. Each piece is then compared with the 3-point rule; if they differ more than the
+     * tolerance allows, or the speed changes too much within the piece to trust the comparison, both halves are
+     * measured with half of the tolerance. Refinement stops after 16 levels.
+     *
+     * @param x0        X start coordinate
+     * @param y0        Y start coordinate
+     * @param x1        X control point 1
+     * @param y1        Y control point 1
+     * @param x2        X control point 2
+     * @param y2        Y control point 2
+     * @param x3        X end coordinate
+     * @param y3        Y end coordinate
+     * @param tolerance the maximum absolute error of the result.
+     * @return the length of the spline.
+     */
+    public static double curveLength(double x0, double y0, double x1, double y1, double x2, double y2, double x3, double y3, double tolerance) {
+        double chord = lineLength(x0, y0, x3, y3);
+        double polygon = lineLength(x0, y0, x1, y1) + lineLength(x1, y1, x2, y2) + lineLength(x2, y2, x3, y3);
+        return curveLength(x0, y0, x1, y1, x2, y2, x3, y3, chord, polygon, tolerance);
+    }
+
+    private static double curveLength(double x0, double y0, double x1, double y1, double x2, double y2, double x3, double y3,
+                                      double chord, double polygon, double tolerance) {
+        if (polygon - chord <= tolerance) {
+            return (polygon + chord) / 2;
+        }
+        // The derivative of the curve is the quadratic a * t^2 + b * t + c.
+        double ax = 3 * (x3 - 3 * x2 + 3 * x1 - x0);
+        double ay = 3 * (y3 - 3 * y2 + 3 * y1 - y0);
+        double bx = 6 * (x2 - 2 * x1 + x0);
+        double by = 6 * (y2 - 2 * y1 + y0);
+        double cx = 3 * (x1 - x0);
+        double cy = 3 * (y1 - y0);
+        // The speed has a minimum or maximum where the derivative of its square is zero, which is the cubic
+        // g(t) = g3 * t^3 + g2 * t^2 + g1 * t + g0. Find its roots in the intervals where it is monotonic.
+        double g3 = 2 * (ax * ax + ay * ay);
+        double g2 = 3 * (ax * bx + ay * by);
+        double g1 = bx * bx + by * by + 2 * (ax * cx + ay * cy);
+        double g0 = bx * cx + by * cy;
+        double e1 = 1, e2 = 1;
+        if (g3 != 0) {
+            double d = g2 * g2 - 3 * g3 * g1;
+            if (d > 0) {
+                double sq = Math.sqrt(d);
+                e1 = clampUnit((-g2 - sq) / (3 * g3));
+                e2 = clampUnit((-g2 + sq) / (3 * g3));
+            }
+        } else if (g2 != 0) {
+            e1 = clampUnit(-g1 / (2 * g2));
+        }
+        double length = 0;
+        double t0 = 0;
+        double lo = 0;
+        for (int i = 0; i < 3; i++) {
+            double hi = i == 0 ? Math.min(e1, e2) : i == 1 ? Math.max(e1, e2) : 1;
+            double glo = ((g3 * lo + g2) * lo + g1) * lo + g0;
+            double ghi = ((g3 * hi + g2) * hi + g1) * hi + g0;
+            if (hi > lo && (glo < 0) != (ghi < 0)) {
+                double a = lo, b = hi;
+                double m = (a + b) / 2;
+                while (b - a > EXTREMUM_PRECISION) {
+                    if ((((g3 * m + g2) * m + g1) * m + g0 < 0) == (glo < 0)) {
+                        a = m;
+                    } else {
+                        b = m;
+                    }
+                    m = (a + b) / 2;
+                }
+                if (m > t0 && m < 1) {
+                    length += integrateSpeed(ax, ay, bx, by, cx, cy, t0, m, tolerance * (m - t0), MAX_LENGTH_DEPTH);
+                    t0 = m;
+                }
+            }
+            lo = Math.max(lo, hi);
+        }
+        return length + integrateSpeed(ax, ay, bx, by, cx, cy, t0, 1, tolerance * (1 - t0), MAX_LENGTH_DEPTH);
+    }
+
+    private static double clampUnit(double t) {
+        return t < 0 ? 0 : t > 1 ? 1 : t;
+    }
+
+    /**
+     * Integrate the speed between t0 and t1 with 5-point Gauss-Legendre quadrature, using the 3-point rule on the
+     * same piece to estimate the error.
+     * <p/>
+     * The two rules can agree by accident when the speed changes a lot within the piece, so they are only trusted
+     * if the speed at the nodes stays within a factor of each other. A looser tolerance allows a larger factor.
+     */
+    private static double integrateSpeed(double ax, double ay, double bx, double by, double cx, double cy,
+                                         double t0, double t1, double tolerance, int depth) {
+        double half = (t1 - t0) / 2;
+        double mid = (t0 + t1) / 2;
+        // The first node of the 5-point rule is the middle, which the 3-point rule uses as well.
+        double vMiddle = speed(ax, ay, bx, by, cx, cy, mid);
+        double gauss5 = GAUSS_WEIGHTS[0] * vMiddle;
+        double vMin = vMiddle;
+        double vMax = vMiddle;
+        for (int i = 1; i < GAUSS_ABSCISSAE.length; i++) {
+            double v = speed(ax, ay, bx, by, cx, cy, mid + half * GAUSS_ABSCISSAE[i]);
+            gauss5 += GAUSS_WEIGHTS[i] * v;
+            vMin = Math.min(vMin, v);
+            vMax = Math.max(vMax, v);
+        }
+        gauss5 *= half;
+        if (gauss5 == 0) return 0;
+        double gauss3 = half * (GAUSS3_MIDDLE_WEIGHT * vMiddle
+                + GAUSS3_OUTER_WEIGHT * (speed(ax, ay, bx, by, cx, cy, mid - half * GAUSS3_ABSCISSA)
+                + speed(ax, ay, bx, by, cx, cy, mid + half * GAUSS3_ABSCISSA)));
+        double maxRatio = Math.max(MIN_SPEED_RATIO, SPEED_RATIO_SCALE * Math.sqrt(tolerance / gauss5));
+        if (depth == 0 || (Math.abs(gauss5 - gauss3) <= tolerance && vMax <= maxRatio * vMin)) {
+            return gauss5;
+        }
+        tolerance /= 2;
+        depth--;
+        return integrateSpeed(ax, ay, bx, by, cx, cy, t0, mid, tolerance, depth)
+                + integrateSpeed(ax, ay, bx, by, cx, cy, mid, t1, tolerance, depth);
+    }
+
+    private static double speed(double ax, double ay, double bx, double by, double cx, double cy, double t) {
+        double dx = (ax * t + bx) * t + cx;
+        double dy = (ay * t + by) * t + cy;
+        return Math.sqrt(dx * dx + dy * dy);
     }
 
     /**
@@ -570,19 +799,15 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
         double length = 0;
         double xi = x0;
         double yi = y0;
-        double t;
+        double t, mint;
         double px, py;
-        double tmpX, tmpY;
         for (int i = 0; i < n; i++) {
             t = (i + 1) / (double) n;
-            Point pt = curvePoint(t, x0, y0, x1, y1, x2, y2, x3, y3);
-            px = pt.getX();
-            py = pt.getY();
-            tmpX = Math.abs(xi - px);
-            tmpX *= tmpX;
-            tmpY = Math.abs(yi - py);
-            tmpY *= tmpY;
-            length += Math.sqrt(tmpX + tmpY);
+            mint = 1 - t;
+            // Evaluate the Bernstein form directly, to avoid creating a Point for every sample.
+            px = mint * mint * mint * x0 + 3 * mint * mint * t * x1 + 3 * mint * t * t * x2 + t * t * t * x3;
+            py = mint * mint * mint * y0 + 3 * mint * mint * t * y1 + 3 * mint * t * t * y2 + t * t * t * y3;
+            length += lineLength(xi, yi, px, py);
             xi = px;
             yi = py;
         }
@@ -625,42 +850,106 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
         return new Point(out_x, out_y);
     }
 
+    /**
+     * Approximate the spline with line segments and add their end points to the given buffer.
+     * <p/>
+     * The start point is not added, the end point is. All points are added as LINE_TO points.
+     * <p/>
+     * The number of segments comes from Wang's formula: splitting a cubic spline in n pieces of equal t keeps the
+     * polyline within 3/4 * M / n^2 of the curve, where M is the largest second difference of the control points.
+     * Since that bound is for the worst part of the curve, curves that need many segments are first split in
+     * halves, so parts that are almost straight don't get more segments than they need.
+     *
+     * @param out       the buffer to add the points to.
+     * @param x0        X start coordinate
+     * @param y0        Y start coordinate
+     * @param x1        X control point 1
+     * @param y1        Y control point 1
+     * @param x2        X control point 2
+     * @param y2        Y control point 2
+     * @param x3        X end coordinate
+     * @param y3        Y end coordinate
+     * @param tolerance the maximum distance between the curve and the line segments.
+     */
+    static void flattenCurve(PointBuffer out, double x0, double y0, double x1, double y1, double x2, double y2, double x3, double y3, double tolerance) {
+        flattenCurve(out, x0, y0, x1, y1, x2, y2, x3, y3, tolerance, MAX_FLATTEN_DEPTH);
+    }
+
+    private static void flattenCurve(PointBuffer out, double x0, double y0, double x1, double y1, double x2, double y2, double x3, double y3, double tolerance, int depth) {
+        double m = Math.max(lineLength(0, 0, x0 - 2 * x1 + x2, y0 - 2 * y1 + y2),
+                lineLength(0, 0, x1 - 2 * x2 + x3, y1 - 2 * y2 + y3));
+        double n = Math.ceil(Math.sqrt(0.75 * m / tolerance));
+        if (n <= MAX_UNIFORM_SEGMENTS || depth == 0) {
+            int segments = (int) Math.min(n, MAX_UNIFORM_SEGMENTS);
+            for (int i = 1; i < segments; i++) {
+                double t = i / (double) segments;
+                double mint = 1 - t;
+                out.add(mint * mint * mint * x0 + 3 * mint * mint * t * x1 + 3 * mint * t * t * x2 + t * t * t * x3,
+                        mint * mint * mint * y0 + 3 * mint * mint * t * y1 + 3 * mint * t * t * y2 + t * t * t * y3,
+                        Point.LINE_TO);
+            }
+            out.add(x3, y3, Point.LINE_TO);
+            return;
+        }
+        // Split the curve in halves using de Casteljau's algorithm.
+        double x01 = (x0 + x1) / 2;
+        double y01 = (y0 + y1) / 2;
+        double x12 = (x1 + x2) / 2;
+        double y12 = (y1 + y2) / 2;
+        double x23 = (x2 + x3) / 2;
+        double y23 = (y2 + y3) / 2;
+        double xa = (x01 + x12) / 2;
+        double ya = (y01 + y12) / 2;
+        double xb = (x12 + x23) / 2;
+        double yb = (y12 + y23) / 2;
+        double xm = (xa + xb) / 2;
+        double ym = (ya + yb) / 2;
+        flattenCurve(out, x0, y0, x01, y01, xa, ya, xm, ym, tolerance, depth - 1);
+        flattenCurve(out, xm, ym, xb, yb, x23, y23, x3, y3, tolerance, depth - 1);
+    }
+
     /**
      * Calculate the length of the path. This is not the number of segments, but rather the sum of all segment lengths.
      *
      * @return the length of the path.
      */
     public double getLength() {
-        if (lengthDirty) {
+        if (contourOffsets == null || measuredContourCount < contours.size()) {
             updateContourLengths();
         }
-        return pathLength;
+        return contourOffsets[contours.size()];
     }
 
+    /**
+     * Build the running lengths of the contours, used to find the contour at a given distance.
+     * <p/>
+     * Only the contours after the last measured contour are measured; the running lengths before them are kept.
+     */
     private void updateContourLengths() {
-        contourLengths = new ArrayList<Double>(contours.size());
-        pathLength = 0;
-        double length;
-        for (Contour c : contours) {
-            length = c.getLength();
-            contourLengths.add(length);
-            pathLength += length;
+        int contourCount = contours.size();
+        double[] offsets = contourOffsets;
+        if (offsets == null || offsets.length < contourCount + 1) {
+            double[] newOffsets = new double[Math.max(contourCount + 1, offsets == null ? 0 : offsets.length * 2)];
+            if (offsets != null)
+                System.arraycopy(offsets, 0, newOffsets, 0, measuredContourCount + 1);
+            offsets = newOffsets;
+        }
+        double length = offsets[measuredContourCount];
+        for (int i = measuredContourCount; i < contourCount; i++) {
+            length += contours.get(i).getLength();
+            offsets[i + 1] = length;
         }
-        lengthDirty = false;
+        contourOffsets = offsets;
+        measuredContourCount = contourCount;
     }
 
     public Contour contourAt(double t) {
         // Since t is relative, convert it to the absolute length.
         double absT = t * getLength();
-
         // Find the contour that contains t.
-        double cLength;
-        for (Contour c : contours) {
-            cLength = c.getLength();
-            if (absT <= cLength) return c;
-            absT -= cLength;
-        }
-        return null;
+        int contourCount = contours.size();
+        if (contourCount == 0 || absT > contourOffsets[contourCount]) return null;
+        return contours.get(offsetIndex(contourOffsets, contourCount, absT));
     }
 
     /**
@@ -668,8 +957,8 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
      * <p/>
      * Gets the length of the path, based on the length
      * of each curve and line in the path.
-     * Determines in what segment t falls.
-     * Gets the point on that segment.
+     * Determines in what contour t falls, using a binary search over the running contour lengths.
+     * Gets the point on that contour.
      *
      * @param t relative coordinate of the point (between 0.0 and 1.0)
      *          Results outside of this range are undefined.
@@ -677,23 +966,15 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
      */
     public Point pointAt(double t) {
         double length = getLength();
+        int contourCount = contours.size();
+        if (contourCount == 0) return new Point();
         // Since t is relative, convert it to the absolute length.
         double absT = t * length;
-        // The resT is what remains of t after we traversed all segments.
-        double resT = t;
-        // Find the contour that contains t.
-        double cLength;
-        Contour currentContour = null;
-        for (Contour c : contours) {
-            currentContour = c;
-            cLength = c.getLength();
-            if (absT <= cLength) break;
-            absT -= cLength;
-            resT -= cLength / length;
-        }
-        if (currentContour == null) return new Point();
-        resT /= (currentContour.getLength() / length);
-        return currentContour.pointAt(resT);
+        int index = offsetIndex(contourOffsets, contourCount, absT);
+        double start = contourOffsets[index];
+        // Convert what remains of t to a position relative to the contour.
+        double resT = (absT - start) / (contourOffsets[index + 1] - start);
+        return contours.get(index).pointAt(resT);
     }
 
     /**
@@ -733,12 +1014,13 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
             return points;
         } else {
             // Distribute all points evenly along the combined length of the contours.
-            double delta = pointDelta(amount, isClosed());
-            Point[] points = new Point[amount];
-            for (int i = 0; i < amount; i++) {
-                points[i] = pointAt(delta * i);
+            LengthCursor cursor = new LengthCursor(contours);
+            if (cursor.isEmpty()) {
+                Point[] points = new Point[amount];
+                Arrays.fill(points, Point.ZERO);
+                return points;
             }
-            return points;
+            return cursor.makePoints(amount, pointDelta(amount, isClosed()));
         }
     }
 
@@ -751,9 +1033,8 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
             return p;
         } else {
             Path p = cloneAndClear();
-            double delta = pointDelta(amount, isClosed());
-            for (int i = 0; i < amount; i++) {
-                p.addPoint(pointAt(delta * i));
+            for (Point pt : makePoints(amount, false)) {
+                p.addPoint(pt);
             }
             if (isClosed()) p.close();
             return p;
@@ -912,48 +1193,78 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
 
     //// Path ////
 
+    /**
+     * Returns the path as an AWT path.
+     * <p/>
+     * The AWT path is cached. When points or contours were appended since the last call, the new segments are
+     * added to the cached path instead of building it again, so the returned object can change afterwards.
+     * Other changes, such as transformations or an explicit invalidate, build a new AWT path.
+     *
+     * @return the AWT path.
+     */
     public java.awt.geom.GeneralPath getGeneralPath() {
-        if (!pathDirty) return awtPath;
-        GeneralPath gp = new GeneralPath(GeneralPath.WIND_NON_ZERO);
-        for (Contour c : contours) {
-            c._extendPath(gp);
+        int contourCount = contours.size();
+        if (contourCount < awtContourCount) {
+            // Contours were removed, for example through the list returned by getContours().
+            pathDirty = true;
+        }
+        if (!pathDirty && awtContourCount > 0) {
+            // The last contour we added may have grown or have been closed.
+            Contour c = contours.get(awtContourCount - 1);
+            int pointCount = c.getPointCount();
+            if (pointCount != awtPointCount || c.isClosed() != awtClosed) {
+                if (pointCount < awtPointCount || awtClosed) {
+                    // Points were removed, or added after closing the path. We can't append this.
+                    pathDirty = true;
+                } else {
+                    GeometryCursor cursor = c.cursor();
+                    cursor.seek(awtPointCount);
+                    cursor.extendPath(awtPath);
+                    awtPointCount = pointCount;
+                    awtClosed = c.isClosed();
+                }
+            }
         }
-        awtPath = gp;
-        pathDirty = false;
-        return gp;
+        if (pathDirty) {
+            awtPath = new GeneralPath(GeneralPath.WIND_NON_ZERO);
+            awtContourCount = 0;
+            pathDirty = false;
+        }
+        for (; awtContourCount < contourCount; awtContourCount++) {
+            Contour c = contours.get(awtContourCount);
+            c.cursor().extendPath(awtPath);
+            awtPointCount = c.getPointCount();
+            awtClosed = c.isClosed();
+        }
+        return awtPath;
     }
 
+    /**
+     * Returns the bounding box of the path.
+     * <p/>
+     * This is the union of the cached bounds of the contours. The same Rect object is returned as long as the
+     * bounds don't change.
+     *
+     * @return the bounding box.
+     */
     public Rect getBounds() {
-        if (!pathDirty && bounds != null) return bounds;
-        if (isEmpty()) {
-            bounds = new Rect();
-        } else {
-            double minX = Double.MAX_VALUE;
-            double minY = Double.MAX_VALUE;
-            double maxX = -Double.MAX_VALUE;
-            double maxY = -Double.MAX_VALUE;
-            double px, py;
-            ArrayList<Point> points = (ArrayList<Point>) getPoints();
-            for (int i = 0; i < getPointCount(); i++) {
-                Point p = points.get(i);
-                if (p.getType() == Point.LINE_TO) {
-                    px = p.getX();
-                    py = p.getY();
-                    if (px < minX) minX = px;
-                    if (py < minY) minY = py;
-                    if (px > maxX) maxX = px;
-                    if (py > maxY) maxY = py;
-                } else if (p.getType() == Point.CURVE_TO) {
-                    Bezier b = new Bezier(points.get(i - 3), points.get(i - 2), points.get(i - 1), p);
-                    Rect r = b.extrema();
-                    double right = r.getX() + r.getWidth();
-                    double bottom = r.getY() + r.getHeight();
-                    if (r.getX() < minX) minX = r.getX();
-                    if (right > maxX) maxX = right;
-                    if (r.getY() < minY) minY = r.getY();
-                    if (bottom > maxY) maxY = bottom;
-                }
-            }
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (Contour c : contours) {
+            if (c.isEmpty()) continue;
+            c.updateBounds();
+            if (c.getMinX() < minX) minX = c.getMinX();
+            if (c.getMinY() < minY) minY = c.getMinY();
+            if (c.getMaxX() > maxX) maxX = c.getMaxX();
+            if (c.getMaxY() > maxY) maxY = c.getMaxY();
+        }
+        if (minX > maxX) {
+            return new Rect();
+        }
+        if (bounds == null || bounds.x != minX || bounds.y != minY
+                || bounds.width != maxX - minX || bounds.height != maxY - minY) {
             bounds = new Rect(minX, minY, maxX - minX, maxY - minY);
         }
         return bounds;
@@ -962,19 +1273,60 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     //// Transformations ////
 
     public void transform(Transform t) {
+        transform(t, deferTransforms);
+    }
+
+    void transform(Transform t, boolean defer) {
         for (Contour c : contours) {
-            c.setPoints(t.map(c.getPoints()));
+            if (defer) {
+                c.deferTransform(t);
+            } else {
+                c.transform(t);
+            }
         }
-        invalidate(true);
+        invalidate(false);
+    }
+
+    public boolean isDeferTransforms() {
+        return deferTransforms;
+    }
+
+    /**
+     * Set whether transformations are applied right away, or when the points are needed.
+     * <p/>
+     * When deferred, each contour keeps a pending transformation that is combined with later transformations, and
+     * only applied to the points when they are read, measured or drawn.
+     *
+     * @param deferTransforms true to defer transformations.
+     * @see Contour#deferTransform(Transform)
+     */
+    public void setDeferTransforms(boolean deferTransforms) {
+        this.deferTransforms = deferTransforms;
     }
 
     //// Path math ////
 
     /**
      * Flatten the geometry.
+     * <p/>
+     * All curves are replaced by lines that stay within FLATTEN_TOLERANCE of the curve.
      */
     public void flatten() {
-        throw new UnsupportedOperationException("Not implemented.");
+        flatten(FLATTEN_TOLERANCE);
+    }
+
+    /**
+     * Flatten the geometry.
+     * <p/>
+     * All curves are replaced by lines that stay within the given tolerance of the curve.
+     *
+     * @param tolerance the maximum distance between the curves and the lines.
+     */
+    public void flatten(double tolerance) {
+        for (Contour c : contours) {
+            c.flatten(tolerance);
+        }
+        invalidate(false);
     }
 
     /**
@@ -983,7 +1335,21 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
      * @return a flattened copy.
      */
     public Path flattened() {
-        throw new UnsupportedOperationException("Not implemented.");
+        return flattened(FLATTEN_TOLERANCE);
+    }
+
+    /**
+     * Make a flattened copy of the geometry.
+     *
+     * @param tolerance the maximum distance between the curves and the lines.
+     * @return a flattened copy.
+     */
+    public Path flattened(double tolerance) {
+        Path p = cloneAndClear();
+        for (Contour c : contours) {
+            p.add(c.flattened(tolerance));
+        }
+        return p;
     }
 
     //// Operations on the current context. ////
@@ -991,16 +1357,57 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     public void draw(Graphics2D g) {
         // If we can't fill or stroke the path, there's nothing to draw.
         if (fillColor == null && strokeColor == null) return;
+        if (rasterCached) {
+            GeneralPath gp = getGeneralPath();
+            java.util.List<Object> state = Arrays.<Object>asList(gp, awtContourCount, awtPointCount, awtClosed,
+                    fillColor, strokeColor, strokeStyle, LevelOfDetail.get(g));
+            RasterCache.Renderer renderer = new RasterCache.Renderer() {
+                public Rectangle2D getBounds() {
+                    Rect r = Path.this.getBounds();
+                    double margin = strokeColor == null ? 0 : strokeStyle.getExtent();
+                    return new Rectangle2D.Double(r.getX() - margin, r.getY() - margin,
+                            r.getWidth() + margin * 2, r.getHeight() + margin * 2);
+                }
+
+                public void render(Graphics2D g) {
+                    drawVectors(g);
+                }
+            };
+            if (RasterCache.getShared().draw(g, this, g.getTransform(), state, renderer)) return;
+        }
+        drawVectors(g);
+    }
+
+    private void drawVectors(Graphics2D g) {
         GeneralPath gp = getGeneralPath();
+        LevelOfDetail lod = LevelOfDetail.get(g);
+        if (lod != null) {
+            gp = getDetailedPath(g, lod, gp);
+            if (gp == null) return;
+        }
+        drawShape(g, gp);
+    }
+
+    /**
+     * Fill and stroke a shape with the colors and stroke style of this path.
+     *
+     * @param g     the graphics context.
+     * @param shape the shape, which is this path or a shape built from it.
+     */
+    void drawShape(Graphics2D g, Shape shape) {
         if (fillColor != null) {
             fillColor.set(g);
-            g.fill(gp);
+            g.fill(shape);
         }
-        if (strokeWidth > 0 && strokeColor != null) {
+        if (strokeColor != null && strokeStyle.getWidth() > 0) {
             try {
                 strokeColor.set(g);
-                g.setStroke(new BasicStroke((float) strokeWidth));
-                g.draw(gp);
+                // Equal stroke styles share their AWT stroke. Paths with the same stroke don't set it again.
+                BasicStroke stroke = strokeStyle.getAwtStroke();
+                if (g.getStroke() != stroke) {
+                    g.setStroke(stroke);
+                }
+                g.draw(shape);
             } catch (Exception e) {
                 // Invalid transformations can cause the pen to not display.
                 // Catch the exception and throw it away.
@@ -1009,6 +1416,91 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
         }
     }
 
+    /**
+     * Returns true if the path is drawn from an image in the shared raster cache.
+     *
+     * @return true if the raster cache is on.
+     * @see #setRasterCached(boolean)
+     */
+    public boolean isRasterCached() {
+        return rasterCached;
+    }
+
+    /**
+     * Turn the raster cache on or off.
+     * <p/>
+     * With the raster cache on, the path is rendered into an image once, and the image is copied to the graphics
+     * context as long as only the translation of the graphics context changes. Changing the points of the path,
+     * including translating the path itself, renders it again.
+     *
+     * @param rasterCached true to turn the raster cache on.
+     * @see RasterCache
+     */
+    public void setRasterCached(boolean rasterCached) {
+        this.rasterCached = rasterCached;
+        if (!rasterCached) {
+            RasterCache.getShared().invalidate(this);
+        }
+    }
+
+    /**
+     * Get the shape to draw at the level of detail of the graphics context.
+     * <p/>
+     * If the whole path is smaller than the minimum size, it is drawn here as a rectangle. The simplified shape is
+     * kept until the path changes or is drawn at another level.
+     *
+     * @return the shape to draw, or null if the path was already drawn or has nothing to draw.
+     */
+    private GeneralPath getDetailedPath(Graphics2D g, LevelOfDetail lod, GeneralPath gp) {
+        if (lodSource != gp || lodContourCount != awtContourCount || lodPointCount != awtPointCount
+                || lodClosed != awtClosed) {
+            // The path changed since we simplified it.
+            lodSource = gp;
+            lodContourCount = awtContourCount;
+            lodPointCount = awtPointCount;
+            lodClosed = awtClosed;
+            lodPath = null;
+            lodCoverage = -1;
+        }
+        boolean stroked = strokeColor != null && strokeStyle.getWidth() > 0;
+        if (fillColor == null && !stroked) return null;
+        double scale = LevelOfDetail.getScale(g.getTransform());
+        Rect r = getBounds();
+        double strokeSize = stroked ? strokeStyle.getWidth() * scale : 0;
+        if (Math.max(r.getWidth(), r.getHeight()) * scale + strokeSize < lod.getMinimumSize()) {
+            if (stroked && (fillColor == null || strokeSize >= Math.min(r.getWidth(), r.getHeight()) * scale)) {
+                // The stroke covers most of the shape.
+                double margin = strokeStyle.getWidth() / 2;
+                strokeColor.set(g);
+                g.fill(new Rectangle2D.Double(r.getX() - margin, r.getY() - margin,
+                        r.getWidth() + margin * 2, r.getHeight() + margin * 2));
+            } else {
+                // Spread the ink of the shape over a rectangle of one pixel around its center. A smaller rectangle
+                // would fall between the samples of the rasterizer.
+                if (lodCoverage < 0) {
+                    lodCoverage = LevelOfDetail.coverage(contours, r);
+                }
+                double deviceArea = lodCoverage * r.getWidth() * r.getHeight() * scale * scale;
+                java.awt.Color c = fillColor.getAwtColor();
+                int alpha = (int) Math.round(c.getAlpha() * Math.min(1, deviceArea));
+                if (alpha == 0) return null;
+                g.setColor(new java.awt.Color(c.getRed(), c.getGreen(), c.getBlue(), alpha));
+                double size = 1 / scale;
+                double cx = r.getX() + r.getWidth() / 2;
+                double cy = r.getY() + r.getHeight() / 2;
+                g.fill(new Rectangle2D.Double(cx - size / 2, cy - size / 2, size, size));
+            }
+            return null;
+        }
+        int level = LevelOfDetail.getLevel(scale);
+        if (lodPath == null || lodLevel != level || !lod.equals(lodSettings)) {
+            lodPath = lod.simplify(contours, level);
+            lodLevel = level;
+            lodSettings = lod;
+        }
+        return lodPath;
+    }
+
     public Path clone() {
         return new Path(this);
     }
@@ -1031,129 +1523,10 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     //// Iterator implementation
 
     public Iterator<Point> iterator() {
-        return getPoints().iterator();
+        return cursor().pointIterator();
     }
 
 
-    private class Bezier {
-        private double x1, y1, x2, y2, x3, y3, x4, y4;
-        private double minx, maxx, miny, maxy;
-
-        public Bezier(Point p1, Point p2, Point p3, Point p4) {
-            x1 = p1.getX();
-            y1 = p1.getY();
-            x2 = p2.getX();
-            y2 = p2.getY();
-            x3 = p3.getX();
-            y3 = p3.getY();
-            x4 = p4.getX();
-            y4 = p4.getY();
-        }
-
-        private boolean fuzzyCompare(double p1, double p2) {
-            return Math.abs(p1 - p2) <= (0.000000000001 * Math.min(Math.abs(p1), Math.abs(p2)));
-        }
-
-        public Point pointAt(double t) {
-            double coeff[], a, b, c, d;
-            coeff = coefficients(t);
-            a = coeff[0];
-            b = coeff[1];
-            c = coeff[2];
-            d = coeff[3];
-            return new Point(a * x1 + b * x2 + c * x3 + d * x4, a * y1 + b * y2 + c * y3 + d * y4);
-        }
-
-        private double[] coefficients(double t) {
-            double m_t, a, b, c, d;
-            m_t = 1 - t;
-            b = m_t * m_t;
-            c = t * t;
-            d = c * t;
-            a = b * m_t;
-            b *= (3. * t);
-            c *= (3. * m_t);
-            return new double[]{a, b, c, d};
-        }
-
-        private void bezierCheck(double t) {
-            if (t >= 0 && t <= 1) {
-                Point p = pointAt(t);
-                if (p.getX() < minx) minx = p.getX();
-                else if (p.getX() > maxx) maxx = p.getX();
-                if (p.getY() < miny) miny = p.getY();
-                else if (p.getY() > maxy) maxy = p.getY();
-            }
-        }
-
-        public Rect extrema() {
-            double ax, bx, cx, ay, by, cy;
-
-            if (x1 < x4) {
-                minx = x1;
-                maxx = x4;
-            } else {
-                minx = x4;
-                maxx = x1;
-            }
-            if (y1 < y4) {
-                miny = y1;
-                maxy = y4;
-            } else {
-                miny = y4;
-                maxy = y1;
-            }
-
-            ax = 3 * (-x1 + 3 * x2 - 3 * x3 + x4);
-            bx = 6 * (x1 - 2 * x2 + x3);
-            cx = 3 * (-x1 + x2);
-
-            if (fuzzyCompare(ax + 1, 1)) {
-                if (!fuzzyCompare(bx + 1, 1)) {
-                    double t = -cx / bx;
-                    bezierCheck(t);
-                }
-            } else {
-                double tx = bx * bx - 4 * ax * cx;
-                if (tx >= 0) {
-                    double temp, rcp, t1, t2;
-                    temp = (double) Math.sqrt(tx);
-                    rcp = 1 / (2 * ax);
-                    t1 = (-bx + temp) * rcp;
-                    bezierCheck(t1);
-
-                    t2 = (-bx - temp) * rcp;
-                    bezierCheck(t2);
-                }
-            }
-
-            ay = 3 * (-y1 + 3 * y2 - 3 * y3 + y4);
-            by = 6 * (y1 - 2 * y2 + y3);
-            cy = 3 * (-y1 + y2);
-
-            if (fuzzyCompare(ay + 1, 1)) {
-                if (!fuzzyCompare(by + 1, 1)) {
-                    double t = -cy / by;
-                    bezierCheck(t);
-                }
-            } else {
-                double ty = by * by - 4 * ay * cy;
-                if (ty > 0) {
-                    double temp, rcp, t1, t2;
-                    temp = (double) Math.sqrt(ty);
-                    rcp = 1 / (2 * ay);
-                    t1 = (-by + temp) * rcp;
-                    bezierCheck(t1);
-
-                    t2 = (-by - temp) * rcp;
-                    bezierCheck(t2);
-                }
-            }
-
-            return new Rect(minx, miny, maxx - minx, maxy - miny);
-        }
-    }
-
     @Override
     public String toString() {
         return "<Path>";
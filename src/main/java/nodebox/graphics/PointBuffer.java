@@ -0,0 +1,246 @@
+package nodebox.graphics;
+
+import java.awt.geom.AffineTransform;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A list of points backed by primitive arrays.
+ * <p/>
+ * The coordinates are stored interleaved (x0, y0, x1, y1, ...) in a single double array, the point types in a
+ * byte array. Point objects are only created when they are requested through the List interface, so large contours
+ * don't pay for an object per vertex.
+ * <p/>
+ * Several buffers can share the same arrays, each one owning a consecutive slice of it. This is what
+ * Path.pack() uses to keep all contours of a path in one block of memory. A shared buffer can be read and
+ * changed in place, but is copied to private arrays as soon as points are added or removed.
+ */
+final class PointBuffer extends AbstractList<Point> implements RandomAccess {
+
+    private static final int DEFAULT_CAPACITY = 8;
+    private static final double[] EMPTY_COORDS = new double[0];
+    private static final byte[] EMPTY_TYPES = new byte[0];
+
+    private double[] coords;
+    private byte[] types;
+    private int offset;
+    private int size;
+    private boolean shared;
+
+    PointBuffer() {
+        coords = EMPTY_COORDS;
+        types = EMPTY_TYPES;
+    }
+
+    PointBuffer(int capacity) {
+        coords = new double[capacity * 2];
+        types = new byte[capacity];
+    }
+
+    PointBuffer(PointBuffer other) {
+        this(other.size);
+        System.arraycopy(other.coords, other.offset * 2, coords, 0, other.size * 2);
+        System.arraycopy(other.types, other.offset, types, 0, other.size);
+        size = other.size;
+    }
+
+    PointBuffer(Iterable<Point> points) {
+        this(points instanceof List ? ((List<?>) points).size() : DEFAULT_CAPACITY);
+        for (Point pt : points) {
+            add(pt.x, pt.y, pt.type);
+        }
+    }
+
+    /**
+     * Create a buffer over a slice of arrays that other buffers also use. The arrays are not copied.
+     *
+     * @param coords the interleaved coordinates.
+     * @param types  the point types.
+     * @param offset the index of the first point of the slice.
+     * @param size   the number of points in the slice.
+     */
+    PointBuffer(double[] coords, byte[] types, int offset, int size) {
+        this.coords = coords;
+        this.types = types;
+        this.offset = offset;
+        this.size = size;
+        this.shared = true;
+    }
+
+    /**
+     * Move the given buffers into one shared block of memory.
+     * <p/>
+     * The buffers keep their contents, but from now on they refer to consecutive slices of the same arrays.
+     *
+     * @param buffers the buffers to pack.
+     */
+    static void pack(List<PointBuffer> buffers) {
+        int total = 0;
+        for (PointBuffer b : buffers) {
+            total += b.size;
+        }
+        double[] coords = new double[total * 2];
+        byte[] types = new byte[total];
+        int offset = 0;
+        for (PointBuffer b : buffers) {
+            System.arraycopy(b.coords, b.offset * 2, coords, offset * 2, b.size * 2);
+            System.arraycopy(b.types, b.offset, types, offset, b.size);
+            b.coords = coords;
+            b.types = types;
+            b.offset = offset;
+            b.shared = true;
+            offset += b.size;
+        }
+    }
+
+    //// Primitive access ////
+
+    public double getX(int index) {
+        return coords[(offset + index) * 2];
+    }
+
+    public double getY(int index) {
+        return coords[(offset + index) * 2 + 1];
+    }
+
+    public int getType(int index) {
+        return types[offset + index];
+    }
+
+    public void add(double x, double y, int type) {
+        ensureCapacity(size + 1);
+        int i = offset + size;
+        coords[i * 2] = x;
+        coords[i * 2 + 1] = y;
+        types[i] = (byte) type;
+        size++;
+        modCount++;
+    }
+
+    public void set(int index, double x, double y, int type) {
+        rangeCheck(index);
+        int i = offset + index;
+        coords[i * 2] = x;
+        coords[i * 2 + 1] = y;
+        types[i] = (byte) type;
+    }
+
+    /**
+     * Transform all points in place.
+     *
+     * @param t the transformation to apply.
+     */
+    public void transform(AffineTransform t) {
+        t.transform(coords, offset * 2, coords, offset * 2, size);
+    }
+
+    /**
+     * Check if this buffer shares its arrays with other buffers.
+     *
+     * @return true if the buffer is part of a packed block.
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Release unused capacity.
+     */
+    public void trimToSize() {
+        if (shared || coords.length == size * 2) return;
+        reallocate(size);
+    }
+
+    //// List implementation ////
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Point get(int index) {
+        rangeCheck(index);
+        int i = offset + index;
+        return new Point(coords[i * 2], coords[i * 2 + 1], types[i]);
+    }
+
+    @Override
+    public Point set(int index, Point pt) {
+        Point old = get(index);
+        set(index, pt.x, pt.y, pt.type);
+        return old;
+    }
+
+    @Override
+    public void add(int index, Point pt) {
+        if (index < 0 || index > size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        ensureCapacity(size + 1);
+        int i = offset + index;
+        System.arraycopy(coords, i * 2, coords, i * 2 + 2, (size - index) * 2);
+        System.arraycopy(types, i, types, i + 1, size - index);
+        coords[i * 2] = pt.x;
+        coords[i * 2 + 1] = pt.y;
+        types[i] = (byte) pt.type;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public Point remove(int index) {
+        Point old = get(index);
+        ensurePrivate();
+        System.arraycopy(coords, index * 2 + 2, coords, index * 2, (size - index - 1) * 2);
+        System.arraycopy(types, index + 1, types, index, size - index - 1);
+        size--;
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        if (shared) {
+            coords = EMPTY_COORDS;
+            types = EMPTY_TYPES;
+            offset = 0;
+            shared = false;
+        }
+        size = 0;
+        modCount++;
+    }
+
+    //// Storage management ////
+
+    private void rangeCheck(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (shared) {
+            reallocate(Math.max(capacity, DEFAULT_CAPACITY));
+        } else if (capacity > types.length) {
+            reallocate(Math.max(capacity, Math.max(types.length * 2, DEFAULT_CAPACITY)));
+        }
+    }
+
+    private void ensurePrivate() {
+        if (shared) {
+            reallocate(size);
+        }
+    }
+
+    private void reallocate(int capacity) {
+        double[] newCoords = new double[capacity * 2];
+        byte[] newTypes = new byte[capacity];
+        System.arraycopy(coords, offset * 2, newCoords, 0, size * 2);
+        System.arraycopy(types, offset, newTypes, 0, size);
+        coords = newCoords;
+        types = newTypes;
+        offset = 0;
+        shared = false;
+    }
+
+}
@@ -0,0 +1,210 @@
+package nodebox.graphics;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Keeps rendered images of grobs, so they can be drawn again by copying pixels.
+ * <p/>
+ * A grob is rendered at the scale and rotation of the graphics context. As long as those stay the same, and the
+ * grob doesn't change, moving the grob or the graphics context only moves the image. The image is rendered at the
+ * position of the grob within the pixel, rounded to a quarter pixel, so it lines up with the pixels as the vector
+ * drawing would.
+ * <p/>
+ * The cache is bounded by the memory its images use. The least recently used images are dropped first. Grobs that
+ * are no longer used are dropped as well.
+ */
+public final class RasterCache {
+
+    public static final long DEFAULT_MAXIMUM_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * The number of positions within a pixel that an image is rendered at, in each direction.
+     */
+    private static final int SUBPIXEL_STEPS = 4;
+
+    private static final RasterCache SHARED = new RasterCache(DEFAULT_MAXIMUM_BYTES);
+
+    private final long maximumBytes;
+    private final Cache<Object, Entry> entries;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Returns the cache that grobs use when their raster cache is turned on.
+     *
+     * @return the shared cache.
+     */
+    public static RasterCache getShared() {
+        return SHARED;
+    }
+
+    public RasterCache(long maximumBytes) {
+        checkArgument(maximumBytes > 0, "Maximum bytes needs to be positive.");
+        this.maximumBytes = maximumBytes;
+        entries = CacheBuilder.newBuilder()
+                .weakKeys()
+                .maximumWeight(maximumBytes)
+                .weigher(new Weigher<Object, Entry>() {
+                    public int weigh(Object owner, Entry entry) {
+                        return entry.image.getWidth() * entry.image.getHeight() * 4;
+                    }
+                })
+                .build();
+    }
+
+    public long getMaximumBytes() {
+        return maximumBytes;
+    }
+
+    /**
+     * Drop the image of the given grob.
+     *
+     * @param owner the grob.
+     */
+    public void invalidate(Object owner) {
+        entries.invalidate(owner);
+    }
+
+    public void clear() {
+        entries.invalidateAll();
+    }
+
+    /**
+     * Returns the number of times an image could be drawn from the cache.
+     *
+     * @return the hit count.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of times an image had to be rendered.
+     *
+     * @return the miss count.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Draw the image of a grob, rendering it first if there is no image for the transformation and state.
+     *
+     * @param g        the graphics context.
+     * @param owner    the grob, which is compared by identity.
+     * @param t        the transformation from the coordinates the renderer draws in to device space.
+     * @param state    everything besides the transformation that changes the look of the grob.
+     * @param renderer draws the grob.
+     * @return false if the grob can't be cached. The caller needs to draw it.
+     */
+    boolean draw(Graphics2D g, Object owner, AffineTransform t, Object state, Renderer renderer) {
+        // Split the translation in whole pixels and a rounded part of a pixel.
+        double stepsX = Math.round(t.getTranslateX() * SUBPIXEL_STEPS);
+        double stepsY = Math.round(t.getTranslateY() * SUBPIXEL_STEPS);
+        if (Double.isInfinite(stepsX) || Double.isNaN(stepsX) || Double.isInfinite(stepsY) || Double.isNaN(stepsY))
+            return false;
+        long pixelX = (long) Math.floor(stepsX / SUBPIXEL_STEPS);
+        long pixelY = (long) Math.floor(stepsY / SUBPIXEL_STEPS);
+        double phaseX = stepsX / SUBPIXEL_STEPS - pixelX;
+        double phaseY = stepsY / SUBPIXEL_STEPS - pixelY;
+        Entry entry = entries.getIfPresent(owner);
+        if (entry != null && entry.matches(t, phaseX, phaseY, state)) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+            entry = render(g, t, phaseX, phaseY, state, renderer);
+            if (entry == null) return false;
+            entries.put(owner, entry);
+        }
+        AffineTransform savedTransform = g.getTransform();
+        g.setTransform(new AffineTransform());
+        g.drawImage(entry.image, (int) (pixelX + entry.offsetX), (int) (pixelY + entry.offsetY), null);
+        g.setTransform(savedTransform);
+        return true;
+    }
+
+    private Entry render(Graphics2D g, AffineTransform t, double phaseX, double phaseY, Object state, Renderer renderer) {
+        AffineTransform local = new AffineTransform(t.getScaleX(), t.getShearY(), t.getShearX(), t.getScaleY(),
+                phaseX, phaseY);
+        Rectangle2D bounds = renderer.getBounds();
+        if (bounds == null || bounds.isEmpty()) return null;
+        Rectangle2D deviceBounds = local.createTransformedShape(bounds).getBounds2D();
+        // Pad a pixel for antialiasing.
+        int x = (int) Math.floor(deviceBounds.getMinX()) - 1;
+        int y = (int) Math.floor(deviceBounds.getMinY()) - 1;
+        long width = (long) Math.ceil(deviceBounds.getMaxX()) + 1 - x;
+        long height = (long) Math.ceil(deviceBounds.getMaxY()) + 1 - y;
+        // An image that takes up a large part of the cache would push out the others.
+        if (width * height * 4 > maximumBytes / 8) return null;
+        BufferedImage image = new BufferedImage((int) width, (int) height, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D ig = image.createGraphics();
+        ig.setRenderingHints(g.getRenderingHints());
+        ig.setPaint(g.getPaint());
+        ig.setStroke(g.getStroke());
+        ig.setFont(g.getFont());
+        ig.translate(-x, -y);
+        ig.transform(local);
+        renderer.render(ig);
+        ig.dispose();
+        return new Entry(image, x, y, t, phaseX, phaseY, state);
+    }
+
+    /**
+     * Draws a grob into the cache.
+     */
+    interface Renderer {
+
+        /**
+         * Returns the area the grob draws in, in the coordinates it draws in.
+         *
+         * @return the bounds, or null if the grob doesn't draw anything.
+         */
+        Rectangle2D getBounds();
+
+        void render(Graphics2D g);
+
+    }
+
+    private static final class Entry {
+
+        private final BufferedImage image;
+        private final int offsetX, offsetY;
+        private final double scaleX, shearY, shearX, scaleY;
+        private final double phaseX, phaseY;
+        private final Object state;
+
+        private Entry(BufferedImage image, int offsetX, int offsetY, AffineTransform t, double phaseX, double phaseY,
+                      Object state) {
+            this.image = image;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            this.scaleX = t.getScaleX();
+            this.shearY = t.getShearY();
+            this.shearX = t.getShearX();
+            this.scaleY = t.getScaleY();
+            this.phaseX = phaseX;
+            this.phaseY = phaseY;
+            this.state = state;
+        }
+
+        private boolean matches(AffineTransform t, double phaseX, double phaseY, Object state) {
+            return scaleX == t.getScaleX() && shearY == t.getShearY()
+                    && shearX == t.getShearX() && scaleY == t.getScaleY()
+                    && this.phaseX == phaseX && this.phaseY == phaseY
+                    && Objects.equal(this.state, state);
+        }
+
+    }
+
+}
@@ -0,0 +1,505 @@
+package nodebox.graphics;
+
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A software rasterizer that fills paths into a buffer of pixels, without Java2D.
+ * <p/>
+ * The pixels are premultiplied ARGB values, one int per pixel, row after row. This is the layout of a
+ * BufferedImage of TYPE_INT_ARGB_PRE.
+ * <p/>
+ * Shapes are flattened into lines in device space. The lines are sorted by the row they start in, and every row
+ * is filled using only the lines that cross it. Each line adds the area it covers in a pixel, and the part of the
+ * pixels right of it, to a row of accumulators. Summing the accumulators from left to right gives the winding
+ * number of every pixel, with the exact coverage of the pixels the lines pass through as the fraction. The
+ * coverage is blended with the color using source-over.
+ * <p/>
+ * Strokes are turned into outlines by the AWT stroke and filled. Java2D normally moves strokes to the nearest
+ * quarter pixel, which the rasterizer doesn't, so thin strokes look like they do with STROKE_PURE.
+ * <p/>
+ * Coverage of overlapping edges inside one pixel is approximated by adding the areas. A rasterizer is not thread
+ * safe, but rasterizers with different buffers can work in parallel.
+ */
+public final class Rasterizer {
+
+    /**
+     * How far, in pixels, the lines of a flattened curve can be from the curve.
+     */
+    private static final double FLATNESS = 0.25;
+
+    private final int[] pixels;
+    private final int width, height;
+    private AffineTransform transform = new AffineTransform();
+
+    // The lines of the shape, with y0 < y1. The direction is +1 if the line went down, -1 if it went up.
+    private float[] lines = new float[256];
+    private byte[] directions = new byte[64];
+    private int lineCount;
+    private float minY = Float.POSITIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+
+    private double moveX, moveY, lastX, lastY;
+    // The points of the curve that is being flattened.
+    private final PointBuffer curvePoints = new PointBuffer(16);
+
+    // The accumulators of one row, and the range of accumulators that changed.
+    private final float[] cells;
+    private int minCell, maxCell;
+
+    /**
+     * Create a rasterizer that draws into the given buffer.
+     *
+     * @param pixels the premultiplied ARGB pixels, at least width * height.
+     * @param width  the width of the buffer.
+     * @param height the height of the buffer.
+     */
+    public Rasterizer(int[] pixels, int width, int height) {
+        checkArgument(width >= 0 && height >= 0, "Width and height cannot be negative.");
+        checkArgument(pixels.length >= (long) width * height, "The buffer is too small for %sx%s pixels.", width, height);
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        cells = new float[width + 2];
+        minCell = Integer.MAX_VALUE;
+        maxCell = -1;
+    }
+
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns a copy of the transformation from user space to the pixels.
+     *
+     * @return the transformation.
+     */
+    public AffineTransform getTransform() {
+        return new AffineTransform(transform);
+    }
+
+    public void setTransform(AffineTransform transform) {
+        this.transform = new AffineTransform(transform);
+    }
+
+    /**
+     * Returns an image that uses the buffer for its pixels. Drawing on the image changes the buffer.
+     *
+     * @return an image of TYPE_INT_ARGB_PRE.
+     */
+    public BufferedImage createImage() {
+        DirectColorModel model = new DirectColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), 32,
+                0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000, true, DataBuffer.TYPE_INT);
+        DataBufferInt buffer = new DataBufferInt(pixels, pixels.length);
+        WritableRaster raster = java.awt.image.Raster.createPackedRaster(buffer, width, height, width,
+                new int[]{0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000}, null);
+        return new BufferedImage(model, raster, true, null);
+    }
+
+    /**
+     * Set all pixels to the color.
+     *
+     * @param color the color, or null for transparent.
+     */
+    public void clear(Color color) {
+        Arrays.fill(pixels, 0, width * height, color == null ? 0 : premultiply(color.getAwtColor().getRGB()));
+    }
+
+    //// Drawing ////
+
+    /**
+     * Fill and stroke the path with its own colors, the way Path.draw does.
+     *
+     * @param path the path to draw.
+     */
+    public void draw(Path path) {
+        if (path.getFillColor() != null) {
+            fill(path, path.getFillColor());
+        }
+        StrokeStyle style = path.getStrokeStyle();
+        if (path.getStrokeColor() != null && style.getWidth() > 0) {
+            fill(style.getAwtStroke().createStrokedShape(path.getGeneralPath()), path.getStrokeColor());
+        }
+    }
+
+    /**
+     * Draw every path of the geometry with its own colors.
+     *
+     * @param geometry the geometry to draw.
+     */
+    public void draw(Geometry geometry) {
+        for (Path p : geometry.getPaths()) {
+            draw(p);
+        }
+    }
+
+    /**
+     * Fill the contours of the path with the non-zero winding rule, like Java2D fills a path.
+     *
+     * @param path  the path to fill.
+     * @param color the fill color.
+     */
+    public void fill(Path path, Color color) {
+        fill(path, color, PathIterator.WIND_NON_ZERO);
+    }
+
+    /**
+     * Fill a single contour. An open contour is filled as if it were closed.
+     *
+     * @param contour the contour to fill.
+     * @param color   the fill color.
+     */
+    public void fill(Contour contour, Color color) {
+        addContour(contour);
+        rasterize(color, PathIterator.WIND_NON_ZERO);
+    }
+
+    /**
+     * Fill the contours of a path with the given winding rule.
+     *
+     * @param path        the path to fill.
+     * @param color       the fill color.
+     * @param windingRule PathIterator.WIND_NON_ZERO or WIND_EVEN_ODD.
+     */
+    public void fill(Path path, Color color, int windingRule) {
+        for (Contour c : path.getContours()) {
+            addContour(c);
+        }
+        rasterize(color, windingRule);
+    }
+
+    /**
+     * Fill an AWT shape, with the winding rule of the shape.
+     *
+     * @param shape the shape to fill.
+     * @param color the fill color.
+     */
+    public void fill(Shape shape, Color color) {
+        PathIterator it = shape.getPathIterator(transform, FLATNESS);
+        double[] coords = new double[6];
+        while (!it.isDone()) {
+            switch (it.currentSegment(coords)) {
+                case PathIterator.SEG_MOVETO:
+                    closeSubpath();
+                    moveX = lastX = coords[0];
+                    moveY = lastY = coords[1];
+                    break;
+                case PathIterator.SEG_LINETO:
+                    lineTo(coords[0], coords[1]);
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    closeSubpath();
+                    break;
+            }
+            it.next();
+        }
+        closeSubpath();
+        rasterize(color, it.getWindingRule());
+    }
+
+    //// Building lines ////
+
+    private void addContour(Contour c) {
+        if (c.isEmpty()) return;
+        double m00 = transform.getScaleX(), m01 = transform.getShearX(), m02 = transform.getTranslateX();
+        double m10 = transform.getShearY(), m11 = transform.getScaleY(), m12 = transform.getTranslateY();
+        GeometryCursor cursor = c.cursor();
+        while (cursor.next()) {
+            double x = cursor.getX(), y = cursor.getY();
+            double dx = m00 * x + m01 * y + m02;
+            double dy = m10 * x + m11 * y + m12;
+            switch (cursor.getCommand()) {
+                case PathElement.MOVETO:
+                    moveX = lastX = dx;
+                    moveY = lastY = dy;
+                    break;
+                case PathElement.CURVETO:
+                    double c1x = cursor.getControl1X(), c1y = cursor.getControl1Y();
+                    double c2x = cursor.getControl2X(), c2y = cursor.getControl2Y();
+                    curveTo(m00 * c1x + m01 * c1y + m02, m10 * c1x + m11 * c1y + m12,
+                            m00 * c2x + m01 * c2y + m02, m10 * c2x + m11 * c2y + m12, dx, dy);
+                    break;
+                default:
+                    lineTo(dx, dy);
+                    break;
+            }
+        }
+        closeSubpath();
+    }
+
+    private void curveTo(double x1, double y1, double x2, double y2, double x3, double y3) {
+        curvePoints.clear();
+        Path.flattenCurve(curvePoints, lastX, lastY, x1, y1, x2, y2, x3, y3, FLATNESS);
+        for (int i = 0; i < curvePoints.size(); i++) {
+            lineTo(curvePoints.getX(i), curvePoints.getY(i));
+        }
+    }
+
+    private void lineTo(double x, double y) {
+        addLine(lastX, lastY, x, y);
+        lastX = x;
+        lastY = y;
+    }
+
+    private void closeSubpath() {
+        if (lastX != moveX || lastY != moveY) {
+            addLine(lastX, lastY, moveX, moveY);
+        }
+        lastX = moveX;
+        lastY = moveY;
+    }
+
+    /**
+     * Add a line in device space, split where it leaves the buffer on the left or right.
+     * <p/>
+     * The part left of the buffer still covers the pixels right of it, so it becomes a vertical line on the left
+     * edge. The part right of the buffer becomes a vertical line on the right edge, where it ends the span of
+     * pixels that the row fills.
+     */
+    private void addLine(double x0, double y0, double x1, double y1) {
+        if (y0 == y1) return;
+        if ((y0 <= 0 && y1 <= 0) || (y0 >= height && y1 >= height)) return;
+        if (Double.isNaN(x0) || Double.isNaN(y0) || Double.isNaN(x1) || Double.isNaN(y1)) return;
+        if ((x0 < 0 && x1 > 0) || (x0 > 0 && x1 < 0)) {
+            double y = y0 + (0 - x0) * (y1 - y0) / (x1 - x0);
+            addLine(x0, y0, 0, y);
+            addLine(0, y, x1, y1);
+            return;
+        }
+        if ((x0 < width && x1 > width) || (x0 > width && x1 < width)) {
+            double y = y0 + (width - x0) * (y1 - y0) / (x1 - x0);
+            addLine(x0, y0, width, y);
+            addLine(width, y, x1, y1);
+            return;
+        }
+        if (x0 <= 0 && x1 <= 0) {
+            x0 = x1 = 0;
+        } else if (x0 >= width && x1 >= width) {
+            x0 = x1 = width;
+        }
+        storeLine(x0, y0, x1, y1);
+    }
+
+    private void storeLine(double x0, double y0, double x1, double y1) {
+        if (lineCount == directions.length) {
+            directions = Arrays.copyOf(directions, lineCount * 2);
+            lines = Arrays.copyOf(lines, lineCount * 8);
+        }
+        int o = lineCount * 4;
+        if (y0 < y1) {
+            lines[o] = (float) x0;
+            lines[o + 1] = (float) y0;
+            lines[o + 2] = (float) x1;
+            lines[o + 3] = (float) y1;
+            directions[lineCount] = 1;
+        } else {
+            lines[o] = (float) x1;
+            lines[o + 1] = (float) y1;
+            lines[o + 2] = (float) x0;
+            lines[o + 3] = (float) y0;
+            directions[lineCount] = -1;
+        }
+        minY = Math.min(minY, lines[o + 1]);
+        maxY = Math.max(maxY, lines[o + 3]);
+        lineCount++;
+    }
+
+    //// Filling ////
+
+    /**
+     * Fill the lines that were added, and forget them.
+     */
+    private void rasterize(Color color, int windingRule) {
+        try {
+            if (lineCount == 0 || color == null) return;
+            int argb = premultiply(color.getAwtColor().getRGB());
+            if (argb == 0) return;
+            int firstRow = Math.max(0, (int) Math.floor(minY));
+            int lastRow = Math.min(height - 1, (int) Math.ceil(maxY) - 1);
+            if (firstRow > lastRow) return;
+            // Sort the lines by the row they start in. This is the edge table.
+            int rowCount = lastRow - firstRow + 1;
+            int[] rowStarts = new int[rowCount + 1];
+            for (int i = 0; i < lineCount; i++) {
+                rowStarts[startRow(i, firstRow, rowCount) + 1]++;
+            }
+            for (int r = 0; r < rowCount; r++) {
+                rowStarts[r + 1] += rowStarts[r];
+            }
+            int[] sorted = new int[lineCount];
+            int[] next = Arrays.copyOf(rowStarts, rowCount);
+            for (int i = 0; i < lineCount; i++) {
+                sorted[next[startRow(i, firstRow, rowCount)]++] = i;
+            }
+            // The active lines cross the current row.
+            int[] active = new int[Math.min(lineCount, 64)];
+            int activeCount = 0;
+            boolean evenOdd = windingRule == PathIterator.WIND_EVEN_ODD;
+            for (int r = 0; r < rowCount; r++) {
+                int row = firstRow + r;
+                for (int s = rowStarts[r]; s < rowStarts[r + 1]; s++) {
+                    if (activeCount == active.length) {
+                        active = Arrays.copyOf(active, activeCount * 2);
+                    }
+                    active[activeCount++] = sorted[s];
+                }
+                int kept = 0;
+                for (int a = 0; a < activeCount; a++) {
+                    int line = active[a];
+                    accumulate(line, row);
+                    if (lines[line * 4 + 3] > row + 1) {
+                        active[kept++] = line;
+                    }
+                }
+                activeCount = kept;
+                fillRow(row, argb, evenOdd);
+            }
+        } finally {
+            lineCount = 0;
+            minY = Float.POSITIVE_INFINITY;
+            maxY = Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    private int startRow(int line, int firstRow, int rowCount) {
+        int row = (int) Math.floor(lines[line * 4 + 1]) - firstRow;
+        return Math.max(0, Math.min(rowCount - 1, row));
+    }
+
+    /**
+     * Add the coverage of the part of the line that is inside the row.
+     */
+    private void accumulate(int line, int row) {
+        int o = line * 4;
+        float lx0 = lines[o], ly0 = lines[o + 1], lx1 = lines[o + 2], ly1 = lines[o + 3];
+        float top = Math.max(row, ly0);
+        float bottom = Math.min(row + 1, ly1);
+        if (top >= bottom) return;
+        float dxdy = (lx1 - lx0) / (ly1 - ly0);
+        float x = lx0 + (top - ly0) * dxdy;
+        float xNext = lx0 + (bottom - ly0) * dxdy;
+        // Rounding can put the ends a bit outside of the line.
+        x = Math.max(0, Math.min(width, x));
+        xNext = Math.max(0, Math.min(width, xNext));
+        float d = (bottom - top) * directions[line];
+        float x0 = Math.min(x, xNext), x1 = Math.max(x, xNext);
+        float x0Floor = (float) Math.floor(x0);
+        int x0i = (int) x0Floor;
+        float x1Ceil = (float) Math.ceil(x1);
+        int x1i = (int) x1Ceil;
+        minCell = Math.min(minCell, x0i);
+        if (x1i <= x0i + 1) {
+            // The line stays inside one pixel.
+            float xm = 0.5f * (x + xNext) - x0Floor;
+            cells[x0i] += d - d * xm;
+            cells[x0i + 1] += d * xm;
+            maxCell = Math.max(maxCell, x0i + 1);
+        } else {
+            float s = 1 / (x1 - x0);
+            float x0f = x0 - x0Floor;
+            float a0 = 0.5f * s * (1 - x0f) * (1 - x0f);
+            float x1f = x1 - x1Ceil + 1;
+            float am = 0.5f * s * x1f * x1f;
+            cells[x0i] += d * a0;
+            if (x1i == x0i + 2) {
+                cells[x0i + 1] += d * (1 - a0 - am);
+            } else {
+                float a1 = s * (1.5f - x0f);
+                cells[x0i + 1] += d * (a1 - a0);
+                for (int xi = x0i + 2; xi < x1i - 1; xi++) {
+                    cells[xi] += d * s;
+                }
+                float a2 = a1 + (x1i - x0i - 3) * s;
+                cells[x1i - 1] += d * (1 - a2 - am);
+            }
+            cells[x1i] += d * am;
+            maxCell = Math.max(maxCell, x1i);
+        }
+    }
+
+    /**
+     * Sum the accumulators of the row, blend the coverage into the pixels and clear the accumulators.
+     */
+    private void fillRow(int row, int argb, boolean evenOdd) {
+        if (maxCell < 0) return;
+        int offset = row * width;
+        int end = Math.min(maxCell, width - 1);
+        int sa = argb >>> 24;
+        float winding = 0;
+        for (int x = minCell; x <= end; x++) {
+            winding += cells[x];
+            cells[x] = 0;
+            float coverage = Math.abs(winding);
+            if (evenOdd) {
+                coverage %= 2;
+                if (coverage > 1) coverage = 2 - coverage;
+            } else if (coverage > 1) {
+                coverage = 1;
+            }
+            int c = (int) (coverage * 256 + 0.5f);
+            if (c == 0) continue;
+            if (c == 256 && sa == 255) {
+                pixels[offset + x] = argb;
+            } else {
+                pixels[offset + x] = blend(argb, c, pixels[offset + x]);
+            }
+        }
+        for (int x = end + 1; x <= maxCell; x++) {
+            cells[x] = 0;
+        }
+        minCell = Integer.MAX_VALUE;
+        maxCell = -1;
+    }
+
+    /**
+     * Blend a premultiplied color with the given coverage over a premultiplied pixel.
+     *
+     * @param src      the color.
+     * @param coverage the coverage, from 0 to 256.
+     * @param dst      the pixel.
+     * @return the new pixel.
+     */
+    private static int blend(int src, int coverage, int dst) {
+        int a = ((src >>> 24) * coverage) >> 8;
+        int r = (((src >> 16) & 0xff) * coverage) >> 8;
+        int g = (((src >> 8) & 0xff) * coverage) >> 8;
+        int b = ((src & 0xff) * coverage) >> 8;
+        int inverse = 255 - a;
+        a += div255((dst >>> 24) * inverse);
+        r += div255(((dst >> 16) & 0xff) * inverse);
+        g += div255(((dst >> 8) & 0xff) * inverse);
+        b += div255((dst & 0xff) * inverse);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private static int div255(int v) {
+        return (v + 128 + ((v + 128) >> 8)) >> 8;
+    }
+
+    private static int premultiply(int argb) {
+        int a = argb >>> 24;
+        if (a == 255) return argb;
+        int r = div255(((argb >> 16) & 0xff) * a);
+        int g = div255(((argb >> 8) & 0xff) * a);
+        int b = div255((argb & 0xff) * a);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+}
@@ -0,0 +1,299 @@
+package nodebox.graphics;
+
+import com.google.common.base.Objects;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An image of a canvas that is kept up-to-date by repainting only what changed.
+ * <p/>
+ * The image is divided in tiles. Every time the target renders, it compares the items of the canvas with the items
+ * it rendered last time. Items that were added, removed, moved in the drawing order or that changed their bounds
+ * damage the tiles under their old and new bounds. Only the damaged tiles are cleared and drawn again, with just
+ * the items that reach into them.
+ * <p/>
+ * Text is slow to measure, so it is only measured again when its text, attributes or transformation change. Other
+ * items that the canvas has no bounds for are measured every time.
+ * <p/>
+ * A change to a path, geometry or image that doesn't change its bounds, such as a new fill color, can't be seen this
+ * way. Call invalidate(Grob) for those items. Changing the size, offset or background of the canvas repaints
+ * everything.
+ * <p/>
+ * Since every tile is always drawn with the same clip, the image is the same as rendering the canvas from scratch
+ * with a new target.
+ */
+public class RenderTarget {
+
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    private final Canvas canvas;
+    private final int tileSize;
+    private final Set<Grob> changedItems = Collections.newSetFromMap(new IdentityHashMap<Grob, Boolean>());
+    private BufferedImage image;
+    private Rect canvasBounds;
+    private Color background;
+    private int columns, rows;
+    private boolean[] damagedTiles;
+    private boolean fullyDamaged = true;
+    private Grob[] renderedItems = new Grob[0];
+    private double[] renderedBounds = new double[0];
+    private Object[] renderedStates = new Object[0];
+    private int repaintedTileCount;
+
+    public RenderTarget(Canvas canvas) {
+        this(canvas, DEFAULT_TILE_SIZE);
+    }
+
+    public RenderTarget(Canvas canvas, int tileSize) {
+        if (tileSize <= 0) throw new IllegalArgumentException("Tile size needs to be positive.");
+        this.canvas = canvas;
+        this.tileSize = tileSize;
+    }
+
+    public Canvas getCanvas() {
+        return canvas;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Mark an item as changed in a way that doesn't change its bounds.
+     * <p/>
+     * The tiles under the item are repainted on the next render.
+     *
+     * @param item the item that changed.
+     */
+    public void invalidate(Grob item) {
+        changedItems.add(item);
+    }
+
+    /**
+     * Repaint the whole image on the next render.
+     */
+    public void invalidate() {
+        fullyDamaged = true;
+    }
+
+    /**
+     * Returns the number of tiles the last render repainted.
+     *
+     * @return the tile count.
+     */
+    public int getRepaintedTileCount() {
+        return repaintedTileCount;
+    }
+
+    /**
+     * Bring the image up-to-date with the canvas.
+     * <p/>
+     * The same image is returned until the size of the canvas changes. Don't change it.
+     *
+     * @return the image of the canvas.
+     */
+    public BufferedImage render() {
+        Rect bounds = canvas.getBounds();
+        int width = (int) Math.round(bounds.getWidth());
+        int height = (int) Math.round(bounds.getHeight());
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            columns = (width + tileSize - 1) / tileSize;
+            rows = (height + tileSize - 1) / tileSize;
+            damagedTiles = new boolean[columns * rows];
+            fullyDamaged = true;
+        }
+        if (!bounds.equals(canvasBounds) || !Objects.equal(background, canvas.getBackground())) {
+            canvasBounds = bounds;
+            background = canvas.getBackground();
+            fullyDamaged = true;
+        }
+        canvas.prepareImage(width, height);
+        List<Grob> items = canvas.getItems();
+        Grob[] currentItems = items.toArray(new Grob[items.size()]);
+        double[] currentBounds = new double[currentItems.length * 4];
+        Object[] currentStates = new Object[currentItems.length];
+        if (fullyDamaged) {
+            for (int i = 0; i < currentItems.length; i++) {
+                measure(currentItems, currentBounds, currentStates, i);
+            }
+            Arrays.fill(damagedTiles, true);
+        } else {
+            findDamage(currentItems, currentBounds, currentStates);
+        }
+        repaint();
+        renderedItems = currentItems;
+        renderedBounds = currentBounds;
+        renderedStates = currentStates;
+        changedItems.clear();
+        fullyDamaged = false;
+        return image;
+    }
+
+    /**
+     * Compare the items with the rendered items and damage the tiles under every difference.
+     * <p/>
+     * Usually only a few items change. The items that are the same at the start and the end of both lists are
+     * compared one by one. Only the items in between are matched up by identity.
+     */
+    private void findDamage(Grob[] items, double[] itemBounds, Object[] itemStates) {
+        int start = 0;
+        int end = items.length;
+        int renderedEnd = renderedItems.length;
+        while (start < end && start < renderedEnd && items[start] == renderedItems[start]) {
+            compare(items, itemBounds, itemStates, start, start);
+            start++;
+        }
+        while (end > start && renderedEnd > start && items[end - 1] == renderedItems[renderedEnd - 1]) {
+            end--;
+            renderedEnd--;
+            compare(items, itemBounds, itemStates, end, renderedEnd);
+        }
+        if (start == end && start == renderedEnd) return;
+        IdentityHashMap<Grob, Integer> renderedIndex = new IdentityHashMap<Grob, Integer>();
+        for (int i = start; i < renderedEnd; i++) {
+            renderedIndex.put(renderedItems[i], i);
+        }
+        int lastIndex = -1;
+        for (int i = start; i < end; i++) {
+            Integer index = renderedIndex.remove(items[i]);
+            if (index == null) {
+                // The item was added.
+                measure(items, itemBounds, itemStates, i);
+                damage(itemBounds, i * 4);
+            } else if (index < lastIndex) {
+                // The item moved in front of items that were drawn after it.
+                measure(items, itemBounds, itemStates, i);
+                damage(itemBounds, i * 4);
+                damage(renderedBounds, index * 4);
+            } else {
+                compare(items, itemBounds, itemStates, i, index);
+                lastIndex = index;
+            }
+        }
+        // The items that are left were removed.
+        for (int index : renderedIndex.values()) {
+            damage(renderedBounds, index * 4);
+        }
+    }
+
+    /**
+     * Compare an item with the same item in the rendered items, and damage the tiles under it if it changed.
+     */
+    private void compare(Grob[] items, double[] itemBounds, Object[] itemStates, int index, int renderedIndex) {
+        int o = index * 4;
+        int ro = renderedIndex * 4;
+        Grob item = items[index];
+        if (!canvas.getImageBounds(index, itemBounds, o)) {
+            Object state = itemStates[index] = getState(item);
+            if (state == null) {
+                measureBounds(item, itemBounds, o);
+            } else if (state.equals(renderedStates[renderedIndex]) && !isChanged(item)) {
+                // Measuring text is slow, so we keep the box of text that didn't change.
+                System.arraycopy(renderedBounds, ro, itemBounds, o, 4);
+                return;
+            } else {
+                // The text changed, even if its box might be the same.
+                measureBounds(item, itemBounds, o);
+                damage(itemBounds, o);
+                damage(renderedBounds, ro);
+                return;
+            }
+        }
+        if (itemBounds[o] == renderedBounds[ro] && itemBounds[o + 1] == renderedBounds[ro + 1]
+                && itemBounds[o + 2] == renderedBounds[ro + 2] && itemBounds[o + 3] == renderedBounds[ro + 3]
+                && !isChanged(item)) {
+            return;
+        }
+        damage(itemBounds, o);
+        damage(renderedBounds, ro);
+    }
+
+    private boolean isChanged(Grob item) {
+        return !changedItems.isEmpty() && changedItems.contains(item);
+    }
+
+    private void measure(Grob[] items, double[] itemBounds, Object[] itemStates, int index) {
+        if (!canvas.getImageBounds(index, itemBounds, index * 4)) {
+            itemStates[index] = getState(items[index]);
+            measureBounds(items[index], itemBounds, index * 4);
+        }
+    }
+
+    /**
+     * Returns everything that changes how a text looks, or null for other items.
+     */
+    private static Object getState(Grob item) {
+        if (!(item instanceof Text)) return null;
+        Text t = (Text) item;
+        return Arrays.<Object>asList(t.getText(), t.getBaseLineX(), t.getBaseLineY(), t.getWidth(), t.getHeight(),
+                t.getFontName(), t.getFontSize(), t.getLineHeight(), t.getAlign(), t.getFillColor(),
+                new Transform(t.getTransform()));
+    }
+
+    /**
+     * Measure the box in the image of an item that the canvas has no bounds for.
+     */
+    private void measureBounds(Grob grob, double[] itemBounds, int offset) {
+        Rect r = grob.getBounds();
+        // The bounds of text don't include every pixel of the glyphs, so we are generous.
+        double pad = 2 + r.getHeight() / 4;
+        itemBounds[offset] = r.getX() - canvasBounds.getX() - pad;
+        itemBounds[offset + 1] = r.getY() - canvasBounds.getY() - pad;
+        itemBounds[offset + 2] = r.getX() + r.getWidth() - canvasBounds.getX() + pad;
+        itemBounds[offset + 3] = r.getY() + r.getHeight() - canvasBounds.getY() + pad;
+    }
+
+    /**
+     * Damage the tiles under a box.
+     */
+    private void damage(double[] box, int offset) {
+        if (!(box[offset] <= box[offset + 2] && box[offset + 1] <= box[offset + 3])) {
+            // NaN bounds. Nothing is drawn, but we can't be sure where.
+            Arrays.fill(damagedTiles, true);
+            return;
+        }
+        if (box[offset] >= image.getWidth() || box[offset + 1] >= image.getHeight()
+                || box[offset + 2] < 0 || box[offset + 3] < 0) return;
+        int minColumn = tile(box[offset], columns);
+        int minRow = tile(box[offset + 1], rows);
+        int maxColumn = tile(box[offset + 2], columns);
+        int maxRow = tile(box[offset + 3], rows);
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                damagedTiles[row * columns + column] = true;
+            }
+        }
+    }
+
+    private int tile(double coordinate, int count) {
+        return (int) Math.max(0, Math.min(count - 1, Math.floor(coordinate / tileSize)));
+    }
+
+    private void repaint() {
+        Graphics2D g = image.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        int repainted = 0;
+        for (int tile = 0; tile < damagedTiles.length; tile++) {
+            if (!damagedTiles[tile]) continue;
+            int x = (tile % columns) * tileSize;
+            int y = (tile / columns) * tileSize;
+            int width = Math.min(tileSize, image.getWidth() - x);
+            int height = Math.min(tileSize, image.getHeight() - y);
+            g.fill(new Rectangle2D.Double(x, y, width, height));
+            canvas.drawRegion(image, x, y, width, height);
+            damagedTiles[tile] = false;
+            repainted++;
+        }
+        g.dispose();
+        repaintedTileCount = repainted;
+    }
+
+}
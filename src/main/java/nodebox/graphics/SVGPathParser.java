@@ -0,0 +1,487 @@
+package nodebox.graphics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses SVG path data, the value of the d attribute of a path element.
+ * <p/>
+ * The parser supports the full grammar: absolute and relative commands, repeated parameters without repeating the
+ * command, and all commands including H, V, S, Q, T and A. Quadratic curves and arcs are converted to cubic
+ * curves, so the output only has moves, lines, cubic curves and closes:
+ * <pre>
+ * Path p = SVGPathParser.parse("M10 10h80v80h-80z M30,30 a20,20 0 1,0 40,0 a20,20 0 1,0 -40,0");
+ * </pre>
+ * Numbers are scanned straight out of the string, without creating substrings, and points are appended directly
+ * to the path. Use a Handler to receive the segments without building a path at all.
+ * <p/>
+ * Invalid data throws an IllegalArgumentException with the index where parsing stopped.
+ */
+public final class SVGPathParser {
+
+    /**
+     * Receives the segments of parsed path data, in absolute coordinates.
+     */
+    public interface Handler {
+
+        public void moveTo(double x, double y);
+
+        public void lineTo(double x, double y);
+
+        public void curveTo(double x1, double y1, double x2, double y2, double x3, double y3);
+
+        public void close();
+
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    // Integers up to this value are exact as doubles.
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final int MAX_MANTISSA_DIGITS = 18;
+
+    private final CharSequence data;
+    private final int length;
+    private final Handler handler;
+    private int position;
+
+    // The current point, the start of the current subpath and the last control point of a curve.
+    private double currentX, currentY;
+    private double startX, startY;
+    private double controlX, controlY;
+    // The previous command, in upper case, to know if its control point can be reflected.
+    private char previousCommand;
+    // Set after a close: drawing without a move first starts a new subpath at the start of the closed one.
+    private boolean needsMove;
+
+    private SVGPathParser(CharSequence data, Handler handler) {
+        this.data = data;
+        this.length = data.length();
+        this.handler = handler;
+    }
+
+    /**
+     * Parse the path data into a new path.
+     *
+     * @param data the path data.
+     * @return a new path with the default fill.
+     * @throws IllegalArgumentException if the data is invalid.
+     */
+    public static Path parse(CharSequence data) {
+        Path p = new Path();
+        parse(data, p);
+        return p;
+    }
+
+    /**
+     * Parse the path data and append it to the path. Every subpath becomes a new contour.
+     *
+     * @param data the path data.
+     * @param path the path to append to.
+     * @throws IllegalArgumentException if the data is invalid.
+     */
+    public static void parse(CharSequence data, final Path path) {
+        parse(data, new Handler() {
+            public void moveTo(double x, double y) {
+                path.moveto(x, y);
+            }
+
+            public void lineTo(double x, double y) {
+                path.lineto(x, y);
+            }
+
+            public void curveTo(double x1, double y1, double x2, double y2, double x3, double y3) {
+                path.curveto(x1, y1, x2, y2, x3, y3);
+            }
+
+            public void close() {
+                path.close();
+            }
+        });
+    }
+
+    /**
+     * Parse the path data into a list of path elements.
+     *
+     * @param data the path data.
+     * @return the MOVETO, LINETO, CURVETO and CLOSE elements.
+     * @throws IllegalArgumentException if the data is invalid.
+     */
+    public static List<PathElement> parseElements(CharSequence data) {
+        final List<PathElement> elements = new ArrayList<PathElement>();
+        parse(data, new Handler() {
+            public void moveTo(double x, double y) {
+                elements.add(new PathElement(PathElement.MOVETO, x, y));
+            }
+
+            public void lineTo(double x, double y) {
+                elements.add(new PathElement(PathElement.LINETO, x, y));
+            }
+
+            public void curveTo(double x1, double y1, double x2, double y2, double x3, double y3) {
+                elements.add(new PathElement(PathElement.CURVETO, x1, y1, x2, y2, x3, y3));
+            }
+
+            public void close() {
+                elements.add(new PathElement(PathElement.CLOSE));
+            }
+        });
+        return elements;
+    }
+
+    /**
+     * Parse the path data and pass every segment to the handler.
+     *
+     * @param data    the path data.
+     * @param handler the handler.
+     * @throws IllegalArgumentException if the data is invalid. The segments before the error have been passed on.
+     */
+    public static void parse(CharSequence data, Handler handler) {
+        new SVGPathParser(data, handler).parse();
+    }
+
+    //// Commands ////
+
+    private void parse() {
+        skipSeparators();
+        if (position == length) return;
+        char command = data.charAt(position);
+        if (command != 'M' && command != 'm') throw error("Path data needs to start with a move");
+        while (true) {
+            skipSeparators();
+            if (position == length) return;
+            char c = data.charAt(position);
+            if (isCommand(c)) {
+                command = c;
+                position++;
+            } else if (command == 'Z' || command == 'z') {
+                throw error("Expected a command");
+            }
+            command = execute(command);
+        }
+    }
+
+    /**
+     * Read the parameters of the command and pass on its segments.
+     *
+     * @return the command to use for parameters that follow without a command.
+     */
+    private char execute(char command) {
+        boolean relative = command >= 'a';
+        double dx = relative ? currentX : 0;
+        double dy = relative ? currentY : 0;
+        char upper = relative ? (char) (command - ('a' - 'A')) : command;
+        switch (upper) {
+            case 'M':
+                moveTo(dx + readNumber(), dy + readNumber());
+                // Coordinates after the first pair are lines.
+                command = relative ? 'l' : 'L';
+                break;
+            case 'L':
+                lineTo(dx + readNumber(), dy + readNumber());
+                break;
+            case 'H':
+                lineTo(dx + readNumber(), currentY);
+                break;
+            case 'V':
+                lineTo(currentX, dy + readNumber());
+                break;
+            case 'C': {
+                double x1 = dx + readNumber(), y1 = dy + readNumber();
+                double x2 = dx + readNumber(), y2 = dy + readNumber();
+                curveTo(x1, y1, x2, y2, dx + readNumber(), dy + readNumber());
+                break;
+            }
+            case 'S': {
+                double x1 = currentX, y1 = currentY;
+                if (previousCommand == 'C' || previousCommand == 'S') {
+                    x1 = 2 * currentX - controlX;
+                    y1 = 2 * currentY - controlY;
+                }
+                double x2 = dx + readNumber(), y2 = dy + readNumber();
+                curveTo(x1, y1, x2, y2, dx + readNumber(), dy + readNumber());
+                break;
+            }
+            case 'Q': {
+                double x1 = dx + readNumber(), y1 = dy + readNumber();
+                quadTo(x1, y1, dx + readNumber(), dy + readNumber());
+                break;
+            }
+            case 'T': {
+                double x1 = currentX, y1 = currentY;
+                if (previousCommand == 'Q' || previousCommand == 'T') {
+                    x1 = 2 * currentX - controlX;
+                    y1 = 2 * currentY - controlY;
+                }
+                quadTo(x1, y1, dx + readNumber(), dy + readNumber());
+                break;
+            }
+            case 'A': {
+                double rx = readNumber(), ry = readNumber();
+                double angle = readNumber();
+                boolean largeArc = readFlag();
+                boolean sweep = readFlag();
+                arcTo(rx, ry, angle, largeArc, sweep, dx + readNumber(), dy + readNumber());
+                break;
+            }
+            case 'Z':
+                handler.close();
+                currentX = startX;
+                currentY = startY;
+                needsMove = true;
+                break;
+            default:
+                throw error("Unknown command '" + command + "'");
+        }
+        previousCommand = upper;
+        return command;
+    }
+
+    private void moveTo(double x, double y) {
+        handler.moveTo(x, y);
+        currentX = startX = x;
+        currentY = startY = y;
+        needsMove = false;
+    }
+
+    private void lineTo(double x, double y) {
+        startSubpath();
+        handler.lineTo(x, y);
+        currentX = x;
+        currentY = y;
+    }
+
+    private void curveTo(double x1, double y1, double x2, double y2, double x, double y) {
+        startSubpath();
+        handler.curveTo(x1, y1, x2, y2, x, y);
+        controlX = x2;
+        controlY = y2;
+        currentX = x;
+        currentY = y;
+    }
+
+    /**
+     * Pass on a quadratic curve as the cubic curve with the same shape.
+     */
+    private void quadTo(double x1, double y1, double x, double y) {
+        startSubpath();
+        handler.curveTo(currentX + (x1 - currentX) * 2 / 3, currentY + (y1 - currentY) * 2 / 3,
+                x + (x1 - x) * 2 / 3, y + (y1 - y) * 2 / 3, x, y);
+        controlX = x1;
+        controlY = y1;
+        currentX = x;
+        currentY = y;
+    }
+
+    /**
+     * Pass on an elliptical arc as cubic curves of at most a quarter turn each.
+     * <p/>
+     * The center of the ellipse is found as described in the implementation notes of the SVG specification.
+     * Radii that are too small to reach the end point are scaled up, and an arc with a zero radius is a line.
+     */
+    private void arcTo(double rx, double ry, double angle, boolean largeArc, boolean sweep, double x, double y) {
+        double x0 = currentX, y0 = currentY;
+        if (x0 == x && y0 == y) return;
+        rx = Math.abs(rx);
+        ry = Math.abs(ry);
+        if (rx == 0 || ry == 0) {
+            lineTo(x, y);
+            return;
+        }
+        double phi = Math.toRadians(angle % 360);
+        double cos = Math.cos(phi), sin = Math.sin(phi);
+        // The start point in the coordinate system of the ellipse, with the middle of the chord as origin.
+        double hx = (x0 - x) / 2, hy = (y0 - y) / 2;
+        double x1 = cos * hx + sin * hy;
+        double y1 = -sin * hx + cos * hy;
+        double lambda = (x1 * x1) / (rx * rx) + (y1 * y1) / (ry * ry);
+        if (lambda > 1) {
+            double s = Math.sqrt(lambda);
+            rx *= s;
+            ry *= s;
+        }
+        double rx2 = rx * rx, ry2 = ry * ry;
+        double numerator = rx2 * ry2 - rx2 * y1 * y1 - ry2 * x1 * x1;
+        double denominator = rx2 * y1 * y1 + ry2 * x1 * x1;
+        double coefficient = numerator <= 0 ? 0 : Math.sqrt(numerator / denominator);
+        if (largeArc == sweep) coefficient = -coefficient;
+        double cx1 = coefficient * rx * y1 / ry;
+        double cy1 = -coefficient * ry * x1 / rx;
+        double cx = cos * cx1 - sin * cy1 + (x0 + x) / 2;
+        double cy = sin * cx1 + cos * cy1 + (y0 + y) / 2;
+        double theta = Math.atan2((y1 - cy1) / ry, (x1 - cx1) / rx);
+        double delta = Math.atan2((-y1 - cy1) / ry, (-x1 - cx1) / rx) - theta;
+        if (sweep && delta < 0) {
+            delta += 2 * Math.PI;
+        } else if (!sweep && delta > 0) {
+            delta -= 2 * Math.PI;
+        }
+        int segments = Math.max(1, (int) Math.ceil(Math.abs(delta) / (Math.PI / 2) - 1e-9));
+        double step = delta / segments;
+        // The distance of the control points along the tangent, for a unit circle.
+        double k = 4.0 / 3.0 * Math.tan(step / 4);
+        double cos1 = Math.cos(theta), sin1 = Math.sin(theta);
+        startSubpath();
+        for (int i = 1; i <= segments; i++) {
+            double t = theta + step * i;
+            double cos2 = Math.cos(t), sin2 = Math.sin(t);
+            // The control points on the ellipse before it is rotated and moved to its center.
+            double ax = rx * (cos1 - k * sin1), ay = ry * (sin1 + k * cos1);
+            double bx = rx * (cos2 + k * sin2), by = ry * (sin2 - k * cos2);
+            double ex, ey;
+            if (i == segments) {
+                ex = x;
+                ey = y;
+            } else {
+                ex = cos * rx * cos2 - sin * ry * sin2 + cx;
+                ey = sin * rx * cos2 + cos * ry * sin2 + cy;
+            }
+            double bxr = cos * bx - sin * by + cx, byr = sin * bx + cos * by + cy;
+            handler.curveTo(cos * ax - sin * ay + cx, sin * ax + cos * ay + cy, bxr, byr, ex, ey);
+            controlX = bxr;
+            controlY = byr;
+            cos1 = cos2;
+            sin1 = sin2;
+        }
+        currentX = x;
+        currentY = y;
+    }
+
+    /**
+     * Start a new subpath at the start of the closed subpath, if the previous command was a close.
+     */
+    private void startSubpath() {
+        if (needsMove) {
+            handler.moveTo(startX, startY);
+            needsMove = false;
+        }
+    }
+
+    //// Scanning ////
+
+    private static boolean isCommand(char c) {
+        switch (c) {
+            case 'M': case 'm': case 'L': case 'l': case 'H': case 'h': case 'V': case 'v':
+            case 'C': case 'c': case 'S': case 's': case 'Q': case 'q': case 'T': case 't':
+            case 'A': case 'a': case 'Z': case 'z':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+    }
+
+    private void skipSeparators() {
+        while (position < length) {
+            char c = data.charAt(position);
+            if (!isWhitespace(c) && c != ',') return;
+            position++;
+        }
+    }
+
+    private boolean readFlag() {
+        skipSeparators();
+        if (position < length) {
+            char c = data.charAt(position);
+            if (c == '0' || c == '1') {
+                position++;
+                return c == '1';
+            }
+        }
+        throw error("Expected a flag");
+    }
+
+    /**
+     * Scan a number without creating a string.
+     * <p/>
+     * Up to 18 significant digits are collected in a long. If the digits and the exponent are small enough, a
+     * single multiplication or division gives the correctly rounded value. Other numbers are handed to
+     * Double.parseDouble.
+     */
+    private double readNumber() {
+        skipSeparators();
+        int start = position;
+        boolean negative = false;
+        if (position < length) {
+            char c = data.charAt(position);
+            if (c == '-' || c == '+') {
+                negative = c == '-';
+                position++;
+            }
+        }
+        long mantissa = 0;
+        int digitCount = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+        boolean exact = true;
+        char c = 0;
+        while (position < length && (c = data.charAt(position)) >= '0' && c <= '9') {
+            hasDigits = true;
+            if (digitCount < MAX_MANTISSA_DIGITS) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) digitCount++;
+            } else {
+                exponent++;
+                exact = false;
+            }
+            position++;
+        }
+        if (position < length && data.charAt(position) == '.') {
+            position++;
+            while (position < length && (c = data.charAt(position)) >= '0' && c <= '9') {
+                hasDigits = true;
+                if (digitCount < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) digitCount++;
+                    exponent--;
+                } else {
+                    exact = false;
+                }
+                position++;
+            }
+        }
+        if (!hasDigits) {
+            position = start;
+            throw error("Expected a number");
+        }
+        if (position < length && ((c = data.charAt(position)) == 'e' || c == 'E')) {
+            int exponentStart = position;
+            position++;
+            boolean negativeExponent = false;
+            if (position < length && ((c = data.charAt(position)) == '-' || c == '+')) {
+                negativeExponent = c == '-';
+                position++;
+            }
+            int explicitExponent = 0;
+            boolean hasExponentDigits = false;
+            while (position < length && (c = data.charAt(position)) >= '0' && c <= '9') {
+                hasExponentDigits = true;
+                if (explicitExponent < 100000) explicitExponent = explicitExponent * 10 + (c - '0');
+                position++;
+            }
+            if (!hasExponentDigits) {
+                position = exponentStart;
+                throw error("Expected an exponent");
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (exact && mantissa < MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+            value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return Double.parseDouble(data.subSequence(start, position).toString());
+        }
+        return negative ? -value : value;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at index " + position + " of the path data.");
+    }
+
+}
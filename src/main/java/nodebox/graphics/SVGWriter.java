@@ -0,0 +1,540 @@
+package nodebox.graphics;
+
+import javax.imageio.ImageIO;
+import java.awt.geom.AffineTransform;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Writes canvases and geometry as SVG documents.
+ * <p/>
+ * The writer walks the items and their contours itself, without going through a graphics context. Every path
+ * becomes one path element with compact path data: the first point is absolute, every other point is relative to
+ * the point before it. Coordinates are rounded to the precision first, so the relative steps add up to the same
+ * rounded points and errors don't pile up.
+ * <p/>
+ * Since the path data after the first point doesn't change when a path moves, paths of the same shape are
+ * written once, in the defs of the document. Every copy refers to it with a use element that only has the
+ * position and style. Text is written as outlines, images as embedded PNG data.
+ * <p/>
+ * Numbers are formatted into a reused buffer, and each element is written out as soon as it is complete, so
+ * writing large canvases doesn't build the whole document in memory.
+ */
+public class SVGWriter {
+
+    /**
+     * The default number of digits after the decimal point.
+     */
+    public static final int DEFAULT_PRECISION = 3;
+    public static final int MAX_PRECISION = 6;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final char[] BASE64_DIGITS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final Writer out;
+    private final int precision;
+    private final long scale;
+
+    // The element that is being built, and the path data after the first point of the current path.
+    private final StringBuilder element = new StringBuilder(256);
+    private final StringBuilder data = new StringBuilder(256);
+    private final char[] digits = new char[24];
+    private char[] chars = new char[256];
+    // The first point of the current path, and the current point, in units of the precision.
+    private long firstX, firstY, currentX, currentY;
+    private char lastCommand;
+
+    // How often every shape is used, by the hash of its path data. Null if shapes aren't shared.
+    private Map<Long, Integer> shapeCounts;
+    private final Map<String, String> shapeIds = new HashMap<String, String>();
+
+    public SVGWriter(Writer out) {
+        this(out, DEFAULT_PRECISION);
+    }
+
+    /**
+     * Create a writer that rounds coordinates to the given number of digits after the decimal point.
+     *
+     * @param out       the writer to write the document to.
+     * @param precision the number of digits, between 0 and MAX_PRECISION.
+     */
+    public SVGWriter(Writer out, int precision) {
+        checkArgument(precision >= 0 && precision <= MAX_PRECISION,
+                "Precision needs to be between 0 and %s.", MAX_PRECISION);
+        this.out = out;
+        this.precision = precision;
+        long s = 1;
+        for (int i = 0; i < precision; i++) {
+            s *= 10;
+        }
+        scale = s;
+    }
+
+    public SVGWriter(OutputStream out) {
+        this(new BufferedWriter(new OutputStreamWriter(out, UTF_8)));
+    }
+
+    /**
+     * Write the canvas as an SVG file.
+     *
+     * @param canvas the canvas.
+     * @param file   the file to write to.
+     * @throws IOException if the file can't be written.
+     */
+    public static void write(Canvas canvas, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            new SVGWriter(out).write(canvas);
+        } finally {
+            out.close();
+        }
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Write the canvas as a complete document. The size of the document is the size of the canvas.
+     *
+     * @param canvas the canvas.
+     * @throws IOException if the document can't be written.
+     */
+    public void write(Canvas canvas) throws IOException {
+        List<Grob> items = canvas.getItems();
+        countShapes(items);
+        Rect bounds = canvas.getBounds();
+        startDocument(bounds);
+        Color background = canvas.getBackground();
+        if (background != null) {
+            element.append("<rect");
+            appendAttribute("x", bounds.getX());
+            appendAttribute("y", bounds.getY());
+            appendAttribute("width", bounds.getWidth());
+            appendAttribute("height", bounds.getHeight());
+            appendColor("fill", background);
+            element.append("/>\n");
+            writeElement();
+        }
+        for (Grob item : items) {
+            writeItem(item);
+        }
+        endDocument();
+    }
+
+    /**
+     * Write the geometry as a complete document. The document fits around the bounds of the geometry.
+     *
+     * @param geometry the geometry.
+     * @throws IOException if the document can't be written.
+     */
+    public void write(Geometry geometry) throws IOException {
+        countShapes(geometry.getPaths());
+        startDocument(geometry.getBounds());
+        for (Path p : geometry.getPaths()) {
+            writePath(p);
+        }
+        endDocument();
+    }
+
+    //// Document ////
+
+    private void startDocument(Rect bounds) throws IOException {
+        element.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        element.append("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\"");
+        appendAttribute("width", bounds.getWidth());
+        appendAttribute("height", bounds.getHeight());
+        element.append(" viewBox=\"");
+        appendNumber(element, toUnits(bounds.getX()));
+        element.append(' ');
+        appendNumber(element, toUnits(bounds.getY()));
+        element.append(' ');
+        appendNumber(element, toUnits(bounds.getWidth()));
+        element.append(' ');
+        appendNumber(element, toUnits(bounds.getHeight()));
+        element.append("\">\n");
+        writeElement();
+    }
+
+    private void endDocument() throws IOException {
+        element.append("</svg>\n");
+        writeElement();
+        out.flush();
+        shapeCounts = null;
+        shapeIds.clear();
+    }
+
+    private void writeItem(Grob item) throws IOException {
+        if (item instanceof Path) {
+            writePath((Path) item);
+        } else if (item instanceof Geometry) {
+            for (Path p : ((Geometry) item).getPaths()) {
+                writePath(p);
+            }
+        } else if (item instanceof Text) {
+            writePath(((Text) item).getPath());
+        } else if (item instanceof Image) {
+            writeImage((Image) item);
+        }
+    }
+
+    //// Paths ////
+
+    /**
+     * Count how often every shape is used, so shapes that are used more than once can be shared.
+     * <p/>
+     * Only the hash of the path data is kept. Two shapes with the same hash are still compared when they are
+     * written, so a collision only costs a shape in the defs that is used once.
+     */
+    private void countShapes(List<? extends Grob> items) {
+        shapeCounts = new HashMap<Long, Integer>();
+        for (Grob item : items) {
+            if (item instanceof Path) {
+                countShape((Path) item);
+            } else if (item instanceof Geometry) {
+                for (Path p : ((Geometry) item).getPaths()) {
+                    countShape(p);
+                }
+            }
+        }
+    }
+
+    private void countShape(Path p) {
+        if (!isVisible(p) || !buildData(p)) return;
+        Long hash = hashData();
+        Integer count = shapeCounts.get(hash);
+        shapeCounts.put(hash, count == null ? 1 : count + 1);
+    }
+
+    private void writePath(Path p) throws IOException {
+        if (!isVisible(p) || !buildData(p)) return;
+        Integer count = shapeCounts == null ? null : shapeCounts.get(hashData());
+        if (count != null && count > 1) {
+            String key = data.toString();
+            String id = shapeIds.get(key);
+            if (id == null) {
+                id = "s" + shapeIds.size();
+                shapeIds.put(key, id);
+                element.append("<defs><path id=\"").append(id).append("\" d=\"M0 0").append(data).append("\"/></defs>\n");
+            }
+            element.append("<use xlink:href=\"#").append(id).append('"');
+            if (firstX != 0) {
+                element.append(" x=\"");
+                appendNumber(element, firstX);
+                element.append('"');
+            }
+            if (firstY != 0) {
+                element.append(" y=\"");
+                appendNumber(element, firstY);
+                element.append('"');
+            }
+        } else {
+            element.append("<path d=\"M");
+            appendNumber(element, firstX);
+            appendCoordinate(element, firstY);
+            element.append(data).append('"');
+        }
+        appendStyle(p);
+        element.append("/>\n");
+        writeElement();
+    }
+
+    private static boolean isVisible(Path p) {
+        return p.getFillColor() != null || (p.getStrokeColor() != null && p.getStrokeStyle().getWidth() > 0);
+    }
+
+    /**
+     * Build the path data after the first point, with every point relative to the point before it.
+     *
+     * @return false if the path has no points.
+     */
+    private boolean buildData(Path p) {
+        data.setLength(0);
+        lastCommand = 0;
+        GeometryCursor cursor = p.cursor();
+        boolean first = true;
+        long startX = 0, startY = 0;
+        while (cursor.next()) {
+            switch (cursor.getCommand()) {
+                case PathElement.MOVETO:
+                    long x = toUnits(cursor.getX()), y = toUnits(cursor.getY());
+                    if (first) {
+                        firstX = x;
+                        firstY = y;
+                        currentX = x;
+                        currentY = y;
+                        first = false;
+                    } else {
+                        appendCommand('m');
+                        appendDelta(x, y);
+                    }
+                    startX = x;
+                    startY = y;
+                    break;
+                case PathElement.LINETO:
+                    appendCommand('l');
+                    appendDelta(toUnits(cursor.getX()), toUnits(cursor.getY()));
+                    break;
+                case PathElement.CURVETO:
+                    appendCommand('c');
+                    long x0 = currentX, y0 = currentY;
+                    appendCoordinate(data, toUnits(cursor.getControl1X()) - x0);
+                    appendCoordinate(data, toUnits(cursor.getControl1Y()) - y0);
+                    appendCoordinate(data, toUnits(cursor.getControl2X()) - x0);
+                    appendCoordinate(data, toUnits(cursor.getControl2Y()) - y0);
+                    appendDelta(toUnits(cursor.getX()), toUnits(cursor.getY()));
+                    break;
+                case PathElement.CLOSE:
+                    // Closing goes back to the start of the contour.
+                    data.append('z');
+                    lastCommand = 'z';
+                    currentX = startX;
+                    currentY = startY;
+                    break;
+            }
+        }
+        return !first;
+    }
+
+    /**
+     * Add a command letter, unless it is the same as the last one. SVG repeats the last command.
+     */
+    private void appendCommand(char command) {
+        // A moveto is never repeated, since the numbers after it are linetos.
+        if (command != lastCommand || command == 'm') {
+            data.append(command);
+            lastCommand = command;
+        }
+    }
+
+    private void appendDelta(long x, long y) {
+        appendCoordinate(data, x - currentX);
+        appendCoordinate(data, y - currentY);
+        currentX = x;
+        currentY = y;
+    }
+
+    private long hashData() {
+        // 64-bit FNV-1a.
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < data.length(); i++) {
+            hash ^= data.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private void appendStyle(Path p) {
+        Color fill = p.getFillColor();
+        if (fill == null) {
+            element.append(" fill=\"none\"");
+        } else if (!isOpaqueBlack(fill)) {
+            // Black is the default fill.
+            appendColor("fill", fill);
+        }
+        Color stroke = p.getStrokeColor();
+        StrokeStyle style = p.getStrokeStyle();
+        if (stroke == null || style.getWidth() <= 0) return;
+        appendColor("stroke", stroke);
+        if (style.getWidth() != 1) {
+            appendAttribute("stroke-width", style.getWidth());
+        }
+        if (style.getCap() == StrokeStyle.Cap.ROUND) {
+            element.append(" stroke-linecap=\"round\"");
+        } else if (style.getCap() == StrokeStyle.Cap.SQUARE) {
+            element.append(" stroke-linecap=\"square\"");
+        }
+        if (style.getJoin() == StrokeStyle.Join.ROUND) {
+            element.append(" stroke-linejoin=\"round\"");
+        } else if (style.getJoin() == StrokeStyle.Join.BEVEL) {
+            element.append(" stroke-linejoin=\"bevel\"");
+        } else if (style.getMiterLimit() != 4) {
+            appendAttribute("stroke-miterlimit", style.getMiterLimit());
+        }
+        if (style.isDashed()) {
+            element.append(" stroke-dasharray=\"");
+            double[] dashes = style.getDashes();
+            for (int i = 0; i < dashes.length; i++) {
+                if (i > 0) element.append(' ');
+                appendNumber(element, toUnits(dashes[i]));
+            }
+            element.append('"');
+        }
+    }
+
+    private static boolean isOpaqueBlack(Color c) {
+        return c.getAlpha() >= 1 && c.getRed() <= 0 && c.getGreen() <= 0 && c.getBlue() <= 0;
+    }
+
+    //// Images ////
+
+    private void writeImage(Image image) throws IOException {
+        if (image.getAwtImage() == null) return;
+        AffineTransform t = new AffineTransform(image.getTransform().getAffineTransform());
+        t.concatenate(image.getImageTransform());
+        element.append("<image");
+        appendAttribute("width", image.getAwtImage().getWidth());
+        appendAttribute("height", image.getAwtImage().getHeight());
+        element.append(" transform=\"matrix(");
+        double[] matrix = new double[6];
+        t.getMatrix(matrix);
+        for (int i = 0; i < 6; i++) {
+            if (i > 0) element.append(' ');
+            // The scale and shear need more digits than the positions.
+            appendDouble(element, matrix[i], i < 4 ? MAX_PRECISION : precision);
+        }
+        element.append(")\"");
+        double alpha = Math.max(0, Math.min(1, image.getAlpha()));
+        if (alpha < 1) {
+            element.append(" opacity=\"");
+            appendDouble(element, alpha, 3);
+            element.append('"');
+        }
+        element.append(" xlink:href=\"data:image/png;base64,");
+        writeElement();
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image.getAwtImage(), "png", png);
+        writeBase64(png.toByteArray());
+        element.append("\"/>\n");
+        writeElement();
+    }
+
+    private void writeBase64(byte[] bytes) throws IOException {
+        char[] buffer = new char[4096];
+        int length = 0;
+        for (int i = 0; i < bytes.length; i += 3) {
+            int remaining = bytes.length - i;
+            int b = (bytes[i] & 0xff) << 16;
+            if (remaining > 1) b |= (bytes[i + 1] & 0xff) << 8;
+            if (remaining > 2) b |= bytes[i + 2] & 0xff;
+            buffer[length++] = BASE64_DIGITS[b >>> 18];
+            buffer[length++] = BASE64_DIGITS[(b >>> 12) & 0x3f];
+            buffer[length++] = remaining > 1 ? BASE64_DIGITS[(b >>> 6) & 0x3f] : '=';
+            buffer[length++] = remaining > 2 ? BASE64_DIGITS[b & 0x3f] : '=';
+            if (length == buffer.length) {
+                out.write(buffer, 0, length);
+                length = 0;
+            }
+        }
+        out.write(buffer, 0, length);
+    }
+
+    //// Numbers ////
+
+    private long toUnits(double v) {
+        return Math.round(v * scale);
+    }
+
+    private void appendAttribute(String name, double value) {
+        element.append(' ').append(name).append("=\"");
+        appendNumber(element, toUnits(value));
+        element.append('"');
+    }
+
+    private void appendColor(String name, Color c) {
+        element.append(' ').append(name).append("=\"#");
+        appendHex(c.getRed());
+        appendHex(c.getGreen());
+        appendHex(c.getBlue());
+        element.append('"');
+        if (c.getAlpha() < 1) {
+            element.append(' ').append(name).append("-opacity=\"");
+            appendDouble(element, Math.max(0, c.getAlpha()), 3);
+            element.append('"');
+        }
+    }
+
+    private void appendHex(double component) {
+        int v = (int) Math.round(Math.max(0, Math.min(1, component)) * 255);
+        element.append(HEX_DIGITS[v >> 4]).append(HEX_DIGITS[v & 0xf]);
+    }
+
+    /**
+     * Append a number in path data, with a space before it unless the minus sign separates it.
+     */
+    private void appendCoordinate(StringBuilder sb, long units) {
+        int length = sb.length();
+        if (units >= 0 && length > 0) {
+            char last = sb.charAt(length - 1);
+            if (last >= '0' && last <= '9' || last == '.') {
+                sb.append(' ');
+            }
+        }
+        appendNumber(sb, units);
+    }
+
+    private void appendDouble(StringBuilder sb, double v, int digits) {
+        long s = 1;
+        for (int i = 0; i < digits; i++) {
+            s *= 10;
+        }
+        formatNumber(sb, Math.round(v * s), digits, s);
+    }
+
+    /**
+     * Append a number given in units of the precision, such as 1250 for 1.25 with a precision of 3.
+     */
+    private void appendNumber(StringBuilder sb, long units) {
+        formatNumber(sb, units, precision, scale);
+    }
+
+    /**
+     * Format a fixed point number without creating objects. Trailing zeros and a leading zero before the decimal
+     * point are left out.
+     */
+    private void formatNumber(StringBuilder sb, long units, int fractionDigits, long unitScale) {
+        if (units == 0) {
+            sb.append('0');
+            return;
+        }
+        boolean negative = units < 0;
+        // The most negative long has no positive value. It is far outside of any drawing.
+        long v = negative ? -Math.max(units, -Long.MAX_VALUE) : units;
+        long integer = v / unitScale;
+        long fraction = v % unitScale;
+        int position = digits.length;
+        if (fraction != 0) {
+            int count = fractionDigits;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                count--;
+            }
+            for (int i = 0; i < count; i++) {
+                digits[--position] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            digits[--position] = '.';
+        }
+        if (integer != 0) {
+            while (integer != 0) {
+                digits[--position] = (char) ('0' + integer % 10);
+                integer /= 10;
+            }
+        }
+        if (negative) {
+            digits[--position] = '-';
+        }
+        sb.append(digits, position, digits.length - position);
+    }
+
+    /**
+     * Write out the element and start a new one.
+     */
+    private void writeElement() throws IOException {
+        int length = element.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        element.getChars(0, length, chars, 0);
+        out.write(chars, 0, length);
+        element.setLength(0);
+    }
+
+}
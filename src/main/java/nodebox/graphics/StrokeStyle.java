@@ -0,0 +1,223 @@
+package nodebox.graphics;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.awt.*;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The look of a stroke: its width, the shape of the line ends and corners, and the dash pattern.
+ * <p/>
+ * Stroke styles are immutable. The AWT stroke for a style is taken from a shared cache, so equal styles share the
+ * same BasicStroke object. Drawing code can compare strokes by identity to skip setting the same stroke again.
+ * <p/>
+ * The default style has the same cap, join and miter limit as new BasicStroke(width).
+ */
+public final class StrokeStyle {
+
+    public enum Cap {
+        BUTT(BasicStroke.CAP_BUTT), ROUND(BasicStroke.CAP_ROUND), SQUARE(BasicStroke.CAP_SQUARE);
+
+        private final int awtCap;
+
+        private Cap(int awtCap) {
+            this.awtCap = awtCap;
+        }
+    }
+
+    public enum Join {
+        MITER(BasicStroke.JOIN_MITER), ROUND(BasicStroke.JOIN_ROUND), BEVEL(BasicStroke.JOIN_BEVEL);
+
+        private final int awtJoin;
+
+        private Join(int awtJoin) {
+            this.awtJoin = awtJoin;
+        }
+    }
+
+    public static final double DEFAULT_MITER_LIMIT = 10;
+    public static final StrokeStyle DEFAULT = new StrokeStyle(1);
+
+    private static final int STROKE_CACHE_SIZE = 1000;
+    private static final LoadingCache<StrokeStyle, BasicStroke> STROKE_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(STROKE_CACHE_SIZE)
+            .build(new CacheLoader<StrokeStyle, BasicStroke>() {
+                @Override
+                public BasicStroke load(StrokeStyle style) {
+                    return style.createAwtStroke();
+                }
+            });
+
+    private final double width;
+    private final Cap cap;
+    private final Join join;
+    private final double miterLimit;
+    private final double[] dashes;
+    private transient BasicStroke awtStroke;
+
+    public StrokeStyle(double width) {
+        this(width, Cap.SQUARE, Join.MITER, DEFAULT_MITER_LIMIT, null);
+    }
+
+    public StrokeStyle(double width, Cap cap, Join join) {
+        this(width, cap, join, DEFAULT_MITER_LIMIT, null);
+    }
+
+    /**
+     * Create a new stroke style.
+     * <p/>
+     * A width of zero or less is allowed, and means the stroke is not drawn.
+     *
+     * @param width      the width of the stroke.
+     * @param cap        the shape of the line ends.
+     * @param join       the shape of the corners.
+     * @param miterLimit the limit for miter joins, as a multiple of half the width. At least 1.
+     * @param dashes     the lengths of the dashes and the gaps between them, or null for a solid line.
+     */
+    public StrokeStyle(double width, Cap cap, Join join, double miterLimit, double[] dashes) {
+        checkArgument(cap != null, "Cap cannot be null.");
+        checkArgument(join != null, "Join cannot be null.");
+        checkArgument(miterLimit >= 1, "Miter limit needs to be 1 or more.");
+        if (dashes != null) {
+            checkArgument(dashes.length > 0, "Dashes cannot be empty. Use null for a solid line.");
+            boolean allZero = true;
+            for (double dash : dashes) {
+                checkArgument(dash >= 0, "Dash lengths cannot be negative.");
+                if (dash > 0) allZero = false;
+            }
+            checkArgument(!allZero, "Dash lengths cannot all be zero.");
+        }
+        this.width = width;
+        this.cap = cap;
+        this.join = join;
+        this.miterLimit = miterLimit;
+        this.dashes = dashes == null ? null : dashes.clone();
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public Cap getCap() {
+        return cap;
+    }
+
+    public Join getJoin() {
+        return join;
+    }
+
+    public double getMiterLimit() {
+        return miterLimit;
+    }
+
+    /**
+     * Returns the dash pattern.
+     *
+     * @return a copy of the dash lengths, or null for a solid line.
+     */
+    public double[] getDashes() {
+        return dashes == null ? null : dashes.clone();
+    }
+
+    public boolean isDashed() {
+        return dashes != null;
+    }
+
+    public StrokeStyle withWidth(double width) {
+        if (width == this.width) return this;
+        return new StrokeStyle(width, cap, join, miterLimit, dashes);
+    }
+
+    public StrokeStyle withCap(Cap cap) {
+        if (cap == this.cap) return this;
+        return new StrokeStyle(width, cap, join, miterLimit, dashes);
+    }
+
+    public StrokeStyle withJoin(Join join) {
+        if (join == this.join) return this;
+        return new StrokeStyle(width, cap, join, miterLimit, dashes);
+    }
+
+    public StrokeStyle withMiterLimit(double miterLimit) {
+        if (miterLimit == this.miterLimit) return this;
+        return new StrokeStyle(width, cap, join, miterLimit, dashes);
+    }
+
+    public StrokeStyle withDashes(double[] dashes) {
+        return new StrokeStyle(width, cap, join, miterLimit, dashes);
+    }
+
+    /**
+     * Returns how far the stroke can reach beyond the outline of the shape.
+     *
+     * @return the distance, in the units of the shape.
+     */
+    public double getExtent() {
+        if (width <= 0) return 0;
+        double extent = width / 2;
+        if (join == Join.MITER) {
+            extent *= Math.max(miterLimit, Math.sqrt(2));
+        } else if (cap == Cap.SQUARE) {
+            // The corner of a square cap is this far from the end point.
+            extent *= Math.sqrt(2);
+        }
+        return extent;
+    }
+
+    /**
+     * Returns the AWT stroke for this style.
+     * <p/>
+     * Equal styles return the same object, as long as it is in the shared cache.
+     *
+     * @return the AWT stroke.
+     */
+    public BasicStroke getAwtStroke() {
+        if (awtStroke == null) {
+            awtStroke = STROKE_CACHE.getUnchecked(this);
+        }
+        return awtStroke;
+    }
+
+    private BasicStroke createAwtStroke() {
+        // BasicStroke doesn't accept negative widths. We never draw those anyway.
+        float awtWidth = (float) Math.max(0, width);
+        if (dashes == null) {
+            return new BasicStroke(awtWidth, cap.awtCap, join.awtJoin, (float) miterLimit);
+        } else {
+            float[] awtDashes = new float[dashes.length];
+            for (int i = 0; i < dashes.length; i++) {
+                awtDashes[i] = (float) dashes[i];
+            }
+            return new BasicStroke(awtWidth, cap.awtCap, join.awtJoin, (float) miterLimit, awtDashes, 0);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof StrokeStyle)) return false;
+        final StrokeStyle other = (StrokeStyle) o;
+        return width == other.width
+                && cap == other.cap
+                && join == other.join
+                && miterLimit == other.miterLimit
+                && Arrays.equals(dashes, other.dashes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(width, cap, join, miterLimit, Arrays.hashCode(dashes));
+    }
+
+    @Override
+    public String toString() {
+        return "StrokeStyle(" + width + ", " + cap + ", " + join + ", " + miterLimit
+                + (dashes == null ? "" : ", " + Arrays.toString(dashes)) + ")";
+    }
+
+}
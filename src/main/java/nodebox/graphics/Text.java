@@ -8,6 +8,8 @@ import java.awt.font.TextLayout;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.text.AttributedString;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Iterator;
 
@@ -26,6 +28,8 @@ public class Text extends AbstractGrob {
     private double lineHeight = 1.2;
     private Align align = Align.CENTER;
     private Color fillColor = new Color();
+    private transient Rect bounds;
+    private transient AffineTransform boundsTransform;
 
     public Text(String text, Point pt) {
         this.text = text;
@@ -77,6 +81,7 @@ public class Text extends AbstractGrob {
 
     public void setText(String text) {
         this.text = text;
+        bounds = null;
     }
 
     public double getBaseLineX() {
@@ -85,6 +90,7 @@ public class Text extends AbstractGrob {
 
     public void setBaseLineX(double baseLineX) {
         this.baseLineX = baseLineX;
+        bounds = null;
     }
 
     public double getBaseLineY() {
@@ -93,6 +99,7 @@ public class Text extends AbstractGrob {
 
     public void setBaseLineY(double baseLineY) {
         this.baseLineY = baseLineY;
+        bounds = null;
     }
 
     public double getWidth() {
@@ -101,6 +108,7 @@ public class Text extends AbstractGrob {
 
     public void setWidth(double width) {
         this.width = width;
+        bounds = null;
     }
 
     public double getHeight() {
@@ -109,6 +117,7 @@ public class Text extends AbstractGrob {
 
     public void setHeight(double height) {
         this.height = height;
+        bounds = null;
     }
 
     public String getFontName() {
@@ -117,6 +126,7 @@ public class Text extends AbstractGrob {
 
     public void setFontName(String fontName) {
         this.fontName = fontName;
+        bounds = null;
     }
 
     public double getFontSize() {
@@ -125,6 +135,7 @@ public class Text extends AbstractGrob {
 
     public void setFontSize(double fontSize) {
         this.fontSize = fontSize;
+        bounds = null;
     }
 
     public Font getFont() {
@@ -141,6 +152,7 @@ public class Text extends AbstractGrob {
 
     public void setLineHeight(double lineHeight) {
         this.lineHeight = lineHeight;
+        bounds = null;
     }
 
     public Align getAlign() {
@@ -149,6 +161,7 @@ public class Text extends AbstractGrob {
 
     public void setAlign(Align align) {
         this.align = align;
+        bounds = null;
     }
 
     public Color getFillColor() {
@@ -207,6 +220,10 @@ public class Text extends AbstractGrob {
 
     //// Transformations ////
 
+    /**
+     * @deprecated use {@link #concatenateTransform(Graphics2D)}.
+     */
+    @Deprecated
     protected void setupTransform(Graphics2D g) {
         saveTransform(g);
         AffineTransform trans = g.getTransform();
@@ -216,14 +233,41 @@ public class Text extends AbstractGrob {
 
     public void draw(Graphics2D g) {
         if (fillColor == null) return;
-        setupTransform(g);
         if (text == null || text.length() == 0) return;
+        if (isRasterCached()) {
+            AffineTransform t = g.getTransform();
+            t.concatenate(getTransform().getAffineTransform());
+            // Text is drawn in the current color of the graphics context.
+            java.util.List<Object> state = Arrays.<Object>asList(text, baseLineX, baseLineY, width, height,
+                    fontName, fontSize, lineHeight, align, g.getPaint());
+            if (RasterCache.getShared().draw(g, this, t, state, new TextRenderer())) return;
+        }
+        AffineTransform savedTransform = concatenateTransform(g);
         TextLayoutIterator iterator = new TextLayoutIterator();
         while (iterator.hasNext()) {
             TextLayout layout = iterator.next();
             layout.draw(g, (float) (baseLineX + iterator.getX()), (float) (baseLineY + iterator.getY()));
         }
-        restoreTransform(g);
+        restoreTransform(g, savedTransform);
+    }
+
+    /**
+     * Lay out the lines of text.
+     * <p/>
+     * Each layout is drawn at its position, after applying the transformation of the text. This is what draw does.
+     *
+     * @param layouts   receives the layout of each line.
+     * @param positions receives the position of each line, as x and y pairs.
+     */
+    void layout(java.util.List<TextLayout> layouts, java.util.List<Float> positions) {
+        if (text == null || text.length() == 0) return;
+        TextLayoutIterator iterator = new TextLayoutIterator();
+        while (iterator.hasNext()) {
+            TextLayout layout = iterator.next();
+            layouts.add(layout);
+            positions.add((float) (baseLineX + iterator.getX()));
+            positions.add((float) (baseLineY + iterator.getY()));
+        }
     }
 
     public Path getPath() {
@@ -245,15 +289,59 @@ public class Text extends AbstractGrob {
         return text.trim().length() == 0;
     }
 
+    /**
+     * Returns the bounding box of the text, after its transformation.
+     * <p/>
+     * Measuring the text lays it out, so the bounds are cached. The same Rect object is returned until the text,
+     * its font, its layout or its transformation change.
+     *
+     * @return the bounding box.
+     */
     public Rect getBounds() {
-        // TODO: This is correct, but creating a full path just for measuring bounds is slow.
-        return getPath().getBounds();
+        AffineTransform t = getTransform().getAffineTransform();
+        if (bounds == null || !t.equals(boundsTransform)) {
+            bounds = getPath().getBounds();
+            boundsTransform = new AffineTransform(t);
+        }
+        return bounds;
     }
 
     public Text clone() {
         return new Text(this);
     }
 
+    /**
+     * Draws the lines of text without the transformation of the text, for the raster cache.
+     * <p/>
+     * The text is only laid out when the cache needs to render it.
+     */
+    private class TextRenderer implements RasterCache.Renderer {
+
+        private final java.util.List<TextLayout> layouts = new ArrayList<TextLayout>();
+        private final java.util.List<Float> positions = new ArrayList<Float>();
+
+        public Rectangle2D getBounds() {
+            if (layouts.isEmpty()) {
+                layout(layouts, positions);
+            }
+            Rectangle2D bounds = null;
+            for (int i = 0; i < layouts.size(); i++) {
+                Rectangle2D r = layouts.get(i).getBounds();
+                r.setRect(r.getX() + positions.get(i * 2), r.getY() + positions.get(i * 2 + 1),
+                        r.getWidth(), r.getHeight());
+                bounds = bounds == null ? r : bounds.createUnion(r);
+            }
+            return bounds;
+        }
+
+        public void render(Graphics2D g) {
+            for (int i = 0; i < layouts.size(); i++) {
+                layouts.get(i).draw(g, positions.get(i * 2), positions.get(i * 2 + 1));
+            }
+        }
+
+    }
+
     private class TextLayoutIterator implements Iterator<TextLayout> {
 
         private double x, y;
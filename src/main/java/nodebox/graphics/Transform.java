@@ -4,7 +4,6 @@ import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
-import java.util.ArrayList;
 import java.util.List;
 
 public class Transform implements Cloneable {
@@ -167,7 +166,8 @@ public class Transform implements Cloneable {
     public Path map(Path p) {
         Path newPath = new Path(p, false);
         for (Contour c : p.getContours()) {
-            Contour newContour = new Contour(map(c.getPoints()), c.isClosed());
+            Contour newContour = c.clone();
+            newContour.transform(this);
             newPath.add(newContour);
         }
         return newPath;
@@ -185,27 +185,15 @@ public class Transform implements Cloneable {
     /**
      * Transform all the given points and return a list of transformed points.
      * Points are immutable, so they can not be transformed in-place.
+     * <p/>
+     * The coordinates are copied into a packed list and transformed there in one pass.
      *
      * @param points The points to transform.
      * @return The list of transformed points.
      */
     public List<Point> map(List<Point> points) {
-        // Prepare the points for the AffineTransform transformation.
-        double[] coords = new double[points.size() * 2];
-        int i = 0;
-        for (Point pt : points) {
-            coords[i++] = pt.x;
-            coords[i++] = pt.y;
-        }
-        affineTransform.transform(coords, 0, coords, 0, points.size());
-
-        // Convert the transformed points into a new List.
-        List<Point> transformed = new ArrayList<Point>(points.size());
-        int pointIndex = 0;
-        for (i = 0; i < coords.length; i += 2) {
-            transformed.add(new Point(coords[i], coords[i + 1], points.get(pointIndex).type));
-            pointIndex++;
-        }
+        PointBuffer transformed = points instanceof PointBuffer ? new PointBuffer((PointBuffer) points) : new PointBuffer(points);
+        transformed.transform(affineTransform);
         return transformed;
     }
 
@@ -0,0 +1,842 @@
+package nodebox.graphics;
+
+import java.util.Locale;
+
+/**
+ * Micro-benchmarks for the graphics engine.
+ * <p/>
+ * These are not unit tests. Run them from the IDE, or from the command line with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=nodebox.graphics.Benchmarks -Dexec.classpathScope=test
+ * </pre>
+ * Pass the names of the benchmarks to run as arguments, or nothing to run them all.
+ */
+public class Benchmarks {
+
+    private static final int WARMUP_RUNS = 3;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        boolean all = args.length == 0;
+        if (all || contains(args, "resample")) resample();
+        if (all || contains(args, "curveLength")) curveLength();
+        if (all || contains(args, "pointAt")) pointAt();
+        if (all || contains(args, "bounds")) bounds();
+        if (all || contains(args, "transform")) transform();
+        if (all || contains(args, "append")) append();
+        if (all || contains(args, "draw")) draw();
+        if (all || contains(args, "asImage")) asImage();
+        if (all || contains(args, "stroke")) stroke();
+        if (all || contains(args, "displayList")) displayList();
+        if (all || contains(args, "renderTarget")) renderTarget();
+        if (all || contains(args, "levelOfDetail")) levelOfDetail();
+        if (all || contains(args, "rasterCache")) rasterCache();
+        if (all || contains(args, "rasterize")) rasterize();
+        if (all || contains(args, "imagePool")) imagePool();
+        if (all || contains(args, "batching")) batching();
+        if (all || contains(args, "svg")) svg();
+        if (all || contains(args, "binary")) binary();
+        if (all || contains(args, "svgPath")) svgPath();
+        if (all || contains(args, "png")) png();
+    }
+
+    /**
+     * Resample a contour of 100.000 segments.
+     */
+    public static void resample() {
+        final Contour c = new Contour();
+        for (int i = 0; i <= 100000; i++) {
+            c.addPoint(i, (i % 2) * 10);
+        }
+        benchmark("resample 100k segments into 10k points", new Runnable() {
+            public void run() {
+                c.resampleByAmount(10000);
+            }
+        });
+        benchmark("resample 100k segments into 100k points", new Runnable() {
+            public void run() {
+                c.resampleByAmount(100000);
+            }
+        });
+    }
+
+    /**
+     * Measure 100.000 curves, both with uniform sampling and with the adaptive method.
+     */
+    public static void curveLength() {
+        final double[] curves = new double[100000 * 8];
+        java.util.Random r = new java.util.Random(42);
+        for (int i = 0; i < curves.length; i++) {
+            curves[i] = r.nextDouble() * 500;
+        }
+        benchmark("curveLength 100k curves, 20 uniform samples", new Runnable() {
+            public void run() {
+                double total = 0;
+                for (int i = 0; i < curves.length; i += 8) {
+                    total += Path.curveLength(curves[i], curves[i + 1], curves[i + 2], curves[i + 3],
+                            curves[i + 4], curves[i + 5], curves[i + 6], curves[i + 7], 20);
+                }
+                consume(total);
+            }
+        });
+        benchmark("curveLength 100k curves, default tolerance", new Runnable() {
+            public void run() {
+                double total = 0;
+                for (int i = 0; i < curves.length; i += 8) {
+                    total += Path.curveLength(curves[i], curves[i + 1], curves[i + 2], curves[i + 3],
+                            curves[i + 4], curves[i + 5], curves[i + 6], curves[i + 7]);
+                }
+                consume(total);
+            }
+        });
+        benchmark("curveLength 100k curves, tolerance 0.001", new Runnable() {
+            public void run() {
+                double total = 0;
+                for (int i = 0; i < curves.length; i += 8) {
+                    total += Path.curveLength(curves[i], curves[i + 1], curves[i + 2], curves[i + 3],
+                            curves[i + 4], curves[i + 5], curves[i + 6], curves[i + 7], 0.001);
+                }
+                consume(total);
+            }
+        });
+        benchmark("curveLength 100k curves, tolerance 0.1", new Runnable() {
+            public void run() {
+                double total = 0;
+                for (int i = 0; i < curves.length; i += 8) {
+                    total += Path.curveLength(curves[i], curves[i + 1], curves[i + 2], curves[i + 3],
+                            curves[i + 4], curves[i + 5], curves[i + 6], curves[i + 7], 0.1);
+                }
+                consume(total);
+            }
+        });
+    }
+
+    /**
+     * Sample a geometry of 1000 paths with 10 contours each.
+     */
+    public static void pointAt() {
+        final Geometry g = new Geometry();
+        for (int i = 0; i < 1000; i++) {
+            Path p = new Path();
+            for (int j = 0; j < 10; j++) {
+                p.line(j * 10, i, j * 10 + 5, i);
+            }
+            g.add(p);
+        }
+        benchmark("pointAt 10k samples over 10k contours", new Runnable() {
+            public void run() {
+                double total = 0;
+                for (int i = 0; i < 10000; i++) {
+                    total += g.pointAt(i / 9999.0).x;
+                }
+                consume(total);
+            }
+        });
+    }
+
+    /**
+     * Calculate the bounds of a path with 1000 contours of 10 points each.
+     */
+    public static void bounds() {
+        final Path p = new Path();
+        for (int i = 0; i < 1000; i++) {
+            p.moveto(i, 0);
+            for (int j = 1; j < 10; j++) {
+                p.lineto(i + j, j * 10);
+            }
+        }
+        benchmark("bounds 1000 contours, 10k points", new Runnable() {
+            public void run() {
+                p.invalidate();
+                consume(p.getBounds().width);
+            }
+        });
+        benchmark("bounds after each of 10k appended points", new Runnable() {
+            public void run() {
+                Path p = new Path();
+                p.moveto(0, 0);
+                for (int i = 1; i < 10000; i++) {
+                    p.curveto(i, 10, i, -10, i, 0);
+                    consume(p.getBounds().height);
+                }
+            }
+        });
+    }
+
+    /**
+     * Apply 10 transformations to a geometry with 100 paths of 10.000 points each.
+     */
+    public static void transform() {
+        final Geometry g = new Geometry();
+        for (int i = 0; i < 100; i++) {
+            Path p = new Path();
+            for (int j = 0; j < 10000; j++) {
+                p.addPoint(j, i);
+            }
+            g.add(p);
+        }
+        benchmark("transform 1M points 10 times", new Runnable() {
+            public void run() {
+                for (int i = 0; i < 10; i++) {
+                    g.translate(1, 2);
+                }
+                consume(g.getBounds().x);
+            }
+        });
+        g.setDeferTransforms(true);
+        benchmark("transform 1M points 10 times, deferred", new Runnable() {
+            public void run() {
+                for (int i = 0; i < 10; i++) {
+                    g.translate(1, 2);
+                }
+                consume(g.getBounds().x);
+            }
+        });
+    }
+
+    /**
+     * Build a path point by point, asking for its length and AWT path after every point.
+     */
+    public static void append() {
+        benchmark("length after each of 10k appended points", new Runnable() {
+            public void run() {
+                Path p = new Path();
+                p.moveto(0, 0);
+                for (int i = 1; i < 10000; i++) {
+                    p.lineto(i, i % 2);
+                    consume(p.getLength());
+                }
+            }
+        });
+        benchmark("getGeneralPath after each of 10k appended points", new Runnable() {
+            public void run() {
+                Path p = new Path();
+                p.moveto(0, 0);
+                for (int i = 1; i < 10000; i++) {
+                    p.curveto(i, 10, i, -10, i, 0);
+                    consume(p.getGeneralPath().getCurrentPoint().getX());
+                }
+            }
+        });
+    }
+
+    /**
+     * Draw a canvas with 200.000 small paths, zoomed in on a corner.
+     */
+    public static void draw() {
+        final Canvas c = new Canvas(1000, 1000);
+        for (int i = 0; i < 200000; i++) {
+            Path p = new Path();
+            p.rect(i % 1000 - 500, (i / 1000) * 5 - 500, 4, 4);
+            c.add(p);
+        }
+        final java.awt.image.BufferedImage img = new java.awt.image.BufferedImage(500, 500, java.awt.image.BufferedImage.TYPE_INT_ARGB);
+        benchmark("draw 200k paths, 1/16th in view", new Runnable() {
+            public void run() {
+                java.awt.Graphics2D g = img.createGraphics();
+                g.clipRect(0, 0, 500, 500);
+                g.scale(2, 2);
+                g.translate(500, 500);
+                c.draw(g);
+                g.dispose();
+            }
+        });
+    }
+
+    /**
+     * Render a 4000x4000 canvas with 20.000 stroked curves, on one thread and in parallel tiles.
+     */
+    public static void asImage() {
+        final Canvas c = new Canvas(4000, 4000);
+        java.util.Random r = new java.util.Random(42);
+        for (int i = 0; i < 20000; i++) {
+            Path p = new Path();
+            double x = r.nextDouble() * 4000 - 2000;
+            double y = r.nextDouble() * 4000 - 2000;
+            p.moveto(x, y);
+            p.curveto(x + r.nextDouble() * 200, y - 100, x - 100, y + r.nextDouble() * 200, x + 50, y + 50);
+            p.close();
+            p.setFillColor(new Color(r.nextDouble(), r.nextDouble(), r.nextDouble(), 0.5));
+            p.setStrokeColor(new Color(0, 0, 0));
+            c.add(p);
+        }
+        benchmark("asImage 4000x4000, 20k paths", new Runnable() {
+            public void run() {
+                c.asImage(false);
+            }
+        });
+        benchmark("asImage 4000x4000, 20k paths, parallel", new Runnable() {
+            public void run() {
+                c.asImage(true);
+            }
+        });
+    }
+
+    /**
+     * Draw 100.000 short stroked lines of the same width.
+     */
+    public static void stroke() {
+        final Canvas c = new Canvas(1000, 1000);
+        c.setBackground(null);
+        java.util.Random r = new java.util.Random(42);
+        for (int i = 0; i < 100000; i++) {
+            Path p = new Path();
+            double x = r.nextDouble() * 1000 - 500;
+            double y = r.nextDouble() * 1000 - 500;
+            p.line(x, y, x + 3, y + 2);
+            p.setFillColor(null);
+            p.setStrokeColor(new Color(0, 0, 0));
+            p.setStrokeWidth(0.5);
+            c.add(p);
+        }
+        final java.awt.image.BufferedImage img = new java.awt.image.BufferedImage(1000, 1000, java.awt.image.BufferedImage.TYPE_INT_ARGB);
+        benchmark("draw 100k stroked lines", new Runnable() {
+            public void run() {
+                java.awt.Graphics2D g = img.createGraphics();
+                g.translate(500, 500);
+                c.draw(g);
+                g.dispose();
+            }
+        });
+    }
+
+    /**
+     * Draw a canvas with 50.000 paths and 500 lines of text, directly and through a display list.
+     */
+    public static void displayList() {
+        final Canvas c = new Canvas(1000, 1000);
+        java.util.Random r = new java.util.Random(42);
+        for (int i = 0; i < 50000; i++) {
+            Path p = new Path();
+            p.ellipse(r.nextDouble() * 1000 - 500, r.nextDouble() * 1000 - 500, 6, 6);
+            p.setFillColor(new Color(r.nextDouble(), 0, 0));
+            p.setStrokeColor(new Color(0, 0, 0));
+            c.add(p);
+        }
+        for (int i = 0; i < 500; i++) {
+            c.add(new Text("Label " + i, r.nextDouble() * 1000 - 500, r.nextDouble() * 1000 - 500));
+        }
+        final java.awt.image.BufferedImage img = new java.awt.image.BufferedImage(1000, 1000, java.awt.image.BufferedImage.TYPE_INT_ARGB);
+        benchmark("draw 50k paths, 500 texts, Canvas.draw", new Runnable() {
+            public void run() {
+                java.awt.Graphics2D g = img.createGraphics();
+                g.translate(500, 500);
+                c.draw(g);
+                g.dispose();
+            }
+        });
+        final DisplayList list = c.compile();
+        benchmark("draw 50k paths, 500 texts, DisplayList.draw", new Runnable() {
+            public void run() {
+                java.awt.Graphics2D g = img.createGraphics();
+                g.translate(500, 500);
+                list.draw(g);
+                g.dispose();
+            }
+        });
+        benchmark("draw 50k paths, 500 texts, Canvas.draw, zoomed", new Runnable() {
+            public void run() {
+                java.awt.Graphics2D g = img.createGraphics();
+                g.clipRect(0, 0, 1000, 1000);
+                g.scale(4, 4);
+                g.translate(500, 500);
+                c.draw(g);
+                g.dispose();
+            }
+        });
+        benchmark("draw 50k paths, 500 texts, DisplayList.draw, zoomed", new Runnable() {
+            public void run() {
+                java.awt.Graphics2D g = img.createGraphics();
+                g.clipRect(0, 0, 1000, 1000);
+                g.scale(4, 4);
+                g.translate(500, 500);
+                list.draw(g);
+                g.dispose();
+            }
+        });
+        benchmark("draw 50k paths, 500 texts, Canvas.compile", new Runnable() {
+            public void run() {
+                consume(c.compile().size());
+            }
+        });
+    }
+
+    /**
+     * Move one path around in a canvas of 20.000 paths and bring the image up-to-date after every move.
+     */
+    public static void renderTarget() {
+        final Canvas c = new Canvas(4000, 4000);
+        java.util.Random r = new java.util.Random(42);
+        for (int i = 0; i < 20000; i++) {
+            Path p = new Path();
+            double x = r.nextDouble() * 4000 - 2000;
+            double y = r.nextDouble() * 4000 - 2000;
+            p.moveto(x, y);
+            p.curveto(x + r.nextDouble() * 200, y - 100, x - 100, y + r.nextDouble() * 200, x + 50, y + 50);
+            p.close();
+            p.setFillColor(new Color(r.nextDouble(), r.nextDouble(), r.nextDouble(), 0.5));
+            p.setStrokeColor(new Color(0, 0, 0));
+            c.add(p);
+        }
+        final Path moving = (Path) c.getItems().get(10000);
+        final RenderTarget target = new RenderTarget(c);
+        target.render();
+        benchmark("asImage after moving 1 of 20k paths", new Runnable() {
+            public void run() {
+                moving.translate(5, 0);
+                c.asImage();
+            }
+        });
+        benchmark("render target after moving 1 of 20k paths", new Runnable() {
+            public void run() {
+                moving.translate(5, 0);
+                target.render();
+            }
+        });
+    }
+
+    /**
+     * Draw a thumbnail of a geometry of 20.000 paths with 5 curved contours each, with and without level of detail.
+     */
+    public static void levelOfDetail() {
+        final Geometry geometry = new Geometry();
+        java.util.Random r = new java.util.Random(42);
+        for (int i = 0; i < 20000; i++) {
+            Path p = new Path();
+            double x = r.nextDouble() * 4000 - 2000;
+            double y = r.nextDouble() * 4000 - 2000;
+            for (int j = 0; j < 5; j++) {
+                p.ellipse(x + j * 8, y + r.nextDouble() * 10, 4 + r.nextDouble() * 40, 4 + r.nextDouble() * 20);
+            }
+            p.setFillColor(new Color(r.nextDouble(), r.nextDouble(), r.nextDouble(), 0.5));
+            geometry.add(p);
+        }
+        for (final double scale : new double[]{0.01, 0.05, 0.25}) {
+            int size = (int) (4000 * scale);
+            final java.awt.image.BufferedImage img = new java.awt.image.BufferedImage(size, size, java.awt.image.BufferedImage.TYPE_INT_ARGB);
+            final java.awt.image.BufferedImage lodImg = new java.awt.image.BufferedImage(size, size, java.awt.image.BufferedImage.TYPE_INT_ARGB);
+            benchmark(String.format(Locale.US, "thumbnail at %.2f, 20k paths", scale), new Runnable() {
+                public void run() {
+                    drawThumbnail(geometry, img, scale, null);
+                }
+            });
+            benchmark(String.format(Locale.US, "thumbnail at %.2f, 20k paths, level of detail", scale), new Runnable() {
+                public void run() {
+                    drawThumbnail(geometry, lodImg, scale, LevelOfDetail.DEFAULT);
+                }
+            });
+            int maxDiff = 0;
+            long totalDiff = 0;
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    // Compare premultiplied colors. The color of a nearly transparent pixel doesn't matter.
+                    int a = img.getRGB(x, y), b = lodImg.getRGB(x, y);
+                    for (int shift = 0; shift < 32; shift += 8) {
+                        int ca = shift == 24 ? a >>> 24 : ((a >> shift) & 0xff) * (a >>> 24) / 255;
+                        int cb = shift == 24 ? b >>> 24 : ((b >> shift) & 0xff) * (b >>> 24) / 255;
+                        int d = Math.abs(ca - cb);
+                        maxDiff = Math.max(maxDiff, d);
+                        totalDiff += d;
+                    }
+                }
+            }
+            System.out.println(String.format(Locale.US, "  max channel difference %d, mean %.3f", maxDiff,
+                    totalDiff / (4.0 * size * size)));
+        }
+    }
+
+    private static void drawThumbnail(Geometry geometry, java.awt.image.BufferedImage img, double scale, LevelOfDetail lod) {
+        java.awt.Graphics2D g = img.createGraphics();
+        g.setBackground(new java.awt.Color(0, 0, 0, 0));
+        g.clearRect(0, 0, img.getWidth(), img.getHeight());
+        g.setRenderingHint(java.awt.RenderingHints.KEY_ANTIALIASING, java.awt.RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(LevelOfDetail.KEY, lod);
+        g.scale(scale, scale);
+        g.translate(2000, 2000);
+        geometry.draw(g);
+        g.dispose();
+    }
+
+    /**
+     * Move 40 rotated paragraphs of text a pixel every frame, with and without the raster cache.
+     */
+    public static void rasterCache() {
+        final Canvas plain = new Canvas(1000, 1000);
+        final Canvas cached = new Canvas(1000, 1000);
+        java.util.Random r = new java.util.Random(42);
+        for (int i = 0; i < 40; i++) {
+            Text t = new Text("The quick brown fox jumps over the lazy dog.\nPack my box with five dozen liquor jugs.",
+                    0, 0);
+            t.translate(r.nextInt(1000) - 500, r.nextInt(1000) - 500);
+            t.rotate(r.nextDouble() * 360);
+            plain.add(t);
+            Text c = t.clone();
+            c.setRasterCached(true);
+            cached.add(c);
+        }
+        final java.awt.image.BufferedImage img = new java.awt.image.BufferedImage(1000, 1000, java.awt.image.BufferedImage.TYPE_INT_ARGB);
+        benchmark("move 40 texts", new Runnable() {
+            public void run() {
+                drawMoved(plain, img);
+            }
+        });
+        benchmark("move 40 texts, raster cache", new Runnable() {
+            public void run() {
+                drawMoved(cached, img);
+            }
+        });
+    }
+
+    private static void drawMoved(Canvas c, java.awt.image.BufferedImage img) {
+        for (Grob grob : c.getItems()) {
+            ((Text) grob).prependTransform(Transform.translated(1, 0));
+        }
+        java.awt.Graphics2D g = img.createGraphics();
+        g.setRenderingHint(java.awt.RenderingHints.KEY_ANTIALIASING, java.awt.RenderingHints.VALUE_ANTIALIAS_ON);
+        c.draw(g);
+        g.dispose();
+    }
+
+    /**
+     * Render the canvas of the asImage benchmark with Java2D and with the scanline rasterizer.
+     */
+    public static void rasterize() {
+        final Canvas c = new Canvas(4000, 4000);
+        java.util.Random r = new java.util.Random(42);
+        for (int i = 0; i < 20000; i++) {
+            Path p = new Path();
+            double x = r.nextDouble() * 4000 - 2000;
+            double y = r.nextDouble() * 4000 - 2000;
+            p.moveto(x, y);
+            p.curveto(x + r.nextDouble() * 200, y - 100, x - 100, y + r.nextDouble() * 200, x + 50, y + 50);
+            p.close();
+            p.setFillColor(new Color(r.nextDouble(), r.nextDouble(), r.nextDouble(), 0.5));
+            p.setStrokeColor(new Color(0, 0, 0));
+            c.add(p);
+        }
+        final int[] pixels = new int[4000 * 4000];
+        benchmark("Java2D 4000x4000, 20k paths", new Runnable() {
+            public void run() {
+                c.asImage(false);
+            }
+        });
+        benchmark("rasterizer 4000x4000, 20k paths", new Runnable() {
+            public void run() {
+                c.rasterize(pixels);
+            }
+        });
+    }
+
+    /**
+     * Export 200 small canvases of 1000x1000, with new images and with pooled images.
+     */
+    public static void imagePool() {
+        final Canvas[] canvases = new Canvas[200];
+        java.util.Random r = new java.util.Random(42);
+        for (int i = 0; i < canvases.length; i++) {
+            canvases[i] = new Canvas(1000, 1000);
+            Path p = new Path();
+            p.ellipse(r.nextDouble() * 800 - 400, r.nextDouble() * 800 - 400, 100, 100);
+            canvases[i].add(p);
+        }
+        benchmark("export 200 canvases", new Runnable() {
+            public void run() {
+                for (Canvas c : canvases) {
+                    c.asImage();
+                }
+            }
+        });
+        final ImagePool pool = new ImagePool();
+        benchmark("export 200 canvases, image pool", new Runnable() {
+            public void run() {
+                for (Canvas c : canvases) {
+                    pool.release(c.asImage(pool));
+                }
+            }
+        });
+    }
+
+    /**
+     * Draw a grid of 40.000 dots of the same color, one by one and batched by the canvas.
+     */
+    public static void batching() {
+        final Canvas c = new Canvas(1000, 1000);
+        c.setBackground(null);
+        for (int y = -500; y < 500; y += 5) {
+            for (int x = -500; x < 500; x += 5) {
+                Path p = new Path();
+                p.ellipse(x, y, 4, 4);
+                p.setFillColor(new Color(0.2, 0.4, 0.6));
+                c.add(p);
+            }
+        }
+        final java.awt.image.BufferedImage img = new java.awt.image.BufferedImage(1000, 1000, java.awt.image.BufferedImage.TYPE_INT_ARGB);
+        benchmark("draw 40k dots one by one", new Runnable() {
+            public void run() {
+                java.awt.Graphics2D g = img.createGraphics();
+                g.setRenderingHint(java.awt.RenderingHints.KEY_ANTIALIASING, java.awt.RenderingHints.VALUE_ANTIALIAS_ON);
+                g.translate(500, 500);
+                for (Grob grob : c.getItems()) {
+                    grob.draw(g);
+                }
+                g.dispose();
+            }
+        });
+        benchmark("draw 40k dots, batched", new Runnable() {
+            public void run() {
+                java.awt.Graphics2D g = img.createGraphics();
+                g.setRenderingHint(java.awt.RenderingHints.KEY_ANTIALIASING, java.awt.RenderingHints.VALUE_ANTIALIAS_ON);
+                g.translate(500, 500);
+                c.draw(g);
+                g.dispose();
+            }
+        });
+    }
+
+    /**
+     * Write 20.000 curves and 20.000 copies of the same circle as SVG.
+     */
+    public static void svg() {
+        final Canvas c = new Canvas(4000, 4000);
+        java.util.Random r = new java.util.Random(42);
+        for (int i = 0; i < 20000; i++) {
+            Path p = new Path();
+            double x = r.nextDouble() * 4000 - 2000;
+            double y = r.nextDouble() * 4000 - 2000;
+            p.moveto(x, y);
+            p.curveto(x + r.nextDouble() * 200, y - 100, x - 100, y + r.nextDouble() * 200, x + 50, y + 50);
+            p.close();
+            p.setFillColor(new Color(r.nextDouble(), r.nextDouble(), r.nextDouble(), 0.5));
+            c.add(p);
+            Path dot = new Path();
+            dot.ellipse(x, y, 10, 10);
+            c.add(dot);
+        }
+        final java.io.Writer sink = new java.io.Writer() {
+            public void write(char[] chars, int offset, int length) {
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        };
+        benchmark("write 40k paths as SVG", new Runnable() {
+            public void run() {
+                try {
+                    new SVGWriter(sink).write(c);
+                } catch (java.io.IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Write and read back a canvas of 10.000 paths with 1.000 points each, through a temporary file.
+     */
+    public static void binary() {
+        final Canvas c = new Canvas(4000, 4000);
+        java.util.Random r = new java.util.Random(42);
+        for (int i = 0; i < 10000; i++) {
+            Path p = new Path();
+            for (int j = 0; j < 10; j++) {
+                double x = r.nextDouble() * 4000 - 2000;
+                double y = r.nextDouble() * 4000 - 2000;
+                p.moveto(x, y);
+                for (int k = 1; k < 100; k++) {
+                    x += r.nextDouble() * 4 - 2;
+                    y += r.nextDouble() * 4 - 2;
+                    p.lineto(x, y);
+                }
+                p.close();
+            }
+            c.add(p);
+        }
+        final java.io.File file;
+        try {
+            file = java.io.File.createTempFile("benchmark", ".nbgb");
+        } catch (java.io.IOException e) {
+            throw new RuntimeException(e);
+        }
+        file.deleteOnExit();
+        for (final int precision : new int[]{BinaryWriter.DEFAULT_PRECISION, BinaryWriter.EXACT}) {
+            String label = precision == BinaryWriter.EXACT ? "exact" : "precision " + precision;
+            benchmark("write 10M points, " + label, new Runnable() {
+                public void run() {
+                    try {
+                        java.io.OutputStream out = new java.io.FileOutputStream(file);
+                        try {
+                            new BinaryWriter(out, precision).write(c);
+                        } finally {
+                            out.close();
+                        }
+                    } catch (java.io.IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            System.out.println(String.format(Locale.US, "%-50s %10.1f MB", "file size, " + label,
+                    file.length() / 1e6));
+            benchmark("read 10M points, " + label, new Runnable() {
+                public void run() {
+                    try {
+                        Canvas read = (Canvas) BinaryReader.read(file);
+                        consume(read.size());
+                    } catch (java.io.IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Parse 8 MB of SVG path data with lines, curves and arcs, and report the throughput.
+     */
+    public static void svgPath() {
+        java.util.Random r = new java.util.Random(42);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 8 * 1024 * 1024) {
+            sb.append(String.format(Locale.US, "M%.2f,%.2f", r.nextDouble() * 1000, r.nextDouble() * 1000));
+            for (int i = 0; i < 20; i++) {
+                switch (r.nextInt(4)) {
+                    case 0:
+                        sb.append(String.format(Locale.US, "l%.2f %.2f", r.nextDouble() * 10 - 5,
+                                r.nextDouble() * 10 - 5));
+                        break;
+                    case 1:
+                        sb.append(String.format(Locale.US, "c%.2f %.2f %.2f %.2f %.2f %.2f", r.nextDouble() * 10,
+                                r.nextDouble() * 10, r.nextDouble() * 10, r.nextDouble() * 10, r.nextDouble() * 10,
+                                r.nextDouble() * 10));
+                        break;
+                    case 2:
+                        sb.append(String.format(Locale.US, "h%.2fv%.2f", r.nextDouble() * 10, r.nextDouble() * 10));
+                        break;
+                    default:
+                        sb.append(String.format(Locale.US, "a5 5 0 0 1 %.2f %.2f", r.nextDouble() * 10,
+                                r.nextDouble() * 10));
+                        break;
+                }
+            }
+            sb.append('z');
+        }
+        final String data = sb.toString();
+        final double megabytes = data.length() / (1024.0 * 1024.0);
+        final SVGPathParser.Handler counter = new SVGPathParser.Handler() {
+            public void moveTo(double x, double y) {
+                consume(x);
+            }
+
+            public void lineTo(double x, double y) {
+                consume(x);
+            }
+
+            public void curveTo(double x1, double y1, double x2, double y2, double x3, double y3) {
+                consume(x3);
+            }
+
+            public void close() {
+            }
+        };
+        long scan = benchmark("parse 8 MB of path data", new Runnable() {
+            public void run() {
+                SVGPathParser.parse(data, counter);
+            }
+        });
+        long build = benchmark("parse 8 MB of path data into a Path", new Runnable() {
+            public void run() {
+                consume(SVGPathParser.parse(data).getPointCount());
+            }
+        });
+        System.out.println(String.format(Locale.US, "%-50s %10.1f MB/s", "parse throughput",
+                megabytes / (scan / 1e9)));
+        System.out.println(String.format(Locale.US, "%-50s %10.1f MB/s", "parse into a Path throughput",
+                megabytes / (build / 1e9)));
+    }
+
+    /**
+     * Encode a rendered 4K image as PNG with ImageIO and with the PNG encoder, on one thread and in parallel.
+     */
+    public static void png() {
+        Canvas c = new Canvas(3840, 2160);
+        java.util.Random r = new java.util.Random(42);
+        for (int i = 0; i < 2000; i++) {
+            Path p = new Path();
+            p.ellipse(r.nextDouble() * 3840 - 1920, r.nextDouble() * 2160 - 1080, r.nextDouble() * 300,
+                    r.nextDouble() * 300);
+            p.setFillColor(new Color(r.nextDouble(), r.nextDouble(), r.nextDouble(), 0.5));
+            c.add(p);
+        }
+        final java.awt.image.BufferedImage img = c.asImage(true);
+        final java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        benchmark("encode 4K image with ImageIO", new Runnable() {
+            public void run() {
+                out.reset();
+                try {
+                    javax.imageio.ImageIO.write(img, "png", out);
+                } catch (java.io.IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        System.out.println(String.format(Locale.US, "%-50s %10.1f MB", "ImageIO size", out.size() / 1e6));
+        for (final boolean parallel : new boolean[]{false, true}) {
+            String label = parallel ? "in parallel" : "on one thread";
+            benchmark("encode 4K image " + label, new Runnable() {
+                public void run() {
+                    out.reset();
+                    try {
+                        new PNGEncoder(PNGEncoder.DEFAULT_FILTER, PNGEncoder.DEFAULT_LEVEL, parallel).write(img, out);
+                    } catch (java.io.IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        System.out.println(String.format(Locale.US, "%-50s %10.1f MB", "PNG encoder size", out.size() / 1e6));
+    }
+
+    //// Helpers ////
+
+    /**
+     * Run the given task a number of times and print out the fastest run.
+     *
+     * @param name the name of the benchmark.
+     * @param task the task to time.
+     * @return the time of the fastest run, in nanoseconds.
+     */
+    private static long benchmark(String name, Runnable task) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            task.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println(String.format(Locale.US, "%-50s %10.3f ms", name, best / 1e6));
+        return best;
+    }
+
+    private static double sink;
+
+    /**
+     * Keep a result alive so the JIT can't remove the computation.
+     *
+     * @param value the result.
+     */
+    private static void consume(double value) {
+        sink += value;
+    }
+
+    private static boolean contains(String[] args, String name) {
+        for (String arg : args) {
+            if (arg.equals(name)) return true;
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,228 @@
+package nodebox.graphics;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+public class BinaryWriterTest {
+
+    @Test
+    public void testExactRoundTrip() throws IOException {
+        Path p = new Path();
+        p.moveto(0.1, 1.0 / 3);
+        p.lineto(Math.PI, -1e-12);
+        p.curveto(1, 2, 3, 4, 5, 6);
+        p.close();
+        p.moveto(1e15, 2);
+        p.lineto(3, 4);
+        p.setFillColor(null);
+        p.setStrokeColor(new Color(1, 0.5, 0, 0.25));
+        p.setStrokeStyle(new StrokeStyle(2.5, StrokeStyle.Cap.ROUND, StrokeStyle.Join.BEVEL, 3,
+                new double[]{4, 2}));
+        p.setRasterCached(true);
+        Path read = (Path) roundTrip(p, BinaryWriter.EXACT);
+        assertSamePoints(p, read, 0);
+        assertNull(read.getFillColor());
+        assertEquals(p.getStrokeColor(), read.getStrokeColor());
+        assertEquals(p.getStrokeStyle(), read.getStrokeStyle());
+        assertTrue(read.isRasterCached());
+    }
+
+    @Test
+    public void testPrecision() throws IOException {
+        Path p = new Path();
+        p.moveto(0.12346, -0.12346);
+        p.lineto(1000.5, 2000.25);
+        p.lineto(0.00004, 0);
+        Path read = (Path) roundTrip(p, 4);
+        assertEquals(0.1235, read.getPoints().get(0).x);
+        assertEquals(-0.1235, read.getPoints().get(0).y);
+        assertEquals(2000.25, read.getPoints().get(1).y);
+        assertEquals(0.0, read.getPoints().get(2).x);
+        Path rounded = (Path) roundTrip(p, 0);
+        assertEquals(1001.0, rounded.getPoints().get(1).x);
+    }
+
+    @Test
+    public void testCanvas() throws IOException {
+        Canvas c = new Canvas(300, 200);
+        c.setOffsetX(10);
+        c.setBackground(null);
+        Path p = new Path();
+        p.ellipse(10, 20, 30, 40);
+        c.add(p);
+        Geometry g = new Geometry();
+        g.add(new Path(p));
+        g.add(new Path());
+        c.add(g);
+        Text t = new Text("Hello", 5, 6, 100, 50);
+        t.setFontSize(12);
+        t.setAlign(Text.Align.RIGHT);
+        t.rotate(45);
+        c.add(t);
+        Canvas read = (Canvas) roundTrip(c, BinaryWriter.DEFAULT_PRECISION);
+        assertEquals(300.0, read.getWidth());
+        assertEquals(200.0, read.getHeight());
+        assertEquals(10.0, read.getOffsetX());
+        assertNull(read.getBackground());
+        assertEquals(3, read.size());
+        assertSamePoints(p, (Path) read.get(0), 1e-4);
+        Geometry readGeometry = (Geometry) read.get(1);
+        assertEquals(2, readGeometry.size());
+        assertSamePoints(p, readGeometry.getPaths().get(0), 1e-4);
+        Text readText = (Text) read.get(2);
+        assertEquals("Hello", readText.getText());
+        assertEquals(12.0, readText.getFontSize());
+        assertEquals(Text.Align.RIGHT, readText.getAlign());
+        assertEquals(t.getTransform(), readText.getTransform());
+    }
+
+    @Test
+    public void testImage() throws IOException {
+        BufferedImage awtImage = new BufferedImage(4, 3, BufferedImage.TYPE_INT_ARGB);
+        awtImage.setRGB(1, 2, 0x80ff0000);
+        Image img = new Image(awtImage);
+        img.setWidth(8);
+        img.setX(20);
+        Canvas c = new Canvas();
+        c.add(img);
+        Image read = (Image) ((Canvas) roundTrip(c, BinaryWriter.DEFAULT_PRECISION)).get(0);
+        assertEquals(8.0, read.getWidth());
+        assertEquals(20.0, read.getX());
+        assertEquals(0x80ff0000, read.getAwtImage().getRGB(1, 2));
+    }
+
+    @Test
+    public void testColors() throws IOException {
+        Path p = new Path();
+        p.setFillColor(new Color(1.0 / 3, 0.1, 0.999, 0.5));
+        // Colors are rounded to eight bits, unless the precision is exact.
+        Color rounded = ((Path) roundTrip(p, BinaryWriter.DEFAULT_PRECISION)).getFillColor();
+        assertEquals(85 / 255.0, rounded.getRed());
+        assertEquals(128 / 255.0, rounded.getAlpha());
+        Color exact = ((Path) roundTrip(p, BinaryWriter.EXACT)).getFillColor();
+        assertEquals(1.0 / 3, exact.getRed());
+        assertEquals(0.1, exact.getGreen());
+        assertEquals(0.999, exact.getBlue());
+        assertEquals(0.5, exact.getAlpha());
+    }
+
+    @Test
+    public void testImageWithoutPixels() {
+        Canvas c = new Canvas();
+        c.add(new Image((BufferedImage) null));
+        try {
+            write(c, BinaryWriter.DEFAULT_PRECISION);
+            fail("Should have thrown an IllegalArgumentException.");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    public void testMappedFile() throws IOException {
+        Canvas c = new Canvas();
+        Path p = new Path();
+        p.rect(0, 0, 100, 100);
+        c.add(p);
+        File file = File.createTempFile("test", ".nbgb");
+        try {
+            BinaryWriter.write(c, file);
+            Canvas read = (Canvas) BinaryReader.read(file);
+            assertSamePoints(p, (Path) read.get(0), 0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testReadContoursArePacked() throws IOException {
+        Path p = new Path();
+        p.rect(0, 0, 10, 10);
+        p.rect(20, 0, 10, 10);
+        Path read = (Path) roundTrip(p, BinaryWriter.DEFAULT_PRECISION);
+        assertTrue(read.getContours().get(0).getPointBuffer().isShared());
+        // Changing a contour doesn't change the contour next to it.
+        read.getContours().get(0).addPoint(5, 5);
+        assertSamePoints(p.getContours().get(1), read.getContours().get(1));
+    }
+
+    @Test
+    public void testCoordinateTooLarge() throws IOException {
+        Path p = new Path();
+        p.moveto(1e15, 0);
+        try {
+            new BinaryWriter(new ByteArrayOutputStream(), 4).write(p);
+            fail("Should have thrown an IllegalArgumentException.");
+        } catch (IllegalArgumentException ignored) {
+        }
+        // Exact precision can store it.
+        assertEquals(1e15, ((Path) roundTrip(p, BinaryWriter.EXACT)).getPoints().get(0).x);
+    }
+
+    @Test
+    public void testInvalidData() {
+        assertInvalid(new byte[]{'N', 'O', 'P', 'E', 1, 4, 3});
+        byte[] data = write(new Path(), 4);
+        assertInvalid(Arrays.copyOf(data, data.length - 1));
+    }
+
+    private static void assertInvalid(byte[] data) {
+        try {
+            new BinaryReader(data).read();
+            fail("Should have thrown an IOException.");
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static Object roundTrip(Object o, int precision) throws IOException {
+        return new BinaryReader(write(o, precision)).read();
+    }
+
+    private static byte[] write(Object o, int precision) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryWriter writer = new BinaryWriter(out, precision);
+        try {
+            if (o instanceof Canvas) {
+                writer.write((Canvas) o);
+            } else if (o instanceof Geometry) {
+                writer.write((Geometry) o);
+            } else {
+                writer.write((Path) o);
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static void assertSamePoints(Path expected, Path actual, double delta) {
+        List<Contour> expectedContours = expected.getContours();
+        List<Contour> actualContours = actual.getContours();
+        assertEquals(expectedContours.size(), actualContours.size());
+        for (int i = 0; i < expectedContours.size(); i++) {
+            Contour e = expectedContours.get(i);
+            Contour a = actualContours.get(i);
+            assertEquals(e.isClosed(), a.isClosed());
+            assertEquals(e.getPointCount(), a.getPointCount());
+            for (int j = 0; j < e.getPointCount(); j++) {
+                Point ep = e.getPoints().get(j);
+                Point ap = a.getPoints().get(j);
+                assertEquals(ep.x, ap.x, delta);
+                assertEquals(ep.y, ap.y, delta);
+                assertEquals(ep.type, ap.type);
+            }
+        }
+    }
+
+    private static void assertSamePoints(Contour expected, Contour actual) {
+        assertEquals(expected.getPoints(), actual.getPoints());
+    }
+
+}
@@ -2,7 +2,12 @@ package nodebox.graphics;
 
 import org.junit.Test;
 
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 
 public class CanvasTest {
 
@@ -17,4 +22,237 @@ public class CanvasTest {
         assertEquals(backgroundColor, c.getBackground());
     }
 
+    @Test
+    public void testCulling() {
+        // The canvas goes from -50,-50 to 50,50.
+        Canvas c = new Canvas(100, 100);
+        Path inside = new Path();
+        inside.rect(0, 0, 20, 20);
+        c.add(inside);
+        Path outside = new Path();
+        outside.rect(200, 0, 20, 20);
+        c.add(outside);
+        // The shape is outside of the canvas, but its stroke isn't.
+        Path stroked = new Path();
+        stroked.rect(0, 54, 20, 6);
+        stroked.setStrokeColor(new Color(1, 0, 0));
+        stroked.setStrokeWidth(6);
+        c.add(stroked);
+        BufferedImage img = c.asImage();
+        assertEquals(1, c.getCulledCount());
+        assertEquals(2, c.getDrawnCount());
+        assertEquals(java.awt.Color.BLACK.getRGB(), img.getRGB(50, 50));
+        assertEquals(java.awt.Color.RED.getRGB(), img.getRGB(50, 99));
+        // Zoom in on the top left corner, where there is nothing to draw.
+        BufferedImage zoomed = new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = zoomed.createGraphics();
+        g.clipRect(0, 0, 100, 100);
+        g.scale(4, 4);
+        g.translate(50, 50);
+        c.draw(g);
+        g.dispose();
+        assertEquals(3, c.getCulledCount());
+        // Move the outside path in view.
+        outside.translate(-200, -60);
+        c.asImage();
+        assertEquals(0, c.getCulledCount());
+        // Images keep their bounds, but moving them changes where they are drawn.
+        BufferedImage red = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D rg = red.createGraphics();
+        rg.setColor(java.awt.Color.RED);
+        rg.fillRect(0, 0, 10, 10);
+        rg.dispose();
+        Image image = new Image(red);
+        c.add(image);
+        c.asImage();
+        assertEquals(0, c.getCulledCount());
+        image.translate(200, 0);
+        c.asImage();
+        assertEquals(1, c.getCulledCount());
+        image.translate(-240, 0);
+        img = c.asImage();
+        assertEquals(0, c.getCulledCount());
+        assertEquals(java.awt.Color.RED.getRGB(), img.getRGB(10, 50));
+    }
+
+    /**
+     * Drawing the tiles in parallel gives the same image as drawing in one pass, for items inside one tile and for
+     * shapes made of straight lines.
+     */
+    @Test
+    public void testParallelImage() {
+        Canvas c = new Canvas(700, 530);
+        java.util.Random r = new java.util.Random(3);
+        for (int i = 0; i < 100; i++) {
+            // An ellipse inside one of the four top left tiles.
+            double x = -350 + r.nextInt(2) * Canvas.TILE_SIZE + 40 + r.nextDouble() * 150;
+            double y = -265 + r.nextInt(2) * Canvas.TILE_SIZE + 40 + r.nextDouble() * 150;
+            Path p = new Path();
+            p.ellipse(x, y, 10 + r.nextDouble() * 60, 10 + r.nextDouble() * 60);
+            p.setFillColor(new Color(r.nextDouble(), r.nextDouble(), r.nextDouble(), 0.5));
+            if (i % 3 == 0) {
+                p.setStrokeColor(new Color(0, 0, 0));
+                p.setStrokeWidth(r.nextDouble() * 4);
+            }
+            c.add(p);
+        }
+        for (int i = 0; i < 100; i++) {
+            // A triangle anywhere on the canvas.
+            Path p = new Path();
+            p.moveto(r.nextDouble() * 800 - 400, r.nextDouble() * 600 - 300);
+            p.lineto(r.nextDouble() * 800 - 400, r.nextDouble() * 600 - 300);
+            p.lineto(r.nextDouble() * 800 - 400, r.nextDouble() * 600 - 300);
+            p.close();
+            p.setFillColor(new Color(r.nextDouble(), r.nextDouble(), r.nextDouble(), 0.5));
+            c.add(p);
+        }
+        BufferedImage expected = c.asImage();
+        BufferedImage actual = c.asImage(true);
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+        assertEquals(c.size(), c.getDrawnCount() + c.getCulledCount());
+    }
+
+    /**
+     * Curves and text that cross a tile border only differ from drawing in one pass in their antialiased edges.
+     */
+    @Test
+    public void testParallelImageCurves() {
+        Canvas c = new Canvas(700, 530);
+        c.setOffsetX(13.5);
+        java.util.Random r = new java.util.Random(7);
+        for (int i = 0; i < 300; i++) {
+            Path p = new Path();
+            p.moveto(r.nextDouble() * 800 - 400, r.nextDouble() * 600 - 300);
+            p.curveto(r.nextDouble() * 800 - 400, r.nextDouble() * 600 - 300,
+                    r.nextDouble() * 800 - 400, r.nextDouble() * 600 - 300,
+                    r.nextDouble() * 800 - 400, r.nextDouble() * 600 - 300);
+            p.close();
+            p.setFillColor(new Color(r.nextDouble(), r.nextDouble(), r.nextDouble(), 0.5));
+            if (i % 3 == 0) {
+                p.setStrokeColor(new Color(0, 0, 0));
+                p.setStrokeWidth(r.nextDouble() * 5);
+            }
+            p.rotate(r.nextDouble() * 360);
+            c.add(p);
+        }
+        Text t = new Text("Tiles", 0, 0);
+        t.rotate(30);
+        c.add(t);
+        BufferedImage expected = c.asImage();
+        BufferedImage actual = c.asImage(true);
+        int differing = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int a = expected.getRGB(x, y);
+                int b = actual.getRGB(x, y);
+                if (a == b) continue;
+                differing++;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int delta = Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff));
+                    assertTrue("Pixel " + x + "," + y + " differs by " + delta, delta <= 32);
+                }
+            }
+        }
+        // About one in twenty pixels lies on the edge of a curve.
+        assertTrue("Differing pixels: " + differing, differing < expected.getWidth() * expected.getHeight() / 10);
+    }
+
+    /**
+     * Rendering into an image that was used before gives the same image as rendering into a new one.
+     */
+    @Test
+    public void testReuseImage() {
+        Canvas c = new Canvas(300, 200);
+        c.setBackground(null);
+        Path p = new Path();
+        p.ellipse(-20, -10, 80, 60);
+        p.setFillColor(new Color(0, 0, 1, 0.5));
+        c.add(p);
+        Canvas other = new Canvas(300, 200);
+        Path full = new Path();
+        full.rect(0, 0, 300, 200);
+        other.add(full);
+        ImagePool pool = new ImagePool();
+        pool.release(other.asImage());
+        BufferedImage actual = c.asImage(pool);
+        assertEquals(0, pool.getAllocationCount());
+        BufferedImage expected = c.asImage();
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+        try {
+            c.asImage(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB), false);
+            fail("The image needs to be the size of the canvas.");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    /**
+     * Paths with the same style are drawn together, which gives the same image as drawing them one by one.
+     */
+    @Test
+    public void testBatching() {
+        Canvas c = new Canvas(300, 200);
+        // A grid of touching squares, with and without strokes.
+        for (int y = -100; y < 0; y += 10) {
+            for (int x = -150; x < 150; x += 10) {
+                Path p = new Path();
+                p.rect(x + 5, y + 5, 10, 10);
+                p.setFillColor(new Color(0.2, 0.4, 0.6));
+                if (x >= 0) {
+                    p.setStrokeColor(new Color(0, 0, 0, 0.5));
+                    p.setStrokeWidth(2);
+                }
+                c.add(p);
+            }
+        }
+        // Overlapping translucent paths, some turning the other way.
+        java.util.Random r = new java.util.Random(3);
+        for (int i = 0; i < 40; i++) {
+            Path p = new Path();
+            if (i % 2 == 0) {
+                p.ellipse(r.nextDouble() * 300 - 150, r.nextDouble() * 100, 40, 30);
+            } else {
+                double x = r.nextDouble() * 300 - 150, y = r.nextDouble() * 100;
+                p.moveto(x, y);
+                p.lineto(x, y + 30);
+                p.lineto(x + 40, y + 30);
+                p.lineto(x + 40, y);
+                p.close();
+            }
+            p.setFillColor(new Color(1, 0, 0, 0.3));
+            c.add(p);
+        }
+        BufferedImage expected = new BufferedImage(300, 200, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = expected.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.translate(150, 100);
+        g.clip(c.getBounds().getRectangle2D());
+        c.getBackground().set(g);
+        g.fill(c.getBounds().getRectangle2D());
+        for (Grob grob : c.getItems()) {
+            grob.draw(g);
+        }
+        g.dispose();
+        BufferedImage actual = new BufferedImage(300, 200, BufferedImage.TYPE_INT_ARGB);
+        g = actual.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.translate(150, 100);
+        c.draw(g);
+        g.dispose();
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
 }
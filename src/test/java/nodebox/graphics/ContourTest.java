@@ -34,6 +34,32 @@ public class ContourTest {
         //assertEquals(new Point(150, 0), c2.pointAt(1.5));
     }
 
+    @Test
+    public void testPointAtManySegments() {
+        Contour c = new Contour();
+        for (int i = 0; i <= 1000; i++) {
+            c.addPoint(i * 10, 0);
+        }
+        assertEquals(10000.0, c.getLength());
+        assertPointEquals(0, 0, c.pointAt(0));
+        assertPointEquals(1234.5, 0, c.pointAt(0.12345));
+        assertPointEquals(5000, 0, c.pointAt(0.5));
+        assertPointEquals(9995, 0, c.pointAt(0.9995));
+        assertPointEquals(10000, 0, c.pointAt(1));
+        assertPointEquals(10100, 0, c.pointAt(1.01));
+    }
+
+    @Test
+    public void testPointAtZeroLengthSegment() {
+        Contour c = new Contour();
+        c.addPoint(0, 0);
+        c.addPoint(0, 0);
+        c.addPoint(100, 0);
+        assertPointEquals(0, 0, c.pointAt(0));
+        assertPointEquals(50, 0, c.pointAt(0.5));
+        assertPointEquals(100, 0, c.pointAt(1));
+    }
+
     @Test
     public void testPointAtEmptyPath() {
         Contour c = new Contour();
@@ -155,6 +181,21 @@ public class ContourTest {
 //        assertEquals(new Point(25, 25), points[5]);
     }
 
+    /**
+     * makePoints walks the contour once. Check that it gives the same result as calling pointAt for every point.
+     */
+    @Test
+    public void testMakePointsMatchesPointAt() {
+        Path p = new Path();
+        p.roundedRect(0, 0, 100, 60, 15);
+        Contour c = p.getContours().get(0);
+        Point[] points = c.makePoints(37);
+        for (int i = 0; i < points.length; i++) {
+            Point expected = c.pointAt(i / 37.0);
+            assertPointEquals(expected.x, expected.y, points[i]);
+        }
+    }
+
     @Test
     public void testMakePointsEmptyPath() {
         Contour c = new Contour();
@@ -238,6 +279,141 @@ public class ContourTest {
         assertEquals(new Rect(), r);
     }
 
+    @Test
+    public void testBounds() {
+        Contour c = new Contour();
+        c.addPoint(-10, -20);
+        assertEquals(new Rect(-10, -20, 0, 0), c.getBounds());
+        c.addPoint(-5, -30);
+        assertEquals(new Rect(-10, -30, 5, 10), c.getBounds());
+        // The bounds are cached as long as the contour doesn't change.
+        assertSame(c.getBounds(), c.getBounds());
+        // Moving a point needs an invalidate.
+        c.getPoints().set(1, new Point(100, 100));
+        c.invalidate();
+        assertEquals(new Rect(-10, -20, 110, 120), c.getBounds());
+    }
+
+    /**
+     * The bounds contain the curve, but not its control points.
+     */
+    @Test
+    public void testCurveBounds() {
+        Contour c = new Contour();
+        c.addPoint(0, 0);
+        c.addPoint(new Point(0, 100, Point.CURVE_DATA));
+        c.addPoint(new Point(100, 100, Point.CURVE_DATA));
+        // The control points are not part of the bounds until the curve is complete.
+        assertEquals(new Rect(0, 0, 0, 0), c.getBounds());
+        c.addPoint(new Point(100, 0, Point.CURVE_TO));
+        // The top of this curve is at t = 0.5, at 3/4 of the height of the control points.
+        assertEquals(new Rect(0, 0, 100, 75), c.getBounds());
+        assertEquals(new Rect(0, 0, 100, 75), new Path(c).getBounds());
+    }
+
+    /**
+     * The points of a contour are stored in primitive arrays. Check that the list returned by getPoints is a live view.
+     */
+    @Test
+    public void testPointsView() {
+        Contour c = new Contour();
+        c.addPoint(0, 0);
+        c.addPoint(new Point(10, 20, Point.CURVE_DATA));
+        List<Point> points = c.getPoints();
+        assertEquals(2, points.size());
+        assertEquals(new Point(10, 20, Point.CURVE_DATA), points.get(1));
+        points.set(0, new Point(5, 5));
+        assertPointEquals(5, 5, c.getPoints().get(0));
+        c.addPoint(30, 40);
+        assertEquals(3, points.size());
+        assertPointEquals(30, 40, points.get(2));
+        Contour copy = c.clone();
+        c.getPoints().set(2, new Point(0, 0));
+        assertPointEquals(30, 40, copy.getPoints().get(2));
+    }
+
+    @Test
+    public void testFlattened() {
+        // A quarter circle with a radius of 100.
+        double k = 0.5522847498 * 100;
+        Contour c = new Contour();
+        c.addPoint(100, 0);
+        c.addPoint(new Point(100, k, Point.CURVE_DATA));
+        c.addPoint(new Point(k, 100, Point.CURVE_DATA));
+        c.addPoint(new Point(0, 100, Point.CURVE_TO));
+        c.addPoint(0, 0);
+        Contour flat = c.flattened(0.1);
+        List<Point> points = flat.getPoints();
+        assertPointEquals(100, 0, points.get(0));
+        assertPointEquals(0, 100, points.get(points.size() - 2));
+        assertPointEquals(0, 0, points.get(points.size() - 1));
+        for (Point pt : points) {
+            assertEquals(Point.LINE_TO, pt.type);
+        }
+        // Check that the curve doesn't stray further than the tolerance from the polyline.
+        for (int i = 0; i <= 100; i++) {
+            Point pt = Path.curvePoint(i / 100.0, 100, 0, 100, k, k, 100, 0, 100);
+            double distance = Double.MAX_VALUE;
+            for (int j = 1; j < points.size() - 1; j++) {
+                distance = Math.min(distance, segmentDistance(pt, points.get(j - 1), points.get(j)));
+            }
+            assertTrue(distance <= 0.1);
+        }
+        // A coarser tolerance needs fewer points.
+        assertTrue(c.flattened(1).getPointCount() < flat.getPointCount());
+    }
+
+    @Test
+    public void testFlattenedCache() {
+        Contour c = new Contour();
+        c.addPoint(0, 0);
+        c.addPoint(new Point(0, 100, Point.CURVE_DATA));
+        c.addPoint(new Point(100, 100, Point.CURVE_DATA));
+        c.addPoint(new Point(100, 0, Point.CURVE_TO));
+        List<Point> points = c.getFlattenedPoints();
+        assertEquals(points, c.getFlattenedPoints());
+        c.getPoints().set(3, new Point(200, 0, Point.CURVE_TO));
+        // The cache is only cleared when the contour is invalidated.
+        assertPointEquals(100, 0, c.getFlattenedPoints().get(c.getFlattenedPoints().size() - 1));
+        c.invalidate();
+        assertPointEquals(200, 0, c.getFlattenedPoints().get(c.getFlattenedPoints().size() - 1));
+        // Flattening in place keeps the same points.
+        List<Point> expected = c.flattened().getPoints();
+        c.flatten();
+        assertEquals(expected, c.getPoints());
+    }
+
+    @Test
+    public void testAppendedLength() {
+        Contour c = new Contour();
+        c.addPoint(0, 0);
+        assertEquals(0.0, c.getLength());
+        c.addPoint(30, 0);
+        assertEquals(30.0, c.getLength());
+        // The length index is extended, and has to give the same results as a new index.
+        c.addPoint(new Point(30, 40, Point.CURVE_DATA));
+        assertEquals(30.0, c.getLength());
+        c.addPoint(new Point(30, 40, Point.CURVE_DATA));
+        c.addPoint(new Point(30, 40, Point.CURVE_TO));
+        assertEquals(70.0, c.getLength(), 0.001);
+        c.close();
+        assertEquals(120.0, c.getLength(), 0.001);
+        assertPointEquals(0, 0, c.pointAt(1));
+        // Adding a point to a closed contour replaces the closing segment.
+        c.addPoint(0, 40);
+        assertEquals(140.0, c.getLength(), 0.001);
+        c.setClosed(false);
+        assertEquals(100.0, c.getLength(), 0.001);
+        assertPointEquals(0, 40, c.pointAt(1));
+        Contour expected = new Contour(c.getPoints(), false);
+        assertEquals(expected.getLength(), c.getLength());
+        assertPointEquals(expected.pointAt(0.6).x, expected.pointAt(0.6).y, c.pointAt(0.6));
+    }
+
+    private static double segmentDistance(Point pt, Point a, Point b) {
+        return new java.awt.geom.Line2D.Double(a.x, a.y, b.x, b.y).ptSegDist(pt.x, pt.y);
+    }
+
     private void assertRectPoints(IGeometry g, double x, double y, double width, double height) {
         assertEquals(4, g.getPointCount());
         List<Point> points = g.getPoints();
@@ -0,0 +1,133 @@
+package nodebox.graphics;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static nodebox.graphics.GraphicsTestUtils.assertSameImage;
+
+public class DisplayListTest {
+
+    @Test
+    public void testSameAsCanvas() {
+        Canvas c = createCanvas();
+        DisplayList list = c.compile();
+        // Two for the stroked rect, one for each other path, one for the image and one for the text.
+        assertEquals(6, list.size());
+        assertEquals(c.getBounds(), list.getBounds());
+        assertSameImage(render(c, 1), render(list, 1));
+        // Zooming in culls most operations.
+        assertSameImage(render(c, 5), render(list, 5));
+    }
+
+    @Test
+    public void testImmutable() {
+        Canvas c = createCanvas();
+        BufferedImage expected = render(c, 1);
+        DisplayList list = c.compile();
+        Path p = (Path) c.get(0);
+        p.translate(20, 0);
+        p.setStrokeWidth(1);
+        p.addPoint(50, 50);
+        c.add(new Image(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB)));
+        assertSameImage(expected, render(list, 1));
+    }
+
+    @Test
+    public void testLevelOfDetail() {
+        Canvas c = createCanvas();
+        // Small paths are drawn as rectangles at this level of detail.
+        java.util.Random r = new java.util.Random(5);
+        for (int i = 0; i < 50; i++) {
+            Path p = new Path();
+            p.ellipse(r.nextDouble() * 180 - 90, r.nextDouble() * 130 - 65, 2, 2);
+            p.setFillColor(new Color(0, 0, 1, 0.5));
+            if (i % 2 == 0) {
+                p.setStrokeColor(new Color(0, 0, 0));
+                p.setStrokeWidth(0.5);
+            }
+            c.add(p);
+        }
+        Text cached = new Text("Cached", 20, -20);
+        cached.setRasterCached(true);
+        c.add(cached);
+        Path cachedPath = new Path();
+        cachedPath.ellipse(-40, -40, 30, 30);
+        cachedPath.setFillColor(new Color(0, 1, 0));
+        cachedPath.setRasterCached(true);
+        c.add(cachedPath);
+        DisplayList list = c.compile();
+        LevelOfDetail lod = new LevelOfDetail(3, 1);
+        for (double zoom : new double[]{0.5, 1, 5}) {
+            BufferedImage expected = render(c, zoom, lod);
+            assertSameImage(expected, render(list, zoom, lod));
+            assertFalse(Arrays.equals(pixels(expected), pixels(render(c, zoom, null))));
+        }
+    }
+
+    private static Canvas createCanvas() {
+        Canvas c = new Canvas(200, 150);
+        Path rect = new Path();
+        rect.rect(-20, 0, 60, 40);
+        rect.setFillColor(new Color(0.2, 0.4, 0.8));
+        rect.setStrokeColor(new Color(0, 0, 0, 0.5));
+        rect.setStrokeStyle(new StrokeStyle(4, StrokeStyle.Cap.ROUND, StrokeStyle.Join.BEVEL, 10, new double[]{6, 3}));
+        rect.rotate(20);
+        c.add(rect);
+        Geometry geometry = new Geometry();
+        Path p1 = new Path();
+        p1.ellipse(50, 30, 40, 40);
+        p1.setFillColor(new Color(1, 0, 0, 0.5));
+        Path p2 = new Path();
+        p2.ellipse(-60, -40, 30, 20);
+        geometry.add(p1);
+        geometry.add(p2);
+        c.add(geometry);
+        BufferedImage pixels = new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB);
+        for (int i = 0; i < 8; i++) {
+            pixels.setRGB(i, i, 0xff00ff00);
+        }
+        Image image = new Image(pixels);
+        image.setX(60);
+        image.setY(-50);
+        image.setWidth(32);
+        image.setAlpha(0.7);
+        image.rotate(10);
+        c.add(image);
+        Text text = new Text("List", -50, 60);
+        text.setFontSize(18);
+        c.add(text);
+        return c;
+    }
+
+    private static BufferedImage render(Object o, double zoom) {
+        return render(o, zoom, null);
+    }
+
+    private static BufferedImage render(Object o, double zoom, LevelOfDetail lod) {
+        BufferedImage img = new BufferedImage(200, 150, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        if (lod != null) {
+            g.setRenderingHint(LevelOfDetail.KEY, lod);
+        }
+        g.translate(100, 75);
+        g.scale(zoom, zoom);
+        if (o instanceof Canvas) {
+            ((Canvas) o).draw(g);
+        } else {
+            ((DisplayList) o).draw(g);
+        }
+        g.dispose();
+        return img;
+    }
+
+    private static int[] pixels(BufferedImage img) {
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+
+}
@@ -0,0 +1,98 @@
+package nodebox.graphics;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+
+import static junit.framework.Assert.*;
+import static nodebox.graphics.GraphicsTestUtils.assertPointEquals;
+
+public class GeometryCursorTest {
+
+    @Test
+    public void testSegments() {
+        Path p = new Path();
+        p.moveto(0, 0);
+        p.lineto(10, 0);
+        p.curveto(20, 0, 30, 10, 30, 20);
+        p.close();
+        p.moveto(100, 100);
+        p.lineto(110, 100);
+        GeometryCursor cursor = p.cursor();
+        assertSegment(cursor, PathElement.MOVETO, 0, 0, 0);
+        assertSegment(cursor, PathElement.LINETO, 0, 10, 0);
+        assertEquals(0.0, cursor.getStartX());
+        assertSegment(cursor, PathElement.CURVETO, 0, 30, 20);
+        assertEquals(10.0, cursor.getStartX());
+        assertEquals(20.0, cursor.getControl1X());
+        assertEquals(10.0, cursor.getControl2Y());
+        // Closing the contour goes back to the first point.
+        assertSegment(cursor, PathElement.CLOSE, 0, 0, 0);
+        assertSegment(cursor, PathElement.MOVETO, 1, 100, 100);
+        assertSegment(cursor, PathElement.LINETO, 1, 110, 100);
+        assertFalse(cursor.next());
+        assertFalse(cursor.next());
+        cursor.reset();
+        assertSegment(cursor, PathElement.MOVETO, 0, 0, 0);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertFalse(new Path().cursor().next());
+        assertFalse(new Geometry().cursor().next());
+        Path p = new Path();
+        p.add(new Contour());
+        assertFalse(p.cursor().next());
+        assertEquals(0, p.cursor().getPointCount());
+    }
+
+    @Test
+    public void testRandomAccess() {
+        Path p1 = new Path();
+        p1.line(0, 0, 10, 0);
+        p1.add(new Contour());
+        p1.line(20, 0, 30, 0);
+        Path p2 = new Path();
+        p2.rect(100, 100, 20, 20);
+        Geometry g = new Geometry();
+        g.add(p1);
+        g.add(p2);
+        GeometryCursor cursor = g.cursor();
+        assertEquals(8, cursor.getPointCount());
+        assertEquals(0.0, cursor.getPointX(0));
+        assertEquals(10.0, cursor.getPointX(1));
+        assertEquals(20.0, cursor.getPointX(2));
+        assertEquals(30.0, cursor.getPointX(3));
+        assertPointEquals(90, 90, cursor.getPoint(4));
+        assertEquals(Point.LINE_TO, cursor.getPointType(7));
+        assertEquals(g.getPoints().get(6), cursor.getPoint(6));
+        try {
+            cursor.getPointX(8);
+            fail("Should have thrown an IndexOutOfBoundsException.");
+        } catch (IndexOutOfBoundsException ignored) {
+        }
+    }
+
+    @Test
+    public void testPathIterator() {
+        Path p = new Path();
+        p.line(0, 0, 10, 0);
+        p.line(20, 0, 30, 0);
+        Iterator<Point> it = p.iterator();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(p.getPoints().get(count), it.next());
+            count++;
+        }
+        assertEquals(4, count);
+    }
+
+    private void assertSegment(GeometryCursor cursor, int command, int contour, double x, double y) {
+        assertTrue(cursor.next());
+        assertEquals(command, cursor.getCommand());
+        assertEquals(contour, cursor.getContourIndex());
+        assertEquals(x, cursor.getX());
+        assertEquals(y, cursor.getY());
+    }
+
+}
@@ -92,6 +92,20 @@ public class GeometryTest {
         assertEquals(Rect.centeredRect(15, 27, 30, 40), g.getBounds());
     }
 
+    @Test
+    public void testBoundsCache() {
+        Path p = new Path();
+        p.rect(10, 20, 30, 40);
+        Geometry g = new Geometry();
+        g.add(p);
+        g.add(new Path());
+        Rect r = g.getBounds();
+        assertSame(r, g.getBounds());
+        // Adding a point to the path after it was added to the geometry changes the bounds.
+        p.addPoint(100, 100);
+        assertEquals(new Rect(-5, 0, 105, 100), g.getBounds());
+    }
+
     @Test
     public void testTranslatePointsOfGroup() {
         Path p1 = new Path();
@@ -155,6 +169,42 @@ public class GeometryTest {
         assertPointEquals(100, 0, resampledPoints.get(4));
     }
 
+    @Test
+    public void testMakePointsPerContour() {
+        Path p1 = new Path();
+        p1.line(0, 0, 50, 0);
+        Path p2 = new Path();
+        p2.line(0, 10, 50, 10);
+        p2.line(0, 20, 50, 20);
+        Geometry g = new Geometry();
+        g.add(p1);
+        g.add(p2);
+        Point[] points = g.makePoints(3, true);
+        assertEquals(9, points.length);
+        assertPointEquals(25, 0, points[1]);
+        assertPointEquals(50, 10, points[5]);
+        assertPointEquals(0, 20, points[6]);
+    }
+
+    @Test
+    public void testPointAtManyPaths() {
+        // 100 paths of two contours each, every contour 10 long.
+        Geometry g = new Geometry();
+        for (int i = 0; i < 100; i++) {
+            Path p = new Path();
+            p.line(0, i, 10, i);
+            p.line(20, i, 30, i);
+            g.add(p);
+        }
+        assertEquals(2000.0, g.getLength());
+        assertPointEquals(0, 0, g.pointAt(0));
+        assertPointEquals(25, 0, g.pointAt(0.0075));
+        assertPointEquals(10, 0, g.pointAt(0.005));
+        assertPointEquals(5, 50, g.pointAt(0.5025));
+        assertPointEquals(30, 99, g.pointAt(1));
+        assertEquals(Point.ZERO, new Geometry().pointAt(0.5));
+    }
+
     /**
      * Group uses a path length cache to speed up pointAt, makePoints and resample operations.
      * Check if the cache is properly invalidated.
@@ -1,6 +1,9 @@
 package nodebox.graphics;
 
+import java.awt.image.BufferedImage;
+
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
 
 public class GraphicsTestUtils {
 
@@ -11,6 +14,22 @@ public class GraphicsTestUtils {
         assertEquals(y, actual.y, 0.001);
     }
 
+    /**
+     * Compare two images pixel by pixel. Fully transparent pixels are the same, whatever their color.
+     */
+    public static void assertSameImage(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int e = expected.getRGB(x, y), a = actual.getRGB(x, y);
+                if (e >>> 24 == 0 && a >>> 24 == 0) continue;
+                if (e != a) fail("Pixel " + x + "," + y + " is " + Integer.toHexString(a) + " instead of "
+                        + Integer.toHexString(e));
+            }
+        }
+    }
+
     public static void addRect(IGeometry g, double x, double y, double width, double height) {
         g.addPoint(x, y);
         g.addPoint(x + width, y);
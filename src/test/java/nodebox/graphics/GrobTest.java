@@ -3,8 +3,11 @@ package nodebox.graphics;
 import org.junit.Test;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
 
 public class GrobTest {
 
@@ -43,4 +46,48 @@ public class GrobTest {
         assertEquals(new Rect(201, 302, 3, 4), tg.getBounds());
 
     }
+
+    /**
+     * Subclasses that save the transformation in the grob keep working.
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testSavedTransform() {
+        BufferedImage img = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.translate(2, 3);
+        TestGrob tg = new TestGrob(0, 0, 1, 1);
+        tg.saveTransform(g);
+        g.scale(4, 4);
+        tg.restoreTransform(g);
+        assertEquals(java.awt.geom.AffineTransform.getTranslateInstance(2, 3), g.getTransform());
+        tg.translate(5, 0);
+        java.awt.geom.AffineTransform saved = tg.concatenateTransform(g);
+        assertEquals(7.0, g.getTransform().getTranslateX());
+        tg.restoreTransform(g, saved);
+        assertEquals(2.0, g.getTransform().getTranslateX());
+        g.dispose();
+    }
+
+    @Test
+    public void testCachedBounds() {
+        Text t = new Text("Bounds", 0, 0);
+        Rect r = t.getBounds();
+        assertSame(r, t.getBounds());
+        t.translate(10, 0);
+        assertEquals(r.getX() + 10, t.getBounds().getX(), 0.001);
+        r = t.getBounds();
+        t.setFontSize(48);
+        assertFalse(r.equals(t.getBounds()));
+        assertSame(t.getBounds(), t.getBounds());
+
+        Image img = new Image(new BufferedImage(20, 10, BufferedImage.TYPE_INT_ARGB));
+        r = img.getBounds();
+        assertSame(r, img.getBounds());
+        assertEquals(new Rect(-10, -5, 20, 10), r);
+        img.setWidth(40);
+        assertEquals(new Rect(-20, -10, 40, 20), img.getBounds());
+        img.setX(20);
+        assertEquals(new Rect(0, -10, 40, 20), img.getBounds());
+    }
 }
@@ -0,0 +1,53 @@
+package nodebox.graphics;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static junit.framework.Assert.*;
+
+public class ImagePoolTest {
+
+    @Test
+    public void testReuse() {
+        ImagePool pool = new ImagePool();
+        BufferedImage a = pool.acquire(100, 50);
+        assertEquals(100, a.getWidth());
+        assertEquals(50, a.getHeight());
+        assertEquals(1, pool.getAllocationCount());
+        pool.release(a);
+        assertEquals(100 * 50 * 4, pool.getPooledBytes());
+        assertSame(a, pool.acquire(100, 50));
+        assertEquals(0, pool.getPooledBytes());
+        // An image of another size is not reused.
+        pool.release(a);
+        BufferedImage b = pool.acquire(50, 100);
+        assertNotSame(a, b);
+        assertEquals(2, pool.getAllocationCount());
+        // Images of other types are not kept.
+        pool.release(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB));
+        assertEquals(100 * 50 * 4, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testMemoryBound() {
+        // Room for two images of 10x10.
+        ImagePool pool = new ImagePool(800);
+        BufferedImage small1 = pool.acquire(10, 10);
+        BufferedImage small2 = pool.acquire(10, 10);
+        BufferedImage other = pool.acquire(5, 10);
+        pool.release(small1);
+        pool.release(other);
+        assertEquals(600, pool.getPooledBytes());
+        // The least recently used size is dropped first.
+        pool.release(small2);
+        assertEquals(800, pool.getPooledBytes());
+        assertSame(small2, pool.acquire(10, 10));
+        assertSame(small1, pool.acquire(10, 10));
+        assertNotSame(other, pool.acquire(5, 10));
+        // An image that is larger than the pool is never kept.
+        pool.release(pool.acquire(100, 100));
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+}
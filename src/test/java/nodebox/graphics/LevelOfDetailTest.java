@@ -0,0 +1,139 @@
+package nodebox.graphics;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class LevelOfDetailTest {
+
+    @Test
+    public void testSimplify() {
+        Path p = new Path();
+        p.ellipse(0, 0, 100, 50);
+        // A dot of 2 by 2 units is less than a pixel at a scale of 1/4.
+        p.ellipse(200, 0, 2, 2);
+        GeneralPath gp = LevelOfDetail.DEFAULT.simplify(p.getContours(), LevelOfDetail.getLevel(0.25));
+        int lines = 0;
+        float[] coords = new float[6];
+        for (PathIterator it = gp.getPathIterator(null); !it.isDone(); it.next()) {
+            int type = it.currentSegment(coords);
+            assertTrue(type != PathIterator.SEG_CUBICTO && type != PathIterator.SEG_QUADTO);
+            if (type == PathIterator.SEG_LINETO) lines++;
+        }
+        // The dot is a rectangle, the ellipse has more lines than its four curves.
+        assertTrue(lines > 3 + 4);
+        Rectangle2D bounds = gp.getBounds2D();
+        assertEquals(-50.0, bounds.getMinX(), 0.01);
+        assertEquals(-25.0, bounds.getMinY(), 0.01);
+        assertEquals(201.0, bounds.getMaxX(), 0.01);
+        assertEquals(25.0, bounds.getMaxY(), 0.01);
+        // At a larger scale, the curves get more lines.
+        GeneralPath detailed = LevelOfDetail.DEFAULT.simplify(p.getContours(), LevelOfDetail.getLevel(4));
+        int detailedLines = 0;
+        for (PathIterator it = detailed.getPathIterator(null); !it.isDone(); it.next()) {
+            if (it.currentSegment(coords) == PathIterator.SEG_LINETO) detailedLines++;
+        }
+        assertTrue(detailedLines > lines);
+    }
+
+    @Test
+    public void testLargeCurves() {
+        Path p = new Path();
+        p.moveto(0, 0);
+        // About a quarter circle with a radius of 100.
+        p.curveto(55.2, 0, 100, 44.8, 100, 100);
+        // At a scale of 1000, the lines can only be 0.25 / 1024 units from the curve. A chord of a circle with a
+        // radius of 100 needs to be shorter than sqrt(8 * 100 * 0.25 / 1024) = 0.44 for that, so the curve of
+        // 157 units needs more than 350 lines.
+        GeneralPath gp = LevelOfDetail.DEFAULT.simplify(p.getContours(), LevelOfDetail.getLevel(1000));
+        int lines = 0;
+        float[] coords = new float[6];
+        for (PathIterator it = gp.getPathIterator(null); !it.isDone(); it.next()) {
+            if (it.currentSegment(coords) == PathIterator.SEG_LINETO) lines++;
+        }
+        assertTrue("Only " + lines + " lines.", lines > 350);
+    }
+
+    @Test
+    public void testTinyPaths() {
+        Geometry geometry = new Geometry();
+        java.util.Random r = new java.util.Random(5);
+        for (int i = 0; i < 2000; i++) {
+            Path p = new Path();
+            p.ellipse(r.nextDouble() * 1000, r.nextDouble() * 1000, 2 + r.nextDouble() * 6, 2 + r.nextDouble() * 6);
+            p.setFillColor(new Color(0, 0, 0, 0.5));
+            geometry.add(p);
+        }
+        // The paths are less than a pixel wide at this scale. They should leave the same amount of ink as
+        // drawing them at 8 times the size.
+        double expected = ink(draw(geometry, 0.8, null)) / 64;
+        double actual = ink(draw(geometry, 0.1, LevelOfDetail.DEFAULT));
+        assertEquals(expected, actual, expected * 0.05);
+        // Large paths only have their curves flattened.
+        BufferedImage plain = draw(geometry, 3, null);
+        BufferedImage flattened = draw(geometry, 3, LevelOfDetail.DEFAULT);
+        int maxDifference = 0;
+        for (int y = 0; y < plain.getHeight(); y++) {
+            for (int x = 0; x < plain.getWidth(); x++) {
+                maxDifference = Math.max(maxDifference, Math.abs((plain.getRGB(x, y) >>> 24) - (flattened.getRGB(x, y) >>> 24)));
+            }
+        }
+        assertTrue(maxDifference < 32);
+    }
+
+    @Test
+    public void testPathsWithoutArea() {
+        Geometry geometry = new Geometry();
+        Path line = new Path();
+        line.moveto(10, 10);
+        line.lineto(10.5, 10);
+        line.setFillColor(new Color(0, 0, 0));
+        line.setStrokeColor(null);
+        geometry.add(line);
+        Path point = new Path();
+        point.moveto(20, 20);
+        point.setFillColor(new Color(0, 0, 0));
+        point.setStrokeColor(null);
+        geometry.add(point);
+        Path invisible = new Path();
+        invisible.rect(30, 30, 0.5, 0.5);
+        invisible.setFillColor(null);
+        invisible.setStrokeColor(null);
+        geometry.add(invisible);
+        // Without a stroke, nothing covers these paths.
+        assertEquals(0.0, ink(draw(geometry, 0.1, LevelOfDetail.DEFAULT)));
+    }
+
+    /**
+     * Returns the sum of the alpha of the pixels.
+     */
+    private static double ink(BufferedImage img) {
+        double ink = 0;
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                ink += (img.getRGB(x, y) >>> 24) / 255.0;
+            }
+        }
+        return ink;
+    }
+
+    private static BufferedImage draw(Geometry geometry, double scale, LevelOfDetail lod) {
+        int size = (int) Math.ceil(1000 * scale);
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(LevelOfDetail.KEY, lod);
+        g.scale(scale, scale);
+        geometry.draw(g);
+        g.dispose();
+        return img;
+    }
+
+}
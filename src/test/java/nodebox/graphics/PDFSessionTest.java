@@ -0,0 +1,51 @@
+package nodebox.graphics;
+
+import com.itextpdf.text.pdf.PdfReader;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class PDFSessionTest {
+
+    @Test
+    public void testPages() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PDFSession session = new PDFSession(out);
+        for (int i = 0; i < 5; i++) {
+            Canvas c = new Canvas(100 + i * 10, 50);
+            Path p = new Path();
+            p.ellipse(0, 0, 20 + i, 20);
+            c.add(p);
+            int written = out.size();
+            session.addPage(c);
+            if (i > 1) {
+                // The previous page was written out.
+                assertTrue(out.size() > written);
+            }
+        }
+        // A page that draws nothing is kept.
+        session.addPage(new Canvas(30, 40));
+        session.close();
+        assertEquals(6, session.getPageCount());
+        PdfReader reader = new PdfReader(out.toByteArray());
+        assertEquals(6, reader.getNumberOfPages());
+        assertEquals(100f, reader.getPageSize(1).getWidth());
+        assertEquals(140f, reader.getPageSize(5).getWidth());
+        assertEquals(40f, reader.getPageSize(6).getHeight());
+        reader.close();
+    }
+
+    @Test
+    public void testNoPages() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PDFSession(out).close();
+        PdfReader reader = new PdfReader(out.toByteArray());
+        assertEquals(1, reader.getNumberOfPages());
+        reader.close();
+    }
+
+}
@@ -0,0 +1,143 @@
+package nodebox.graphics;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static junit.framework.Assert.*;
+import static nodebox.graphics.GraphicsTestUtils.assertSameImage;
+
+public class PNGEncoderTest {
+
+    @Test
+    public void testFilters() throws IOException {
+        // Tall enough for several bands.
+        BufferedImage img = createImage(300, 2000, BufferedImage.TYPE_INT_ARGB);
+        for (PNGEncoder.Filter filter : PNGEncoder.Filter.values()) {
+            assertSameImage(img, roundTrip(img, new PNGEncoder(filter, PNGEncoder.DEFAULT_LEVEL, true)));
+        }
+    }
+
+    @Test
+    public void testLevels() throws IOException {
+        BufferedImage img = createImage(200, 1500, BufferedImage.TYPE_INT_ARGB);
+        for (int level = 0; level <= 9; level += 3) {
+            assertSameImage(img, roundTrip(img, new PNGEncoder(PNGEncoder.Filter.PAETH, level, true)));
+        }
+    }
+
+    @Test
+    public void testImageTypes() throws IOException {
+        BufferedImage rgb = createImage(100, 50, BufferedImage.TYPE_INT_RGB);
+        BufferedImage read = roundTrip(rgb, new PNGEncoder());
+        assertFalse(read.getColorModel().hasAlpha());
+        assertSameImage(rgb, read);
+        // Other types go through getRGB.
+        assertSameImage(createImage(100, 50, BufferedImage.TYPE_3BYTE_BGR), roundTrip(
+                createImage(100, 50, BufferedImage.TYPE_3BYTE_BGR), new PNGEncoder()));
+        BufferedImage premultiplied = createImage(100, 50, BufferedImage.TYPE_INT_ARGB_PRE);
+        assertSameImage(premultiplied, roundTrip(premultiplied, new PNGEncoder()));
+    }
+
+    @Test
+    public void testSingleStream() throws IOException, DataFormatException {
+        BufferedImage img = createImage(300, 2000, BufferedImage.TYPE_INT_ARGB);
+        byte[] png = encode(img, new PNGEncoder());
+        // Inflate all IDAT chunks as one zlib stream, which also checks the checksum.
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(png, 8, png.length - 8));
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        int idatCount = 0;
+        while (in.available() > 0) {
+            int length = in.readInt();
+            byte[] type = new byte[4];
+            in.readFully(type);
+            byte[] data = new byte[length];
+            in.readFully(data);
+            in.readInt();
+            if (new String(type, "US-ASCII").equals("IDAT")) {
+                idat.write(data);
+                idatCount++;
+            }
+        }
+        assertTrue(idatCount > 1);
+        Inflater inflater = new Inflater();
+        inflater.setInput(idat.toByteArray());
+        byte[] output = new byte[2000 * (1 + 300 * 4) + 1];
+        int size = 0;
+        while (!inflater.finished()) {
+            size += inflater.inflate(output, size, output.length - size);
+        }
+        assertEquals(2000 * (1 + 300 * 4), size);
+        assertEquals(0, inflater.getRemaining());
+    }
+
+    @Test
+    public void testParallelIsSame() throws IOException {
+        BufferedImage img = createImage(300, 2000, BufferedImage.TYPE_INT_ARGB);
+        byte[] parallel = encode(img, new PNGEncoder(PNGEncoder.Filter.ADAPTIVE, 6, true));
+        byte[] sequential = encode(img, new PNGEncoder(PNGEncoder.Filter.ADAPTIVE, 6, false));
+        assertTrue(java.util.Arrays.equals(parallel, sequential));
+    }
+
+    @Test
+    public void testCombineAdler() {
+        byte[] data = new byte[100000];
+        new Random(42).nextBytes(data);
+        Adler32 whole = new Adler32();
+        whole.update(data);
+        Adler32 first = new Adler32();
+        first.update(data, 0, 70000);
+        Adler32 second = new Adler32();
+        second.update(data, 70000, 30000);
+        assertEquals(whole.getValue(), PNGEncoder.combineAdler(first.getValue(), second.getValue(), 30000));
+    }
+
+    @Test
+    public void testCanvasSave() throws IOException {
+        Canvas c = new Canvas(100, 80);
+        Path p = new Path();
+        p.ellipse(50, 40, 60, 40);
+        p.setFillColor(new Color(1, 0, 0, 0.5));
+        c.add(p);
+        File file = File.createTempFile("test", ".png");
+        try {
+            c.save(file, new PNGEncoder(PNGEncoder.Filter.SUB, 9, false));
+            assertSameImage(c.asImage(), ImageIO.read(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static BufferedImage createImage(int width, int height, int type) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        Random r = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // A gradient with some noise, so the filters have something to do.
+                int red = (x + y) & 0xFF;
+                int green = (x * y / 64) & 0xFF;
+                int blue = r.nextInt(8) * 32;
+                int alpha = type == BufferedImage.TYPE_INT_ARGB ? (x * 255 / width) : 255;
+                img.setRGB(x, y, (alpha << 24) | (red << 16) | (green << 8) | blue);
+            }
+        }
+        return img;
+    }
+
+    private static byte[] encode(BufferedImage img, PNGEncoder encoder) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.write(img, out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage roundTrip(BufferedImage img, PNGEncoder encoder) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(encode(img, encoder)));
+    }
+
+}
@@ -5,6 +5,10 @@ import org.junit.Test;
 import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
 import static nodebox.graphics.GraphicsTestUtils.addRect;
 import static nodebox.graphics.GraphicsTestUtils.assertPointEquals;
 
@@ -105,6 +109,29 @@ public class PathTest {
         assertEquals(SIDE * 4, p.getLength());
     }
 
+    @Test
+    public void testCurveLength() {
+        // A curve with its control points on the line between start and end is a straight line.
+        assertEquals(100.0, Path.curveLength(0, 0, 25, 0, 75, 0, 100, 0));
+        // A quarter circle, approximated by a bezier, is about r * PI / 2 long.
+        double k = 0.5522847498 * 100;
+        assertEquals(Math.PI * 50, Path.curveLength(100, 0, 100, k, k, 100, 0, 100), 0.05);
+        // Check a strongly curved segment against a finely sampled reference.
+        double reference = Path.curveLength(0, 0, 1000, 1000, -1000, 1000, 0, 0, 200000);
+        assertEquals(reference, Path.curveLength(0, 0, 1000, 1000, -1000, 1000, 0, 0, 0.01), 0.01);
+        // The default tolerance is relative to the length of the control polygon.
+        double polygon = 2 * Math.sqrt(2) * 1000 + 2000;
+        assertEquals(reference, Path.curveLength(0, 0, 1000, 1000, -1000, 1000, 0, 0), Path.LENGTH_TOLERANCE * polygon);
+        // The speed of this curve almost drops to zero halfway, where it turns back on itself.
+        reference = Path.curveLength(90.2228, 12.1893, 49.6349, 323.9228, 105.5343, 318.6481, 34.8361, 23.2778, 200000);
+        assertEquals(reference, Path.curveLength(90.2228, 12.1893, 49.6349, 323.9228, 105.5343, 318.6481, 34.8361, 23.2778, 0.001), 0.001);
+        polygon = Path.lineLength(90.2228, 12.1893, 49.6349, 323.9228) + Path.lineLength(49.6349, 323.9228, 105.5343, 318.6481)
+                + Path.lineLength(105.5343, 318.6481, 34.8361, 23.2778);
+        assertEquals(reference, Path.curveLength(90.2228, 12.1893, 49.6349, 323.9228, 105.5343, 318.6481, 34.8361, 23.2778), Path.LENGTH_TOLERANCE * polygon);
+        // A tiny curve is measured as precisely, relative to its size.
+        assertEquals(reference / 1000, Path.curveLength(0.0902228, 0.0121893, 0.0496349, 0.3239228, 0.1055343, 0.3186481, 0.0348361, 0.0232778), Path.LENGTH_TOLERANCE * polygon / 1000);
+    }
+
     public void testLengthMultipleContours() {
         Path p = new Path();
         p.line(0, 0, 100, 0);
@@ -146,6 +173,77 @@ public class PathTest {
         assertPointEquals(100, 0, p.pointAt(1.0));
     }
 
+    @Test
+    public void testFlattened() {
+        Path p = new Path();
+        p.setFill(new Color(1, 0, 0));
+        p.ellipse(0, 0, 100, 100);
+        p.rect(200, 0, 50, 50);
+        Path flat = p.flattened();
+        assertEquals(p.getFillColor(), flat.getFillColor());
+        assertEquals(2, flat.getContours().size());
+        assertTrue(flat.getContours().get(0).isClosed());
+        for (Point pt : flat.getPoints()) {
+            assertEquals(Point.LINE_TO, pt.type);
+        }
+        // The rectangle has no curves and stays the same.
+        assertEquals(p.getContours().get(1).getPoints(), flat.getContours().get(1).getPoints());
+        // The flattened ellipse is a bit shorter than the real one.
+        double length = p.getContours().get(0).getLength();
+        double flatLength = flat.getContours().get(0).getLength();
+        assertTrue(flatLength < length);
+        assertEquals(length, flatLength, 0.5);
+        p.flatten();
+        assertEquals(flat.getPoints(), p.getPoints());
+    }
+
+    @Test
+    public void testDeferredTransform() {
+        Path p = new Path();
+        p.rect(0, 0, 10, 10);
+        p.line(100, 0, 100, 50);
+        Path expected = p.clone();
+        expected.translate(5, 0);
+        expected.rotate(90);
+        expected.scale(2);
+        p.setDeferTransforms(true);
+        p.translate(5, 0);
+        p.rotate(90);
+        p.scale(2);
+        for (Contour c : p.getContours()) {
+            assertTrue(c.hasPendingTransform());
+        }
+        // Asking for the bounds or the points applies the transformations.
+        assertEquals(expected.getBounds(), p.getBounds());
+        assertFalse(p.getContours().get(0).hasPendingTransform());
+        assertEquals(expected.getPoints(), p.getPoints());
+        // Points added after a deferred transformation are not transformed.
+        p.translate(1000, 0);
+        p.addPoint(3, 4);
+        assertPointEquals(3, 4, p.getPoints().get(p.getPointCount() - 1));
+    }
+
+    @Test
+    public void testPointAtManyContours() {
+        // A row of 100 contours, each 10 long, with gaps in between.
+        Path p = new Path();
+        for (int i = 0; i < 100; i++) {
+            p.line(i * 20, 0, i * 20 + 10, 0);
+        }
+        assertEquals(1000.0, p.getLength());
+        assertPointEquals(0, 0, p.pointAt(0));
+        assertPointEquals(5, 0, p.pointAt(0.005));
+        assertPointEquals(10, 0, p.pointAt(0.01));
+        assertPointEquals(425, 0, p.pointAt(0.215));
+        assertPointEquals(1990, 0, p.pointAt(1));
+        assertSame(p.getContours().get(0), p.contourAt(0));
+        assertSame(p.getContours().get(0), p.contourAt(0.01));
+        assertSame(p.getContours().get(21), p.contourAt(0.215));
+        assertSame(p.getContours().get(99), p.contourAt(1));
+        assertNull(p.contourAt(1.5));
+        assertNull(new Path().contourAt(0));
+    }
+
     public void testContour() {
         final double SIDE = 50;
         Point[] points;
@@ -198,6 +296,24 @@ public class PathTest {
         assertPointEquals(0, SIDE, resampledPoints.get(3));
     }
 
+    @Test
+    public void testPack() {
+        Path p = new Path();
+        p.rect(0, 0, 100, 100);
+        p.rect(150, 150, 100, 100);
+        p.ellipse(50, 50, 20, 20);
+        List<Point> before = p.getPoints();
+        Rect bounds = p.getBounds();
+        p.pack();
+        assertEquals(before, p.getPoints());
+        assertEquals(bounds, p.getBounds());
+        // Growing a packed contour doesn't affect its neighbours.
+        Contour first = p.getContours().get(0);
+        first.addPoint(500, 500);
+        assertPointEquals(500, 500, first.getPoints().get(4));
+        assertEquals(before.subList(4, 8), p.getContours().get(1).getPoints());
+    }
+
     private Path cornerRect(float x, float y, float width, float height) {
         Path p = new Path();
         p.rect(x + width / 2, y + height / 2, width, height);
@@ -251,6 +367,72 @@ public class PathTest {
         assertEquals(Rect.centeredRect(-80, -200, 100, 100), p2.getBounds());
     }
 
+    @Test
+    public void testAppendedGeneralPath() {
+        Path p = new Path();
+        java.awt.geom.GeneralPath gp = p.getGeneralPath();
+        p.moveto(0, 0);
+        p.lineto(10, 0);
+        assertSameSegments(p);
+        // Appending extends the cached path.
+        p.curveto(20, 0, 20, 10, 20, 20);
+        assertSame(gp, p.getGeneralPath());
+        assertSameSegments(p);
+        // Halfway through a curve.
+        p.addPoint(new Point(30, 20, Point.CURVE_DATA));
+        assertSameSegments(p);
+        p.addPoint(new Point(30, 30, Point.CURVE_DATA));
+        p.addPoint(new Point(40, 30, Point.CURVE_TO));
+        assertSameSegments(p);
+        p.close();
+        p.rect(100, 100, 10, 10);
+        assertSame(gp, p.getGeneralPath());
+        assertSameSegments(p);
+        assertEquals(p.clone().getLength(), p.getLength());
+        // Adding points to a closed contour builds a new path.
+        p.getContours().get(1).addPoint(200, 200);
+        assertSameSegments(p);
+        assertFalse(gp == p.getGeneralPath());
+        p.invalidate();
+        assertSameSegments(p);
+    }
+
+    @Test
+    public void testRemovedContoursGeneralPath() {
+        Path p = new Path();
+        p.rect(0, 0, 10, 10);
+        p.rect(20, 0, 10, 10);
+        p.rect(40, 0, 10, 10);
+        p.getGeneralPath();
+        // Removing contours through the list builds a new path.
+        p.getContours().remove(2);
+        assertSameSegments(p);
+        p.getContours().clear();
+        assertSameSegments(p);
+        p.rect(0, 0, 10, 10);
+        assertSameSegments(p);
+    }
+
+    /**
+     * Compare the cached AWT path with one that is built from scratch.
+     */
+    private static void assertSameSegments(Path p) {
+        java.awt.geom.PathIterator expected = new Path(p).getGeneralPath().getPathIterator(null);
+        java.awt.geom.PathIterator actual = p.getGeneralPath().getPathIterator(null);
+        double[] expectedCoords = new double[6];
+        double[] actualCoords = new double[6];
+        while (!expected.isDone()) {
+            assertFalse(actual.isDone());
+            assertEquals(expected.currentSegment(expectedCoords), actual.currentSegment(actualCoords));
+            for (int i = 0; i < 6; i++) {
+                assertEquals(expectedCoords[i], actualCoords[i]);
+            }
+            expected.next();
+            actual.next();
+        }
+        assertTrue(actual.isDone());
+    }
+
     /**
      * Check the bounds for an empty path.
      */
@@ -0,0 +1,138 @@
+package nodebox.graphics;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import static junit.framework.Assert.*;
+
+public class RasterCacheTest {
+
+    @Test
+    public void testText() {
+        RasterCache cache = RasterCache.getShared();
+        Text cached = new Text("Cached text\nover two lines", 0, 0);
+        cached.setRasterCached(true);
+        cached.translate(50, 80);
+        cached.rotate(20);
+        Text plain = cached.clone();
+        plain.setRasterCached(false);
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+        assertSimilar(draw(plain, java.awt.Color.BLACK), draw(cached, java.awt.Color.BLACK));
+        assertEquals(misses + 1, cache.getMissCount());
+        // Only the translation changes, by whole pixels.
+        cached.prependTransform(Transform.translated(17, 5));
+        plain.prependTransform(Transform.translated(17, 5));
+        assertSimilar(draw(plain, java.awt.Color.BLACK), draw(cached, java.awt.Color.BLACK));
+        assertEquals(hits + 1, cache.getHitCount());
+        assertEquals(misses + 1, cache.getMissCount());
+        // A new color, rotation or text renders again.
+        assertSimilar(draw(plain, java.awt.Color.RED), draw(cached, java.awt.Color.RED));
+        cached.rotate(5);
+        plain.rotate(5);
+        assertSimilar(draw(plain, java.awt.Color.RED), draw(cached, java.awt.Color.RED));
+        cached.setText("Other text");
+        plain.setText("Other text");
+        assertSimilar(draw(plain, java.awt.Color.RED), draw(cached, java.awt.Color.RED));
+        assertEquals(hits + 1, cache.getHitCount());
+        assertEquals(misses + 4, cache.getMissCount());
+    }
+
+    @Test
+    public void testPath() {
+        RasterCache cache = RasterCache.getShared();
+        Path cached = new Path();
+        cached.ellipse(30, 40, 40, 30);
+        cached.setFillColor(new Color(0.2, 0.4, 0.8, 0.7));
+        cached.setStrokeColor(new Color(0, 0, 0));
+        cached.setStrokeWidth(3);
+        cached.setRasterCached(true);
+        assertTrue(cached.clone().isRasterCached());
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+        for (int i = 0; i < 5; i++) {
+            // Scrolling only changes the translation of the graphics context.
+            AffineTransform t = AffineTransform.getTranslateInstance(i * 10, i * 3);
+            assertSimilar(draw(cached, t, false), draw(cached, t, true));
+        }
+        assertEquals(hits + 4, cache.getHitCount());
+        assertEquals(misses + 1, cache.getMissCount());
+        cached.setFillColor(new Color(1, 0, 0));
+        assertSimilar(draw(cached, new AffineTransform(), false), draw(cached, new AffineTransform(), true));
+        cached.translate(5, 5);
+        assertSimilar(draw(cached, new AffineTransform(), false), draw(cached, new AffineTransform(), true));
+        AffineTransform zoomed = AffineTransform.getScaleInstance(1.5, 1.5);
+        assertSimilar(draw(cached, zoomed, false), draw(cached, zoomed, true));
+        assertEquals(misses + 4, cache.getMissCount());
+    }
+
+    @Test
+    public void testMemoryBound() {
+        RasterCache cache = new RasterCache(80000);
+        RasterCache.Renderer renderer = new RasterCache.Renderer() {
+            public Rectangle2D getBounds() {
+                return new Rectangle2D.Double(0, 0, 100, 100);
+            }
+
+            public void render(Graphics2D g) {
+                g.fillRect(0, 0, 100, 100);
+            }
+        };
+        Graphics2D g = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        // An image of 100 by 100 pixels takes 40.000 bytes, more than an eighth of the cache.
+        assertFalse(cache.draw(g, this, new AffineTransform(), null, renderer));
+        assertTrue(cache.draw(g, this, AffineTransform.getScaleInstance(0.25, 0.25), null, renderer));
+        assertTrue(cache.draw(g, this, AffineTransform.getScaleInstance(0.25, 0.25), null, renderer));
+        assertEquals(1, cache.getHitCount());
+        g.dispose();
+    }
+
+    private static BufferedImage draw(Grob grob, java.awt.Color color) {
+        BufferedImage img = new BufferedImage(300, 200, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(color);
+        grob.draw(g);
+        g.dispose();
+        return img;
+    }
+
+    private static BufferedImage draw(Path p, AffineTransform t, boolean rasterCached) {
+        Path copy = p;
+        if (!rasterCached) {
+            copy = p.clone();
+            copy.setRasterCached(false);
+        }
+        BufferedImage img = new BufferedImage(200, 200, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.transform(t);
+        copy.draw(g);
+        g.dispose();
+        return img;
+    }
+
+    /**
+     * Copying the premultiplied image can round the channels differently than drawing directly.
+     */
+    private static void assertSimilar(BufferedImage expected, BufferedImage actual) {
+        int drawn = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int a = expected.getRGB(x, y), b = actual.getRGB(x, y);
+                if ((a >>> 24) > 0) drawn++;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int ca = ((a >> shift) & 0xff) * (a >>> 24) / 255;
+                    int cb = ((b >> shift) & 0xff) * (b >>> 24) / 255;
+                    assertTrue("Pixel " + x + "," + y, Math.abs(ca - cb) <= 2);
+                }
+            }
+        }
+        assertTrue(drawn > 100);
+    }
+
+}
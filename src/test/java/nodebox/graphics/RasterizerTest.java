@@ -0,0 +1,128 @@
+package nodebox.graphics;
+
+import org.junit.Test;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class RasterizerTest {
+
+    private static final int BLACK = 0xff000000;
+
+    @Test
+    public void testCoverage() {
+        int[] pixels = new int[20 * 10];
+        Rasterizer r = new Rasterizer(pixels, 20, 10);
+        Path p = new Path();
+        p.rect(5, 5, 6, 6);
+        p.setFillColor(new Color(0, 0, 0));
+        // The rect goes from 2,2 to 8,8, on whole pixels.
+        r.draw(p);
+        assertEquals(0, pixels[1 * 20 + 1]);
+        assertEquals(BLACK, pixels[2 * 20 + 2]);
+        assertEquals(BLACK, pixels[7 * 20 + 7]);
+        assertEquals(0, pixels[8 * 20 + 8]);
+        // Moved by half a pixel, the pixels on the edge are half covered.
+        r.clear(null);
+        r.setTransform(AffineTransform.getTranslateInstance(10.5, 0));
+        r.fill(p, new Color(0, 0, 0));
+        assertEquals(128, pixels[4 * 20 + 12] >>> 24, 1);
+        assertEquals(BLACK, pixels[4 * 20 + 13]);
+        assertEquals(128, pixels[4 * 20 + 18] >>> 24, 1);
+        assertEquals(0, pixels[4 * 20 + 19]);
+    }
+
+    @Test
+    public void testWindingRules() {
+        Path p = new Path();
+        p.rect(10, 10, 20, 20);
+        p.rect(10, 10, 8, 8);
+        int[] pixels = new int[20 * 20];
+        Rasterizer r = new Rasterizer(pixels, 20, 20);
+        r.fill(p, new Color(0, 0, 0), PathIterator.WIND_NON_ZERO);
+        assertEquals(BLACK, pixels[10 * 20 + 10]);
+        r.clear(null);
+        r.fill(p, new Color(0, 0, 0), PathIterator.WIND_EVEN_ODD);
+        assertEquals(0, pixels[10 * 20 + 10]);
+        assertEquals(BLACK, pixels[2 * 20 + 2]);
+        // An open contour is filled as if it were closed.
+        Contour c = new Contour();
+        c.addPoint(0, 0);
+        c.addPoint(20, 0);
+        c.addPoint(20, 20);
+        r.clear(null);
+        r.fill(c, new Color(0, 0, 0));
+        assertEquals(BLACK, pixels[2 * 20 + 15]);
+        assertEquals(0, pixels[15 * 20 + 2]);
+    }
+
+    @Test
+    public void testOutsideOfBuffer() {
+        Path p = new Path();
+        p.ellipse(10, 10, 60, 30);
+        p.setFillColor(new Color(1, 0, 0, 0.5));
+        int[] pixels = new int[20 * 20];
+        Rasterizer r = new Rasterizer(pixels, 20, 20);
+        r.draw(p);
+        // The ellipse covers the whole buffer.
+        for (int pixel : pixels) {
+            assertEquals(0x80800000, pixel);
+        }
+    }
+
+    /**
+     * The rasterizer gives almost the same image as Java2D.
+     */
+    @Test
+    public void testSameAsJava2D() {
+        Canvas c = new Canvas(300, 200);
+        Random random = new Random(11);
+        for (int i = 0; i < 60; i++) {
+            Path p = new Path();
+            p.moveto(random.nextDouble() * 400 - 200, random.nextDouble() * 300 - 150);
+            p.curveto(random.nextDouble() * 400 - 200, random.nextDouble() * 300 - 150,
+                    random.nextDouble() * 400 - 200, random.nextDouble() * 300 - 150,
+                    random.nextDouble() * 400 - 200, random.nextDouble() * 300 - 150);
+            p.close();
+            p.setFillColor(new Color(random.nextDouble(), random.nextDouble(), random.nextDouble(), 0.6));
+            if (i % 4 == 0) {
+                p.setStrokeColor(new Color(0, 0, 0));
+                p.setStrokeWidth(random.nextDouble() * 4);
+            }
+            c.add(p);
+        }
+        c.add(new Text("Java2D", 0, 0));
+        // Java2D moves strokes to the nearest quarter pixel unless asked not to. The rasterizer doesn't.
+        BufferedImage expected = new BufferedImage(300, 200, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = expected.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        g.translate(150, 100);
+        c.draw(g);
+        g.dispose();
+        BufferedImage actual = c.rasterize();
+        long total = 0;
+        int max = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int a = expected.getRGB(x, y), b = actual.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int d = Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff));
+                    total += d;
+                    max = Math.max(max, d);
+                }
+            }
+        }
+        double mean = total / (4.0 * expected.getWidth() * expected.getHeight());
+        assertTrue("Mean difference " + mean, mean < 0.25);
+        assertTrue("Max difference " + max, max < 64);
+    }
+
+}
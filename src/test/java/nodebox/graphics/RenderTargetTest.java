@@ -0,0 +1,99 @@
+package nodebox.graphics;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static nodebox.graphics.GraphicsTestUtils.assertSameImage;
+
+public class RenderTargetTest {
+
+    @Test
+    public void testDamage() {
+        // The canvas goes from -150,-100 to 150,100, which is 5 by 4 tiles of 64 pixels.
+        Canvas c = new Canvas(300, 200);
+        Random r = new Random(3);
+        for (int i = 0; i < 50; i++) {
+            Path p = new Path();
+            p.ellipse(r.nextDouble() * 300 - 150, r.nextDouble() * 200 - 100, 20, 12);
+            p.setFillColor(new Color(r.nextDouble(), r.nextDouble(), r.nextDouble(), 0.7));
+            c.add(p);
+        }
+        RenderTarget target = new RenderTarget(c);
+        assertSameAsNewTarget(c, target.render());
+        assertEquals(20, target.getRepaintedTileCount());
+        target.render();
+        assertEquals(0, target.getRepaintedTileCount());
+
+        // Move an item from the middle of one tile to the middle of another.
+        Path moved = new Path();
+        moved.rect(-120, -80, 10, 10);
+        moved.setStrokeColor(new Color(1, 0, 0));
+        c.add(moved);
+        assertSameAsNewTarget(c, target.render());
+        assertEquals(1, target.getRepaintedTileCount());
+        moved.translate(64, 0);
+        assertSameAsNewTarget(c, target.render());
+        assertEquals(2, target.getRepaintedTileCount());
+
+        // Insert, reorder and remove items in the middle.
+        Path inserted = new Path();
+        inserted.rect(0, 0, 80, 80);
+        c.getItems().add(10, inserted);
+        assertSameAsNewTarget(c, target.render());
+        c.getItems().remove(20);
+        c.getItems().add(5, c.getItems().remove(30));
+        assertSameAsNewTarget(c, target.render());
+        c.getItems().remove(inserted);
+        assertSameAsNewTarget(c, target.render());
+
+        // A new color doesn't change the bounds.
+        moved.setFillColor(new Color(0, 0, 1));
+        target.render();
+        assertEquals(0, target.getRepaintedTileCount());
+        target.invalidate(moved);
+        assertSameAsNewTarget(c, target.render());
+        assertEquals(1, target.getRepaintedTileCount());
+
+        // Text is measured when it changes.
+        Text t = new Text("Damage", 100, 0);
+        c.add(t);
+        assertSameAsNewTarget(c, target.render());
+        t.setFillColor(new Color(0, 1, 0));
+        target.invalidate(t);
+        assertSameAsNewTarget(c, target.render());
+
+        c.setBackground(null);
+        assertSameAsNewTarget(c, target.render());
+        assertEquals(20, target.getRepaintedTileCount());
+    }
+
+    @Test
+    public void testMovedText() {
+        Canvas c = new Canvas(300, 200);
+        Text t = new Text("Moving", 0, 0);
+        c.add(t);
+        RenderTarget target = new RenderTarget(c);
+        target.render();
+        // Text has no bounds in the canvas, so the target needs to see it moved by itself.
+        t.translate(100, 50);
+        assertSameImage(c.asImage(), target.render());
+        assertEquals(true, target.getRepaintedTileCount() > 0);
+        t.rotate(30);
+        assertSameImage(c.asImage(), target.render());
+        t.setFillColor(new Color(1, 0, 0));
+        assertSameImage(c.asImage(), target.render());
+        target.render();
+        assertEquals(0, target.getRepaintedTileCount());
+    }
+
+    /**
+     * The image is the same as the image a new target renders from scratch.
+     */
+    private static void assertSameAsNewTarget(Canvas c, BufferedImage actual) {
+        assertSameImage(new RenderTarget(c).render(), actual);
+    }
+
+}
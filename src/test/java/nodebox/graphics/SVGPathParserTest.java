@@ -0,0 +1,167 @@
+package nodebox.graphics;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static junit.framework.Assert.*;
+import static nodebox.graphics.PathElement.*;
+
+public class SVGPathParserTest {
+
+    @Test
+    public void testAbsoluteAndRelative() {
+        List<PathElement> elements = SVGPathParser.parseElements("M10 10h80v80H10z m5,5 l10-10");
+        assertEquals(new PathElement(MOVETO, 10, 10), elements.get(0));
+        assertEquals(new PathElement(LINETO, 90, 10), elements.get(1));
+        assertEquals(new PathElement(LINETO, 90, 90), elements.get(2));
+        assertEquals(new PathElement(LINETO, 10, 90), elements.get(3));
+        assertEquals(new PathElement(CLOSE), elements.get(4));
+        // After a close, the current point is the start of the closed subpath.
+        assertEquals(new PathElement(MOVETO, 15, 15), elements.get(5));
+        assertEquals(new PathElement(LINETO, 25, 5), elements.get(6));
+        assertEquals(7, elements.size());
+    }
+
+    @Test
+    public void testImplicitCommands() {
+        // Pairs after a move are lines, relative after a relative move.
+        List<PathElement> elements = SVGPathParser.parseElements("M0 0 10 0 10,10m1 1 2 2c1 1 2 2 3 3 1 1 2 2 3 3");
+        assertEquals(new PathElement(LINETO, 10, 0), elements.get(1));
+        assertEquals(new PathElement(LINETO, 10, 10), elements.get(2));
+        assertEquals(new PathElement(MOVETO, 11, 11), elements.get(3));
+        assertEquals(new PathElement(LINETO, 13, 13), elements.get(4));
+        assertEquals(new PathElement(CURVETO, 14, 14, 15, 15, 16, 16), elements.get(5));
+        assertEquals(new PathElement(CURVETO, 17, 17, 18, 18, 19, 19), elements.get(6));
+    }
+
+    @Test
+    public void testCloseThenDraw() {
+        List<PathElement> elements = SVGPathParser.parseElements("M10 10 L20 10 Z L30 30");
+        assertEquals(new PathElement(CLOSE), elements.get(2));
+        assertEquals(new PathElement(MOVETO, 10, 10), elements.get(3));
+        assertEquals(new PathElement(LINETO, 30, 30), elements.get(4));
+    }
+
+    @Test
+    public void testNumbers() {
+        List<PathElement> elements = SVGPathParser.parseElements("M-.5.5L1e2-1E-1 +3.0e+1,0.000123");
+        assertEquals(new PathElement(MOVETO, -0.5, 0.5), elements.get(0));
+        assertEquals(new PathElement(LINETO, 100, -0.1), elements.get(1));
+        assertEquals(new PathElement(LINETO, 30, 0.000123), elements.get(2));
+        // Every number is parsed to the same double as Double.parseDouble.
+        Random r = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String s;
+            switch (i % 4) {
+                case 0:
+                    s = Double.toString(r.nextDouble() * 1000 - 500);
+                    break;
+                case 1:
+                    s = String.format(Locale.US, "%.3f", r.nextDouble() * 1000);
+                    break;
+                case 2:
+                    s = Double.toString(r.nextGaussian() * Math.pow(10, r.nextInt(60) - 30));
+                    break;
+                default:
+                    s = Long.toString(r.nextLong());
+                    break;
+            }
+            PathElement move = SVGPathParser.parseElements("M" + s + " 0").get(0);
+            assertEquals(s, Double.parseDouble(s), move.getX());
+        }
+    }
+
+    @Test
+    public void testSmoothCurves() {
+        List<PathElement> elements = SVGPathParser.parseElements("M0 0C0 10 10 10 10 0S20-10 20 0");
+        // The first control point is the reflection of the last one of the curve before.
+        assertEquals(new PathElement(CURVETO, 10, -10, 20, -10, 20, 0), elements.get(2));
+        elements = SVGPathParser.parseElements("M0 0 L10 0 S20 10 30 0");
+        // Without a curve before, the first control point is the current point.
+        assertEquals(new PathElement(CURVETO, 10, 0, 20, 10, 30, 0), elements.get(2));
+    }
+
+    @Test
+    public void testQuadraticCurves() {
+        List<PathElement> elements = SVGPathParser.parseElements("M0 0Q30 30 60 0T120 0");
+        assertEquals(new PathElement(CURVETO, 20, 20, 40, 20, 60, 0), elements.get(1));
+        // The control point (30, 30) is reflected to (90, -30).
+        assertEquals(new PathElement(CURVETO, 80, -20, 100, -20, 120, 0), elements.get(2));
+    }
+
+    @Test
+    public void testArc() {
+        List<PathElement> elements = SVGPathParser.parseElements("M0 0 A50 50 0 0 1 100 0");
+        // A half circle is two quarter curves, through the top of the circle.
+        assertEquals(3, elements.size());
+        assertPointEquals(50, -50, elements.get(1).getPoint());
+        assertEquals(new Point(100, 0), elements.get(2).getPoint());
+        // The control points of a quarter circle are at 0.5523 times the radius.
+        assertPointEquals(0, -27.614, elements.get(1).getControl1());
+        // The other sweep goes through the bottom.
+        elements = SVGPathParser.parseElements("M0 0 A50 50 0 0 0 100 0");
+        assertPointEquals(50, 50, elements.get(1).getPoint());
+        // Radii that are too small are scaled up until the arc fits.
+        elements = SVGPathParser.parseElements("M0 0 A1 1 0 0 1 100 0");
+        assertPointEquals(50, -50, elements.get(1).getPoint());
+        // The large arc of a circle with a radius of 100 around (50, 86.6) turns 300 degrees, in four curves.
+        elements = SVGPathParser.parseElements("M0 0 A100 100 0 1 0 100 0");
+        assertEquals(5, elements.size());
+        // The first curve ends at 165 degrees, 75 degrees back from the start at 240 degrees.
+        assertPointEquals(-46.593, 112.484, elements.get(1).getPoint());
+    }
+
+    @Test
+    public void testDegenerateArcs() {
+        List<PathElement> elements = SVGPathParser.parseElements("M0 0 a0 10 0 0 1 10 10 A5 5 0 0 1 10 10");
+        // A zero radius is a line, an arc to the current point is left out.
+        assertEquals(new PathElement(LINETO, 10, 10), elements.get(1));
+        assertEquals(2, elements.size());
+        // Flags don't need separators.
+        elements = SVGPathParser.parseElements("M0 0a1 1 0 00 1 1");
+        assertEquals(new Point(1, 1), elements.get(elements.size() - 1).getPoint());
+    }
+
+    @Test
+    public void testParseIntoPath() {
+        Path p = new Path();
+        p.rect(0, 0, 10, 10);
+        SVGPathParser.parse("M0 0L10 0L10 10ZM20 20Q30 30 40 20", p);
+        assertEquals(3, p.getContours().size());
+        assertTrue(p.getContours().get(1).isClosed());
+        assertFalse(p.getContours().get(2).isClosed());
+        List<Point> points = p.getContours().get(2).getPoints();
+        assertEquals(4, points.size());
+        assertEquals(Point.CURVE_DATA, points.get(1).type);
+        assertEquals(Point.CURVE_TO, points.get(3).type);
+        assertEquals(0, SVGPathParser.parse("  ").getContours().size());
+    }
+
+    @Test
+    public void testInvalidData() {
+        assertInvalid("L10 10", 0);
+        assertInvalid("M10", 3);
+        assertInvalid("M1 2 Z 3", 7);
+        assertInvalid("M0 0 A1 1 0 2 0 1 1", 12);
+        assertInvalid("M0 0 L1e 2", 7);
+        assertInvalid("M0 0 X", 5);
+    }
+
+    private static void assertInvalid(String data, int index) {
+        try {
+            SVGPathParser.parseElements(data);
+            fail("Should have thrown an IllegalArgumentException for " + data);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("at index " + index + " "));
+        }
+    }
+
+    private static void assertPointEquals(double x, double y, Point pt) {
+        assertEquals(x, pt.getX(), 0.001);
+        assertEquals(y, pt.getY(), 0.001);
+    }
+
+}
@@ -0,0 +1,115 @@
+package nodebox.graphics;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class SVGWriterTest {
+
+    @Test
+    public void testPathData() throws IOException {
+        Geometry g = new Geometry();
+        Path p = new Path();
+        p.moveto(-0.5, 10.25);
+        p.lineto(2.0004, 10.25);
+        p.curveto(3, 11, 4, -12.5, 5, 0);
+        p.close();
+        g.add(p);
+        String svg = write(g, 3);
+        // The first point is absolute, the others relative to the point before.
+        assertContains(svg, "<path d=\"M-.5 10.25l2.5 0c1 .75 2-22.75 3-10.25z\"/>");
+        assertContains(write(g, 0), "<path d=\"M0 10l2 0c1 1 2-22 3-10z\"/>");
+    }
+
+    @Test
+    public void testRounding() throws IOException {
+        // The relative steps are taken between rounded points, so they add up to the rounded end point.
+        Geometry g = new Geometry();
+        Path p = new Path();
+        p.moveto(0, 0);
+        for (int i = 1; i <= 3; i++) {
+            p.lineto(i * 0.4, 0);
+        }
+        g.add(p);
+        assertContains(write(g, 0), "d=\"M0 0l0 0 1 0 0 0\"");
+    }
+
+    @Test
+    public void testSharedShapes() throws IOException {
+        Canvas c = new Canvas(200, 100);
+        c.setBackground(null);
+        for (int i = 0; i < 3; i++) {
+            Path p = new Path();
+            p.rect(i * 30, 0, 20, 10);
+            p.setFillColor(new Color(1, 0, 0, i == 2 ? 0.5 : 1));
+            c.add(p);
+        }
+        Path other = new Path();
+        other.rect(0, 0, 10, 10);
+        c.add(other);
+        StringWriter w = new StringWriter();
+        new SVGWriter(w).write(c);
+        String svg = w.toString();
+        assertContains(svg, "<defs><path id=\"s0\" d=\"M0 0l20 0 0 10-20 0z\"/></defs>");
+        assertContains(svg, "<use xlink:href=\"#s0\" x=\"-10\" y=\"-5\" fill=\"#ff0000\"/>");
+        assertContains(svg, "<use xlink:href=\"#s0\" x=\"20\" y=\"-5\" fill=\"#ff0000\"/>");
+        assertContains(svg, "<use xlink:href=\"#s0\" x=\"50\" y=\"-5\" fill=\"#ff0000\" fill-opacity=\".5\"/>");
+        assertContains(svg, "<path d=\"M-5-5l10 0 0 10-10 0z\"/>");
+        assertEquals(1, count(svg, "<defs>"));
+    }
+
+    @Test
+    public void testStyle() throws IOException {
+        Geometry g = new Geometry();
+        Path p = new Path();
+        p.line(0, 0, 10, 10);
+        p.setFillColor(null);
+        p.setStrokeColor(new Color(0, 0, 1));
+        p.setStrokeStyle(new StrokeStyle(2.5, StrokeStyle.Cap.ROUND, StrokeStyle.Join.BEVEL));
+        g.add(p);
+        assertContains(write(g, 3), "fill=\"none\" stroke=\"#0000ff\" stroke-width=\"2.5\" stroke-linecap=\"round\" " +
+                "stroke-linejoin=\"bevel\"");
+    }
+
+    @Test
+    public void testSave() throws IOException {
+        Canvas c = new Canvas(100, 100);
+        Path p = new Path();
+        p.ellipse(0, 0, 50, 50);
+        c.add(p);
+        c.add(new Image(new java.awt.image.BufferedImage(3, 2, java.awt.image.BufferedImage.TYPE_INT_ARGB)));
+        File file = File.createTempFile("canvas", ".svg");
+        file.deleteOnExit();
+        c.save(file);
+        String svg = com.google.common.io.Files.toString(file, com.google.common.base.Charsets.UTF_8);
+        assertTrue(svg.startsWith("<?xml"));
+        assertTrue(svg.endsWith("</svg>\n"));
+        assertContains(svg, "viewBox=\"-50 -50 100 100\"");
+        assertContains(svg, "<image width=\"3\" height=\"2\" transform=\"matrix(1 0 0 1 -1.5 -1)\" " +
+                "xlink:href=\"data:image/png;base64,iVBORw0KGgo");
+    }
+
+    private static String write(Geometry g, int precision) throws IOException {
+        StringWriter w = new StringWriter();
+        new SVGWriter(w, precision).write(g);
+        return w.toString();
+    }
+
+    private static void assertContains(String s, String part) {
+        assertTrue("Expected " + part + " in " + s, s.contains(part));
+    }
+
+    private static int count(String s, String part) {
+        int count = 0;
+        for (int i = s.indexOf(part); i >= 0; i = s.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+}
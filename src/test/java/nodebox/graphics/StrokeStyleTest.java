@@ -0,0 +1,75 @@
+package nodebox.graphics;
+
+import org.junit.Test;
+
+import java.awt.*;
+
+import static junit.framework.Assert.*;
+
+public class StrokeStyleTest {
+
+    @Test
+    public void testAwtStroke() {
+        BasicStroke stroke = new StrokeStyle(2).getAwtStroke();
+        assertEquals(new BasicStroke(2), stroke);
+        // Equal styles share the same AWT stroke.
+        assertSame(stroke, new StrokeStyle(2).getAwtStroke());
+        assertSame(stroke, StrokeStyle.DEFAULT.withWidth(2).getAwtStroke());
+        StrokeStyle dashed = new StrokeStyle(3, StrokeStyle.Cap.ROUND, StrokeStyle.Join.BEVEL, 4, new double[]{5, 2});
+        BasicStroke dashedStroke = dashed.getAwtStroke();
+        assertEquals(BasicStroke.CAP_ROUND, dashedStroke.getEndCap());
+        assertEquals(BasicStroke.JOIN_BEVEL, dashedStroke.getLineJoin());
+        assertEquals(4f, dashedStroke.getMiterLimit());
+        assertEquals(2f, dashedStroke.getDashArray()[1]);
+        assertFalse(dashed.equals(dashed.withDashes(null)));
+    }
+
+    @Test
+    public void testImmutable() {
+        double[] dashes = {5, 2};
+        StrokeStyle s = StrokeStyle.DEFAULT.withDashes(dashes);
+        dashes[0] = 100;
+        assertEquals(5.0, s.getDashes()[0]);
+        s.getDashes()[0] = 100;
+        assertEquals(5.0, s.getDashes()[0]);
+        assertEquals(1.0, StrokeStyle.DEFAULT.getWidth());
+        assertSame(StrokeStyle.DEFAULT, StrokeStyle.DEFAULT.withWidth(1));
+    }
+
+    @Test
+    public void testInvalidStyles() {
+        try {
+            new StrokeStyle(1, StrokeStyle.Cap.BUTT, StrokeStyle.Join.MITER, 0.5, null);
+            fail("Should have thrown an IllegalArgumentException.");
+        } catch (IllegalArgumentException ignored) {
+        }
+        try {
+            StrokeStyle.DEFAULT.withDashes(new double[]{0, 0});
+            fail("Should have thrown an IllegalArgumentException.");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    public void testExtent() {
+        assertEquals(50.0, new StrokeStyle(10).getExtent());
+        assertEquals(5.0, new StrokeStyle(10, StrokeStyle.Cap.ROUND, StrokeStyle.Join.ROUND).getExtent());
+        assertEquals(5 * Math.sqrt(2), new StrokeStyle(10, StrokeStyle.Cap.SQUARE, StrokeStyle.Join.BEVEL).getExtent());
+        assertEquals(0.0, new StrokeStyle(0).getExtent());
+    }
+
+    @Test
+    public void testPathStroke() {
+        Path p = new Path();
+        p.setStrokeStyle(new StrokeStyle(3, StrokeStyle.Cap.ROUND, StrokeStyle.Join.ROUND));
+        p.setStrokeWidth(4);
+        assertEquals(StrokeStyle.Cap.ROUND, p.getStrokeStyle().getCap());
+        assertEquals(4.0, p.getStrokeWidth());
+        assertEquals(p.getStrokeStyle(), p.clone().getStrokeStyle());
+        Geometry g = new Geometry();
+        g.add(p);
+        g.setStrokeStyle(StrokeStyle.DEFAULT);
+        assertSame(StrokeStyle.DEFAULT, p.getStrokeStyle());
+    }
+
+}
@@ -38,4 +38,12 @@ public class TransformTest {
         assertEquals(new Point(20, 25), newPoints.get(1));
     }
 
+    @Test
+    public void testMapPoints() {
+        Transform t = Transform.scaled(2);
+        List<Point> points = t.map(java.util.Arrays.asList(new Point(1, 2), new Point(3, 4, Point.CURVE_DATA)));
+        assertEquals(new Point(2, 4), points.get(0));
+        assertEquals(new Point(6, 8, Point.CURVE_DATA), points.get(1));
+    }
+
 }
\ No newline at end of file